@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.client.http.json.JsonHttpContent;
+
+/**
+ * Building and encoding the body of a POST jobs request, as Jobs.postJob does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JobRequestEncodeBenchmark {
+
+    private JobRequest request;
+    private ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+
+    @Setup
+    public void setUp() {
+        this.request = new JobRequest("project", "script",
+                "0123456789abcdef0123456789abcdef01234567", 10);
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            parameters.put("param" + i, "s3://bucket/path/" + i);
+        }
+        this.request.setParameters(parameters);
+    }
+
+    @Benchmark
+    public byte[] encodeArguments() throws IOException {
+        this.out.reset();
+        new JsonHttpContent(API.JSON_FACTORY, this.request.getArguments()).writeTo(this.out);
+        return this.out.toByteArray();
+    }
+}
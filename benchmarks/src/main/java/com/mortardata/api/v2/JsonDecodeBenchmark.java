@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of response bodies with the client's JsonFactory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonDecodeBenchmark {
+
+    /**
+     * Jobs in a JobsList; clusters in a ClustersList; rows per illustrate table.
+     */
+    @Param({"10", "1000"})
+    public int size;
+
+    private String jobsList;
+    private String clustersList;
+    private String illustrateResult;
+
+    @Setup
+    public void setUp() {
+        this.jobsList = Payloads.jobsList(this.size);
+        this.clustersList = Payloads.clustersList(this.size, 20);
+        this.illustrateResult = Payloads.illustrateResult(10, this.size);
+    }
+
+    @Benchmark
+    public Jobs.JobsList decodeJobsList() throws IOException {
+        return API.JSON_FACTORY.fromString(this.jobsList, Jobs.JobsList.class);
+    }
+
+    @Benchmark
+    public Clusters.ClustersList decodeClustersList() throws IOException {
+        return API.JSON_FACTORY.fromString(this.clustersList, Clusters.ClustersList.class);
+    }
+
+    @Benchmark
+    public Illustrates.IllustrateResult decodeIllustrateResult() throws IOException {
+        return API.JSON_FACTORY.fromString(this.illustrateResult,
+                Illustrates.IllustrateResult.class);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.Random;
+
+/**
+ * Synthetic API response bodies, shaped like the Mortar API's, for benchmarks.
+ * Seeded, so every run decodes the same bytes.
+ */
+final class Payloads {
+
+    private static final String[] JOB_STATUSES = {
+        "success", "running", "execution_error", "killed", "starting_cluster",
+        "validating_script"
+    };
+    private static final String[] CLUSTER_STATUSES = {
+        "running", "starting", "stopped", "failed"
+    };
+
+    private Payloads() {
+    }
+
+    /**
+     * A GET jobs response.
+     */
+    static String jobsList(int jobCount) {
+        Random random = new Random(jobCount);
+        StringBuilder json = new StringBuilder("{\"jobs\": [");
+        for (int i = 0; i < jobCount; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append(job("job" + i, JOB_STATUSES[random.nextInt(JOB_STATUSES.length)],
+                    random));
+        }
+        return json.append("], \"count\": ").append(jobCount).append("}").toString();
+    }
+
+    /**
+     * A GET jobs/:job_id response.
+     */
+    static String job(String jobId, String status, Random random) {
+        return "{\"job_id\": \"" + jobId + "\", \"status_code\": \"" + status + "\", "
+                + "\"status_description\": \"" + status + "\", "
+                + "\"script_name\": \"script" + random.nextInt(20) + "\", "
+                + "\"pigscript_name\": \"script" + random.nextInt(20) + "\", "
+                + "\"cluster_id\": \"cluster" + random.nextInt(10) + "\", "
+                + "\"progress\": " + random.nextInt(101) + ", "
+                + "\"script_type\": \"pig\", \"project_name\": \"project\", "
+                + "\"script_parameters\": {\"date\": \"2013-05-01\", \"input\": \"s3://b/in\"}, "
+                + "\"git_ref\": \"0123456789abcdef0123456789abcdef01234567\", "
+                + "\"start_timestamp\": \"2013-05-01T10:00:00.000000+00:00\", "
+                + "\"stop_timestamp\": \"2013-05-01T10:42:00.000000+00:00\", "
+                + "\"note\": \"nightly run\"}";
+    }
+
+    /**
+     * A GET clusters response, each cluster with trackerCount task trackers.
+     */
+    static String clustersList(int clusterCount, int trackerCount) {
+        Random random = new Random(clusterCount);
+        StringBuilder json = new StringBuilder("{\"clusters\": [");
+        for (int i = 0; i < clusterCount; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"cluster_id\": \"cluster").append(i).append("\", ")
+                    .append("\"status_code\": \"")
+                    .append(CLUSTER_STATUSES[random.nextInt(CLUSTER_STATUSES.length)])
+                    .append("\", \"status_description\": \"Running\", ")
+                    .append("\"start_timestamp\": \"2013-05-01T10:00:00.000000+00:00\", ")
+                    .append("\"running_timestamp\": \"2013-05-01T10:05:00.000000+00:00\", ")
+                    .append("\"job_tracker_url\": \"http://jt\", ")
+                    .append("\"name_node_url\": \"http://nn\", \"duration\": \"42 mins\", ")
+                    .append("\"cluster_type_code\": \"persistent\", ")
+                    .append("\"cluster_type_description\": \"Persistent\", ")
+                    .append("\"size\": ").append(trackerCount).append(", \"task_trackers\": [");
+            for (int t = 0; t < trackerCount; t++) {
+                if (t > 0) {
+                    json.append(", ");
+                }
+                json.append("{\"host\": \"tt").append(t).append("\", \"map_slots\": \"4\", ")
+                        .append("\"reduce_slots\": \"2\", \"running_maps\": \"")
+                        .append(random.nextInt(5)).append("\", \"running_reduces\": \"")
+                        .append(random.nextInt(3)).append("\"}");
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * A GET illustrates/:illustrate_id response with a result of tableCount
+     * tables of rowCount rows each.
+     */
+    static String illustrateResult(int tableCount, int rowCount) {
+        Random random = new Random(tableCount * 31 + rowCount);
+        StringBuilder json = new StringBuilder("{\"illustrate_id\": \"i1\", ")
+                .append("\"project_name\": \"project\", \"script_name\": \"script\", ")
+                .append("\"alias\": \"joined\", \"status_code\": \"SUCCESS\", ")
+                .append("\"git_ref\": \"0123456789abcdef0123456789abcdef01234567\", ")
+                .append("\"web_result_url\": \"https://app.mortardata.com/illustrates/i1\", ")
+                .append("\"result\": {\"tables\": [");
+        for (int i = 0; i < tableCount; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"alias\": \"alias").append(i).append("\", ")
+                    .append("\"fields\": [\"user_id\", \"country\", \"score\"], ")
+                    .append("\"data\": [");
+            for (int r = 0; r < rowCount; r++) {
+                if (r > 0) {
+                    json.append(", ");
+                }
+                json.append("[\"").append(random.nextInt(1000000)).append("\", \"")
+                        .append(random.nextBoolean() ? "US" : "DE").append("\", \"")
+                        .append(random.nextDouble()).append("\"]");
+            }
+            json.append("]}");
+        }
+        return json.append("]}}").toString();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * End-to-end calls through API against an in-process stub server that answers
+ * immediately, so the client's own overhead dominates.  Run with -t to vary the
+ * number of calling threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RequestThroughputBenchmark {
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Jobs jobs;
+    private JobRequest jobRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] job = Payloads.job("j1", "running", new Random(0)).getBytes("UTF-8");
+        final byte[] posted = "{\"job_id\": \"j1\"}".getBytes("UTF-8");
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        this.server.createContext("/v2/jobs", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {
+                    // drain the request so the connection can be reused
+                }
+                byte[] body = "POST".equals(exchange.getRequestMethod()) ? posted : job;
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.serverExecutor = Executors.newFixedThreadPool(8);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+
+        API api = new API("email", "key", "http",
+                "localhost:" + this.server.getAddress().getPort());
+        this.jobs = new Jobs(api);
+        this.jobRequest = new JobRequest("project", "script", "master", 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Jobs.Job getJob() throws IOException {
+        return this.jobs.getJob("j1");
+    }
+
+    @Benchmark
+    public String postJob() throws IOException {
+        return this.jobs.postJob(this.jobRequest);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup of status enums from their API strings, done on every poll.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatusLookupBenchmark {
+
+    private static final String[] JOB_STATUSES = {
+        "starting", "running", "success", "execution_error", "unknown_future_status"
+    };
+    private static final String[] TASK_STATUSES = {
+        "QUEUED", "PROGRESS", "SUCCESS", "FAILURE", "UNKNOWN_FUTURE_STATUS"
+    };
+
+    private int next;
+
+    @Benchmark
+    public Jobs.JobStatus jobStatus() {
+        return Jobs.JobStatus.getEnum(JOB_STATUSES[this.next++ % JOB_STATUSES.length]);
+    }
+
+    @Benchmark
+    public TaskStatus taskStatus() {
+        return TaskStatus.getEnum(TASK_STATUSES[this.next++ % TASK_STATUSES.length]);
+    }
+}
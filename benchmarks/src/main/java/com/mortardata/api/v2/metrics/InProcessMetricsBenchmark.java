@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording one call in {@link InProcessMetrics}, done after every API request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InProcessMetricsBenchmark {
+
+    private static final String[] RESOURCES = {"jobs", "clusters", "describes", "illustrates"};
+    private static final String[] METHODS = {"GET", "GET", "GET", "POST"};
+
+    private final InProcessMetrics metrics = new InProcessMetrics();
+    private long[] latencies;
+
+    @Setup
+    public void setUp() {
+        // seeded latencies from 1ms to about 4s, so every histogram bucket is exercised
+        Random random = new Random(42);
+        this.latencies = new long[1024];
+        for (int i = 0; i < this.latencies.length; i++) {
+            this.latencies[i] = (long) (1e6 * Math.pow(2, random.nextDouble() * 12));
+        }
+    }
+
+    /**
+     * Per-thread position in the latency and endpoint rotation.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public void recordRequest(Cursor cursor) {
+        record(cursor.next++);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordRequestContended(Cursor cursor) {
+        record(cursor.next++);
+    }
+
+    private void record(int i) {
+        int endpoint = i & (RESOURCES.length - 1);
+        this.metrics.recordRequest(RESOURCES[endpoint], METHODS[endpoint], 200,
+                this.latencies[i & (this.latencies.length - 1)], 4096, 0);
+    }
+}
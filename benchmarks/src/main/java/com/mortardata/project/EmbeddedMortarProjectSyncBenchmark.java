@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.InitCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mortardata.util.Files;
+
+/**
+ * Syncing a synthetic embedded project into a local mirror repository: the copy,
+ * git add and commit of a deploy, without the clone and push.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmbeddedMortarProjectSyncBenchmark {
+
+    private static final String[] DIRECTORIES = {
+        "pigscripts", "controlscripts", "macros", "udfs", "fixtures"
+    };
+
+    /**
+     * Files in each project directory.
+     */
+    @Param({"10", "200"})
+    public int filesPerDirectory;
+
+    /**
+     * Bytes in each file.
+     */
+    @Param({"4096"})
+    public int fileSize;
+
+    private File projectPath;
+    private File mirrorPath;
+    private EmbeddedMortarProject project;
+    private Git mirror;
+
+    @Setup(Level.Trial)
+    public void setUpProject() throws IOException {
+        this.projectPath = Files.createTempDirectory();
+        StringBuilder manifest = new StringBuilder();
+        StringBuilder content = new StringBuilder();
+        while (content.length() < this.fileSize) {
+            content.append("-- synthetic line of pig for benchmarking\n");
+        }
+        content.setLength(this.fileSize);
+        for (String directory : DIRECTORIES) {
+            manifest.append(directory).append('\n');
+            for (int i = 0; i < this.filesPerDirectory; i++) {
+                // vary content so git stores distinct blobs
+                FileUtils.writeStringToFile(new File(this.projectPath, directory + "/file" + i),
+                        i + content.toString(), "UTF-8");
+            }
+        }
+        FileUtils.writeStringToFile(new File(this.projectPath,
+                EmbeddedMortarProject.MORTAR_PROJECT_MANIFEST_FILENAME),
+                manifest.toString(), "UTF-8");
+        this.project = new EmbeddedMortarProject(this.projectPath, "https://example.com/x.git");
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpMirror() throws IOException, GitAPIException {
+        this.mirrorPath = Files.createTempDirectory();
+        this.mirror = new InitCommand().setDirectory(this.mirrorPath).call();
+        FileUtils.touch(new File(this.mirrorPath, ".gitkeep"));
+        this.mirror.add().addFilepattern(".").call();
+        this.mirror.commit().setMessage("initial commit")
+                .setCommitter("bench", "bench").call();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownMirror() {
+        this.mirror.getRepository().close();
+        FileUtils.deleteQuietly(this.mirrorPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownProject() {
+        FileUtils.deleteQuietly(this.projectPath);
+    }
+
+    @Benchmark
+    public String syncIntoEmptyMirror() throws IOException, GitAPIException {
+        return this.project.syncEmbeddedProjectWithMirror(this.mirror, null, "master", "bench");
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics.micrometer;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import com.mortardata.api.v2.metrics.ApiMetrics;
+import com.mortardata.api.v2.metrics.EndpointSnapshot;
+import com.mortardata.api.v2.metrics.InProcessMetrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes {@link InProcessMetrics} to a Micrometer {@link MeterRegistry}.
+ *
+ * Install it with {@code api.setMetrics(...)} in place of the InProcessMetrics it
+ * wraps.  Meters are tagged with resource and method and registered the first time
+ * an endpoint is called; they read the endpoint's {@link EndpointSnapshot}, taken at
+ * most once per snapshot interval for all meters, so recording stays as cheap as
+ * with InProcessMetrics alone.
+ */
+public class MicrometerMetrics implements ApiMetrics, MeterBinder {
+
+    /**
+     * Default maximum age of the snapshot meters read, in milliseconds.
+     */
+    public static final long DEFAULT_SNAPSHOT_INTERVAL = 1000;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+
+    private final InProcessMetrics metrics;
+    private final String prefix;
+    // resource to method to endpoint, so that recording allocates nothing
+    private final ConcurrentMap<String, ConcurrentMap<String, Endpoint>> bound =
+            new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+    private volatile long snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+
+    private volatile List<EndpointSnapshot> snapshots;
+    private volatile long snapshotTime;
+
+    /**
+     * Construct a MicrometerMetrics naming meters mortar.api.*.
+     *
+     * @param metrics metrics to record to and publish
+     */
+    public MicrometerMetrics(InProcessMetrics metrics) {
+        this(metrics, "mortar.api");
+    }
+
+    /**
+     * Construct a MicrometerMetrics.
+     *
+     * @param metrics metrics to record to and publish
+     * @param prefix prefix of meter names
+     */
+    public MicrometerMetrics(InProcessMetrics metrics, String prefix) {
+        this.metrics = metrics;
+        this.prefix = prefix;
+    }
+
+    public void recordRequest(String resource, String method, int statusCode,
+                              long latencyNanos, long responseBytes, int retries) {
+        this.metrics.recordRequest(resource, method, statusCode, latencyNanos, responseBytes,
+                retries);
+        if (this.registry != null) {
+            ConcurrentMap<String, Endpoint> byMethod = this.bound.get(resource);
+            if (byMethod == null || !byMethod.containsKey(method)) {
+                bind(resource, method);
+            }
+        }
+    }
+
+    /**
+     * Register meters for every endpoint called so far, and for each new one as it is
+     * first called.
+     */
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        for (EndpointSnapshot s : this.metrics.snapshot()) {
+            bind(s.getResource(), s.getMethod());
+        }
+    }
+
+    /**
+     * Set the maximum age of the snapshot meters read.  Default is one second.
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * The wrapped InProcessMetrics.
+     */
+    public InProcessMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void bind(String resource, String method) {
+        ConcurrentMap<String, Endpoint> byMethod =
+                this.bound.computeIfAbsent(resource, r -> new ConcurrentHashMap<>());
+        if (byMethod.containsKey(method)) {
+            return;
+        }
+        // InProcessMetrics records methods it doesn't know as OTHER
+        String recordedAs = "OTHER";
+        for (String known : METHODS) {
+            if (known.equals(method)) {
+                recordedAs = known;
+            }
+        }
+        Endpoint endpoint = new Endpoint(resource, recordedAs);
+        Endpoint existing = byMethod.putIfAbsent(method, endpoint);
+        if (existing != null || (!recordedAs.equals(method)
+                && byMethod.putIfAbsent(recordedAs, endpoint) != null)) {
+            // already registered, under this method or as another OTHER method
+            return;
+        }
+        MeterRegistry registry = this.registry;
+        Tags tags = Tags.of("resource", resource, "method", recordedAs);
+        FunctionCounter.builder(this.prefix + ".errors", endpoint,
+                e -> e.read(EndpointSnapshot::getErrorCount))
+                .tags(tags).description("Calls to the Mortar API that failed.")
+                .register(registry);
+        FunctionCounter.builder(this.prefix + ".retries", endpoint,
+                e -> e.read(EndpointSnapshot::getRetryCount))
+                .tags(tags).description("Retries after unsuccessful responses.")
+                .register(registry);
+        FunctionCounter.builder(this.prefix + ".response.bytes", endpoint,
+                e -> e.read(EndpointSnapshot::getResponseBytes))
+                .tags(tags).baseUnit("bytes").description("Content-Length of responses.")
+                .register(registry);
+        FunctionTimer.builder(this.prefix + ".requests", endpoint,
+                e -> (long) e.read(EndpointSnapshot::getRequestCount),
+                e -> e.read(EndpointSnapshot::getLatencySum),
+                TimeUnit.NANOSECONDS)
+                .tags(tags).description("Calls to the Mortar API.")
+                .register(registry);
+        TimeGauge.builder(this.prefix + ".requests.max", endpoint, TimeUnit.NANOSECONDS,
+                e -> e.read(EndpointSnapshot::getLatencyMax))
+                .tags(tags).description("Longest call.")
+                .register(registry);
+        for (double q : QUANTILES) {
+            TimeGauge.builder(this.prefix + ".requests.quantile", endpoint,
+                    TimeUnit.NANOSECONDS, e -> e.read(s -> s.getLatencyQuantile(q)))
+                    .tags(tags.and("quantile", Double.toString(q)))
+                    .description("Latency quantiles of calls.")
+                    .register(registry);
+        }
+    }
+
+    private List<EndpointSnapshot> snapshots() {
+        long now = System.currentTimeMillis();
+        List<EndpointSnapshot> snapshots = this.snapshots;
+        if (snapshots == null || now - this.snapshotTime >= this.snapshotInterval) {
+            // benign race: concurrent readers may each take a snapshot
+            snapshots = this.metrics.snapshot();
+            this.snapshots = snapshots;
+            this.snapshotTime = now;
+        }
+        return snapshots;
+    }
+
+    private static EndpointSnapshot find(List<EndpointSnapshot> snapshots, String resource,
+                                         String method) {
+        for (EndpointSnapshot s : snapshots) {
+            if (s.getResource().equals(resource) && s.getMethod().equals(method)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "MicrometerMetrics [prefix=" + prefix + ", resources=" + bound.keySet() + "]";
+    }
+
+    /**
+     * One resource and method, as read by its meters.
+     */
+    private class Endpoint {
+
+        private final String resource;
+        private final String method;
+
+        Endpoint(String resource, String method) {
+            this.resource = resource;
+            this.method = method;
+        }
+
+        double read(ToDoubleFunction<EndpointSnapshot> value) {
+            EndpointSnapshot s = find(snapshots(), this.resource, this.method);
+            // reset() forgets endpoints; they read as never called
+            return s == null ? 0 : value.applyAsDouble(s);
+        }
+    }
+}
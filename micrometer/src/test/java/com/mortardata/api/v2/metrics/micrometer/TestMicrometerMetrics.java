@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics.micrometer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mortardata.api.v2.metrics.InProcessMetrics;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class TestMicrometerMetrics {
+
+    @Test
+    public void testBindsEndpointsCalledBeforeAndAfter() {
+        InProcessMetrics inProcess = new InProcessMetrics();
+        inProcess.recordRequest("jobs", "GET", 200, 2000000L, 100, 0);
+        MicrometerMetrics metrics = new MicrometerMetrics(inProcess);
+        metrics.setSnapshotInterval(0);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+
+        metrics.recordRequest("jobs", "GET", 503, 4000000L, -1, 2);
+        metrics.recordRequest("clusters", "POST", 200, 1000000L, 10, 0);
+
+        FunctionTimer jobs = registry.get("mortar.api.requests")
+                .tags("resource", "jobs", "method", "GET").functionTimer();
+        Assert.assertEquals(2, jobs.count(), 0);
+        Assert.assertEquals(6, jobs.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        Assert.assertEquals(1, registry.get("mortar.api.errors")
+                .tags("resource", "jobs").functionCounter().count(), 0);
+        Assert.assertEquals(2, registry.get("mortar.api.retries")
+                .tags("resource", "jobs").functionCounter().count(), 0);
+        Assert.assertEquals(1, registry.get("mortar.api.requests")
+                .tags("resource", "clusters", "method", "POST").functionTimer().count(), 0);
+        Assert.assertEquals(4, registry.get("mortar.api.requests.quantile")
+                .tags("resource", "clusters").meters().size());
+    }
+
+    @Test
+    public void testUnknownMethodsShareOtherMeters() {
+        MicrometerMetrics metrics = new MicrometerMetrics(new InProcessMetrics(), "api");
+        metrics.setSnapshotInterval(0);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+
+        metrics.recordRequest("jobs", "PATCH", 200, 1000000L, 10, 0);
+        metrics.recordRequest("jobs", "HEAD", 200, 1000000L, 10, 0);
+
+        Assert.assertEquals(1, registry.get("api.requests").tags("method", "OTHER")
+                .meters().size());
+        Assert.assertEquals(2, registry.get("api.requests").tags("method", "OTHER")
+                .functionTimer().count(), 0);
+    }
+
+    @Test
+    public void testResetReadsAsNeverCalled() {
+        InProcessMetrics inProcess = new InProcessMetrics();
+        MicrometerMetrics metrics = new MicrometerMetrics(inProcess);
+        metrics.setSnapshotInterval(0);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+        metrics.recordRequest("jobs", "GET", 200, 1000000L, 10, 0);
+
+        inProcess.reset();
+
+        Assert.assertEquals(0, registry.get("mortar.api.requests").functionTimer().count(), 0);
+        Assert.assertEquals(0, registry.get("mortar.api.requests.max")
+                .timeGauge().value(TimeUnit.NANOSECONDS), 0);
+    }
+}
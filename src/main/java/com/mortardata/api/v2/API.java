@@ -16,14 +16,24 @@
 package com.mortardata.api.v2;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.api.client.http.BasicAuthentication;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
 import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
@@ -31,6 +41,8 @@ import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.ExponentialBackOff;
+import com.mortardata.api.v2.metrics.ApiMetrics;
+import com.mortardata.util.Instrumentation;
 
 /**
  * Provides the client for accessing the Mortar v2 API.
@@ -40,13 +52,16 @@ import com.google.api.client.util.ExponentialBackOff;
  */
 public class API {
 
+    final Logger logger = LoggerFactory.getLogger(API.class);
+
     private static final String DEFAULT_SCHEME = "https";
     private static final String DEFAULT_HOST = "api.mortardata.com";
     
     private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
-    private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+    static final JsonFactory JSON_FACTORY = new JacksonFactory();
 
     private static final int DEFAULT_READ_TIMEOUT = 20000;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 20000;
     
     private String email;
     private String apiKey;
@@ -54,6 +69,13 @@ public class API {
     private String scheme;
     private String host;
     private int readTimeout;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile HedgingPolicy hedgingPolicy;
+    private volatile ApiMetrics metrics = ApiMetrics.NOOP;
+    private volatile Instrumentation instrumentation = Instrumentation.NOOP;
+    private List<RequestInterceptor> interceptors =
+            new CopyOnWriteArrayList<RequestInterceptor>();
+    private RequestContext context;
     
     /**
      * Constructs a new API client to invoke methods on the Mortar V2 API.
@@ -70,7 +92,7 @@ public class API {
      *
      * @param email Email associated with your Mortar user
      * @param apiKey API key for your Mortar user
-     * @param readTimeout read timeout on GET requests
+     * @param readTimeout read timeout on requests
      */
     public API(String email, String apiKey, int readTimeout) {
         this(email, apiKey, API.DEFAULT_SCHEME, API.DEFAULT_HOST, readTimeout);
@@ -95,7 +117,7 @@ public class API {
      * @param apiKey Email associated with your Mortar user
      * @param scheme http or https
      * @param host API host (e.g. api.mortardata.com)
-     * @param readTimeout read timeout on GET requests
+     * @param readTimeout read timeout on requests
      */
     public API(String email, String apiKey, String scheme, String host, int readTimeout) {
         this.email = email;
@@ -106,6 +128,49 @@ public class API {
         this.requestFactory = createHttpRequestFactory();
     }
 
+    private API(API api, RequestContext context) {
+        this.email = api.email;
+        this.apiKey = api.apiKey;
+        this.scheme = api.scheme;
+        this.host = api.host;
+        this.readTimeout = api.readTimeout;
+        this.connectTimeout = api.connectTimeout;
+        this.hedgingPolicy = api.hedgingPolicy;
+        this.metrics = api.metrics;
+        this.instrumentation = api.instrumentation;
+        // shared, so interceptors added later apply to views too
+        this.interceptors = api.interceptors;
+        this.requestFactory = api.requestFactory;
+        this.context = context;
+    }
+
+    /**
+     * A client whose calls are bound by a context's deadline and cancellation, with
+     * this client's settings as of now.  Resources built on it, such as
+     * new Jobs(api.withContext(context)), fail with RequestCancelledException once
+     * the context is cancelled or expired.
+     *
+     * @param context deadline and cancellation for calls
+     * @return client bound to the context
+     */
+    public API withContext(RequestContext context) {
+        return new API(this, context);
+    }
+
+    /**
+     * Context bounding this client's calls, or null if they are unbounded.
+     */
+    public RequestContext getContext() {
+        return this.context;
+    }
+
+    /**
+     * Set the connect timeout on requests, in milliseconds.  Default is 20 seconds.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
     private HttpRequestFactory createHttpRequestFactory() {
         final BasicAuthentication basicAuth = new BasicAuthentication(this.email, this.apiKey);
         return HTTP_TRANSPORT.createRequestFactory(new HttpRequestInitializer() {
@@ -118,24 +183,340 @@ public class API {
             }
           });
     }
+
+    /**
+     * Hedge slow GET requests according to a policy.
+     *
+     * @param hedgingPolicy policy, or null to stop hedging
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Policy by which GET requests are hedged, or null if they are not.
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return this.hedgingPolicy;
+    }
+
+    /**
+     * Record every call in metrics.
+     *
+     * @param metrics metrics, or ApiMetrics.NOOP to record nothing
+     */
+    public void setMetrics(ApiMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Metrics in which calls are recorded.
+     */
+    public ApiMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Emit an {@link Instrumentation#API_REQUEST} event for every call, and let
+     * resources emit their own events, such as polls.
+     *
+     * @param instrumentation instrumentation, or Instrumentation.NOOP for none
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Instrumentation receiving this client's events.
+     */
+    public Instrumentation getInstrumentation() {
+        return this.instrumentation;
+    }
+
+    /**
+     * Add an interceptor to the end of the chain run around every call.  Interceptors
+     * are shared with clients made by {@link #withContext}.
+     *
+     * @param interceptor interceptor, such as a TraceparentPropagator
+     */
+    public void addInterceptor(RequestInterceptor interceptor) {
+        this.interceptors.add(interceptor);
+    }
+
+    /**
+     * Remove an interceptor from the chain.
+     *
+     * @param interceptor interceptor to remove
+     */
+    public void removeInterceptor(RequestInterceptor interceptor) {
+        this.interceptors.remove(interceptor);
+    }
+
+    /**
+     * Execute a request built by this API.  All requests go through here.
+     */
+    HttpResponse execute(HttpRequest request) throws IOException {
+        return (HttpResponse) call(request, null);
+    }
+
+    /**
+     * Execute a request built by this API and parse its response.
+     */
+    <T> T execute(HttpRequest request, Class<T> type) throws IOException {
+        return type.cast(call(request, type));
+    }
+
+    private Object call(HttpRequest request, Class<?> type) throws IOException {
+        ApiMetrics metrics = this.metrics;
+        Instrumentation instrumentation = this.instrumentation;
+        if (metrics == ApiMetrics.NOOP && !instrumentation.isEnabled()
+                && this.interceptors.isEmpty()) {
+            HttpResponse response = executeInContext(request, null);
+            return type == null ? response : response.parseAs(type);
+        }
+        Instrumentation.Event event = instrumentation.isEnabled()
+                ? instrumentation.begin(Instrumentation.API_REQUEST) : null;
+        RetryCounter retries = new RetryCounter();
+        List<RequestInterceptor.Completion> completions = null;
+        Throwable failure = null;
+        int statusCode = 0;
+        long responseBytes = -1;
+        long start = System.nanoTime();
+        long parseStart = 0;
+        try {
+            // after the event is begun, so its span is current while intercepting
+            completions = intercept(request);
+            HttpResponse response = executeInContext(request, retries);
+            statusCode = response.getStatusCode();
+            Long contentLength = response.getHeaders().getContentLength();
+            responseBytes = contentLength == null ? -1 : contentLength;
+            if (type == null) {
+                return response;
+            }
+            parseStart = System.nanoTime();
+            return response.parseAs(type);
+        } catch (HttpResponseException e) {
+            statusCode = e.getStatusCode();
+            failure = e;
+            throw e;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            long end = System.nanoTime();
+            complete(completions, statusCode, failure);
+            String resource = resourceOf(request);
+            metrics.recordRequest(resource, request.getRequestMethod(), statusCode,
+                    (parseStart == 0 ? end : parseStart) - start, responseBytes, retries.count);
+            if (event != null) {
+                event.set("resource", resource)
+                        .set("method", request.getRequestMethod())
+                        .set("status", statusCode)
+                        .set("bytes", responseBytes)
+                        .set("retries", retries.count)
+                        .set("parseNanos", parseStart == 0 ? 0 : end - parseStart)
+                        .end();
+            }
+        }
+    }
+
+    private List<RequestInterceptor.Completion> intercept(HttpRequest request)
+            throws IOException {
+        List<RequestInterceptor.Completion> completions = null;
+        for (RequestInterceptor interceptor : this.interceptors) {
+            RequestInterceptor.Completion completion = interceptor.intercept(request);
+            if (completion != null) {
+                if (completions == null) {
+                    completions = new ArrayList<RequestInterceptor.Completion>();
+                }
+                completions.add(completion);
+            }
+        }
+        return completions;
+    }
+
+    private void complete(List<RequestInterceptor.Completion> completions, int statusCode,
+                          Throwable failure) {
+        if (completions == null) {
+            return;
+        }
+        // innermost first, like unwinding a stack
+        for (int i = completions.size() - 1; i >= 0; i--) {
+            try {
+                completions.get(i).completed(statusCode, failure);
+            } catch (RuntimeException e) {
+                logger.warn("Request interceptor failed on completion", e);
+            }
+        }
+    }
+
+    /**
+     * First path segment after /v2/, such as "jobs".
+     */
+    static String resourceOf(HttpRequest request) {
+        List<String> parts = request.getUrl().getPathParts();
+        return parts != null && parts.size() > 2 ? parts.get(2) : "";
+    }
+
+    private HttpResponse executeInContext(HttpRequest request, RetryCounter retries)
+            throws IOException {
+        RequestContext context = this.context;
+        // requests built without retries stay that way
+        boolean retrying = request.getUnsuccessfulResponseHandler() != null;
+        if (context == null) {
+            return executeHedged(request, retrying, retries);
+        }
+        context.check();
+        if (context.hasDeadline()) {
+            int remaining = remainingMillis(context);
+            request.setConnectTimeout(Math.min(request.getConnectTimeout(), remaining));
+            // 0 is no timeout
+            request.setReadTimeout(request.getReadTimeout() == 0 ? remaining
+                    : Math.min(request.getReadTimeout(), remaining));
+        }
+        HttpResponse response;
+        try {
+            response = executeHedged(request, retrying, retries);
+        } catch (IOException e) {
+            // a timeout, or the error response left when a cancel stopped the backoff
+            context.check();
+            throw e;
+        }
+        if (context.isCancelled()) {
+            response.disconnect();
+            context.check();
+        }
+        return response;
+    }
+
+    private HttpResponse executeHedged(final HttpRequest request, final boolean retrying,
+                                       final RetryCounter retries) throws IOException {
+        setRetryHandler(request, retrying, retries);
+        HedgingPolicy policy = this.hedgingPolicy;
+        if (policy == null || !"GET".equals(request.getRequestMethod())) {
+            return request.execute();
+        }
+        // taken before execute, which rewrites the User-Agent header while it runs
+        final HttpHeaders headers = request.getHeaders().clone();
+        return policy.execute(new HedgingPolicy.Attempt<HttpResponse>() {
+            private boolean first = true;
+
+            public HttpResponse run() throws IOException {
+                HttpRequest attempt;
+                synchronized (this) {
+                    // each attempt needs its own request
+                    attempt = this.first ? request : copyGetRequest(request, headers);
+                    this.first = false;
+                }
+                if (attempt != request) {
+                    setRetryHandler(attempt, retrying, retries);
+                }
+                return attempt.execute();
+            }
+
+            public void discard(HttpResponse response) {
+                try {
+                    response.disconnect();
+                } catch (IOException e) {
+                    // the response was never wanted
+                }
+            }
+        });
+    }
+
+    /**
+     * Give an attempt its own backoff, bounded by and cancelled with the context, since
+     * backoff state can't be shared between concurrent attempts.
+     */
+    private void setRetryHandler(HttpRequest attempt, boolean retrying, RetryCounter retries) {
+        HttpUnsuccessfulResponseHandler handler = null;
+        if (retrying) {
+            RequestContext context = this.context;
+            ExponentialBackOff.Builder backOff = new ExponentialBackOff.Builder();
+            if (context != null && context.hasDeadline()) {
+                backOff.setMaxElapsedTimeMillis(remainingMillis(context));
+            }
+            HttpBackOffUnsuccessfulResponseHandler backOffHandler =
+                    new HttpBackOffUnsuccessfulResponseHandler(backOff.build());
+            if (context != null) {
+                backOffHandler.setSleeper(context.asSleeper());
+            }
+            handler = backOffHandler;
+        }
+        attempt.setUnsuccessfulResponseHandler(
+                retries == null ? handler : retries.counting(handler));
+    }
+
+    private static int remainingMillis(RequestContext context) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, context.getRemaining()));
+    }
+
+    private HttpRequest copyGetRequest(HttpRequest request, HttpHeaders headers)
+            throws IOException {
+        HttpRequest copy = requestFactory.buildGetRequest(request.getUrl());
+        copy.setReadTimeout(request.getReadTimeout());
+        copy.setConnectTimeout(request.getConnectTimeout());
+        copy.setNumberOfRetries(request.getNumberOfRetries());
+        copy.setThrowExceptionOnExecuteError(request.getThrowExceptionOnExecuteError());
+        // including any added by interceptors; each attempt mutates its own headers
+        copy.setHeaders(headers.clone());
+        return copy;
+    }
+
+    /**
+     * Counts retries made by the handlers of every attempt at a request.
+     */
+    private static class RetryCounter {
+
+        private volatile int count = 0;
+
+        private synchronized void increment() {
+            this.count++;
+        }
+
+        HttpUnsuccessfulResponseHandler counting(final HttpUnsuccessfulResponseHandler delegate) {
+            return new HttpUnsuccessfulResponseHandler() {
+                public boolean handleResponse(HttpRequest request, HttpResponse response,
+                                              boolean supportsRetry) throws IOException {
+                    boolean retry = delegate != null
+                            && delegate.handleResponse(request, response, supportsRetry);
+                    if (retry) {
+                        increment();
+                    }
+                    return retry;
+                }
+            };
+        }
+    }
+
     HttpRequest buildHttpGetRequest(String path) throws IOException {
-        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(getURLString(path)));
-        request.setReadTimeout(readTimeout);
-        return request;
+        return setTimeouts(requestFactory.buildGetRequest(new GenericUrl(getURLString(path))));
     }
 
     HttpRequest buildHttpPostRequest(String path, Object data) throws IOException {
         HttpContent postContent = new JsonHttpContent(JSON_FACTORY, data); 
-        return requestFactory.buildPostRequest(new GenericUrl(getURLString(path)), postContent);
+        return setTimeouts(requestFactory.buildPostRequest(
+                new GenericUrl(getURLString(path)), postContent));
     }
 
     HttpRequest buildHttpPutRequest(String path, Object data) throws IOException {
         HttpContent postContent = new JsonHttpContent(JSON_FACTORY, data); 
-        return requestFactory.buildPutRequest(new GenericUrl(getURLString(path)), postContent);
+        return setTimeouts(requestFactory.buildPutRequest(
+                new GenericUrl(getURLString(path)), postContent));
     }
 
     HttpRequest buildHttpDeleteRequest(String path) throws IOException {
-        return requestFactory.buildDeleteRequest(new GenericUrl(getURLString(path)));
+        return setTimeouts(
+                requestFactory.buildDeleteRequest(new GenericUrl(getURLString(path))));
+    }
+
+    private HttpRequest setTimeouts(HttpRequest request) {
+        request.setReadTimeout(readTimeout);
+        request.setConnectTimeout(connectTimeout);
+        return request;
     }
     
     private String getURLString(String path) {
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides when to start, stop or resize clusters from a history of
+ * {@link LoadSnapshot}s.
+ *
+ * The policy has no side effects, so the same policy can drive a live
+ * {@link ClusterAutoscaler} or replay a recorded history in an
+ * {@link AutoscaleSimulator}.  It makes three kinds of decision:
+ * <ul>
+ * <li>STOP a persistent cluster that ran no jobs for the whole window.</li>
+ * <li>RESIZE a cluster whose jobs, at their observed progress rate, will take longer
+ * than the target job duration, scaling its size by the overrun.</li>
+ * <li>START a cluster when jobs have been queued on average over the window and no
+ * running cluster has room for another job.</li>
+ * </ul>
+ * RESIZE and START decisions name the workloads they size clusters for: the
+ * overrunning jobs and the queued jobs respectively.
+ */
+public class AutoscalePolicy {
+
+    /**
+     * Job statuses that count as queued, waiting for a cluster to run on.
+     */
+    public static final Set<Jobs.JobStatus> JOB_STATUS_QUEUED = Collections.unmodifiableSet(
+            new HashSet<Jobs.JobStatus>(Arrays.asList(Jobs.JobStatus.STARTING,
+                    Jobs.JobStatus.GATEWAY_STARTING, Jobs.JobStatus.VALIDATING_SCRIPT,
+                    Jobs.JobStatus.STARTING_CLUSTER)));
+
+    private long window = 15L * 60L * 1000L;
+    private long targetJobDuration = 60L * 60L * 1000L;
+    private double queueThreshold = 1.0;
+    private int maxJobsPerCluster = ClusterPool.DEFAULT_MAX_JOBS_PER_CLUSTER;
+    private int minClusterSize = 2;
+    private int maxClusterSize = 50;
+
+    /**
+     * Recommend scaling decisions for the most recent snapshot in a history.
+     *
+     * @param history snapshots in increasing timestamp order
+     * @return recommended decisions, empty if none
+     */
+    public List<ScalingDecision> recommend(List<LoadSnapshot> history) {
+        List<ScalingDecision> decisions = new ArrayList<ScalingDecision>();
+        if (history.isEmpty()) {
+            return decisions;
+        }
+        LoadSnapshot latest = history.get(history.size() - 1);
+        List<LoadSnapshot> inWindow = new ArrayList<LoadSnapshot>();
+        for (LoadSnapshot snapshot : history) {
+            if (latest.getTimestamp() - snapshot.getTimestamp() <= this.window) {
+                inWindow.add(snapshot);
+            }
+        }
+        LoadSnapshot oldest = inWindow.get(0);
+        boolean fullWindow = history.get(0).getTimestamp() <= latest.getTimestamp() - this.window;
+
+        int freeSlots = 0;
+        int largestResize = 0;
+        for (Clusters.Cluster cluster : latest.getClusters()) {
+            if (!ClusterPool.isPoolable(cluster)) {
+                continue;
+            }
+            List<Jobs.Job> running = latest.getUnfinishedJobs(cluster.getClusterId());
+            freeSlots += Math.max(0, this.maxJobsPerCluster - running.size());
+
+            if (fullWindow && running.isEmpty()
+                    && cluster.getClusterTypeCode() == Clusters.ClusterType.PERSISTENT
+                    && idleThroughout(cluster.getClusterId(), inWindow)) {
+                decisions.add(new ScalingDecision(ScalingDecision.Action.STOP,
+                        cluster.getClusterId(), 0,
+                        "no jobs for " + (this.window / 1000) + "s"));
+                continue;
+            }
+
+            long elapsed = latest.getTimestamp() - oldest.getTimestamp();
+            long longestEta = 0;
+            Set<String> overrunning = new HashSet<String>();
+            for (Jobs.Job job : running) {
+                long eta = eta(job, oldest, elapsed);
+                if (eta > this.targetJobDuration) {
+                    overrunning.add(ScalingDecision.workloadOf(job));
+                }
+                longestEta = Math.max(longestEta, eta);
+            }
+            if (longestEta > this.targetJobDuration) {
+                // scale from the nodes actually doing work, which can lag the cluster size
+                int workers = getWorkerCount(cluster);
+                int size = clampSize((int) Math.ceil(
+                        workers * (double) longestEta / this.targetJobDuration));
+                if (size > cluster.getSize()) {
+                    largestResize = Math.max(largestResize, size);
+                    decisions.add(new ScalingDecision(ScalingDecision.Action.RESIZE,
+                            cluster.getClusterId(), size, overrunning,
+                            "jobs need " + (longestEta / 1000) + "s to finish on "
+                            + workers + " task trackers"));
+                }
+            }
+        }
+
+        double averageQueued = 0;
+        Set<String> queued = new HashSet<String>();
+        for (LoadSnapshot snapshot : inWindow) {
+            averageQueued += countQueued(snapshot, queued);
+        }
+        averageQueued /= inWindow.size();
+        if (averageQueued >= this.queueThreshold && freeSlots == 0) {
+            int size = largestResize > 0 ? largestResize : typicalSize(latest);
+            decisions.add(new ScalingDecision(ScalingDecision.Action.START, null, size, queued,
+                    String.format("%.1f jobs queued on average with no free cluster",
+                            averageQueued)));
+        }
+        return decisions;
+    }
+
+    private boolean idleThroughout(String clusterId, List<LoadSnapshot> snapshots) {
+        for (LoadSnapshot snapshot : snapshots) {
+            if (!snapshot.getUnfinishedJobs(clusterId).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimated time to completion of a running job, from its progress over elapsed
+     * milliseconds since the oldest snapshot, or 0 if unknown.
+     */
+    private long eta(Jobs.Job job, LoadSnapshot oldest, long elapsed) {
+        Jobs.Job earlier = job.getJobId() == null ? null : oldest.getJob(job.getJobId());
+        if (elapsed <= 0 || earlier == null || job.getProgress() == null
+                || earlier.getProgress() == null) {
+            return 0;
+        }
+        int progressed = job.getProgress() - earlier.getProgress();
+        if (progressed <= 0) {
+            return 0;
+        }
+        return (long) ((100 - job.getProgress()) * (double) elapsed / progressed);
+    }
+
+    /**
+     * Number of live task trackers on a cluster, or its size if none are listed.
+     */
+    static int getWorkerCount(Clusters.Cluster cluster) {
+        if (cluster.getTaskTrackerList().isEmpty()) {
+            return cluster.getSize();
+        }
+        return Math.min(cluster.getLiveTaskTrackerCount(), cluster.getSize());
+    }
+
+    private int countQueued(LoadSnapshot snapshot, Set<String> workloads) {
+        int queued = 0;
+        for (Jobs.Job job : snapshot.getJobs()) {
+            if (JOB_STATUS_QUEUED.contains(job.getStatusCode())) {
+                workloads.add(ScalingDecision.workloadOf(job));
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Largest size among running poolable clusters, or the minimum size if none.
+     */
+    private int typicalSize(LoadSnapshot snapshot) {
+        int size = this.minClusterSize;
+        for (Clusters.Cluster cluster : snapshot.getClusters()) {
+            if (ClusterPool.isPoolable(cluster)) {
+                size = Math.max(size, cluster.getSize());
+            }
+        }
+        return clampSize(size);
+    }
+
+    private int clampSize(int size) {
+        return Math.max(this.minClusterSize, Math.min(this.maxClusterSize, size));
+    }
+
+    /**
+     * Length of history considered, in milliseconds.  A cluster must be idle for
+     * the whole window before it is stopped.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the length of history considered, in milliseconds.  Default is 15 minutes.
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Running time above which a job's cluster is considered undersized, in
+     * milliseconds.
+     */
+    public long getTargetJobDuration() {
+        return targetJobDuration;
+    }
+
+    /**
+     * Set the running time above which a job's cluster is considered undersized, in
+     * milliseconds.  Default is one hour.
+     */
+    public void setTargetJobDuration(long targetJobDuration) {
+        this.targetJobDuration = targetJobDuration;
+    }
+
+    /**
+     * Average number of queued jobs over the window that triggers a cluster start.
+     */
+    public double getQueueThreshold() {
+        return queueThreshold;
+    }
+
+    /**
+     * Set the average number of queued jobs over the window that triggers a cluster
+     * start.  Default is 1.
+     */
+    public void setQueueThreshold(double queueThreshold) {
+        this.queueThreshold = queueThreshold;
+    }
+
+    /**
+     * Maximum number of unfinished jobs on one cluster before it has no room.
+     */
+    public int getMaxJobsPerCluster() {
+        return maxJobsPerCluster;
+    }
+
+    /**
+     * Set the maximum number of unfinished jobs on one cluster before it has no room.
+     * This should match the ClusterPool used for placement.
+     */
+    public void setMaxJobsPerCluster(int maxJobsPerCluster) {
+        this.maxJobsPerCluster = maxJobsPerCluster;
+    }
+
+    /**
+     * Smallest cluster size recommended.
+     */
+    public int getMinClusterSize() {
+        return minClusterSize;
+    }
+
+    /**
+     * Set the smallest cluster size recommended.  Default is 2.
+     */
+    public void setMinClusterSize(int minClusterSize) {
+        this.minClusterSize = minClusterSize;
+    }
+
+    /**
+     * Largest cluster size recommended.
+     */
+    public int getMaxClusterSize() {
+        return maxClusterSize;
+    }
+
+    /**
+     * Set the largest cluster size recommended.  Default is 50.
+     */
+    public void setMaxClusterSize(int maxClusterSize) {
+        this.maxClusterSize = maxClusterSize;
+    }
+
+    @Override
+    public String toString() {
+        return "AutoscalePolicy [window=" + window + ", targetJobDuration=" + targetJobDuration
+                + ", queueThreshold=" + queueThreshold + ", maxJobsPerCluster="
+                + maxJobsPerCluster + ", minClusterSize=" + minClusterSize
+                + ", maxClusterSize=" + maxClusterSize + "]";
+    }
+}
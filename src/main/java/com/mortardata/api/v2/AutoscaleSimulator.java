@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replays a recorded history of {@link LoadSnapshot}s through an
+ * {@link AutoscalePolicy} offline, to tune a policy before letting it act on live
+ * clusters.
+ *
+ * Histories are recorded with {@link ClusterAutoscaler#setRecording(File)}.
+ */
+public class AutoscaleSimulator {
+
+    private AutoscalePolicy policy;
+    private int recentJobsLimit = ClusterPool.DEFAULT_RECENT_JOBS_LIMIT;
+
+    /**
+     * Construct an AutoscaleSimulator.
+     *
+     * @param policy policy to replay
+     */
+    public AutoscaleSimulator(AutoscalePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Read a history recorded as one JSON snapshot per line.
+     *
+     * @param recording recorded history
+     * @return snapshots in the order recorded
+     * @throws IOException if unable to read or parse the recording
+     */
+    public static List<LoadSnapshot> readHistory(File recording) throws IOException {
+        List<LoadSnapshot> history = new ArrayList<LoadSnapshot>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(recording), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    history.add(API.JSON_FACTORY.fromString(line, LoadSnapshot.class));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return history;
+    }
+
+    /**
+     * Set how many recent jobs the recording autoscaler fetched per sample.  Default
+     * is 100, as for {@link ClusterAutoscaler#setRecentJobsLimit(int)}.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    /**
+     * Ask the policy for decisions after each snapshot, as a live autoscaler
+     * sampling at the same times would have.  Like the live autoscaler, STOP
+     * decisions are dropped when the snapshot's jobs may not cover the cluster.
+     *
+     * @param history snapshots in increasing timestamp order
+     * @return one step per snapshot
+     */
+    public List<Step> replay(List<LoadSnapshot> history) {
+        List<Step> steps = new ArrayList<Step>();
+        int first = 0;
+        for (int i = 0; i < history.size(); i++) {
+            LoadSnapshot snapshot = history.get(i);
+            // trim to the window as the live autoscaler does, keeping one older snapshot
+            long cutoff = snapshot.getTimestamp() - this.policy.getWindow();
+            while (first < i && history.get(first + 1).getTimestamp() <= cutoff) {
+                first++;
+            }
+            steps.add(new Step(snapshot.getTimestamp(), ClusterAutoscaler.withCoveredStops(
+                    this.policy.recommend(history.subList(first, i + 1)), snapshot,
+                    this.recentJobsLimit)));
+        }
+        return steps;
+    }
+
+    /**
+     * Count the decisions of one kind made over a replay.
+     *
+     * @param steps result of {@link #replay(List)}
+     * @param action kind of decision to count
+     * @return number of decisions
+     */
+    public static int countDecisions(List<Step> steps, ScalingDecision.Action action) {
+        int count = 0;
+        for (Step step : steps) {
+            for (ScalingDecision decision : step.getDecisions()) {
+                if (decision.getAction() == action) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decisions recommended at one point in a replayed history.
+     */
+    public static class Step {
+
+        private long timestamp;
+        private List<ScalingDecision> decisions;
+
+        Step(long timestamp, List<ScalingDecision> decisions) {
+            this.timestamp = timestamp;
+            this.decisions = Collections.unmodifiableList(decisions);
+        }
+
+        /**
+         * Timestamp of the snapshot the decisions were made after.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Decisions recommended, empty if none.
+         */
+        public List<ScalingDecision> getDecisions() {
+            return decisions;
+        }
+
+        @Override
+        public String toString() {
+            return "Step [timestamp=" + timestamp + ", decisions=" + decisions + "]";
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Runs many jobs at once, with a bounded number of POSTs in flight.
+ *
+ * Requests are posted by up to maxInFlight workers, each reusing its keep-alive
+ * connection from the JDK's HTTP connection pool; raise the {@code http.maxConnections}
+ * system property if maxInFlight is above its default of 5.  A 429 Too Many Requests
+ * response pauses all workers for the Retry-After period before the request is
+ * retried, and a client-side limit on submissions per second can keep a sweep under
+ * the API's rate limit in the first place.  A request that fails fails only its own
+ * future; the rest of the batch continues.
+ */
+public class BulkJobSubmitter {
+
+    final Logger logger = LoggerFactory.getLogger(BulkJobSubmitter.class);
+
+    /**
+     * Default maximum number of POSTs in flight at once.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    /**
+     * Default number of times a rate-limited request is retried.
+     */
+    public static final int DEFAULT_MAX_RATE_LIMIT_RETRIES = 5;
+
+    static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final long DEFAULT_RETRY_AFTER = 1000;
+    private static final long MAX_RETRY_AFTER = 5L * 60L * 1000L;
+
+    private Jobs jobs;
+    private int maxInFlight;
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+
+    private volatile int maxRateLimitRetries = DEFAULT_MAX_RATE_LIMIT_RETRIES;
+    private volatile long minSubmitInterval = 0;
+
+    private final Set<Queue<Submission>> pendingBatches =
+            Collections.newSetFromMap(new ConcurrentHashMap<Queue<Submission>, Boolean>());
+    private final Object throttleLock = new Object();
+    private long pausedUntil = 0;
+    private long nextSubmitTime = 0;
+
+    /**
+     * Construct a BulkJobSubmitter with DEFAULT_MAX_IN_FLIGHT workers.
+     *
+     * @param jobs Jobs API used to run jobs
+     */
+    public BulkJobSubmitter(Jobs jobs) {
+        this(jobs, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Construct a BulkJobSubmitter with its own worker threads.
+     *
+     * @param jobs Jobs API used to run jobs
+     * @param maxInFlight maximum number of POSTs in flight at once
+     */
+    public BulkJobSubmitter(Jobs jobs, int maxInFlight) {
+        this(jobs, maxInFlight, Executors.newFixedThreadPool(maxInFlight,
+                new DaemonThreadFactory("mortar-bulk-submitter")), true);
+    }
+
+    /**
+     * Construct a BulkJobSubmitter whose workers run on an executor shared with other
+     * components.  The executor is not shut down by {@link #shutdown()}.
+     *
+     * @param jobs Jobs API used to run jobs
+     * @param maxInFlight maximum number of POSTs in flight at once
+     * @param executor executor on which to run workers
+     */
+    public BulkJobSubmitter(Jobs jobs, int maxInFlight, ExecutorService executor) {
+        this(jobs, maxInFlight, executor, false);
+    }
+
+    private BulkJobSubmitter(Jobs jobs, int maxInFlight, ExecutorService executor,
+                             boolean ownsExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.jobs = jobs;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Run a batch of jobs.
+     *
+     * @param jobRequests Info about jobs to run
+     * @return one future per request, in iteration order, completed with the job_id or
+     * failed with the error that stopped the job from being started
+     */
+    public List<ResultFuture<String>> submitAll(Collection<JobRequest> jobRequests) {
+        List<ResultFuture<String>> futures = new ArrayList<ResultFuture<String>>();
+        final Queue<Submission> queue = new ConcurrentLinkedQueue<Submission>();
+        for (JobRequest jobRequest : jobRequests) {
+            ResultFuture<String> future = new ResultFuture<String>();
+            futures.add(future);
+            queue.add(new Submission(jobRequest, future));
+        }
+        if (queue.isEmpty()) {
+            return futures;
+        }
+        this.pendingBatches.add(queue);
+        int workers = Math.min(this.maxInFlight, queue.size());
+        for (int i = 0; i < workers; i++) {
+            try {
+                this.executor.execute(new Runnable() {
+                    public void run() {
+                        Submission submission;
+                        while ((submission = queue.poll()) != null) {
+                            submit(submission);
+                        }
+                        pendingBatches.remove(queue);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // fail whatever no worker will pick up
+                Submission submission;
+                while ((submission = queue.poll()) != null) {
+                    submission.future.fail(e);
+                }
+                pendingBatches.remove(queue);
+            }
+        }
+        return futures;
+    }
+
+    private void submit(Submission submission) {
+        int rateLimitRetries = 0;
+        while (!submission.future.isDone()) {
+            try {
+                awaitPermit();
+                submission.future.complete(this.jobs.postJob(submission.jobRequest));
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() == STATUS_TOO_MANY_REQUESTS
+                        && rateLimitRetries < this.maxRateLimitRetries) {
+                    long delay = getRetryAfter(e, rateLimitRetries++);
+                    logger.info("Rate limited submitting " + submission.jobRequest
+                            + ", pausing " + delay + "ms");
+                    pause(delay);
+                } else {
+                    submission.future.fail(e);
+                }
+            } catch (IOException e) {
+                submission.future.fail(e);
+            } catch (InterruptedException e) {
+                submission.future.fail(e);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                submission.future.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Delay requested by a 429 response's Retry-After header in seconds, or an
+     * exponential backoff if it has none.  HTTP-date values are not supported.
+     */
+    static long getRetryAfter(HttpResponseException e, int attempt) {
+        String retryAfter = e.getHeaders() == null ? null : e.getHeaders().getRetryAfter();
+        if (retryAfter != null) {
+            try {
+                long seconds = Long.parseLong(retryAfter.trim());
+                return Math.min(MAX_RETRY_AFTER, Math.max(0, seconds * 1000L));
+            } catch (NumberFormatException ignored) {
+                // fall through to backoff
+            }
+        }
+        return Math.min(MAX_RETRY_AFTER, DEFAULT_RETRY_AFTER << Math.min(attempt, 16));
+    }
+
+    private void pause(long delay) {
+        synchronized (this.throttleLock) {
+            this.pausedUntil = Math.max(this.pausedUntil, System.currentTimeMillis() + delay);
+        }
+    }
+
+    /**
+     * Wait until submissions are not paused by a 429 and the minimum interval since
+     * the previous submission has passed.
+     */
+    private void awaitPermit() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this.throttleLock) {
+                long now = System.currentTimeMillis();
+                long earliest = Math.max(this.pausedUntil, this.nextSubmitTime);
+                if (earliest <= now) {
+                    this.nextSubmitTime = now + this.minSubmitInterval;
+                    return;
+                }
+                wait = earliest - now;
+            }
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Set the maximum rate at which jobs are posted, across all workers.
+     *
+     * @param maxSubmitsPerSecond maximum posts per second, or 0 for no limit
+     */
+    public void setMaxSubmitsPerSecond(double maxSubmitsPerSecond) {
+        this.minSubmitInterval = maxSubmitsPerSecond > 0
+                ? (long) Math.ceil(1000.0 / maxSubmitsPerSecond) : 0;
+    }
+
+    /**
+     * Set how many times a request that gets 429 Too Many Requests is retried.
+     * Default is 5.
+     */
+    public void setMaxRateLimitRetries(int maxRateLimitRetries) {
+        this.maxRateLimitRetries = maxRateLimitRetries;
+    }
+
+    /**
+     * Maximum number of POSTs in flight at once.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Number of batches whose requests have not all been taken by a worker.
+     */
+    int getPendingBatchCount() {
+        return this.pendingBatches.size();
+    }
+
+    /**
+     * Stop submitting.  Futures of requests not yet posted are cancelled.  A shared
+     * executor passed in at construction is left running.
+     */
+    public void shutdown() {
+        for (Queue<Submission> queue : this.pendingBatches) {
+            Submission submission;
+            while ((submission = queue.poll()) != null) {
+                submission.future.cancel(false);
+            }
+        }
+        this.pendingBatches.clear();
+        if (this.ownsExecutor) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    private static class Submission {
+        final JobRequest jobRequest;
+        final ResultFuture<String> future;
+
+        Submission(JobRequest jobRequest, ResultFuture<String> future) {
+            this.jobRequest = jobRequest;
+            this.future = future;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkJobSubmitter [maxInFlight=" + maxInFlight + ", minSubmitInterval="
+                + minSubmitInterval + "]";
+    }
+}
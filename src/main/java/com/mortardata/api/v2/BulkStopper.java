@@ -0,0 +1,322 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops every job or cluster matching a {@link Filter}, with the DELETEs issued
+ * concurrently.
+ *
+ * After the stops are issued, final states are confirmed through a shared
+ * {@link JobWatcher} or {@link ClusterWatcher} for up to a timeout, and a
+ * {@link StopSummary} reports which targets were confirmed stopped, which failed to
+ * stop and which were still stopping when the timeout passed.
+ */
+public class BulkStopper {
+
+    final Logger logger = LoggerFactory.getLogger(BulkStopper.class);
+
+    /**
+     * Default maximum number of DELETEs in flight at once.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_STOPS = 8;
+
+    private Jobs jobs;
+    private Clusters clusters;
+    private JobWatcher jobWatcher;
+    private ClusterWatcher clusterWatcher;
+    private ExecutorService executor;
+    private boolean ownsWatchers;
+    private volatile int recentJobsLimit = 1000;
+
+    /**
+     * Construct a BulkStopper with its own watchers.
+     *
+     * @param jobs Jobs API used to find and stop jobs
+     * @param clusters Clusters API used to find and stop clusters
+     */
+    public BulkStopper(Jobs jobs, Clusters clusters) {
+        this(jobs, clusters, new JobWatcher(jobs), new ClusterWatcher(clusters),
+                DEFAULT_MAX_CONCURRENT_STOPS);
+        this.ownsWatchers = true;
+    }
+
+    /**
+     * Construct a BulkStopper that confirms stops through shared watchers.
+     *
+     * @param jobs Jobs API used to find and stop jobs
+     * @param clusters Clusters API used to find and stop clusters
+     * @param jobWatcher watcher used to confirm jobs stopped
+     * @param clusterWatcher watcher used to confirm clusters stopped
+     * @param maxConcurrentStops maximum number of DELETEs in flight at once
+     */
+    public BulkStopper(Jobs jobs, Clusters clusters, JobWatcher jobWatcher,
+                       ClusterWatcher clusterWatcher, int maxConcurrentStops) {
+        this.jobs = jobs;
+        this.clusters = clusters;
+        this.jobWatcher = jobWatcher;
+        this.clusterWatcher = clusterWatcher;
+        this.executor = Executors.newFixedThreadPool(maxConcurrentStops,
+                new DaemonThreadFactory("mortar-bulk-stopper"));
+    }
+
+    /**
+     * Filter selecting jobs of a project.
+     *
+     * @param projectName Mortar project name
+     * @return the filter
+     */
+    public static Filter<Jobs.Job> jobsOfProject(final String projectName) {
+        return new Filter<Jobs.Job>() {
+            public boolean accept(Jobs.Job job) {
+                return projectName.equals(job.getProjectName());
+            }
+        };
+    }
+
+    /**
+     * Filter selecting clusters of a type.
+     *
+     * @param clusterType type of cluster
+     * @return the filter
+     */
+    public static Filter<Clusters.Cluster> clustersOfType(
+            final Clusters.ClusterType clusterType) {
+        return new Filter<Clusters.Cluster>() {
+            public boolean accept(Clusters.Cluster cluster) {
+                return cluster.getClusterTypeCode() == clusterType;
+            }
+        };
+    }
+
+    /**
+     * Stop every unfinished recent job accepted by a filter.
+     *
+     * @param filter selects the jobs to stop
+     * @param confirmTimeout how long to wait for stopped jobs to complete, in
+     * milliseconds, or 0 to not wait
+     * @return what was stopped
+     * @throws IOException if unable to list jobs
+     * @throws InterruptedException if interrupted while stopping or confirming
+     */
+    public StopSummary stopJobs(Filter<Jobs.Job> filter, long confirmTimeout)
+            throws IOException, InterruptedException {
+        List<String> targets = new ArrayList<String>();
+        Jobs.JobsList jobsList = this.jobs.getJobs(0, this.recentJobsLimit);
+        if (jobsList.jobs != null) {
+            for (Jobs.Job job : jobsList.jobs) {
+                if (!Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode())
+                        && filter.accept(job)) {
+                    targets.add(job.getJobId());
+                }
+            }
+        }
+        StopSummary summary = stopAll(targets, new Stopper() {
+            public void stop(String jobId) throws IOException {
+                jobs.stopJob(jobId);
+            }
+        });
+        Map<String, Future<?>> confirmations = new LinkedHashMap<String, Future<?>>();
+        if (confirmTimeout > 0) {
+            for (String jobId : summary.unconfirmed) {
+                confirmations.put(jobId, this.jobWatcher.whenComplete(jobId));
+            }
+        }
+        confirm(summary, confirmations, confirmTimeout);
+        return summary;
+    }
+
+    /**
+     * Stop every running or starting cluster accepted by a filter.
+     *
+     * @param filter selects the clusters to stop
+     * @param confirmTimeout how long to wait for stopped clusters to be destroyed, in
+     * milliseconds, or 0 to not wait
+     * @return what was stopped
+     * @throws IOException if unable to list clusters
+     * @throws InterruptedException if interrupted while stopping or confirming
+     */
+    public StopSummary stopClusters(Filter<Clusters.Cluster> filter, long confirmTimeout)
+            throws IOException, InterruptedException {
+        List<String> targets = new ArrayList<String>();
+        Clusters.ClustersList clustersList = this.clusters.getClusters();
+        if (clustersList.clusters != null) {
+            for (Clusters.Cluster cluster : clustersList.clusters) {
+                if (isStoppable(cluster.getStatusCode()) && filter.accept(cluster)) {
+                    targets.add(cluster.getClusterId());
+                }
+            }
+        }
+        StopSummary summary = stopAll(targets, new Stopper() {
+            public void stop(String clusterId) throws IOException {
+                clusters.stopCluster(clusterId);
+            }
+        });
+        Map<String, Future<?>> confirmations = new LinkedHashMap<String, Future<?>>();
+        if (confirmTimeout > 0) {
+            for (String clusterId : summary.unconfirmed) {
+                confirmations.put(clusterId, this.clusterWatcher.whenStatus(clusterId,
+                        Clusters.ClusterStatus.DESTROYED, Clusters.ClusterStatus.FAILED));
+            }
+        }
+        confirm(summary, confirmations, confirmTimeout);
+        return summary;
+    }
+
+    private static boolean isStoppable(Clusters.ClusterStatus status) {
+        return status != Clusters.ClusterStatus.STOPPING
+                && status != Clusters.ClusterStatus.STOPPING_COPYING_LOGS
+                && !ClusterWatcher.CLUSTER_STATUS_FINAL.contains(status);
+    }
+
+    private interface Stopper {
+        void stop(String id) throws IOException;
+    }
+
+    private StopSummary stopAll(List<String> targets, final Stopper stopper)
+            throws InterruptedException {
+        Map<String, Future<Void>> stops = new LinkedHashMap<String, Future<Void>>();
+        for (final String id : targets) {
+            stops.put(id, this.executor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    stopper.stop(id);
+                    return null;
+                }
+            }));
+        }
+        StopSummary summary = new StopSummary(targets);
+        for (Map.Entry<String, Future<Void>> stop : stops.entrySet()) {
+            try {
+                stop.getValue().get();
+                summary.unconfirmed.add(stop.getKey());
+            } catch (ExecutionException e) {
+                logger.warn("Unable to stop " + stop.getKey(), e.getCause());
+                summary.failed.put(stop.getKey(), e.getCause());
+            }
+        }
+        logger.info("Stopped " + summary.unconfirmed.size() + " of " + targets.size());
+        return summary;
+    }
+
+    private void confirm(StopSummary summary, Map<String, Future<?>> confirmations,
+                         long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Map.Entry<String, Future<?>> confirmation : confirmations.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                confirmation.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                summary.unconfirmed.remove(confirmation.getKey());
+                summary.confirmed.add(confirmation.getKey());
+            } catch (ExecutionException e) {
+                summary.unconfirmed.remove(confirmation.getKey());
+                summary.failed.put(confirmation.getKey(), e.getCause());
+            } catch (TimeoutException e) {
+                confirmation.getValue().cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Set how many recent jobs are searched for jobs to stop.  Default is 1000.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    /**
+     * Stop the threads issuing DELETEs.  Shared watchers passed in at construction
+     * are left running.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+        if (this.ownsWatchers) {
+            this.jobWatcher.shutdown();
+            this.clusterWatcher.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkStopper [recentJobsLimit=" + recentJobsLimit + "]";
+    }
+
+    /**
+     * Outcome of a bulk stop.
+     */
+    public static class StopSummary {
+
+        private List<String> targets;
+        private List<String> confirmed = new ArrayList<String>();
+        private List<String> unconfirmed = new ArrayList<String>();
+        private Map<String, Throwable> failed = new LinkedHashMap<String, Throwable>();
+
+        StopSummary(List<String> targets) {
+            this.targets = targets;
+        }
+
+        /**
+         * Ids of every job or cluster the filter selected.
+         */
+        public List<String> getTargets() {
+            return Collections.unmodifiableList(targets);
+        }
+
+        /**
+         * Ids confirmed to have reached a final state.
+         */
+        public List<String> getConfirmed() {
+            return Collections.unmodifiableList(confirmed);
+        }
+
+        /**
+         * Ids whose stop was accepted but whose final state was not seen before the
+         * timeout.
+         */
+        public List<String> getUnconfirmed() {
+            return Collections.unmodifiableList(unconfirmed);
+        }
+
+        /**
+         * Ids that could not be stopped, with the error.
+         */
+        public Map<String, Throwable> getFailed() {
+            return Collections.unmodifiableMap(failed);
+        }
+
+        @Override
+        public String toString() {
+            return "StopSummary [targets=" + targets.size() + ", confirmed="
+                    + confirmed.size() + ", unconfirmed=" + unconfirmed.size()
+                    + ", failed=" + failed.size() + "]";
+        }
+    }
+}
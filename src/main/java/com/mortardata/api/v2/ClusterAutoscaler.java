@@ -0,0 +1,308 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples cluster and job load and acts on the decisions of an
+ * {@link AutoscalePolicy}.
+ *
+ * The Mortar API has no call to start or resize a cluster directly, so START and
+ * RESIZE decisions are applied through job placement: {@link #place(JobRequest)}
+ * sizes new clusters for jobs of the decisions' workloads that no running cluster
+ * can take.  STOP decisions are applied with {@link Clusters#stopCluster(String)}
+ * when automatic stopping is enabled; otherwise decisions are only recommended.  As
+ * in {@link IdleClusterReaper}, a cluster is only stopped when the sampled jobs cover
+ * its whole running time, so a long-running job beyond the recent jobs limit never
+ * looks idle.
+ */
+public class ClusterAutoscaler {
+
+    static final Logger LOGGER = LoggerFactory.getLogger(ClusterAutoscaler.class);
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private Jobs jobs;
+    private Clusters clusters;
+    private AutoscalePolicy policy;
+    private ClusterPool clusterPool;
+
+    private int recentJobsLimit = ClusterPool.DEFAULT_RECENT_JOBS_LIMIT;
+    private boolean stopIdleClusters = false;
+    private File recording;
+
+    private List<LoadSnapshot> history = new ArrayList<LoadSnapshot>();
+    private List<ScalingDecision> lastDecisions = new ArrayList<ScalingDecision>();
+    private Map<String, Integer> recommendedClusterSizes = new HashMap<String, Integer>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Construct a ClusterAutoscaler.
+     *
+     * @param jobs Jobs API used to sample and run jobs
+     * @param clusters Clusters API used to sample and stop clusters
+     * @param policy policy deciding when to scale
+     */
+    public ClusterAutoscaler(Jobs jobs, Clusters clusters, AutoscalePolicy policy) {
+        this(jobs, clusters, policy, null);
+    }
+
+    /**
+     * Construct a ClusterAutoscaler that places jobs on running clusters first.
+     *
+     * @param jobs Jobs API used to sample and run jobs
+     * @param clusters Clusters API used to sample and stop clusters
+     * @param policy policy deciding when to scale
+     * @param clusterPool pool used to place jobs on running clusters, or null
+     */
+    public ClusterAutoscaler(Jobs jobs, Clusters clusters, AutoscalePolicy policy,
+                             ClusterPool clusterPool) {
+        this.jobs = jobs;
+        this.clusters = clusters;
+        this.policy = policy;
+        this.clusterPool = clusterPool;
+    }
+
+    /**
+     * Take a snapshot of clusters and recent jobs, appending it to the recording file
+     * if one is set.
+     *
+     * @return the snapshot
+     * @throws IOException if unable to fetch state from the API or write the recording
+     */
+    public LoadSnapshot sample() throws IOException {
+        LoadSnapshot snapshot = new LoadSnapshot(System.currentTimeMillis(),
+                this.clusters.getClusters(), this.jobs.getJobs(0, this.recentJobsLimit));
+        record(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Add a snapshot to the history the policy decides from.
+     *
+     * @param snapshot snapshot newer than any already recorded
+     * @throws IOException if unable to write the recording
+     */
+    public void record(LoadSnapshot snapshot) throws IOException {
+        synchronized (this) {
+            this.history.add(snapshot);
+            // keep one snapshot older than the window so idle time can span all of it
+            long cutoff = snapshot.getTimestamp() - this.policy.getWindow();
+            while (this.history.size() > 1 && this.history.get(1).getTimestamp() <= cutoff) {
+                this.history.remove(0);
+            }
+        }
+        if (this.recording != null) {
+            OutputStream out = new FileOutputStream(this.recording, true);
+            try {
+                out.write(API.JSON_FACTORY.toByteArray(snapshot));
+                out.write(NEWLINE);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Recommend decisions from the recorded history and apply them.
+     *
+     * @return decisions made
+     * @throws IOException if unable to stop a cluster
+     */
+    public List<ScalingDecision> apply() throws IOException {
+        List<ScalingDecision> decisions;
+        synchronized (this) {
+            LoadSnapshot latest =
+                    this.history.isEmpty() ? null : this.history.get(this.history.size() - 1);
+            decisions = withCoveredStops(this.policy.recommend(this.history), latest,
+                    this.recentJobsLimit);
+            this.lastDecisions = decisions;
+            this.recommendedClusterSizes = new HashMap<String, Integer>();
+            for (ScalingDecision decision : decisions) {
+                if (decision.getAction() == ScalingDecision.Action.STOP) {
+                    continue;
+                }
+                for (String workload : decision.getWorkloads()) {
+                    Integer size = this.recommendedClusterSizes.get(workload);
+                    if (size == null || size < decision.getClusterSize()) {
+                        this.recommendedClusterSizes.put(workload, decision.getClusterSize());
+                    }
+                }
+            }
+        }
+        for (ScalingDecision decision : decisions) {
+            LOGGER.info("Autoscaling: " + decision);
+            if (decision.getAction() == ScalingDecision.Action.STOP && this.stopIdleClusters) {
+                this.clusters.stopCluster(decision.getClusterId());
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * Sample and apply decisions on a background thread until {@link #shutdown()}.
+     * Errors are logged and sampling continues.
+     *
+     * @param interval time between samples, in milliseconds
+     */
+    public synchronized void start(long interval) {
+        if (this.scheduler != null) {
+            throw new IllegalStateException("Autoscaler already started");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("mortar-autoscaler"));
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    sample();
+                    apply();
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to autoscale clusters", e);
+                }
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop background sampling started with {@link #start(long)}.
+     */
+    public synchronized void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Choose where a job should run: on a running cluster from the pool if one has
+     * room, otherwise on a new cluster sized by the latest START or RESIZE decision
+     * for its workload.
+     *
+     * @param jobRequest Info about job to run
+     * @return jobRequest, or a copy of it targeting a cluster or cluster size
+     */
+    public JobRequest place(JobRequest jobRequest) {
+        JobRequest placed = this.clusterPool == null
+                ? jobRequest : this.clusterPool.place(jobRequest);
+        int size = getRecommendedClusterSize(ScalingDecision.workloadOf(jobRequest));
+        if (placed.getClusterId() == null && size > placed.getClusterSize()) {
+            return placed.copyWithClusterSize(size);
+        }
+        return placed;
+    }
+
+    /**
+     * Run a job, placed as by {@link #place(JobRequest)}.
+     *
+     * @param jobRequest Info about job to run
+     * @return job_id ID of job that was started
+     * @throws IOException if unable to run job on API
+     */
+    public String postJob(JobRequest jobRequest) throws IOException {
+        return this.jobs.postJob(place(jobRequest));
+    }
+
+    /**
+     * Size for new clusters of a workload from the latest decisions, or 0 if there is
+     * none.
+     *
+     * @param workload workload as named by {@link ScalingDecision#workloadOf(JobRequest)}
+     */
+    public synchronized int getRecommendedClusterSize(String workload) {
+        Integer size = this.recommendedClusterSizes.get(workload);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * Decisions made by the latest call to {@link #apply()}.
+     */
+    public synchronized List<ScalingDecision> getLastDecisions() {
+        return Collections.unmodifiableList(lastDecisions);
+    }
+
+    /**
+     * Whether STOP decisions stop clusters, rather than only being recommended.
+     */
+    public boolean isStopIdleClusters() {
+        return stopIdleClusters;
+    }
+
+    /**
+     * Set whether STOP decisions stop clusters.  Default is false.
+     */
+    public void setStopIdleClusters(boolean stopIdleClusters) {
+        this.stopIdleClusters = stopIdleClusters;
+    }
+
+    /**
+     * Set a file to which every snapshot is appended as a line of JSON, for replay
+     * with {@link AutoscaleSimulator}.
+     *
+     * @param recording file to append to, or null to stop recording
+     */
+    public void setRecording(File recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Drop STOP decisions for clusters whose jobs may be missing from the latest
+     * snapshot, because its job listing was cut short by the limit.  Shared with
+     * {@link AutoscaleSimulator} so that replayed decisions match live ones.
+     */
+    static List<ScalingDecision> withCoveredStops(List<ScalingDecision> decisions,
+                                                  LoadSnapshot latest, int recentJobsLimit) {
+        List<ScalingDecision> covered = new ArrayList<ScalingDecision>();
+        for (ScalingDecision decision : decisions) {
+            if (decision.getAction() == ScalingDecision.Action.STOP
+                    && !IdleClusterReaper.coversRunningTime(latest.getJobs(), recentJobsLimit,
+                            latest.getCluster(decision.getClusterId()))) {
+                LOGGER.debug("Not enough job history to stop " + decision.getClusterId());
+                continue;
+            }
+            covered.add(decision);
+        }
+        return covered;
+    }
+
+    /**
+     * Set how many recent jobs are fetched per sample.  Default is 100.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ClusterAutoscaler [policy=" + policy + ", stopIdleClusters="
+                + stopIdleClusters + ", recommendedClusterSizes=" + recommendedClusterSizes
+                + ", history=" + history.size() + "]";
+    }
+}
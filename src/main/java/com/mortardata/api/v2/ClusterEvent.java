@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+/**
+ * A change in a cluster's status, seen between two polls of a {@link ClusterWatcher}.
+ */
+public class ClusterEvent {
+
+    private Clusters.Cluster cluster;
+    private Clusters.ClusterStatus previousStatus;
+
+    /**
+     * Construct a ClusterEvent.
+     *
+     * @param cluster cluster as of the latest poll
+     * @param previousStatus status as of the previous poll, or null for a new cluster
+     */
+    public ClusterEvent(Clusters.Cluster cluster, Clusters.ClusterStatus previousStatus) {
+        this.cluster = cluster;
+        this.previousStatus = previousStatus;
+    }
+
+    /**
+     * Cluster as of the latest poll.
+     */
+    public Clusters.Cluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Id of the cluster.
+     */
+    public String getClusterId() {
+        return cluster.getClusterId();
+    }
+
+    /**
+     * Status as of the previous poll, or null if the cluster was not seen before.
+     */
+    public Clusters.ClusterStatus getPreviousStatus() {
+        return previousStatus;
+    }
+
+    /**
+     * Status as of the latest poll.
+     */
+    public Clusters.ClusterStatus getStatus() {
+        return cluster.getStatusCode();
+    }
+
+    /**
+     * Whether this event is a transition between two statuses.
+     *
+     * @param from previous status, or null to match any previous status
+     * @param to new status
+     * @return true if the cluster moved from from to to
+     */
+    public boolean isTransition(Clusters.ClusterStatus from, Clusters.ClusterStatus to) {
+        return (from == null || from == previousStatus) && to == getStatus();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterEvent [clusterId=" + getClusterId() + ", " + previousStatus + " -> "
+                + getStatus() + "]";
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+/**
+ * Receives cluster status transitions from a {@link ClusterWatcher}.
+ */
+public interface ClusterListener {
+
+    /**
+     * Called on the watcher's polling thread when a cluster first appears or its
+     * status changes.  Implementations should return quickly.
+     *
+     * @param event the transition
+     */
+    void clusterChanged(ClusterEvent event);
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Places new jobs on running persistent or permanent clusters instead of starting a
+ * new cluster for each job.
+ *
+ * The pool tracks the state of the account's clusters and how many unfinished jobs
+ * are running on each.  A job that asks for a new cluster is placed on the least
+ * loaded running cluster that is large enough, and only starts a new cluster if no
+ * running cluster has room for it.
+ */
+public class ClusterPool {
+
+    final Logger logger = LoggerFactory.getLogger(ClusterPool.class);
+
+    /**
+     * Default maximum number of unfinished jobs placed on one cluster.
+     */
+    public static final int DEFAULT_MAX_JOBS_PER_CLUSTER = 1;
+
+    /**
+     * Default number of most recent jobs fetched to count jobs per cluster.
+     */
+    public static final int DEFAULT_RECENT_JOBS_LIMIT = 100;
+
+    /**
+     * Default age after which cluster state is refreshed before placing a job,
+     * in milliseconds.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 30000;
+
+    private Jobs jobs;
+    private Clusters clusters;
+    private int maxJobsPerCluster = DEFAULT_MAX_JOBS_PER_CLUSTER;
+    private int recentJobsLimit = DEFAULT_RECENT_JOBS_LIMIT;
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private List<Clusters.Cluster> runningClusters = new ArrayList<Clusters.Cluster>();
+    private Map<String, Integer> jobCounts = new HashMap<String, Integer>();
+    private long lastRefresh = 0;
+
+    /**
+     * Construct a ClusterPool.
+     *
+     * @param jobs Jobs API used to count and run jobs
+     * @param clusters Clusters API used to find running clusters
+     */
+    public ClusterPool(Jobs jobs, Clusters clusters) {
+        this.jobs = jobs;
+        this.clusters = clusters;
+    }
+
+    /**
+     * Reload running clusters and the number of unfinished jobs on each.
+     *
+     * @throws IOException if unable to fetch clusters or jobs from the API
+     */
+    public void refresh() throws IOException {
+        Clusters.ClustersList clustersList = this.clusters.getClusters();
+        Jobs.JobsList jobsList = this.jobs.getJobs(0, this.recentJobsLimit);
+        update(clustersList, jobsList);
+    }
+
+    /**
+     * Replace the pool's state with a snapshot of clusters and jobs.
+     *
+     * @param clustersList all recent or running clusters
+     * @param jobsList recent jobs
+     */
+    public synchronized void update(Clusters.ClustersList clustersList,
+                                    Jobs.JobsList jobsList) {
+        List<Clusters.Cluster> running = new ArrayList<Clusters.Cluster>();
+        if (clustersList.clusters != null) {
+            for (Clusters.Cluster cluster : clustersList.clusters) {
+                if (isPoolable(cluster)) {
+                    running.add(cluster);
+                }
+            }
+        }
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        if (jobsList.jobs != null) {
+            for (Jobs.Job job : jobsList.jobs) {
+                if (job.getClusterId() != null
+                        && !Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode())) {
+                    increment(counts, job.getClusterId());
+                }
+            }
+        }
+        this.runningClusters = running;
+        this.jobCounts = counts;
+        this.lastRefresh = System.currentTimeMillis();
+    }
+
+    /**
+     * Choose where a job should run.  Requests that already target a cluster are
+     * returned unchanged.
+     *
+     * @param jobRequest Info about job to run
+     * @return a copy of jobRequest targeting a running cluster, or jobRequest itself if
+     * no running cluster has room and a new cluster should be started
+     */
+    public synchronized JobRequest place(JobRequest jobRequest) {
+        if (jobRequest.getClusterId() != null) {
+            return jobRequest;
+        }
+        Clusters.Cluster best = null;
+        int bestCount = 0;
+        for (Clusters.Cluster cluster : this.runningClusters) {
+            if (cluster.getSize() < jobRequest.getClusterSize()) {
+                continue;
+            }
+            int count = getJobCount(cluster.getClusterId());
+            if (count >= this.maxJobsPerCluster) {
+                continue;
+            }
+            // prefer the least loaded cluster, then the smallest one that fits
+            if (best == null || count < bestCount
+                    || (count == bestCount && cluster.getSize() < best.getSize())) {
+                best = cluster;
+                bestCount = count;
+            }
+        }
+        if (best == null) {
+            logger.debug("No running cluster has room for " + jobRequest);
+            return jobRequest;
+        }
+        logger.debug("Placing " + jobRequest + " on cluster " + best.getClusterId());
+        return jobRequest.copyForCluster(best.getClusterId());
+    }
+
+    /**
+     * Run a job on a running cluster if one has room, otherwise on a new cluster.
+     * Cluster state is refreshed first if it is older than the refresh interval.
+     *
+     * @param jobRequest Info about job to run
+     * @return job_id ID of job that was started
+     * @throws IOException if unable to refresh state or run job on API
+     */
+    public String postJob(JobRequest jobRequest) throws IOException {
+        JobRequest placed = placeAndCount(jobRequest);
+        try {
+            return this.jobs.postJob(placed);
+        } catch (IOException e) {
+            uncount(placed);
+            throw e;
+        }
+    }
+
+    /**
+     * Place a job about to be posted, refreshing stale cluster state first, and count it
+     * on its cluster right away so concurrent placements see it.
+     */
+    JobRequest placeAndCount(JobRequest jobRequest) throws IOException {
+        boolean stale;
+        synchronized (this) {
+            stale = System.currentTimeMillis() - this.lastRefresh > this.refreshInterval;
+        }
+        if (stale) {
+            refresh();
+        }
+        synchronized (this) {
+            JobRequest placed = place(jobRequest);
+            if (placed.getClusterId() != null) {
+                increment(this.jobCounts, placed.getClusterId());
+            }
+            return placed;
+        }
+    }
+
+    /**
+     * Stop counting a placed job that failed to start.
+     */
+    synchronized void uncount(JobRequest placed) {
+        if (placed.getClusterId() != null) {
+            decrement(this.jobCounts, placed.getClusterId());
+        }
+    }
+
+    /**
+     * Number of unfinished jobs known to be running on a cluster.
+     *
+     * @param clusterId id of the cluster
+     * @return number of jobs
+     */
+    public synchronized int getJobCount(String clusterId) {
+        Integer count = this.jobCounts.get(clusterId);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Running clusters that jobs can be placed on.
+     */
+    public synchronized List<Clusters.Cluster> getRunningClusters() {
+        return Collections.unmodifiableList(this.runningClusters);
+    }
+
+    /**
+     * Set the maximum number of unfinished jobs placed on one cluster.
+     */
+    public void setMaxJobsPerCluster(int maxJobsPerCluster) {
+        this.maxJobsPerCluster = maxJobsPerCluster;
+    }
+
+    /**
+     * Maximum number of unfinished jobs placed on one cluster.
+     */
+    public int getMaxJobsPerCluster() {
+        return maxJobsPerCluster;
+    }
+
+    /**
+     * Set the number of most recent jobs fetched to count jobs per cluster.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    /**
+     * Set the age after which cluster state is refreshed before placing a job.
+     *
+     * @param refreshInterval age in milliseconds
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    static boolean isPoolable(Clusters.Cluster cluster) {
+        Clusters.ClusterType type = cluster.getClusterTypeCode();
+        return cluster.getStatusCode() == Clusters.ClusterStatus.RUNNING
+                && (type == Clusters.ClusterType.PERSISTENT
+                    || type == Clusters.ClusterType.PERMANENT);
+    }
+
+    private static void increment(Map<String, Integer> counts, String clusterId) {
+        Integer count = counts.get(clusterId);
+        counts.put(clusterId, count == null ? 1 : count + 1);
+    }
+
+    private static void decrement(Map<String, Integer> counts, String clusterId) {
+        Integer count = counts.get(clusterId);
+        if (count != null && count > 0) {
+            counts.put(clusterId, count - 1);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ClusterPool [runningClusters=" + runningClusters.size()
+                + ", jobCounts=" + jobCounts + ", maxJobsPerCluster=" + maxJobsPerCluster + "]";
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mortardata.util.Instrumentation;
+
+/**
+ * Polls clusters from one shared schedule and notifies {@link ClusterListener}s of
+ * status transitions.
+ *
+ * Each poll fetches the ClustersList once and diffs it against the previous poll.
+ * The delay to the next poll is the shortest polling interval of any status seen, so
+ * the watcher polls quickly while clusters are starting or stopping and slowly when
+ * they are all running or gone.
+ */
+public class ClusterWatcher {
+
+    final Logger logger = LoggerFactory.getLogger(ClusterWatcher.class);
+
+    /**
+     * Statuses after which a cluster never changes again.
+     */
+    public static final Set<Clusters.ClusterStatus> CLUSTER_STATUS_FINAL = EnumSet.of(
+            Clusters.ClusterStatus.DESTROYED, Clusters.ClusterStatus.FAILED);
+
+    /**
+     * Default polling interval while a cluster is changing state, in milliseconds.
+     */
+    public static final long DEFAULT_TRANSITION_INTERVAL = 500;
+
+    /**
+     * Default polling interval while clusters are running, in milliseconds.
+     */
+    public static final long DEFAULT_RUNNING_INTERVAL = 10000;
+
+    /**
+     * Default polling interval when no cluster is active, in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_INTERVAL = 60000;
+
+    private static final List<Clusters.ClusterStatus> TRANSITION_STATUSES = Arrays.asList(
+            Clusters.ClusterStatus.PENDING, Clusters.ClusterStatus.STARTING,
+            Clusters.ClusterStatus.STARTING_REQUESTED_STOP,
+            Clusters.ClusterStatus.MORTAR_BOOTSTRAPPING, Clusters.ClusterStatus.STOPPING,
+            Clusters.ClusterStatus.STOPPING_COPYING_LOGS);
+
+    private Clusters clusters;
+    private ScheduledExecutorService scheduler;
+    private boolean ownsScheduler;
+
+    private final Map<Clusters.ClusterStatus, Long> pollingIntervals =
+            new EnumMap<Clusters.ClusterStatus, Long>(Clusters.ClusterStatus.class);
+    private volatile long idleInterval = DEFAULT_IDLE_INTERVAL;
+    private volatile Instrumentation instrumentation;
+    private List<ClusterListener> listeners = new CopyOnWriteArrayList<ClusterListener>();
+    private List<StatusWaiter> waiters = new ArrayList<StatusWaiter>();
+
+    private Map<String, Clusters.Cluster> lastSeen = new HashMap<String, Clusters.Cluster>();
+    private ScheduledFuture<?> nextPoll;
+    private long pollsStarted;
+    private boolean started = false;
+
+    /**
+     * Construct a ClusterWatcher with its own polling thread.
+     *
+     * @param clusters Clusters API to poll
+     */
+    public ClusterWatcher(Clusters clusters) {
+        this(clusters, Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("mortar-cluster-watcher")), true);
+    }
+
+    /**
+     * Construct a ClusterWatcher that polls on a scheduler shared with other
+     * components.  The scheduler is not shut down by {@link #shutdown()}.
+     *
+     * @param clusters Clusters API to poll
+     * @param scheduler scheduler on which to poll
+     */
+    public ClusterWatcher(Clusters clusters, ScheduledExecutorService scheduler) {
+        this(clusters, scheduler, false);
+    }
+
+    private ClusterWatcher(Clusters clusters, ScheduledExecutorService scheduler,
+                           boolean ownsScheduler) {
+        this.clusters = clusters;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        Instrumentation instrumentation = clusters.getInstrumentation();
+        this.instrumentation = instrumentation == null ? Instrumentation.NOOP : instrumentation;
+        for (Clusters.ClusterStatus status : TRANSITION_STATUSES) {
+            this.pollingIntervals.put(status, DEFAULT_TRANSITION_INTERVAL);
+        }
+        this.pollingIntervals.put(Clusters.ClusterStatus.RUNNING, DEFAULT_RUNNING_INTERVAL);
+    }
+
+    /**
+     * Register a listener for cluster transitions.
+     *
+     * @param listener listener to add
+     */
+    public void addListener(ClusterListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener.
+     *
+     * @param listener listener to remove
+     */
+    public void removeListener(ClusterListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Wait for a cluster to reach one of a set of statuses.  Starts the watcher if
+     * needed.
+     *
+     * @param clusterId id of the cluster
+     * @param statuses statuses to wait for; at least one is required
+     * @return future completed with the cluster once it has one of the statuses, or
+     * failed if the cluster reaches a final status first or is missing from a poll
+     * made after this call
+     * @throws IllegalArgumentException if no status is given
+     */
+    public ResultFuture<Clusters.Cluster> whenStatus(String clusterId,
+                                                     Clusters.ClusterStatus... statuses) {
+        if (statuses == null || statuses.length == 0) {
+            throw new IllegalArgumentException(
+                    "At least one status is required to wait for cluster " + clusterId);
+        }
+        StatusWaiter waiter = new StatusWaiter(clusterId,
+                EnumSet.copyOf(Arrays.asList(statuses)));
+        synchronized (this) {
+            waiter.registeredAfterPoll = this.pollsStarted;
+            Clusters.Cluster current = this.lastSeen.get(clusterId);
+            if (current != null && waiter.statuses.contains(current.getStatusCode())) {
+                waiter.future.complete(current);
+                return waiter.future;
+            }
+            this.waiters.add(waiter);
+        }
+        start();
+        return waiter.future;
+    }
+
+    /**
+     * Start polling.  Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (!this.started) {
+            this.started = true;
+            schedule(0);
+        }
+    }
+
+    /**
+     * Poll now, rather than waiting for the next scheduled poll.
+     *
+     * @throws IOException if unable to fetch clusters from the API
+     */
+    public void poll() throws IOException {
+        long pollNumber = nextPollNumber();
+        Instrumentation instrumentation = this.instrumentation;
+        if (!instrumentation.isEnabled()) {
+            update(this.clusters.getClusters(), pollNumber);
+            return;
+        }
+        Instrumentation.Event event = instrumentation.begin(Instrumentation.POLL);
+        Clusters.ClustersList clustersList = null;
+        try {
+            clustersList = this.clusters.getClusters();
+            update(clustersList, pollNumber);
+        } finally {
+            event.set("poller", "cluster-watcher")
+                    .set("count", clustersList == null || clustersList.clusters == null
+                            ? 0 : clustersList.clusters.size())
+                    .end();
+        }
+    }
+
+    /**
+     * Diff a ClustersList against the previous one and notify listeners of changes.
+     *
+     * @param clustersList all recent or running clusters
+     */
+    public void update(Clusters.ClustersList clustersList) {
+        update(clustersList, nextPollNumber());
+    }
+
+    private synchronized long nextPollNumber() {
+        return ++this.pollsStarted;
+    }
+
+    private void update(Clusters.ClustersList clustersList, long pollNumber) {
+        List<ClusterEvent> events = new ArrayList<ClusterEvent>();
+        List<StatusWaiter> satisfied = new ArrayList<StatusWaiter>();
+        List<StatusWaiter> missing = new ArrayList<StatusWaiter>();
+        synchronized (this) {
+            Map<String, Clusters.Cluster> seen = new HashMap<String, Clusters.Cluster>();
+            if (clustersList.clusters != null) {
+                for (Clusters.Cluster cluster : clustersList.clusters) {
+                    seen.put(cluster.getClusterId(), cluster);
+                    Clusters.Cluster previous = this.lastSeen.get(cluster.getClusterId());
+                    Clusters.ClusterStatus previousStatus =
+                            previous == null ? null : previous.getStatusCode();
+                    if (previousStatus != cluster.getStatusCode()) {
+                        events.add(new ClusterEvent(cluster, previousStatus));
+                    }
+                }
+            }
+            this.lastSeen = seen;
+            for (Iterator<StatusWaiter> it = this.waiters.iterator(); it.hasNext();) {
+                StatusWaiter waiter = it.next();
+                Clusters.Cluster cluster = seen.get(waiter.clusterId);
+                if (waiter.future.isDone()) {
+                    it.remove();
+                } else if (cluster == null) {
+                    // a poll fetched before the waiter was added may predate the cluster
+                    if (pollNumber > waiter.registeredAfterPoll) {
+                        it.remove();
+                        missing.add(waiter);
+                    }
+                } else if (waiter.statuses.contains(cluster.getStatusCode())
+                        || CLUSTER_STATUS_FINAL.contains(cluster.getStatusCode())) {
+                    it.remove();
+                    waiter.cluster = cluster;
+                    satisfied.add(waiter);
+                }
+            }
+        }
+        for (ClusterEvent event : events) {
+            logger.debug("Cluster changed: " + event);
+            for (ClusterListener listener : this.listeners) {
+                try {
+                    listener.clusterChanged(event);
+                } catch (RuntimeException e) {
+                    logger.warn("Cluster listener failed on " + event, e);
+                }
+            }
+        }
+        for (StatusWaiter waiter : missing) {
+            waiter.future.fail(new IOException("Cluster " + waiter.clusterId
+                    + " is not in the clusters list"));
+        }
+        for (StatusWaiter waiter : satisfied) {
+            if (waiter.statuses.contains(waiter.cluster.getStatusCode())) {
+                waiter.future.complete(waiter.cluster);
+            } else {
+                waiter.future.fail(new IOException("Cluster " + waiter.clusterId
+                        + " reached status " + waiter.cluster.getStatusCode()));
+            }
+        }
+    }
+
+    /**
+     * Delay before the next poll, in milliseconds: the shortest interval of any
+     * status last seen, or the idle interval if there is none.
+     */
+    public synchronized long getNextPollingDelay() {
+        long delay = this.idleInterval;
+        for (Clusters.Cluster cluster : this.lastSeen.values()) {
+            Long interval = this.pollingIntervals.get(cluster.getStatusCode());
+            if (interval != null) {
+                delay = Math.min(delay, interval);
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Status of a cluster as of the last poll.
+     *
+     * @param clusterId id of the cluster
+     * @return status, or null if the cluster has not been seen
+     */
+    public synchronized Clusters.ClusterStatus getStatus(String clusterId) {
+        Clusters.Cluster cluster = this.lastSeen.get(clusterId);
+        return cluster == null ? null : cluster.getStatusCode();
+    }
+
+    /**
+     * Set how often to poll while any cluster has a status.  Statuses in
+     * {@link #CLUSTER_STATUS_FINAL} have no interval by default.
+     *
+     * @param status cluster status
+     * @param interval polling interval in milliseconds, or 0 to clear it
+     */
+    public synchronized void setPollingInterval(Clusters.ClusterStatus status, long interval) {
+        if (interval > 0) {
+            this.pollingIntervals.put(status, interval);
+        } else {
+            this.pollingIntervals.remove(status);
+        }
+    }
+
+    /**
+     * Set how often to poll when no cluster has a status with a polling interval.
+     * Default is one minute.
+     */
+    public void setIdleInterval(long idleInterval) {
+        this.idleInterval = idleInterval;
+    }
+
+    /**
+     * Emit an {@link Instrumentation#POLL} event for each poll.  Defaults to the
+     * instrumentation of the API client at construction.
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Stop polling.  Pending {@link #whenStatus} futures are cancelled.  A shared
+     * scheduler passed in at construction is left running.
+     */
+    public void shutdown() {
+        List<StatusWaiter> pending;
+        synchronized (this) {
+            this.started = false;
+            if (this.nextPoll != null) {
+                this.nextPoll.cancel(false);
+            }
+            pending = this.waiters;
+            this.waiters = new ArrayList<StatusWaiter>();
+        }
+        if (this.ownsScheduler) {
+            this.scheduler.shutdownNow();
+        }
+        for (StatusWaiter waiter : pending) {
+            waiter.future.cancel(false);
+        }
+    }
+
+    private synchronized void schedule(long delay) {
+        if (!this.started) {
+            return;
+        }
+        this.nextPoll = this.scheduler.schedule(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                } catch (IOException e) {
+                    logger.warn("Unable to poll clusters", e);
+                } catch (RuntimeException e) {
+                    logger.warn("Unexpected error polling clusters", e);
+                }
+                schedule(getNextPollingDelay());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static class StatusWaiter {
+        final String clusterId;
+        final Set<Clusters.ClusterStatus> statuses;
+        final ResultFuture<Clusters.Cluster> future = new ResultFuture<Clusters.Cluster>();
+        Clusters.Cluster cluster;
+        long registeredAfterPoll;
+
+        StatusWaiter(String clusterId, Set<Clusters.ClusterStatus> statuses) {
+            this.clusterId = clusterId;
+            this.statuses = statuses;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ClusterWatcher [started=" + started + ", clusters=" + lastSeen.size()
+                + ", listeners=" + listeners.size() + ", waiters=" + waiters.size() + "]";
+    }
+}
@@ -17,8 +17,11 @@ package com.mortardata.api.v2;
 
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.util.Key;
+import com.mortardata.util.Instrumentation;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +44,13 @@ public class Clusters {
         this.api = api;
     }
 
+    /**
+     * Instrumentation of the API client, for pollers built on this API.
+     */
+    Instrumentation getInstrumentation() {
+        return this.api.getInstrumentation();
+    }
+
     /**
      * Get all recent or running clusters from the API.
      *
@@ -49,7 +59,7 @@ public class Clusters {
      */
     public ClustersList getClusters() throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("clusters");
-        return request.execute().parseAs(Clusters.ClustersList.class);
+        return this.api.execute(request, Clusters.ClustersList.class);
     }
 
     /**
@@ -59,7 +69,7 @@ public class Clusters {
      */
     public void stopCluster(String clusterId) throws IOException {
         HttpRequest request = this.api.buildHttpDeleteRequest("clusters/" + clusterId);
-        request.execute();
+        this.api.execute(request);
     }
 
     /**
@@ -126,6 +136,8 @@ public class Clusters {
         @Key("size")
         private int size;
 
+        private volatile TaskTrackerIndex taskTrackerIndex;
+
 
         /**
          * Id of this cluster.
@@ -162,6 +174,62 @@ public class Clusters {
             return taskTrackers;
         }
 
+        /**
+         * Task trackers for this cluster, decoded once into typed form.
+         */
+        public List<TaskTracker> getTaskTrackerList() {
+            return getTaskTrackerIndex().trackers;
+        }
+
+        /**
+         * Number of task trackers that are not dead, blacklisted or decommissioned.
+         */
+        public int getLiveTaskTrackerCount() {
+            return getTaskTrackerIndex().liveTaskTrackers;
+        }
+
+        /**
+         * Total map slots over live task trackers, or -1 if a live task tracker does not
+         * report its map slots.
+         */
+        public int getTotalMapSlots() {
+            return getTaskTrackerIndex().totalMapSlots;
+        }
+
+        /**
+         * Total reduce slots over live task trackers, or -1 if a live task tracker does not
+         * report its reduce slots.
+         */
+        public int getTotalReduceSlots() {
+            return getTaskTrackerIndex().totalReduceSlots;
+        }
+
+        /**
+         * Map slots not running a task over live task trackers, or -1 if a live task
+         * tracker does not report its map slots and running maps.
+         */
+        public int getFreeMapSlots() {
+            return getTaskTrackerIndex().freeMapSlots;
+        }
+
+        /**
+         * Reduce slots not running a task over live task trackers, or -1 if a live task
+         * tracker does not report its reduce slots and running reduces.
+         */
+        public int getFreeReduceSlots() {
+            return getTaskTrackerIndex().freeReduceSlots;
+        }
+
+        private TaskTrackerIndex getTaskTrackerIndex() {
+            // benign race: concurrent callers may each build an identical index
+            TaskTrackerIndex index = taskTrackerIndex;
+            if (index == null) {
+                index = new TaskTrackerIndex(taskTrackers);
+                taskTrackerIndex = index;
+            }
+            return index;
+        }
+
         /**
          * Timestamp when the cluster started.
          * Example: 2012-02-28T03:35:42.831000+00:00
@@ -247,6 +315,197 @@ public class Clusters {
         }
     }
 
+    /**
+     * A task tracker on a cluster, decoded from the API's string map.
+     *
+     * The API documents only address and url; slot and task counts are read from the
+     * keys below when present, and missing or malformed counts decode as -1 (unknown).
+     * A tracker reported only by address still counts toward
+     * {@link Cluster#getLiveTaskTrackerCount()}.
+     */
+    public static class TaskTracker {
+
+        private static final String[] HOST_KEYS =
+                {"host", "hostname", "public_dns", "private_dns", "private_ip", "address"};
+        private static final String[] URL_KEYS = {"url", "http_url"};
+        private static final String[] STATE_KEYS = {"state", "status"};
+        private static final String[] MAP_SLOTS_KEYS = {"map_slots", "max_map_tasks"};
+        private static final String[] REDUCE_SLOTS_KEYS = {"reduce_slots", "max_reduce_tasks"};
+        private static final String[] RUNNING_MAPS_KEYS = {"running_maps", "map_tasks_running"};
+        private static final String[] RUNNING_REDUCES_KEYS =
+                {"running_reduces", "reduce_tasks_running"};
+        private static final int UNKNOWN = -1;
+        private static final String[] DEAD_STATES = {"dead", "blacklisted", "decommissioned"};
+
+        private final String host;
+        private final String url;
+        private final String state;
+        private final int mapSlots;
+        private final int reduceSlots;
+        private final int runningMaps;
+        private final int runningReduces;
+
+        TaskTracker(Map<String, String> fields) {
+            this.host = lookup(fields, HOST_KEYS);
+            this.url = lookup(fields, URL_KEYS);
+            this.state = lookup(fields, STATE_KEYS);
+            this.mapSlots = lookupInt(fields, MAP_SLOTS_KEYS);
+            this.reduceSlots = lookupInt(fields, REDUCE_SLOTS_KEYS);
+            this.runningMaps = lookupInt(fields, RUNNING_MAPS_KEYS);
+            this.runningReduces = lookupInt(fields, RUNNING_REDUCES_KEYS);
+        }
+
+        private static String lookup(Map<String, String> fields, String[] keys) {
+            for (String key : keys) {
+                Object value = fields.get(key);
+                if (value != null) {
+                    return value.toString();
+                }
+            }
+            return null;
+        }
+
+        private static int lookupInt(Map<String, String> fields, String[] keys) {
+            String value = lookup(fields, keys);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            try {
+                return Math.max(0, (int) Double.parseDouble(value.trim()));
+            } catch (NumberFormatException e) {
+                return UNKNOWN;
+            }
+        }
+
+        /**
+         * Host name or address of the task tracker, or null if not reported.
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Url of the task tracker, or null if not reported.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * State of the task tracker as reported, or null if not reported.
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * Whether the task tracker can run tasks: its state is not dead, blacklisted
+         * or decommissioned.
+         */
+        public boolean isLive() {
+            if (state == null) {
+                return true;
+            }
+            for (String dead : DEAD_STATES) {
+                if (dead.equalsIgnoreCase(state)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Map slots on the task tracker, or -1 if not reported.
+         */
+        public int getMapSlots() {
+            return mapSlots;
+        }
+
+        /**
+         * Reduce slots on the task tracker, or -1 if not reported.
+         */
+        public int getReduceSlots() {
+            return reduceSlots;
+        }
+
+        /**
+         * Map tasks running on the task tracker, or -1 if not reported.
+         */
+        public int getRunningMaps() {
+            return runningMaps;
+        }
+
+        /**
+         * Reduce tasks running on the task tracker, or -1 if not reported.
+         */
+        public int getRunningReduces() {
+            return runningReduces;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskTracker [host=" + host + ", state=" + state + ", mapSlots=" + mapSlots
+                    + ", reduceSlots=" + reduceSlots + ", runningMaps=" + runningMaps
+                    + ", runningReduces=" + runningReduces + "]";
+        }
+    }
+
+    /**
+     * Typed task trackers and their totals, computed once per Cluster.
+     */
+    private static class TaskTrackerIndex {
+
+        final List<TaskTracker> trackers;
+        final int liveTaskTrackers;
+        final int totalMapSlots;
+        final int totalReduceSlots;
+        final int freeMapSlots;
+        final int freeReduceSlots;
+
+        TaskTrackerIndex(List<Map<String, String>> taskTrackers) {
+            List<TaskTracker> decoded = new ArrayList<TaskTracker>(
+                    taskTrackers == null ? 0 : taskTrackers.size());
+            int live = 0;
+            int mapSlots = 0;
+            int reduceSlots = 0;
+            int freeMaps = 0;
+            int freeReduces = 0;
+            if (taskTrackers != null) {
+                for (Map<String, String> fields : taskTrackers) {
+                    if (fields == null) {
+                        continue;
+                    }
+                    TaskTracker tracker = new TaskTracker(fields);
+                    decoded.add(tracker);
+                    if (tracker.isLive()) {
+                        live++;
+                        mapSlots = add(mapSlots, tracker.getMapSlots());
+                        reduceSlots = add(reduceSlots, tracker.getReduceSlots());
+                        freeMaps = add(freeMaps,
+                                free(tracker.getMapSlots(), tracker.getRunningMaps()));
+                        freeReduces = add(freeReduces,
+                                free(tracker.getReduceSlots(), tracker.getRunningReduces()));
+                    }
+                }
+            }
+            this.trackers = Collections.unmodifiableList(decoded);
+            this.liveTaskTrackers = live;
+            this.totalMapSlots = mapSlots;
+            this.totalReduceSlots = reduceSlots;
+            this.freeMapSlots = freeMaps;
+            this.freeReduceSlots = freeReduces;
+        }
+
+        // a single unknown count makes the total unknown
+        private static int add(int total, int count) {
+            return total < 0 || count < 0 ? -1 : total + count;
+        }
+
+        private static int free(int slots, int running) {
+            return slots < 0 || running < 0 ? -1 : Math.max(0, slots - running);
+        }
+    }
+
     /**
      * Cluster status.
      */
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so background pollers never keep the JVM alive.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    DaemonThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -17,6 +17,8 @@ package com.mortardata.api.v2;
 
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.util.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -30,7 +32,13 @@ import java.util.Map;
  */
 public class Describes {
 
+    static final String TASK_TYPE = "describe";
+
+    final Logger logger = LoggerFactory.getLogger(Describes.class);
+
     private API api;
+    private TaskResultCache cache;
+    private TaskResultCache.PendingKeys pendingKeys = new TaskResultCache.PendingKeys();
 
     /**
      * Construct a Describes V2 API.
@@ -38,7 +46,18 @@ public class Describes {
      * @param api API client
      */
     public Describes(API api) {
+        this(api, null);
+    }
+
+    /**
+     * Construct a Describes V2 API that stores successful results in a local cache.
+     *
+     * @param api API client
+     * @param cache cache for results of describes run at a commit hash (null for no cache)
+     */
+    public Describes(API api, TaskResultCache cache) {
         this.api = api;
+        this.cache = cache;
     }
 
     /**
@@ -60,7 +79,38 @@ public class Describes {
         arguments.put("pigscript_name", pigScriptName);
 
         HttpRequest request = this.api.buildHttpPostRequest("describes", arguments);
-        return (String) request.execute().parseAs(HashMap.class).get("describe_id");
+        String describeId =
+                (String) this.api.execute(request, HashMap.class).get("describe_id");
+        if (this.cache != null && TaskResultCache.isCommitHash(gitRef)) {
+            this.pendingKeys.put(describeId, new TaskResultCache.TaskKey(
+                    TASK_TYPE, projectName, pigScriptName, alias, gitRef));
+        }
+        return describeId;
+    }
+
+    /**
+     * Get the results of a previous Pig DESCRIBE from the local cache, without
+     * calling the API.  Only successful results run at a full commit hash are cached,
+     * through a Describes constructed with a TaskResultCache.
+     *
+     * @param alias Pig alias to describe
+     * @param gitRef version of code (git hash) to use
+     * @param projectName Mortar project to use
+     * @param pigScriptName Pigscript to use (without path or extension)
+     * @return cached DescribeResult, or null if none is cached
+     */
+    public DescribeResult getCachedDescribe(String alias, String gitRef, String projectName,
+                                            String pigScriptName) {
+        if (this.cache == null) {
+            return null;
+        }
+        try {
+            return this.cache.get(new TaskResultCache.TaskKey(
+                    TASK_TYPE, projectName, pigScriptName, alias, gitRef), DescribeResult.class);
+        } catch (IOException e) {
+            logger.warn("Unable to read describe result from cache", e);
+            return null;
+        }
     }
 
     /**
@@ -72,7 +122,9 @@ public class Describes {
      */
     public DescribeResult getDescribe(String describeId) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("describes/" + describeId);
-        return request.execute().parseAs(DescribeResult.class);
+        DescribeResult result = this.api.execute(request, DescribeResult.class);
+        cacheResult(describeId, result, true);
+        return result;
     }
 
     /**
@@ -86,7 +138,32 @@ public class Describes {
     public DescribeResult getDescribe(String describeId, boolean excludeResult) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("describes/" + describeId
                 + "?exclude_result=" + excludeResult);
-        return request.execute().parseAs(DescribeResult.class);
+        DescribeResult result = this.api.execute(request, DescribeResult.class);
+        cacheResult(describeId, result, !excludeResult);
+        return result;
+    }
+
+    /**
+     * Get the status of a Pig DESCRIBE operation, without downloading its result.
+     *
+     * @param describeId ID of the describe
+     * @return status of the describe
+     * @throws IOException if describe does not exist or unable to fetch from the API
+     */
+    public TaskStatus getDescribeStatus(String describeId) throws IOException {
+        return getDescribe(describeId, true).getStatusCode();
+    }
+
+    private void cacheResult(String describeId, DescribeResult result, boolean hasResult) {
+        TaskResultCache.TaskKey key =
+                this.pendingKeys.complete(describeId, result.getStatusCode(), hasResult);
+        if (key != null) {
+            try {
+                this.cache.put(key, result);
+            } catch (IOException e) {
+                logger.warn("Unable to write describe result to cache", e);
+            }
+        }
     }
 
     /**
@@ -121,6 +198,8 @@ public class Describes {
         @Key("result")
         private Map<String, Object> result;
 
+        private LazyResult lazyResult;
+
         /**
          * Name of the Mortar project for the describe.
          */
@@ -186,9 +265,29 @@ public class Describes {
 
         /**
          * Describe results.
+         *
+         * For results returned by a {@link TaskRunner}, the results are downloaded on
+         * first access and then kept; an IllegalStateException is thrown if they
+         * cannot be downloaded.
          */
         public Map<String, Object> getResult() {
-            return result;
+            LazyResult loader;
+            synchronized (this) {
+                if (result != null || lazyResult == null) {
+                    return result;
+                }
+                loader = lazyResult;
+            }
+            Map<String, Object> loaded = loader.get();
+            synchronized (this) {
+                result = loaded;
+                lazyResult = null;
+            }
+            return loaded;
+        }
+
+        synchronized void setLazyResult(LazyResult lazyResult) {
+            this.lazyResult = lazyResult;
         }
 
         @Override
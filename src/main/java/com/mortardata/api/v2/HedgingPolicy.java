@@ -0,0 +1,321 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hedges slow GET requests: if a request has not answered within the observed p95
+ * latency, a second identical request is sent and whichever answers first is used.
+ *
+ * Hedging is opt-in through {@link API#setHedgingPolicy(HedgingPolicy)} and only
+ * applies to GETs, which are idempotent.  A budget caps hedges to a fraction of
+ * requests, so a slow API is not made slower by doubling its load.  The losing
+ * attempt cannot be interrupted mid-read, so it is left to finish and its response
+ * is disconnected unread.
+ */
+public class HedgingPolicy {
+
+    /**
+     * Default latency percentile after which a request is hedged.
+     */
+    public static final double DEFAULT_PERCENTILE = 0.95;
+
+    /**
+     * Default maximum fraction of requests that are hedged.
+     */
+    public static final double DEFAULT_BUDGET = 0.05;
+
+    private static final int MIN_SAMPLES = 20;
+    private static final int WINDOW = 1000;
+    private static final double MAX_BURST = 10;
+
+    private ExecutorService executor;
+    private double percentile = DEFAULT_PERCENTILE;
+    private double budget = DEFAULT_BUDGET;
+    private long initialDelay = 1000;
+    private long minDelay = 10;
+
+    private LatencySketch window = new LatencySketch();
+    private LatencySketch previousWindow = new LatencySketch();
+    private LatencySketch primaryLatency = new LatencySketch();
+    private LatencySketch latency = new LatencySketch();
+    private double hedgeTokens = 1;
+    private long requestCount = 0;
+    private long hedgeCount = 0;
+    private long hedgeWinCount = 0;
+
+    /**
+     * Construct a HedgingPolicy with its own threads for attempts.
+     */
+    public HedgingPolicy() {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("mortar-hedge")));
+    }
+
+    HedgingPolicy(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the latency percentile, from 0 to 1, after which a request is hedged.
+     * Default is 0.95.
+     */
+    public synchronized void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Set the maximum fraction of requests that are hedged.  Default is 0.05.
+     */
+    public synchronized void setBudget(double budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Set the hedging delay used until enough latencies have been observed, in
+     * milliseconds.  Default is 1 second.
+     */
+    public synchronized void setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Set the shortest hedging delay, in milliseconds.  Default is 10.
+     */
+    public synchronized void setMinDelay(long minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    /**
+     * Current delay after which an unanswered request is hedged, in milliseconds.
+     */
+    public synchronized long getDelay() {
+        LatencySketch recent = this.previousWindow.getCount() >= MIN_SAMPLES
+                ? this.previousWindow : this.window;
+        if (recent.getCount() < MIN_SAMPLES) {
+            return Math.max(this.minDelay, this.initialDelay);
+        }
+        return Math.max(this.minDelay, recent.getQuantile(this.percentile));
+    }
+
+    /**
+     * Run an attempt, hedging it with a second attempt if it is slow.
+     */
+    <T> T execute(final Attempt<T> attempt) throws IOException {
+        long start = System.nanoTime();
+        long delay;
+        synchronized (this) {
+            this.requestCount++;
+            this.hedgeTokens = Math.min(MAX_BURST, this.hedgeTokens + this.budget);
+            delay = getDelay();
+        }
+
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        CompletionService<T> completion = new ExecutorCompletionService<T>(this.executor);
+        Future<T> first = completion.submit(new AttemptTask<T>(attempt, claimed, true));
+        Future<T> second = null;
+        try {
+            Future<T> done = completion.poll(delay, TimeUnit.MILLISECONDS);
+            int pending = 1;
+            if (done == null && acquireHedge()) {
+                second = completion.submit(new AttemptTask<T>(attempt, claimed, false));
+                pending++;
+            }
+            Throwable failure = null;
+            while (pending > 0) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                pending--;
+                try {
+                    T result = done.get();
+                    synchronized (this) {
+                        if (done == second) {
+                            this.hedgeWinCount++;
+                        }
+                        this.latency.add((System.nanoTime() - start) / 1000000);
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    // a lost attempt means the other one won and is still to be taken
+                    if (!(e.getCause() instanceof LostException) && failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+                done = null;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            throw new IOException(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            claimed.set(true);
+            throw new InterruptedIOException("Interrupted waiting for response");
+        } finally {
+            first.cancel(false);
+            if (second != null) {
+                second.cancel(false);
+            }
+        }
+    }
+
+    private synchronized boolean acquireHedge() {
+        if (this.hedgeTokens < 1) {
+            return false;
+        }
+        this.hedgeTokens--;
+        this.hedgeCount++;
+        return true;
+    }
+
+    private synchronized void recordPrimary(long millis) {
+        this.primaryLatency.add(millis);
+        this.window.add(millis);
+        if (this.window.getCount() >= WINDOW) {
+            this.previousWindow = this.window;
+            this.window = new LatencySketch();
+        }
+    }
+
+    /**
+     * Number of requests run.
+     */
+    public synchronized long getRequestCount() {
+        return this.requestCount;
+    }
+
+    /**
+     * Number of requests hedged.
+     */
+    public synchronized long getHedgeCount() {
+        return this.hedgeCount;
+    }
+
+    /**
+     * Fraction of requests hedged.
+     */
+    public synchronized double getHedgeRate() {
+        return this.requestCount == 0 ? 0 : (double) this.hedgeCount / this.requestCount;
+    }
+
+    /**
+     * Number of hedged requests answered first by the hedge.
+     */
+    public synchronized long getHedgeWinCount() {
+        return this.hedgeWinCount;
+    }
+
+    /**
+     * Latency of requests as seen by callers, with hedging, in milliseconds.
+     */
+    public synchronized LatencySketch getLatency() {
+        LatencySketch copy = new LatencySketch();
+        copy.merge(this.latency);
+        return copy;
+    }
+
+    /**
+     * Latency of first attempts alone, as if not hedged, in milliseconds.
+     */
+    public synchronized LatencySketch getPrimaryLatency() {
+        LatencySketch copy = new LatencySketch();
+        copy.merge(this.primaryLatency);
+        return copy;
+    }
+
+    /**
+     * Reduction in p99 latency from hedging, in milliseconds.
+     */
+    public synchronized long getP99Improvement() {
+        return this.primaryLatency.getQuantile(0.99) - this.latency.getQuantile(0.99);
+    }
+
+    /**
+     * Stop the threads running attempts.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * One way of making a request, which may be run twice concurrently.
+     */
+    interface Attempt<T> {
+
+        T run() throws IOException;
+
+        /**
+         * Release a result that lost to the other attempt.
+         */
+        void discard(T result);
+    }
+
+    /**
+     * Runs an attempt, discarding its result if the other attempt already won.
+     */
+    private class AttemptTask<T> implements Callable<T> {
+
+        private Attempt<T> attempt;
+        private AtomicBoolean claimed;
+        private boolean primary;
+
+        AttemptTask(Attempt<T> attempt, AtomicBoolean claimed, boolean primary) {
+            this.attempt = attempt;
+            this.claimed = claimed;
+            this.primary = primary;
+        }
+
+        public T call() throws IOException, LostException {
+            long start = System.nanoTime();
+            T result = this.attempt.run();
+            if (this.primary) {
+                recordPrimary((System.nanoTime() - start) / 1000000);
+            }
+            if (!this.claimed.compareAndSet(false, true)) {
+                this.attempt.discard(result);
+                throw new LostException();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Thrown by an attempt that answered after the other attempt.
+     */
+    private static class LostException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HedgingPolicy [requestCount=" + requestCount + ", hedgeRate=" + getHedgeRate()
+                + ", delay=" + getDelay() + "]";
+    }
+}
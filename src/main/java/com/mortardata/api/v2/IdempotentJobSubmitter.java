@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.http.HttpResponseException;
+import com.mortardata.util.Timestamps;
+
+/**
+ * Runs jobs at most once per submission key.
+ *
+ * Before a job is posted its key is recorded in a {@link SubmissionJournal}, and the
+ * returned job_id is recorded after.  Posting a key that already has a job_id
+ * returns that job_id without posting again.  When a post fails ambiguously, for
+ * example by timing out after the API may have started the job, the submitter looks
+ * for the job in getJobs() before reporting the failure, matching on project,
+ * script, git ref, parameters and a start time after the first attempt.  A later
+ * retry of the same key reconciles again before posting, so a retry never starts a
+ * duplicate of a job that did start.  Each attempt is a single POST: the client's
+ * automatic retry of error responses is disabled for it.
+ */
+public class IdempotentJobSubmitter {
+
+    final Logger logger = LoggerFactory.getLogger(IdempotentJobSubmitter.class);
+
+    /**
+     * Default allowance for clock difference between this host and the API, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_CLOCK_SKEW = 60000;
+
+    private Jobs jobs;
+    private SubmissionJournal journal;
+    private volatile long clockSkew = DEFAULT_CLOCK_SKEW;
+    private volatile int recentJobsLimit = ClusterPool.DEFAULT_RECENT_JOBS_LIMIT;
+    private volatile int reconcileAttempts = 3;
+    private volatile long reconcileDelay = 2000;
+    private final Map<String, KeyLock> keyLocks = new HashMap<String, KeyLock>();
+
+    /**
+     * Construct an IdempotentJobSubmitter.
+     *
+     * @param jobs Jobs API used to run and find jobs
+     * @param journal journal of submissions
+     */
+    public IdempotentJobSubmitter(Jobs jobs, SubmissionJournal journal) {
+        this.jobs = jobs;
+        this.journal = journal;
+    }
+
+    /**
+     * Generate a new random submission key.
+     *
+     * @return a key unique to this submission
+     */
+    public static String newSubmissionKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Run a job unless a job was already started for its submission key.  A request
+     * without a key is given a new one, which can be read back from the request to
+     * retry it.
+     *
+     * @param jobRequest Info about job to run
+     * @return job_id ID of the job started for the request's submission key
+     * @throws IOException if unable to run the job, and no job for the key is found
+     * @throws InterruptedException if interrupted while reconciling
+     */
+    public String postJob(JobRequest jobRequest) throws IOException, InterruptedException {
+        String key = jobRequest.getSubmissionKey();
+        if (key == null) {
+            key = newSubmissionKey();
+            jobRequest.setSubmissionKey(key);
+        }
+        KeyLock lock = acquire(key);
+        try {
+            synchronized (lock) {
+                return postJob(key, jobRequest);
+            }
+        } finally {
+            release(key, lock);
+        }
+    }
+
+    private String postJob(String key, JobRequest jobRequest)
+            throws IOException, InterruptedException {
+        String jobId = this.journal.getJobId(key);
+        if (jobId != null) {
+            logger.debug("Submission " + key + " already started job " + jobId);
+            return jobId;
+        }
+        Long pendingAttempt = this.journal.getPendingAttempt(key);
+        if (pendingAttempt != null) {
+            // a previous attempt had an unknown outcome
+            jobId = reconcile(key, jobRequest, pendingAttempt, 1);
+            if (jobId != null) {
+                return jobId;
+            }
+        }
+
+        long attempt = System.currentTimeMillis();
+        this.journal.recordAttempt(key, attempt);
+        try {
+            // unretried, so every attempt that could start a job is journaled
+            jobId = this.jobs.postJobOnce(jobRequest);
+        } catch (IOException e) {
+            if (isDefiniteFailure(e)) {
+                this.journal.recordFailure(key);
+                throw e;
+            }
+            logger.info("Ambiguous failure submitting " + key + ", reconciling", e);
+            jobId = reconcile(key, jobRequest,
+                    pendingAttempt == null ? attempt : pendingAttempt, this.reconcileAttempts);
+            if (jobId == null) {
+                throw e;
+            }
+            return jobId;
+        }
+        this.journal.recordJobId(key, jobId);
+        return jobId;
+    }
+
+    /**
+     * Whether a post failure means the API did not start the job: a 4xx response
+     * other than 408 Request Timeout or 429 Too Many Requests.
+     */
+    static boolean isDefiniteFailure(IOException e) {
+        if (!(e instanceof HttpResponseException)) {
+            return false;
+        }
+        int status = ((HttpResponseException) e).getStatusCode();
+        return status >= 400 && status < 500 && status != 408
+                && status != BulkJobSubmitter.STATUS_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Look for a job matching the request that started after a submission attempt
+     * and is not claimed by another key, recording it if found.
+     */
+    private String reconcile(String key, JobRequest jobRequest, long since, int attempts)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < attempts; i++) {
+            if (i > 0) {
+                Thread.sleep(this.reconcileDelay);
+            }
+            Jobs.JobsList jobsList = this.jobs.getJobs(0, this.recentJobsLimit);
+            if (jobsList.jobs == null) {
+                continue;
+            }
+            // jobs are listed newest first; take the earliest match
+            Jobs.Job found = null;
+            for (Jobs.Job job : jobsList.jobs) {
+                if (matches(job, jobRequest, since) && !this.journal.isClaimed(job.getJobId())) {
+                    found = job;
+                }
+            }
+            if (found != null) {
+                logger.info("Reconciled submission " + key + " to job " + found.getJobId());
+                this.journal.recordJobId(key, found.getJobId());
+                return found.getJobId();
+            }
+        }
+        return null;
+    }
+
+    boolean matches(Jobs.Job job, JobRequest jobRequest, long since) {
+        if (job.getJobId() == null || !equal(job.getProjectName(), jobRequest.getProjectName())
+                || !(equal(job.getScriptName(), jobRequest.getScriptName())
+                || equal(job.getPigscriptName(), jobRequest.getScriptName()))) {
+            return false;
+        }
+        // the API may resolve a branch to a commit hash, so only hashes are compared
+        if (TaskResultCache.isCommitHash(jobRequest.getGitRef())
+                && !jobRequest.getGitRef().equalsIgnoreCase(job.getGitRef())) {
+            return false;
+        }
+        Map<String, String> expected = jobRequest.getParameters() == null
+                ? new HashMap<String, String>() : jobRequest.getParameters();
+        Map<String, String> actual = job.getScriptParameters() == null
+                ? new HashMap<String, String>() : job.getScriptParameters();
+        if (!expected.equals(actual) || job.getStartTimestamp() == null) {
+            return false;
+        }
+        try {
+            return Timestamps.parse(job.getStartTimestamp()) >= since - this.clockSkew;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Lock serializing submissions of one key, held in keyLocks only while some
+     * thread is submitting the key.
+     */
+    private synchronized KeyLock acquire(String key) {
+        KeyLock lock = this.keyLocks.get(key);
+        if (lock == null) {
+            lock = new KeyLock();
+            this.keyLocks.put(key, lock);
+        }
+        lock.users++;
+        return lock;
+    }
+
+    private synchronized void release(String key, KeyLock lock) {
+        if (--lock.users == 0) {
+            this.keyLocks.remove(key);
+        }
+    }
+
+    synchronized int getKeyLockCount() {
+        return this.keyLocks.size();
+    }
+
+    private static class KeyLock {
+        // guarded by the submitter
+        int users;
+    }
+
+    /**
+     * Set the allowance for clock difference between this host and the API, in
+     * milliseconds.  Default is one minute.
+     */
+    public void setClockSkew(long clockSkew) {
+        this.clockSkew = clockSkew;
+    }
+
+    /**
+     * Set how many recent jobs are searched when reconciling.  Default is 100.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    /**
+     * Set how many times, and how far apart in milliseconds, getJobs() is searched
+     * after an ambiguous failure, since a started job may take a moment to be listed.
+     * Default is 3 times, 2 seconds apart.
+     */
+    public void setReconcileAttempts(int reconcileAttempts, long reconcileDelay) {
+        this.reconcileAttempts = reconcileAttempts;
+        this.reconcileDelay = reconcileDelay;
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotentJobSubmitter [journal=" + journal + "]";
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mortardata.util.Timestamps;
+
+/**
+ * Stops persistent clusters that have run no jobs for an idle window.
+ *
+ * A cluster is idle since the later of its running_timestamp and the
+ * stop_timestamp of the last job that ran on it.  Clusters are only stopped when
+ * the fetched jobs cover the cluster's whole running time, so a long-running job
+ * beyond the recent jobs limit never looks idle.  PERMANENT clusters are never
+ * stopped unless {@link #setStopPermanentClusters(boolean)} is enabled.
+ *
+ * The reaper starts in dry-run mode, recording what it would stop without stopping
+ * anything.  Every decision is kept in an audit trail and optionally appended to an
+ * audit log file.
+ */
+public class IdleClusterReaper {
+
+    static final Logger LOGGER = LoggerFactory.getLogger(IdleClusterReaper.class);
+
+    /**
+     * Default time a cluster must be idle before it is stopped, in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_WINDOW = 30L * 60L * 1000L;
+
+    private static final int MAX_AUDIT_ENTRIES = 1000;
+
+    private Jobs jobs;
+    private Clusters clusters;
+
+    private volatile long idleWindow = DEFAULT_IDLE_WINDOW;
+    private volatile boolean dryRun = true;
+    private volatile boolean stopPermanentClusters = false;
+    private volatile int recentJobsLimit = ClusterPool.DEFAULT_RECENT_JOBS_LIMIT;
+    private volatile File auditLog;
+
+    private List<AuditEntry> auditTrail = new ArrayList<AuditEntry>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Construct an IdleClusterReaper in dry-run mode.
+     *
+     * @param jobs Jobs API used to find job activity
+     * @param clusters Clusters API used to find and stop clusters
+     */
+    public IdleClusterReaper(Jobs jobs, Clusters clusters) {
+        this.jobs = jobs;
+        this.clusters = clusters;
+    }
+
+    /**
+     * Stop, or in dry-run mode report, every cluster idle for longer than the idle
+     * window.
+     *
+     * @return audit entries for clusters stopped or that would be stopped
+     * @throws IOException if unable to fetch clusters or jobs from the API
+     */
+    public List<AuditEntry> reap() throws IOException {
+        return reap(this.clusters.getClusters(), this.jobs.getJobs(0, this.recentJobsLimit),
+                System.currentTimeMillis());
+    }
+
+    List<AuditEntry> reap(Clusters.ClustersList clustersList, Jobs.JobsList jobsList,
+                          long now) {
+        List<Jobs.Job> recentJobs = jobsList.jobs == null
+                ? new ArrayList<Jobs.Job>() : jobsList.jobs;
+        List<AuditEntry> entries = new ArrayList<AuditEntry>();
+        if (clustersList.clusters == null) {
+            return entries;
+        }
+        for (Clusters.Cluster cluster : clustersList.clusters) {
+            if (!isReapable(cluster)) {
+                continue;
+            }
+            if (!coversRunningTime(recentJobs, this.recentJobsLimit, cluster)) {
+                LOGGER.debug("Not enough job history to reap " + cluster.getClusterId());
+                continue;
+            }
+            long runningSince = parseOrMax(cluster.getRunningTimestamp());
+            long idleSince = getIdleSince(cluster.getClusterId(), runningSince, recentJobs);
+            if (idleSince == Long.MAX_VALUE || now - idleSince < this.idleWindow) {
+                continue;
+            }
+            String reason = cluster.getClusterTypeCode() + " cluster of size "
+                    + cluster.getSize() + " idle since " + Timestamps.format(idleSince);
+            entries.add(stop(cluster.getClusterId(), reason, now));
+        }
+        return entries;
+    }
+
+    /**
+     * Whether recent jobs, listed newest first up to a limit, include every job that
+     * could have run on a cluster since it started running.
+     */
+    static boolean coversRunningTime(List<Jobs.Job> recentJobs, int recentJobsLimit,
+                                     Clusters.Cluster cluster) {
+        long runningSince = parseOrMax(cluster.getRunningTimestamp());
+        if (runningSince == Long.MAX_VALUE) {
+            return false;
+        }
+        if (recentJobs.isEmpty()) {
+            // an empty listing is complete unless the limit allowed no jobs at all
+            return recentJobsLimit > 0;
+        }
+        // the listing covers everything since the oldest listed job started unless it
+        // was cut short by the limit
+        return recentJobs.size() < recentJobsLimit || runningSince
+                >= parseOrMax(recentJobs.get(recentJobs.size() - 1).getStartTimestamp());
+    }
+
+    private boolean isReapable(Clusters.Cluster cluster) {
+        if (cluster.getStatusCode() != Clusters.ClusterStatus.RUNNING) {
+            return false;
+        }
+        Clusters.ClusterType type = cluster.getClusterTypeCode();
+        return type == Clusters.ClusterType.PERSISTENT
+                || (type == Clusters.ClusterType.PERMANENT && this.stopPermanentClusters);
+    }
+
+    /**
+     * Time since which a cluster has run no jobs, or Long.MAX_VALUE if a job is
+     * still running on it.
+     */
+    private long getIdleSince(String clusterId, long runningSince, List<Jobs.Job> recentJobs) {
+        long idleSince = runningSince;
+        for (Jobs.Job job : recentJobs) {
+            if (!clusterId.equals(job.getClusterId())) {
+                continue;
+            }
+            if (!Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode())) {
+                return Long.MAX_VALUE;
+            }
+            idleSince = Math.max(idleSince, parseOrMax(job.getStopTimestamp()));
+        }
+        return idleSince;
+    }
+
+    /**
+     * Parse a timestamp, treating a missing or malformed one as the far future so
+     * that nothing is stopped on bad data.
+     */
+    private static long parseOrMax(String timestamp) {
+        if (timestamp == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring malformed timestamp " + timestamp);
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private AuditEntry stop(String clusterId, String reason, long now) {
+        AuditEntry.Action action;
+        if (this.dryRun) {
+            action = AuditEntry.Action.WOULD_STOP;
+        } else {
+            try {
+                this.clusters.stopCluster(clusterId);
+                action = AuditEntry.Action.STOPPED;
+            } catch (IOException e) {
+                LOGGER.warn("Unable to stop idle cluster " + clusterId, e);
+                action = AuditEntry.Action.STOP_FAILED;
+                reason = reason + ": " + e.getMessage();
+            }
+        }
+        AuditEntry entry = new AuditEntry(now, action, clusterId, reason);
+        audit(entry);
+        return entry;
+    }
+
+    private void audit(AuditEntry entry) {
+        LOGGER.info("Idle cluster reaper: " + entry);
+        synchronized (this.auditTrail) {
+            this.auditTrail.add(entry);
+            if (this.auditTrail.size() > MAX_AUDIT_ENTRIES) {
+                this.auditTrail.remove(0);
+            }
+        }
+        File log = this.auditLog;
+        if (log == null) {
+            return;
+        }
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(log, true), "UTF-8");
+            try {
+                writer.write(entry.toLogLine());
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write audit log " + log, e);
+        }
+    }
+
+    /**
+     * Reap on a background thread until {@link #shutdown()}.  Errors are logged and
+     * reaping continues.
+     *
+     * @param interval time between runs, in milliseconds
+     */
+    public synchronized void start(long interval) {
+        if (this.scheduler != null) {
+            throw new IllegalStateException("Reaper already started");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("mortar-cluster-reaper"));
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    reap();
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to reap idle clusters", e);
+                } catch (RuntimeException e) {
+                    // thrown out of the task, it would cancel all later runs
+                    LOGGER.warn("Unexpected error reaping idle clusters", e);
+                }
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop background reaping started with {@link #start(long)}.
+     */
+    public synchronized void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Most recent audit entries, oldest first.
+     */
+    public List<AuditEntry> getAuditTrail() {
+        synchronized (this.auditTrail) {
+            return Collections.unmodifiableList(new ArrayList<AuditEntry>(this.auditTrail));
+        }
+    }
+
+    /**
+     * Set how long a cluster must be idle before it is stopped, in milliseconds.
+     * Default is 30 minutes.
+     */
+    public void setIdleWindow(long idleWindow) {
+        this.idleWindow = idleWindow;
+    }
+
+    /**
+     * Time a cluster must be idle before it is stopped, in milliseconds.
+     */
+    public long getIdleWindow() {
+        return idleWindow;
+    }
+
+    /**
+     * Set whether to only report idle clusters rather than stop them.  Default is true.
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Whether idle clusters are only reported rather than stopped.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Set whether idle PERMANENT clusters are also stopped.  Default is false.
+     */
+    public void setStopPermanentClusters(boolean stopPermanentClusters) {
+        this.stopPermanentClusters = stopPermanentClusters;
+    }
+
+    /**
+     * Set how many recent jobs are fetched to find cluster activity.  Default is 100.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        if (recentJobsLimit < 1) {
+            throw new IllegalArgumentException("recentJobsLimit must be at least 1");
+        }
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    /**
+     * Set a file to which audit entries are appended, one per line.
+     *
+     * @param auditLog file to append to, or null for no file
+     */
+    public void setAuditLog(File auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    @Override
+    public String toString() {
+        return "IdleClusterReaper [idleWindow=" + idleWindow + ", dryRun=" + dryRun
+                + ", stopPermanentClusters=" + stopPermanentClusters + "]";
+    }
+
+    /**
+     * A cluster the reaper stopped or would have stopped.
+     */
+    public static class AuditEntry {
+
+        /**
+         * What the reaper did.
+         */
+        public enum Action {
+
+            /**
+             * Cluster was stopped.
+             */
+            STOPPED,
+
+            /**
+             * Cluster would have been stopped, but the reaper is in dry-run mode.
+             */
+            WOULD_STOP,
+
+            /**
+             * Stopping the cluster failed.
+             */
+            STOP_FAILED
+        }
+
+        private long timestamp;
+        private Action action;
+        private String clusterId;
+        private String reason;
+
+        AuditEntry(long timestamp, Action action, String clusterId, String reason) {
+            this.timestamp = timestamp;
+            this.action = action;
+            this.clusterId = clusterId;
+            this.reason = reason;
+        }
+
+        /**
+         * Time of the decision, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * What the reaper did.
+         */
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * Id of the cluster.
+         */
+        public String getClusterId() {
+            return clusterId;
+        }
+
+        /**
+         * Why the cluster was considered idle, and any error stopping it.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        String toLogLine() {
+            return Timestamps.format(timestamp) + '\t' + action + '\t' + clusterId + '\t'
+                    + reason;
+        }
+
+        @Override
+        public String toString() {
+            return "AuditEntry [action=" + action + ", clusterId=" + clusterId
+                    + ", reason=" + reason + "]";
+        }
+    }
+}
@@ -17,6 +17,8 @@ package com.mortardata.api.v2;
 
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.util.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -30,7 +32,13 @@ import java.util.Map;
  */
 public class Illustrates {
 
+    static final String TASK_TYPE = "illustrate";
+
+    final Logger logger = LoggerFactory.getLogger(Illustrates.class);
+
     private API api;
+    private TaskResultCache cache;
+    private TaskResultCache.PendingKeys pendingKeys = new TaskResultCache.PendingKeys();
 
     /**
      * Construct an Illustrates V2 API.
@@ -38,7 +46,18 @@ public class Illustrates {
      * @param api API client
      */
     public Illustrates(API api) {
+        this(api, null);
+    }
+
+    /**
+     * Construct an Illustrates V2 API that stores successful results in a local cache.
+     *
+     * @param api API client
+     * @param cache cache for results of illustrates run at a commit hash (null for no cache)
+     */
+    public Illustrates(API api, TaskResultCache cache) {
         this.api = api;
+        this.cache = cache;
     }
 
     /**
@@ -63,7 +82,39 @@ public class Illustrates {
         arguments.put("pigscript_name", pigScriptName);
 
         HttpRequest request = this.api.buildHttpPostRequest("illustrates", arguments);
-        return (String) request.execute().parseAs(HashMap.class).get("illustrate_id");
+        String illustrateId =
+                (String) this.api.execute(request, HashMap.class).get("illustrate_id");
+        if (this.cache != null && TaskResultCache.isCommitHash(gitRef)) {
+            this.pendingKeys.put(illustrateId, new TaskResultCache.TaskKey(
+                    TASK_TYPE, projectName, pigScriptName, alias, gitRef));
+        }
+        return illustrateId;
+    }
+
+    /**
+     * Get the results of a previous Pig ILLUSTRATE from the local cache, without
+     * calling the API.  Only successful results run at a full commit hash are cached,
+     * through an Illustrates constructed with a TaskResultCache.
+     *
+     * @param alias Pig alias to illustrate (null if entire script was illustrated)
+     * @param gitRef version of code (git hash) to use
+     * @param projectName Mortar project to use
+     * @param pigScriptName Pigscript to use (without path or extension)
+     * @return cached IllustrateResult, or null if none is cached
+     */
+    public IllustrateResult getCachedIllustrate(String alias, String gitRef, String projectName,
+                                                String pigScriptName) {
+        if (this.cache == null) {
+            return null;
+        }
+        try {
+            return this.cache.get(new TaskResultCache.TaskKey(
+                    TASK_TYPE, projectName, pigScriptName, alias, gitRef),
+                    IllustrateResult.class);
+        } catch (IOException e) {
+            logger.warn("Unable to read illustrate result from cache", e);
+            return null;
+        }
     }
 
     /**
@@ -75,7 +126,9 @@ public class Illustrates {
      */
     public IllustrateResult getIllustrate(String illustrateId) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("illustrates/" + illustrateId);
-        return request.execute().parseAs(IllustrateResult.class);
+        IllustrateResult result = this.api.execute(request, IllustrateResult.class);
+        cacheResult(illustrateId, result, true);
+        return result;
     }
 
     /**
@@ -90,7 +143,32 @@ public class Illustrates {
             throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("illustrates/" + illustrateId
                 + "?exclude_result=" + excludeResult);
-        return request.execute().parseAs(IllustrateResult.class);
+        IllustrateResult result = this.api.execute(request, IllustrateResult.class);
+        cacheResult(illustrateId, result, !excludeResult);
+        return result;
+    }
+
+    /**
+     * Get the status of a Pig ILLUSTRATE operation, without downloading its result.
+     *
+     * @param illustrateId ID of the illustrate
+     * @return status of the illustrate
+     * @throws IOException if illustrate does not exist or unable to fetch from the API
+     */
+    public TaskStatus getIllustrateStatus(String illustrateId) throws IOException {
+        return getIllustrate(illustrateId, true).getStatusCode();
+    }
+
+    private void cacheResult(String illustrateId, IllustrateResult result, boolean hasResult) {
+        TaskResultCache.TaskKey key =
+                this.pendingKeys.complete(illustrateId, result.getStatusCode(), hasResult);
+        if (key != null) {
+            try {
+                this.cache.put(key, result);
+            } catch (IOException e) {
+                logger.warn("Unable to write illustrate result to cache", e);
+            }
+        }
     }
 
     /**
@@ -125,6 +203,8 @@ public class Illustrates {
         @Key("result")
         private Map<String, Object> result;
 
+        private LazyResult lazyResult;
+
         /**
          * Name of the Mortar project for the illustrate.
          */
@@ -190,9 +270,29 @@ public class Illustrates {
 
         /**
          * Illustrate results.
+         *
+         * For results returned by a {@link TaskRunner}, the results are downloaded on
+         * first access and then kept; an IllegalStateException is thrown if they
+         * cannot be downloaded.
          */
         public Map<String, Object> getResult() {
-            return result;
+            LazyResult loader;
+            synchronized (this) {
+                if (result != null || lazyResult == null) {
+                    return result;
+                }
+                loader = lazyResult;
+            }
+            Map<String, Object> loaded = loader.get();
+            synchronized (this) {
+                result = loaded;
+                lazyResult = null;
+            }
+            return loaded;
+        }
+
+        synchronized void setLazyResult(LazyResult lazyResult) {
+            this.lazyResult = lazyResult;
         }
 
         @Override
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.mortardata.util.Timestamps;
+
+/**
+ * Runtime and failure statistics over job history, grouped by project, script, git
+ * ref and cluster size.
+ *
+ * Jobs are streamed in with {@link #add(Jobs.Job, Clusters.Cluster)} or
+ * {@link #addAll(Jobs.JobsList, Clusters.ClustersList)}, and only completed jobs are
+ * counted.  Each group keeps {@link LatencySketch}es rather than the jobs
+ * themselves, so memory depends on the number of groups, not the size of the
+ * history, and groups can be rolled up with {@link #getStats(Filter)}.
+ *
+ * Runtime is from a job's start to stop timestamp.  The API does not report when a
+ * job began running, so queue delay is taken as the time the job waited for its
+ * cluster to reach running, which is zero for jobs on clusters already running.
+ */
+public class JobAnalytics {
+
+    private double relativeAccuracy;
+    private Map<GroupKey, JobStats> groups = new HashMap<GroupKey, JobStats>();
+
+    /**
+     * Construct empty analytics with LatencySketch.DEFAULT_RELATIVE_ACCURACY.
+     */
+    public JobAnalytics() {
+        this(LatencySketch.DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * Construct empty analytics.
+     *
+     * @param relativeAccuracy relative accuracy of runtime and queue delay percentiles
+     */
+    public JobAnalytics(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+    }
+
+    /**
+     * Add every completed job in a list, looking up each job's cluster by id.
+     *
+     * @param jobsList jobs to add
+     * @param clustersList clusters the jobs ran on, or null if unknown
+     */
+    public synchronized void addAll(Jobs.JobsList jobsList, Clusters.ClustersList clustersList) {
+        Map<String, Clusters.Cluster> clustersById = new HashMap<String, Clusters.Cluster>();
+        if (clustersList != null && clustersList.clusters != null) {
+            for (Clusters.Cluster cluster : clustersList.clusters) {
+                clustersById.put(cluster.getClusterId(), cluster);
+            }
+        }
+        if (jobsList.jobs != null) {
+            for (Jobs.Job job : jobsList.jobs) {
+                add(job, clustersById.get(job.getClusterId()));
+            }
+        }
+    }
+
+    /**
+     * Add a job if it is complete.
+     *
+     * @param job job to add
+     * @param cluster cluster the job ran on, or null if unknown; jobs with an unknown
+     *     cluster are grouped under cluster size 0 and have no queue delay
+     * @return true if the job was counted
+     */
+    public synchronized boolean add(Jobs.Job job, Clusters.Cluster cluster) {
+        if (!Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode())) {
+            return false;
+        }
+        GroupKey key = new GroupKey(job.getProjectName(),
+                job.getPigscriptName() != null ? job.getPigscriptName() : job.getScriptName(),
+                job.getGitRef(), cluster == null ? 0 : cluster.getSize());
+        JobStats stats = this.groups.get(key);
+        if (stats == null) {
+            stats = new JobStats(this.relativeAccuracy);
+            this.groups.put(key, stats);
+        }
+
+        long start = parseTime(job.getStartTimestamp());
+        long stop = parseTime(job.getStopTimestamp());
+        long running = cluster == null ? Long.MIN_VALUE : parseTime(cluster.getRunningTimestamp());
+        if (start != Long.MIN_VALUE && stop != Long.MIN_VALUE) {
+            stats.runtime.add(stop - start);
+        }
+        if (start != Long.MIN_VALUE && running != Long.MIN_VALUE) {
+            stats.queueDelay.add(running - start);
+        }
+        stats.jobCount++;
+        if (isFailure(job.getStatusCode())) {
+            String errorType = job.getError() == null ? null : job.getError().errorType;
+            Integer count = stats.failuresByErrorType.get(errorType);
+            stats.failuresByErrorType.put(errorType, count == null ? 1 : count + 1);
+            stats.failureCount++;
+        }
+        return true;
+    }
+
+    private static boolean isFailure(Jobs.JobStatus status) {
+        return status != Jobs.JobStatus.SUCCESS && status != Jobs.JobStatus.STOPPED;
+    }
+
+    private static long parseTime(String timestamp) {
+        if (timestamp == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Groups with at least one job.
+     */
+    public synchronized List<GroupKey> getGroups() {
+        return new ArrayList<GroupKey>(this.groups.keySet());
+    }
+
+    /**
+     * Statistics for one group.
+     *
+     * @param key group
+     * @return a copy of the group's statistics, empty if it has no jobs
+     */
+    public synchronized JobStats getStats(GroupKey key) {
+        JobStats stats = new JobStats(this.relativeAccuracy);
+        JobStats group = this.groups.get(key);
+        if (group != null) {
+            stats.merge(group);
+        }
+        return stats;
+    }
+
+    /**
+     * Statistics merged over every group a filter accepts, such as every git ref of
+     * a script on 10 node clusters.
+     *
+     * @param filter selects groups
+     * @return merged statistics
+     */
+    public synchronized JobStats getStats(Filter<GroupKey> filter) {
+        JobStats stats = new JobStats(this.relativeAccuracy);
+        for (Map.Entry<GroupKey, JobStats> entry : this.groups.entrySet()) {
+            if (filter.accept(entry.getKey())) {
+                stats.merge(entry.getValue());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Filter for the groups of one script, on clusters of one size.
+     *
+     * @param scriptName script name
+     * @param clusterSize cluster size, or -1 for any size
+     */
+    public static Filter<GroupKey> scriptOnClusterSize(final String scriptName,
+                                                       final int clusterSize) {
+        return new Filter<GroupKey>() {
+            public boolean accept(GroupKey key) {
+                return scriptName.equals(key.getScriptName())
+                        && (clusterSize < 0 || clusterSize == key.getClusterSize());
+            }
+        };
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JobAnalytics [groups=" + groups.size() + "]";
+    }
+
+    /**
+     * Project, script, git ref and cluster size that jobs are grouped by.
+     */
+    public static class GroupKey {
+
+        private String projectName;
+        private String scriptName;
+        private String gitRef;
+        private int clusterSize;
+
+        public GroupKey(String projectName, String scriptName, String gitRef,
+                        int clusterSize) {
+            this.projectName = projectName;
+            this.scriptName = scriptName;
+            this.gitRef = gitRef;
+            this.clusterSize = clusterSize;
+        }
+
+        public String getProjectName() {
+            return projectName;
+        }
+
+        public String getScriptName() {
+            return scriptName;
+        }
+
+        public String getGitRef() {
+            return gitRef;
+        }
+
+        /**
+         * Number of nodes in the cluster, or 0 if unknown.
+         */
+        public int getClusterSize() {
+            return clusterSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) o;
+            return equal(projectName, other.projectName) && equal(scriptName, other.scriptName)
+                    && equal(gitRef, other.gitRef) && clusterSize == other.clusterSize;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = clusterSize;
+            for (String s : new String[] {projectName, scriptName, gitRef}) {
+                hash = 31 * hash + (s == null ? 0 : s.hashCode());
+            }
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return "GroupKey [projectName=" + projectName + ", scriptName=" + scriptName
+                    + ", gitRef=" + gitRef + ", clusterSize=" + clusterSize + "]";
+        }
+    }
+
+    /**
+     * Runtime, queue delay and failure statistics for a set of jobs.
+     */
+    public static class JobStats {
+
+        private LatencySketch runtime;
+        private LatencySketch queueDelay;
+        private long jobCount = 0;
+        private long failureCount = 0;
+        private Map<String, Integer> failuresByErrorType = new HashMap<String, Integer>();
+
+        JobStats(double relativeAccuracy) {
+            this.runtime = new LatencySketch(relativeAccuracy);
+            this.queueDelay = new LatencySketch(relativeAccuracy);
+        }
+
+        void merge(JobStats other) {
+            this.runtime.merge(other.runtime);
+            this.queueDelay.merge(other.queueDelay);
+            this.jobCount += other.jobCount;
+            this.failureCount += other.failureCount;
+            for (Map.Entry<String, Integer> entry : other.failuresByErrorType.entrySet()) {
+                Integer count = this.failuresByErrorType.get(entry.getKey());
+                this.failuresByErrorType.put(entry.getKey(),
+                        (count == null ? 0 : count) + entry.getValue());
+            }
+        }
+
+        /**
+         * Runtime from start to stop, in milliseconds.
+         */
+        public LatencySketch getRuntime() {
+            return runtime;
+        }
+
+        /**
+         * Time spent waiting for a cluster before running, in milliseconds.
+         */
+        public LatencySketch getQueueDelay() {
+            return queueDelay;
+        }
+
+        /**
+         * Number of completed jobs.
+         */
+        public long getJobCount() {
+            return jobCount;
+        }
+
+        /**
+         * Number of jobs that ended in an error.
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * Fraction of jobs that ended in an error, or 0 if there were no jobs.
+         */
+        public double getFailureRate() {
+            return jobCount == 0 ? 0 : (double) failureCount / jobCount;
+        }
+
+        /**
+         * Number of failed jobs by JobError type, sorted by type.  Failures without
+         * an error type are counted under "unknown".
+         */
+        public Map<String, Integer> getFailuresByErrorType() {
+            Map<String, Integer> sorted = new TreeMap<String, Integer>();
+            for (Map.Entry<String, Integer> entry : failuresByErrorType.entrySet()) {
+                String type = entry.getKey() == null ? "unknown" : entry.getKey();
+                Integer count = sorted.get(type);
+                sorted.put(type, (count == null ? 0 : count) + entry.getValue());
+            }
+            return sorted;
+        }
+
+        @Override
+        public String toString() {
+            return "JobStats [jobCount=" + jobCount + ", failureRate=" + getFailureRate()
+                    + ", runtime=" + runtime + "]";
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mortardata.util.Timestamps;
+
+/**
+ * Local, persistent history of completed jobs for offline analytics.
+ *
+ * Jobs are stored in a directory as three append-only, memory-mapped files: fixed
+ * size binary records, a dictionary of the project names, script names, cluster
+ * ids, statuses and error types they refer to, and their job ids.  Range scans and
+ * aggregations read the records straight from the mapping through a start time
+ * index rebuilt on open, so history far larger than would fit as Job objects on the
+ * heap can be queried.  {@link #sync(Jobs)} fetches only jobs started since the
+ * last sync.  Each file is limited to 2GB, which is around 40 million jobs.
+ */
+public class JobHistoryStore {
+
+    final Logger logger = LoggerFactory.getLogger(JobHistoryStore.class);
+
+    private static final int RECORDS_MAGIC = 0x4d4a5231;
+    private static final int DICTIONARY_MAGIC = 0x4d4a4431;
+    private static final int IDS_MAGIC = 0x4d4a4931;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NONE = -1;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    // header slots of the records file
+    private static final int WATERMARK = 0;
+    private static final int RESUME_OFFSET = 1;
+    private static final int PENDING_WATERMARK = 2;
+
+    private static final int RECORD_SIZE = 48;
+    private static final int START = 0;
+    private static final int STOP = 8;
+    private static final int ID_OFFSET = 16;
+    private static final int PROJECT = 24;
+    private static final int SCRIPT = 28;
+    private static final int CLUSTER = 32;
+    private static final int STATUS = 36;
+    private static final int ERROR_TYPE = 40;
+
+    private File directory;
+    private MappedFile records;
+    private MappedFile dictionary;
+    private MappedFile ids;
+    private List<String> dictionaryEntries = new ArrayList<String>();
+    private Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+    private TimeIndex startIndex = new TimeIndex();
+    private int size;
+    private int pageSize = 100;
+    private int maxPages = 50;
+
+    /**
+     * Open the store in a directory, creating it if needed.
+     *
+     * @param directory directory holding the store's files
+     * @throws IOException if unable to create or read the store
+     */
+    public JobHistoryStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to make job history directory at " + directory);
+        }
+        this.directory = directory;
+        this.records = new MappedFile(new File(directory, "jobs.dat"), RECORDS_MAGIC);
+        this.dictionary = new MappedFile(new File(directory, "dict.dat"), DICTIONARY_MAGIC);
+        this.ids = new MappedFile(new File(directory, "ids.dat"), IDS_MAGIC);
+
+        ByteBuffer buffer = this.dictionary.buffer();
+        int offset = MappedFile.HEADER_SIZE;
+        while (offset < this.dictionary.getUsed()) {
+            String entry = readString(buffer, offset);
+            this.dictionaryCodes.put(entry, this.dictionaryEntries.size());
+            this.dictionaryEntries.add(entry);
+            offset += 4 + buffer.getInt(offset);
+        }
+        this.size = (int) ((this.records.getUsed() - MappedFile.HEADER_SIZE) / RECORD_SIZE);
+        int[] rows = new int[this.size];
+        long[] starts = new long[this.size];
+        for (int row = 0; row < this.size; row++) {
+            rows[row] = row;
+            starts[row] = getLong(row, START);
+        }
+        this.startIndex.insertAll(starts, rows, this.size);
+        logger.debug("Opened job history at " + directory + " with " + this.size + " jobs");
+    }
+
+    /**
+     * Number of jobs fetched per getJobs() call while syncing.
+     */
+    public synchronized void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Maximum number of pages fetched by one sync.  A sync that stops before reaching
+     * the watermark records where it stopped, and the next sync continues from there.
+     */
+    public synchronized void setMaxPages(int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Number of jobs stored.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Start time, in milliseconds since the epoch, before which every job is known
+     * to be stored.  Syncs only fetch jobs started at or after this time.
+     */
+    public synchronized long getWatermark() {
+        return this.records.getAux(WATERMARK);
+    }
+
+    /**
+     * Whether the last sync stopped at maxPages before reaching the watermark, so the
+     * next sync continues into older jobs rather than starting from the newest.
+     */
+    public synchronized boolean isSyncIncomplete() {
+        return this.records.getAux(RESUME_OFFSET) > 0;
+    }
+
+    /**
+     * Fetch and store completed jobs started since the last sync.  Jobs are fetched
+     * newest first until one started before the watermark; jobs still running are
+     * fetched again by the next sync.
+     *
+     * A sync fetches at most maxPages pages.  If that is not enough to reach the
+     * watermark, such as on the first sync of a long history, the offset reached is
+     * stored and the next sync resumes from it, until the watermark is reached and
+     * the following sync starts again from the newest job.  Jobs started meanwhile
+     * only shift the resumed pages, so some jobs are fetched twice but none is missed.
+     *
+     * @param jobs Jobs API
+     * @return number of jobs added
+     * @throws IOException if unable to fetch jobs or write the store
+     */
+    public synchronized int sync(Jobs jobs) throws IOException {
+        long watermark = getWatermark();
+        Set<String> known = new HashSet<String>();
+        for (int i = this.startIndex.lowerBound(watermark); i < this.startIndex.size(); i++) {
+            known.add(getJobId(this.startIndex.rowAt(i)));
+        }
+
+        int offset = (int) this.records.getAux(RESUME_OFFSET);
+        boolean resumed = offset > 0;
+        // where the watermark may move once the pass, perhaps over several syncs, ends
+        long pending = resumed ? this.records.getAux(PENDING_WATERMARK) : Long.MAX_VALUE;
+        List<Jobs.Job> added = new ArrayList<Jobs.Job>();
+        long newest = NO_TIME;
+        boolean reachedWatermark = false;
+        for (int page = 0; page < this.maxPages && !reachedWatermark; page++) {
+            Jobs.JobsList jobsList = jobs.getJobs(offset, this.pageSize);
+            offset += this.pageSize;
+            if (jobsList.jobs == null || jobsList.jobs.isEmpty()) {
+                reachedWatermark = true;
+                break;
+            }
+            for (Jobs.Job job : jobsList.jobs) {
+                long start = parseTime(job.getStartTimestamp());
+                if (start == NO_TIME) {
+                    continue;
+                }
+                newest = Math.max(newest, start);
+                if (start < watermark) {
+                    reachedWatermark = true;
+                } else if (!Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode())) {
+                    pending = Math.min(pending, start);
+                } else if (job.getJobId() != null && known.add(job.getJobId())) {
+                    added.add(job);
+                }
+            }
+            if (jobsList.jobs.size() < this.pageSize) {
+                reachedWatermark = true;
+            }
+        }
+        if (!resumed && newest != NO_TIME) {
+            pending = Math.min(pending, newest);
+        }
+
+        Collections.sort(added, new Comparator<Jobs.Job>() {
+            public int compare(Jobs.Job a, Jobs.Job b) {
+                long diff = parseTime(a.getStartTimestamp()) - parseTime(b.getStartTimestamp());
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (Jobs.Job job : added) {
+            append(job);
+        }
+        this.ids.force();
+        this.dictionary.force();
+        if (reachedWatermark) {
+            // only move past jobs that were all seen, and none of which may still change
+            if (pending != Long.MAX_VALUE) {
+                this.records.setAux(WATERMARK, Math.max(watermark, pending));
+            }
+            this.records.setAux(RESUME_OFFSET, 0);
+        } else {
+            this.records.setAux(RESUME_OFFSET, offset);
+            this.records.setAux(PENDING_WATERMARK, pending);
+        }
+        this.records.force();
+        logger.debug("Synced " + added.size() + " jobs into " + this.directory);
+        return added.size();
+    }
+
+    /**
+     * Append a job.  The id and dictionary entries are written before the record
+     * that refers to them, and the record before it is counted, so an interrupted
+     * append is ignored on reopen.
+     */
+    private void append(Jobs.Job job) throws IOException {
+        long idOffset = writeString(this.ids, job.getJobId());
+        int project = encode(job.getProjectName());
+        int script = encode(job.getPigscriptName() != null
+                ? job.getPigscriptName() : job.getScriptName());
+        int cluster = encode(job.getClusterId());
+        int status = encode(job.getStatusCodeString());
+        int errorType = encode(job.getError() == null ? null : job.getError().errorType);
+
+        int offset = this.records.reserve(RECORD_SIZE);
+        ByteBuffer buffer = this.records.buffer();
+        long start = parseTime(job.getStartTimestamp());
+        buffer.putLong(offset + START, start);
+        buffer.putLong(offset + STOP, parseTime(job.getStopTimestamp()));
+        buffer.putLong(offset + ID_OFFSET, idOffset);
+        buffer.putInt(offset + PROJECT, project);
+        buffer.putInt(offset + SCRIPT, script);
+        buffer.putInt(offset + CLUSTER, cluster);
+        buffer.putInt(offset + STATUS, status);
+        buffer.putInt(offset + ERROR_TYPE, errorType);
+        this.records.commit(offset + RECORD_SIZE);
+        this.startIndex.insert(start, this.size++);
+    }
+
+    private int encode(String value) throws IOException {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = this.dictionaryCodes.get(value);
+        if (code == null) {
+            writeString(this.dictionary, value);
+            code = this.dictionaryEntries.size();
+            this.dictionaryEntries.add(value);
+            this.dictionaryCodes.put(value, code);
+        }
+        return code;
+    }
+
+    private static long writeString(MappedFile file, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        int offset = file.reserve(4 + bytes.length);
+        ByteBuffer buffer = file.buffer().duplicate();
+        buffer.position(offset);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        file.commit(offset + 4 + bytes.length);
+        return offset;
+    }
+
+    private static String readString(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static long parseTime(String timestamp) {
+        if (timestamp == null) {
+            return NO_TIME;
+        }
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            return NO_TIME;
+        }
+    }
+
+    private long getLong(int row, int field) {
+        return this.records.buffer().getLong(MappedFile.HEADER_SIZE + row * RECORD_SIZE + field);
+    }
+
+    private int getCode(int row, int field) {
+        return this.records.buffer().getInt(MappedFile.HEADER_SIZE + row * RECORD_SIZE + field);
+    }
+
+    private String decode(int code) {
+        return code == NONE ? null : this.dictionaryEntries.get(code);
+    }
+
+    private String getJobId(int row) {
+        return readString(this.ids.buffer(), (int) getLong(row, ID_OFFSET));
+    }
+
+    /**
+     * Visit every job started in [from, to), in start time order.
+     *
+     * @param from start of the range, in milliseconds since the epoch
+     * @param to end of the range, exclusive
+     * @param visitor called with each job
+     */
+    public synchronized void scan(long from, long to, Visitor visitor) {
+        Record record = new Record();
+        int end = this.startIndex.lowerBound(to);
+        for (int i = this.startIndex.lowerBound(Math.max(from, NO_TIME + 1)); i < end; i++) {
+            record.row = this.startIndex.rowAt(i);
+            visitor.visit(record);
+        }
+    }
+
+    /**
+     * Number of jobs started in [from, to).
+     */
+    public synchronized int count(long from, long to) {
+        return this.startIndex.lowerBound(to)
+                - this.startIndex.lowerBound(Math.max(from, NO_TIME + 1));
+    }
+
+    /**
+     * Number of failed jobs started in [from, to), by error type.  Jobs that failed
+     * without an error type are counted under null.
+     */
+    public synchronized Map<String, Integer> countFailuresByErrorType(long from, long to) {
+        int[] counts = new int[this.dictionaryEntries.size() + 1];
+        int end = this.startIndex.lowerBound(to);
+        for (int i = this.startIndex.lowerBound(Math.max(from, NO_TIME + 1)); i < end; i++) {
+            int row = this.startIndex.rowAt(i);
+            if (isFailure(Jobs.JobStatus.getEnum(decode(getCode(row, STATUS))))) {
+                counts[getCode(row, ERROR_TYPE) + 1]++;
+            }
+        }
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                result.put(decode(i - 1), counts[i]);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isFailure(Jobs.JobStatus status) {
+        return status != Jobs.JobStatus.SUCCESS && status != Jobs.JobStatus.STOPPED;
+    }
+
+    /**
+     * Total run time, in milliseconds, of jobs started in [from, to), by cluster id.
+     */
+    public synchronized Map<String, Long> sumDurationByCluster(long from, long to) {
+        long[] totals = new long[this.dictionaryEntries.size() + 1];
+        boolean[] seen = new boolean[totals.length];
+        int end = this.startIndex.lowerBound(to);
+        for (int i = this.startIndex.lowerBound(Math.max(from, NO_TIME + 1)); i < end; i++) {
+            int row = this.startIndex.rowAt(i);
+            long stop = getLong(row, STOP);
+            if (stop != NO_TIME) {
+                int slot = getCode(row, CLUSTER) + 1;
+                totals[slot] += stop - getLong(row, START);
+                seen[slot] = true;
+            }
+        }
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < totals.length; i++) {
+            if (seen[i]) {
+                result.put(decode(i - 1), totals[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Flush and close the store's files.
+     *
+     * @throws IOException if unable to close a file
+     */
+    public synchronized void close() throws IOException {
+        this.records.force();
+        this.records.close();
+        this.dictionary.close();
+        this.ids.close();
+    }
+
+    /**
+     * Called with each job in a scan.
+     */
+    public interface Visitor {
+
+        /**
+         * Visit a job.  The record is reused for the next job, so must not be kept.
+         */
+        void visit(Record record);
+    }
+
+    /**
+     * View of one stored job, read from the mapped records on access.
+     */
+    public class Record {
+
+        private int row;
+
+        public String getJobId() {
+            return JobHistoryStore.this.getJobId(this.row);
+        }
+
+        public String getProjectName() {
+            return decode(getCode(this.row, PROJECT));
+        }
+
+        public String getScriptName() {
+            return decode(getCode(this.row, SCRIPT));
+        }
+
+        public String getClusterId() {
+            return decode(getCode(this.row, CLUSTER));
+        }
+
+        public Jobs.JobStatus getStatusCode() {
+            return Jobs.JobStatus.getEnum(decode(getCode(this.row, STATUS)));
+        }
+
+        public String getErrorType() {
+            return decode(getCode(this.row, ERROR_TYPE));
+        }
+
+        /**
+         * Start time, in milliseconds since the epoch.
+         */
+        public long getStartTime() {
+            return getLong(this.row, START);
+        }
+
+        /**
+         * Stop time, in milliseconds since the epoch, or Long.MIN_VALUE if unknown.
+         */
+        public long getStopTime() {
+            return getLong(this.row, STOP);
+        }
+
+        @Override
+        public String toString() {
+            return "Record [jobId=" + getJobId() + ", projectName=" + getProjectName()
+                    + ", statusCode=" + getStatusCode() + "]";
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JobHistoryStore [directory=" + directory + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mortardata.util.Timestamps;
+
+/**
+ * In-memory index over jobs for fast filtered queries.
+ *
+ * Each job is a row.  Project names, script names and cluster ids are dictionary
+ * encoded, and each code and each {@link Jobs.JobStatus} has a BitSet of its rows, so
+ * equality filters are bitwise ANDs.  Start and stop times are kept in time-sorted
+ * primitive arrays, so time range filters are binary searches.  Adding a job that is
+ * already indexed replaces its row, so the index can be refreshed incrementally from
+ * each new getJobs() page.
+ */
+public class JobIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    private Map<String, Integer> rowsByJobId = new HashMap<String, Integer>();
+    private Jobs.Job[] jobs = new Jobs.Job[INITIAL_CAPACITY];
+    private int[] projectCodes = new int[INITIAL_CAPACITY];
+    private int[] scriptCodes = new int[INITIAL_CAPACITY];
+    private int[] clusterCodes = new int[INITIAL_CAPACITY];
+    private int[] statusOrdinals = new int[INITIAL_CAPACITY];
+    private long[] startTimes = new long[INITIAL_CAPACITY];
+    private long[] stopTimes = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private Dictionary projects = new Dictionary();
+    private Dictionary scripts = new Dictionary();
+    private Dictionary clusters = new Dictionary();
+    private BitSet[] rowsByStatus = new BitSet[Jobs.JobStatus.values().length];
+    private TimeIndex startIndex = new TimeIndex();
+    private TimeIndex stopIndex = new TimeIndex();
+
+    /**
+     * Construct an empty JobIndex.
+     */
+    public JobIndex() {
+        for (int i = 0; i < rowsByStatus.length; i++) {
+            rowsByStatus[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Add every job in a list.
+     *
+     * @param jobsList jobs to add
+     */
+    public synchronized void addAll(Jobs.JobsList jobsList) {
+        if (jobsList.jobs == null) {
+            return;
+        }
+        // pages arrive newest first, so defer the time indexes and merge them once
+        BitSet added = new BitSet();
+        for (Jobs.Job job : jobsList.jobs) {
+            added.set(store(job));
+        }
+        int count = added.cardinality();
+        int[] rows = new int[count];
+        long[] starts = new long[count];
+        long[] stops = new long[count];
+        int i = 0;
+        for (int row = added.nextSetBit(0); row >= 0; row = added.nextSetBit(row + 1)) {
+            rows[i] = row;
+            starts[i] = this.startTimes[row];
+            stops[i++] = this.stopTimes[row];
+        }
+        this.startIndex.insertAll(starts, rows, count);
+        this.stopIndex.insertAll(stops, rows, count);
+    }
+
+    /**
+     * Add a job, replacing any job already indexed with the same job_id.
+     *
+     * @param job job to add
+     */
+    public synchronized void add(Jobs.Job job) {
+        int row = store(job);
+        this.startIndex.insert(this.startTimes[row], row);
+        this.stopIndex.insert(this.stopTimes[row], row);
+    }
+
+    /**
+     * Store a job and index everything but its times, returning its row.
+     */
+    private int store(Jobs.Job job) {
+        Integer existing = job.getJobId() == null ? null : this.rowsByJobId.get(job.getJobId());
+        int row;
+        if (existing != null) {
+            row = existing;
+            unindex(row);
+        } else {
+            row = this.size++;
+            ensureCapacity(this.size);
+            if (job.getJobId() != null) {
+                this.rowsByJobId.put(job.getJobId(), row);
+            }
+        }
+        this.jobs[row] = job;
+        this.projectCodes[row] = this.projects.encode(job.getProjectName(), row);
+        this.scriptCodes[row] = this.scripts.encode(scriptName(job), row);
+        this.clusterCodes[row] = this.clusters.encode(job.getClusterId(), row);
+        this.statusOrdinals[row] = job.getStatusCode().ordinal();
+        this.rowsByStatus[this.statusOrdinals[row]].set(row);
+        this.startTimes[row] = parseTime(job.getStartTimestamp());
+        this.stopTimes[row] = parseTime(job.getStopTimestamp());
+        return row;
+    }
+
+    private void unindex(int row) {
+        this.projects.remove(this.projectCodes[row], row);
+        this.scripts.remove(this.scriptCodes[row], row);
+        this.clusters.remove(this.clusterCodes[row], row);
+        this.rowsByStatus[this.statusOrdinals[row]].clear(row);
+        this.startIndex.remove(this.startTimes[row], row);
+        this.stopIndex.remove(this.stopTimes[row], row);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.jobs.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, this.jobs.length * 2);
+        this.jobs = Arrays.copyOf(this.jobs, newCapacity);
+        this.projectCodes = Arrays.copyOf(this.projectCodes, newCapacity);
+        this.scriptCodes = Arrays.copyOf(this.scriptCodes, newCapacity);
+        this.clusterCodes = Arrays.copyOf(this.clusterCodes, newCapacity);
+        this.statusOrdinals = Arrays.copyOf(this.statusOrdinals, newCapacity);
+        this.startTimes = Arrays.copyOf(this.startTimes, newCapacity);
+        this.stopTimes = Arrays.copyOf(this.stopTimes, newCapacity);
+    }
+
+    private static String scriptName(Jobs.Job job) {
+        return job.getPigscriptName() != null ? job.getPigscriptName() : job.getScriptName();
+    }
+
+    /**
+     * Milliseconds since the epoch, or Long.MIN_VALUE for a missing or malformed time.
+     */
+    private static long parseTime(String timestamp) {
+        if (timestamp == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Number of jobs indexed.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Look up a job by ID.
+     *
+     * @param jobId ID of the job
+     * @return the job, or null if not indexed
+     */
+    public synchronized Jobs.Job getJob(String jobId) {
+        Integer row = this.rowsByJobId.get(jobId);
+        return row == null ? null : this.jobs[row];
+    }
+
+    /**
+     * Start a query over all indexed jobs.  Filters added to the query are ANDed.
+     *
+     * @return a new query
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    private synchronized BitSet execute(Query query) {
+        BitSet rows = new BitSet(this.size);
+        rows.set(0, this.size);
+        if (query.projectName != null) {
+            rows.and(this.projects.rows(query.projectName));
+        }
+        if (query.scriptName != null) {
+            rows.and(this.scripts.rows(query.scriptName));
+        }
+        if (query.clusterId != null) {
+            rows.and(this.clusters.rows(query.clusterId));
+        }
+        if (query.statuses != null) {
+            BitSet any = new BitSet(this.size);
+            for (Jobs.JobStatus status : query.statuses) {
+                any.or(this.rowsByStatus[status.ordinal()]);
+            }
+            rows.and(any);
+        }
+        if (query.startedFrom != Long.MIN_VALUE || query.startedTo != Long.MAX_VALUE) {
+            rows.and(this.startIndex.select(query.startedFrom, query.startedTo));
+        }
+        if (query.stoppedFrom != Long.MIN_VALUE || query.stoppedTo != Long.MAX_VALUE) {
+            rows.and(this.stopIndex.select(query.stoppedFrom, query.stoppedTo));
+        }
+        return rows;
+    }
+
+    private synchronized List<Jobs.Job> listJobs(Query query) {
+        BitSet rows = execute(query);
+        List<Jobs.Job> result = new ArrayList<Jobs.Job>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            result.add(this.jobs[row]);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JobIndex [size=" + size + ", projects=" + projects.size() + ", clusters="
+                + clusters.size() + "]";
+    }
+
+    /**
+     * A filtered query over a JobIndex.
+     */
+    public class Query {
+
+        private String projectName;
+        private String scriptName;
+        private String clusterId;
+        private Jobs.JobStatus[] statuses;
+        private long startedFrom = Long.MIN_VALUE;
+        private long startedTo = Long.MAX_VALUE;
+        private long stoppedFrom = Long.MIN_VALUE;
+        private long stoppedTo = Long.MAX_VALUE;
+
+        Query() {
+        }
+
+        /**
+         * Only jobs of a Mortar project.
+         */
+        public Query project(String projectName) {
+            this.projectName = projectName;
+            return this;
+        }
+
+        /**
+         * Only jobs of a script.
+         */
+        public Query script(String scriptName) {
+            this.scriptName = scriptName;
+            return this;
+        }
+
+        /**
+         * Only jobs run on a cluster.
+         */
+        public Query cluster(String clusterId) {
+            this.clusterId = clusterId;
+            return this;
+        }
+
+        /**
+         * Only jobs with one of the given statuses.
+         */
+        public Query status(Jobs.JobStatus... statuses) {
+            this.statuses = statuses.clone();
+            return this;
+        }
+
+        /**
+         * Only jobs started in [from, to), in milliseconds since the epoch.
+         */
+        public Query startedBetween(long from, long to) {
+            this.startedFrom = from;
+            this.startedTo = to;
+            return this;
+        }
+
+        /**
+         * Only jobs stopped in [from, to), in milliseconds since the epoch.
+         */
+        public Query stoppedBetween(long from, long to) {
+            this.stoppedFrom = from;
+            this.stoppedTo = to;
+            return this;
+        }
+
+        /**
+         * Number of matching jobs.
+         */
+        public int count() {
+            return execute(this).cardinality();
+        }
+
+        /**
+         * Matching jobs, in the order they were first added.
+         */
+        public List<Jobs.Job> list() {
+            return listJobs(this);
+        }
+    }
+
+    /**
+     * Maps strings to dense int codes, with the rows holding each code.
+     */
+    private static class Dictionary {
+
+        private Map<String, Integer> codes = new HashMap<String, Integer>();
+        private List<BitSet> rowsByCode = new ArrayList<BitSet>();
+
+        int encode(String value, int row) {
+            if (value == null) {
+                return NONE;
+            }
+            Integer code = this.codes.get(value);
+            if (code == null) {
+                code = this.rowsByCode.size();
+                this.codes.put(value, code);
+                this.rowsByCode.add(new BitSet());
+            }
+            this.rowsByCode.get(code).set(row);
+            return code;
+        }
+
+        void remove(int code, int row) {
+            if (code != NONE) {
+                this.rowsByCode.get(code).clear(row);
+            }
+        }
+
+        BitSet rows(String value) {
+            Integer code = this.codes.get(value);
+            return code == null ? new BitSet() : this.rowsByCode.get(code);
+        }
+
+        int size() {
+            return this.codes.size();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+/**
+ * A job's progress and estimated finish time, seen at one poll of a
+ * {@link JobProgressTracker}.
+ */
+public class JobProgressEvent {
+
+    private Jobs.Job job;
+    private long time;
+    private int progress;
+    private long eta;
+
+    /**
+     * Construct a JobProgressEvent.
+     *
+     * @param job job as of the poll
+     * @param time time of the poll, in milliseconds since the epoch
+     * @param progress percent complete, from 0 to 100
+     * @param eta estimated finish time, or ProgressEstimator.UNKNOWN
+     */
+    public JobProgressEvent(Jobs.Job job, long time, int progress, long eta) {
+        this.job = job;
+        this.time = time;
+        this.progress = progress;
+        this.eta = eta;
+    }
+
+    /**
+     * Job as of the poll.
+     */
+    public Jobs.Job getJob() {
+        return job;
+    }
+
+    /**
+     * Id of the job.
+     */
+    public String getJobId() {
+        return job.getJobId();
+    }
+
+    /**
+     * Time of the poll, in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Percent complete, from 0 to 100.
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * Estimated finish time in milliseconds since the epoch, or
+     * ProgressEstimator.UNKNOWN.  For a complete job, the time it was seen complete.
+     */
+    public long getEta() {
+        return eta;
+    }
+
+    /**
+     * Whether the job has reached a status in {@link Jobs#JOB_STATUS_COMPLETE}.  No
+     * more events follow a complete one.
+     */
+    public boolean isComplete() {
+        return Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode());
+    }
+
+    @Override
+    public String toString() {
+        return "JobProgressEvent [jobId=" + getJobId() + ", progress=" + progress
+                + ", eta=" + eta + ", complete=" + isComplete() + "]";
+    }
+}
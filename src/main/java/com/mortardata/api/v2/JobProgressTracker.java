@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mortardata.util.Timestamps;
+
+/**
+ * Streams progress and estimated finish times of running jobs.
+ *
+ * Jobs are polled by a shared {@link JobWatcher}.  Each poll's progress is fed to a
+ * {@link ProgressEstimator} for the job, and a {@link JobProgressEvent} is published
+ * whenever the job's progress or status changes.  When built with
+ * {@link JobAnalytics}, the median runtime of earlier runs of the same project and
+ * script steadies estimates before the job has made much progress.
+ */
+public class JobProgressTracker {
+
+    private JobWatcher watcher;
+    private JobAnalytics history;
+    private Map<String, Tracked> tracked = new HashMap<String, Tracked>();
+
+    /**
+     * Construct a JobProgressTracker estimating from progress alone.
+     *
+     * @param watcher watcher that polls jobs
+     */
+    public JobProgressTracker(JobWatcher watcher) {
+        this(watcher, null);
+    }
+
+    /**
+     * Construct a JobProgressTracker.
+     *
+     * @param watcher watcher that polls jobs
+     * @param history runtimes of earlier jobs, or null
+     */
+    public JobProgressTracker(JobWatcher watcher, JobAnalytics history) {
+        this.watcher = watcher;
+        this.history = history;
+    }
+
+    /**
+     * Track a job until it completes.
+     *
+     * @param jobId ID of the job
+     * @param listener listener for the job's progress events
+     */
+    public void track(String jobId, JobProgressListener listener) {
+        Tracked job = new Tracked(jobId, listener);
+        synchronized (this) {
+            this.tracked.put(jobId, job);
+        }
+        this.watcher.addJobListener(jobId, job);
+    }
+
+    /**
+     * Stop tracking a job.
+     *
+     * @param jobId ID of the job
+     */
+    public void untrack(String jobId) {
+        Tracked job;
+        synchronized (this) {
+            job = this.tracked.remove(jobId);
+        }
+        if (job != null) {
+            this.watcher.removeJobListener(jobId, job);
+        }
+    }
+
+    /**
+     * Latest estimated finish time of a tracked job.
+     *
+     * @param jobId ID of the job
+     * @return estimated finish time in milliseconds since the epoch, or
+     *     ProgressEstimator.UNKNOWN if the job is not tracked or not yet estimated
+     */
+    public long getEta(String jobId) {
+        Tracked job;
+        synchronized (this) {
+            job = this.tracked.get(jobId);
+        }
+        return job == null ? ProgressEstimator.UNKNOWN : job.getEta();
+    }
+
+    /**
+     * Number of jobs being tracked.
+     */
+    public synchronized int getTrackedJobCount() {
+        return this.tracked.size();
+    }
+
+    private long expectedRuntime(final Jobs.Job job) {
+        if (this.history == null) {
+            return ProgressEstimator.UNKNOWN;
+        }
+        final String scriptName = job.getPigscriptName() != null
+                ? job.getPigscriptName() : job.getScriptName();
+        LatencySketch runtime = this.history.getStats(new Filter<JobAnalytics.GroupKey>() {
+            public boolean accept(JobAnalytics.GroupKey key) {
+                return equal(job.getProjectName(), key.getProjectName())
+                        && equal(scriptName, key.getScriptName());
+            }
+        }).getRuntime();
+        return runtime.getCount() == 0 ? ProgressEstimator.UNKNOWN : runtime.getQuantile(0.5);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static long startTime(Jobs.Job job, long now) {
+        if (job.getStartTimestamp() != null) {
+            try {
+                return Timestamps.parse(job.getStartTimestamp());
+            } catch (IllegalArgumentException e) {
+                // fall through
+            }
+        }
+        return now;
+    }
+
+    /**
+     * Estimation state for one job, called by the watcher on each poll.
+     */
+    private class Tracked implements JobListener {
+
+        private String jobId;
+        private JobProgressListener listener;
+        private ProgressEstimator estimator;
+        private Jobs.JobStatus lastStatus;
+        private long eta = ProgressEstimator.UNKNOWN;
+
+        Tracked(String jobId, JobProgressListener listener) {
+            this.jobId = jobId;
+            this.listener = listener;
+        }
+
+        public void jobUpdated(Jobs.Job job) {
+            long now = System.currentTimeMillis();
+            boolean complete = Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode());
+            JobProgressEvent event;
+            synchronized (this) {
+                if (this.estimator == null) {
+                    this.estimator = new ProgressEstimator(startTime(job, now),
+                            expectedRuntime(job));
+                }
+                int previousProgress = this.estimator.getProgress();
+                if (job.getProgress() != null) {
+                    this.estimator.addSample(now, job.getProgress());
+                }
+                this.eta = complete ? now : this.estimator.getEta(now);
+                boolean changed = this.lastStatus != job.getStatusCode()
+                        || this.estimator.getProgress() != previousProgress;
+                this.lastStatus = job.getStatusCode();
+                if (!changed) {
+                    return;
+                }
+                event = new JobProgressEvent(job, now, this.estimator.getProgress(), this.eta);
+            }
+            if (complete) {
+                synchronized (JobProgressTracker.this) {
+                    if (tracked.get(this.jobId) == this) {
+                        tracked.remove(this.jobId);
+                    }
+                }
+            }
+            this.listener.progressChanged(event);
+        }
+
+        synchronized long getEta() {
+            return this.eta;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JobProgressTracker [tracked=" + tracked.size() + "]";
+    }
+}
@@ -37,6 +37,7 @@ public class JobRequest {
     private boolean isControlScript = false;
     private String clusterId;
     private Boolean isMortarProject;
+    private String submissionKey;
 
 
     /**
@@ -96,6 +97,37 @@ public class JobRequest {
     }
 
 
+    /**
+     * Copy this request, targeting an existing cluster instead of launching a new one.
+     *
+     * @param targetClusterId id of existing cluster
+     * @return new JobRequest with the same script, code version and settings
+     */
+    JobRequest copyForCluster(String targetClusterId) {
+        JobRequest copy = this.isMortarProject
+                ? new JobRequest(projectName, scriptName, gitRef, targetClusterId)
+                : new JobRequest(scriptName, targetClusterId);
+        copy.clusterSize = this.clusterSize;
+        copy.clusterType = this.clusterType;
+        copy.notifyOnJobFinish = this.notifyOnJobFinish;
+        copy.parameters = new HashMap<String, String>(this.parameters);
+        copy.isControlScript = this.isControlScript;
+        copy.submissionKey = this.submissionKey;
+        return copy;
+    }
+
+    /**
+     * Copy this request, launching a new cluster of a different size.
+     *
+     * @param newClusterSize size of hadoop cluster to launch (number of nodes)
+     * @return new JobRequest with the same script, code version and settings
+     */
+    JobRequest copyWithClusterSize(int newClusterSize) {
+        JobRequest copy = copyForCluster(null);
+        copy.clusterSize = newClusterSize;
+        return copy;
+    }
+
     /**
      * Collect all job arguments into a form compatible with the Mortar API.
      *
@@ -203,6 +235,22 @@ public class JobRequest {
         isControlScript = controlScript;
     }
 
+    /**
+     * Client-generated key identifying this submission, or null if none.
+     */
+    public String getSubmissionKey() {
+        return submissionKey;
+    }
+
+    /**
+     * Set a client-generated key identifying this submission.  Submitting the same key
+     * twice through an {@link IdempotentJobSubmitter} runs the job at most once.  The
+     * key is not sent to the API.
+     */
+    public void setSubmissionKey(String submissionKey) {
+        this.submissionKey = submissionKey;
+    }
+
     /**
      * Cluster id of cluster for the job to run on, if job is using existing cluster.
      */
@@ -254,6 +302,7 @@ public class JobRequest {
                 ", parameters=" + parameters +
                 ", isControlScript=" + isControlScript +
                 ", clusterId='" + clusterId + '\'' +
+                ", submissionKey='" + submissionKey + '\'' +
                 ']';
     }
 }
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mortardata.util.Instrumentation;
+
+/**
+ * Waits for many jobs to complete from one shared polling loop.
+ *
+ * Each poll fetches the recent jobs list once and completes the futures of watched
+ * jobs that have reached a status in {@link Jobs#JOB_STATUS_COMPLETE}.  Watched jobs
+ * too old to be in the list are fetched individually; one the API rejects with a
+ * 4xx is dropped, failing its futures.  {@link JobListener}s are called with every
+ * poll of their job until it completes.  Polling stops while nothing is watched.
+ */
+public class JobWatcher {
+
+    final Logger logger = LoggerFactory.getLogger(JobWatcher.class);
+
+    /**
+     * Default delay between polls, in milliseconds.
+     */
+    public static final long DEFAULT_POLLING_DELAY = 5000;
+
+    private Jobs jobs;
+    private ScheduledExecutorService scheduler;
+    private boolean ownsScheduler;
+    private volatile long pollingDelay = DEFAULT_POLLING_DELAY;
+    private volatile int recentJobsLimit = ClusterPool.DEFAULT_RECENT_JOBS_LIMIT;
+    private volatile Instrumentation instrumentation;
+
+    private Map<String, List<ResultFuture<Jobs.Job>>> watched =
+            new HashMap<String, List<ResultFuture<Jobs.Job>>>();
+    private Map<String, List<JobListener>> listeners = new HashMap<String, List<JobListener>>();
+    private ScheduledFuture<?> nextPoll;
+    private boolean shutdown = false;
+
+    /**
+     * Construct a JobWatcher with its own polling thread.
+     *
+     * @param jobs Jobs API to poll
+     */
+    public JobWatcher(Jobs jobs) {
+        this(jobs, Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("mortar-job-watcher")), true);
+    }
+
+    /**
+     * Construct a JobWatcher that polls on a scheduler shared with other components.
+     * The scheduler is not shut down by {@link #shutdown()}.
+     *
+     * @param jobs Jobs API to poll
+     * @param scheduler scheduler on which to poll
+     */
+    public JobWatcher(Jobs jobs, ScheduledExecutorService scheduler) {
+        this(jobs, scheduler, false);
+    }
+
+    private JobWatcher(Jobs jobs, ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        this.jobs = jobs;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        Instrumentation instrumentation = jobs.getInstrumentation();
+        this.instrumentation = instrumentation == null ? Instrumentation.NOOP : instrumentation;
+    }
+
+    /**
+     * Wait for a job to complete.
+     *
+     * @param jobId ID of the job
+     * @return future completed with the job once its status is complete
+     */
+    public ResultFuture<Jobs.Job> whenComplete(String jobId) {
+        ResultFuture<Jobs.Job> future = new ResultFuture<Jobs.Job>();
+        synchronized (this) {
+            if (this.shutdown) {
+                future.cancel(false);
+                return future;
+            }
+            List<ResultFuture<Jobs.Job>> futures = this.watched.get(jobId);
+            if (futures == null) {
+                futures = new ArrayList<ResultFuture<Jobs.Job>>();
+                this.watched.put(jobId, futures);
+            }
+            futures.add(future);
+            if (this.nextPoll == null) {
+                schedule(0);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Call a listener with each poll of a job, until the job completes.
+     *
+     * @param jobId ID of the job
+     * @param listener listener to call
+     */
+    public synchronized void addJobListener(String jobId, JobListener listener) {
+        if (this.shutdown) {
+            return;
+        }
+        List<JobListener> jobListeners = this.listeners.get(jobId);
+        if (jobListeners == null) {
+            jobListeners = new ArrayList<JobListener>();
+            this.listeners.put(jobId, jobListeners);
+        }
+        jobListeners.add(listener);
+        if (this.nextPoll == null) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Stop calling a listener for a job.
+     *
+     * @param jobId ID of the job
+     * @param listener listener to remove
+     */
+    public synchronized void removeJobListener(String jobId, JobListener listener) {
+        List<JobListener> jobListeners = this.listeners.get(jobId);
+        if (jobListeners != null && jobListeners.remove(listener) && jobListeners.isEmpty()) {
+            this.listeners.remove(jobId);
+        }
+    }
+
+    /**
+     * Poll now for every watched job.
+     *
+     * @throws IOException if unable to fetch the recent jobs list from the API
+     */
+    public void poll() throws IOException {
+        Instrumentation instrumentation = this.instrumentation;
+        if (!instrumentation.isEnabled()) {
+            pollWatched();
+            return;
+        }
+        Instrumentation.Event event = instrumentation.begin(Instrumentation.POLL);
+        int count = 0;
+        try {
+            count = pollWatched();
+        } finally {
+            event.set("poller", "job-watcher").set("count", count).end();
+        }
+    }
+
+    /**
+     * Poll every watched job, returning how many were watched.
+     */
+    private int pollWatched() throws IOException {
+        Set<String> remaining;
+        synchronized (this) {
+            // forget jobs whose every future was cancelled
+            for (Iterator<List<ResultFuture<Jobs.Job>>> it = this.watched.values().iterator();
+                    it.hasNext();) {
+                if (allDone(it.next())) {
+                    it.remove();
+                }
+            }
+            remaining = new HashSet<String>(this.watched.keySet());
+            remaining.addAll(this.listeners.keySet());
+        }
+        if (remaining.isEmpty()) {
+            return 0;
+        }
+        int count = remaining.size();
+        Jobs.JobsList recent = this.jobs.getJobs(0, this.recentJobsLimit);
+        if (recent.jobs != null) {
+            for (Jobs.Job job : recent.jobs) {
+                if (remaining.remove(job.getJobId())) {
+                    update(job);
+                }
+            }
+        }
+        for (String jobId : remaining) {
+            Jobs.Job job;
+            try {
+                job = this.jobs.getJob(jobId);
+            } catch (IOException e) {
+                // one bad job must not stop the others being polled
+                if (IdempotentJobSubmitter.isDefiniteFailure(e)) {
+                    fail(jobId, e);
+                } else {
+                    logger.warn("Unable to poll job " + jobId, e);
+                }
+                continue;
+            }
+            update(job);
+        }
+        return count;
+    }
+
+    /**
+     * Stop watching a job the API refused to return, failing its futures.
+     */
+    private void fail(String jobId, IOException cause) {
+        List<ResultFuture<Jobs.Job>> futures;
+        synchronized (this) {
+            futures = this.watched.remove(jobId);
+            this.listeners.remove(jobId);
+        }
+        logger.warn("Stopped watching job " + jobId, cause);
+        if (futures != null) {
+            for (ResultFuture<Jobs.Job> future : futures) {
+                future.fail(cause);
+            }
+        }
+    }
+
+    private static boolean allDone(List<ResultFuture<Jobs.Job>> futures) {
+        for (ResultFuture<Jobs.Job> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void update(Jobs.Job job) {
+        boolean complete = Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode());
+        List<JobListener> jobListeners;
+        List<ResultFuture<Jobs.Job>> futures = null;
+        synchronized (this) {
+            jobListeners = complete ? this.listeners.remove(job.getJobId())
+                    : this.listeners.get(job.getJobId());
+            jobListeners = jobListeners == null ? null : new ArrayList<JobListener>(jobListeners);
+            if (complete) {
+                futures = this.watched.remove(job.getJobId());
+            }
+        }
+        if (jobListeners != null) {
+            for (JobListener listener : jobListeners) {
+                try {
+                    listener.jobUpdated(job);
+                } catch (RuntimeException e) {
+                    logger.warn("Job listener failed on " + job.getJobId(), e);
+                }
+            }
+        }
+        if (futures != null) {
+            for (ResultFuture<Jobs.Job> future : futures) {
+                future.complete(job);
+            }
+        }
+    }
+
+    /**
+     * Number of jobs being watched, for completion or by listeners.
+     */
+    public synchronized int getWatchedJobCount() {
+        Set<String> jobIds = new HashSet<String>(this.watched.keySet());
+        jobIds.addAll(this.listeners.keySet());
+        return jobIds.size();
+    }
+
+    /**
+     * Set the delay between polls, in milliseconds.  Default is 5 seconds.
+     */
+    public void setPollingDelay(long pollingDelay) {
+        this.pollingDelay = pollingDelay;
+    }
+
+    /**
+     * Set how many recent jobs are fetched per poll.  Default is 100.
+     */
+    public void setRecentJobsLimit(int recentJobsLimit) {
+        this.recentJobsLimit = recentJobsLimit;
+    }
+
+    /**
+     * Emit an {@link Instrumentation#POLL} event for each poll.  Defaults to the
+     * instrumentation of the API client at construction.
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Stop polling and cancel the futures of watched jobs.  A shared scheduler passed
+     * in at construction is left running.
+     */
+    public void shutdown() {
+        Map<String, List<ResultFuture<Jobs.Job>>> pending;
+        synchronized (this) {
+            this.shutdown = true;
+            if (this.nextPoll != null) {
+                this.nextPoll.cancel(false);
+            }
+            pending = this.watched;
+            this.watched = new HashMap<String, List<ResultFuture<Jobs.Job>>>();
+            this.listeners.clear();
+        }
+        if (this.ownsScheduler) {
+            this.scheduler.shutdownNow();
+        }
+        for (List<ResultFuture<Jobs.Job>> futures : pending.values()) {
+            for (ResultFuture<Jobs.Job> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private synchronized void schedule(long delay) {
+        if (this.shutdown) {
+            return;
+        }
+        this.nextPoll = this.scheduler.schedule(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                } catch (IOException e) {
+                    logger.warn("Unable to poll jobs", e);
+                } catch (RuntimeException e) {
+                    logger.warn("Unexpected error polling jobs", e);
+                }
+                synchronized (JobWatcher.this) {
+                    if (watched.isEmpty() && listeners.isEmpty()) {
+                        nextPoll = null;
+                    } else {
+                        schedule(pollingDelay);
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JobWatcher [watched=" + watched.size() + ", listeners=" + listeners.size()
+                + ", pollingDelay=" + pollingDelay + "]";
+    }
+}
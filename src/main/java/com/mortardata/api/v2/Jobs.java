@@ -25,6 +25,7 @@ import java.util.Set;
 
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.util.Key;
+import com.mortardata.util.Instrumentation;
 
 /**
  * Run and fetch jobs from the Mortar API.
@@ -53,6 +54,13 @@ public class Jobs {
         this.api = api;
     }
 
+    /**
+     * Instrumentation of the API client, for pollers built on this API.
+     */
+    Instrumentation getInstrumentation() {
+        return this.api.getInstrumentation();
+    }
+
     /**
      * Get all jobs from the API.
      * 
@@ -61,7 +69,7 @@ public class Jobs {
      */
     public JobsList getJobs() throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("jobs");
-        return request.execute().parseAs(Jobs.JobsList.class);
+        return this.api.execute(request, Jobs.JobsList.class);
     }
 
     /**
@@ -74,7 +82,7 @@ public class Jobs {
      */
     public JobsList getJobs(Integer skip, Integer limit) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("jobs?skip=" + skip + "&limit=" + limit);
-        return request.execute().parseAs(Jobs.JobsList.class);
+        return this.api.execute(request, Jobs.JobsList.class);
     }
 
     /**
@@ -86,7 +94,7 @@ public class Jobs {
      */
     public Job getJob(String jobId) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("jobs/" + jobId);
-        return request.execute().parseAs(Jobs.Job.class);
+        return this.api.execute(request, Jobs.Job.class);
     }
 
     /**
@@ -97,7 +105,7 @@ public class Jobs {
      */
     public void stopJob(String jobId) throws IOException {
         HttpRequest request = this.api.buildHttpDeleteRequest("jobs/" + jobId);
-        request.execute();
+        this.api.execute(request);
     }
 
     /**
@@ -109,7 +117,21 @@ public class Jobs {
      */
     public String postJob(JobRequest jobRequest) throws IOException {
         HttpRequest request = this.api.buildHttpPostRequest("jobs", jobRequest.getArguments());
-        return (String) request.execute().parseAs(HashMap.class).get("job_id");
+        return (String) this.api.execute(request, HashMap.class).get("job_id");
+    }
+
+    /**
+     * Run a new Job with a single POST.  Error responses are not retried, so one
+     * call never starts more than one job.
+     *
+     * @param jobRequest Info about job to run
+     * @return job_id ID of job that was started
+     * @throws IOException if unable to run job on API
+     */
+    String postJobOnce(JobRequest jobRequest) throws IOException {
+        HttpRequest request = this.api.buildHttpPostRequest("jobs", jobRequest.getArguments());
+        request.setUnsuccessfulResponseHandler(null);
+        return (String) this.api.execute(request, HashMap.class).get("job_id");
     }
 
     /**
@@ -134,7 +156,7 @@ public class Jobs {
      */
     public JobStatus blockUntilJobComplete(String jobId) throws IOException, InterruptedException {
         while (true) {
-            JobStatus jobStatus = getJobStatus(jobId);
+            JobStatus jobStatus = pollJobStatus(this, jobId);
             if (JOB_STATUS_COMPLETE.contains(jobStatus)) {
                 return jobStatus;
             }
@@ -142,6 +164,44 @@ public class Jobs {
         }
     }
 
+    /**
+     * Block until a job has completed or a context is cancelled or expires, polling
+     * for status with calls bound by the context.
+     *
+     * @param jobId ID of job to wait for completion
+     * @param context deadline and cancellation for the wait
+     * @return final statusCode
+     * @throws RequestCancelledException if the context is cancelled or expires first
+     * @throws IOException if unable to contact API for status
+     * @throws InterruptedException if polling interrupted
+     */
+    public JobStatus blockUntilJobComplete(String jobId, RequestContext context)
+            throws IOException, InterruptedException {
+        Jobs bound = new Jobs(this.api.withContext(context));
+        while (true) {
+            JobStatus jobStatus = pollJobStatus(bound, jobId);
+            if (JOB_STATUS_COMPLETE.contains(jobStatus)) {
+                return jobStatus;
+            }
+            context.sleep(POLLING_DELAY);
+        }
+    }
+
+    private JobStatus pollJobStatus(Jobs source, String jobId) throws IOException {
+        Instrumentation instrumentation = this.api.getInstrumentation();
+        if (!instrumentation.isEnabled()) {
+            return source.getJobStatus(jobId);
+        }
+        Instrumentation.Event event = instrumentation.begin(Instrumentation.POLL);
+        JobStatus jobStatus = null;
+        try {
+            jobStatus = source.getJobStatus(jobId);
+            return jobStatus;
+        } finally {
+            event.set("poller", "job").set("id", jobId).set("status", jobStatus).end();
+        }
+    }
+
     /**
      * Information about an error with a Job.
      */
@@ -205,6 +265,9 @@ public class Jobs {
      */
     public static class Job {
 
+        @Key("job_id")
+        private String jobId;
+
         @Key("status_code")
         private String statusCode;
 
@@ -248,6 +311,13 @@ public class Jobs {
         private String stopTimestamp;
 
 
+        /**
+         * ID of the Job.
+         */
+        public String getJobId() {
+            return jobId;
+        }
+
         /**
          * Job status code.
          */
@@ -357,7 +427,7 @@ public class Jobs {
 
         @Override
         public String toString() {
-            return "Job [statusCode=" + statusCode + ", statusDescription="
+            return "Job [jobId=" + jobId + ", statusCode=" + statusCode + ", statusDescription="
                     + statusDescription + ", scriptName=" + scriptName
                     + ", pigscriptName=" + pigscriptName + ", clusterId="
                     + clusterId + ", error=" + error + ", note=" + note
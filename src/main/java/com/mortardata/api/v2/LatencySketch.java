@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+/**
+ * Mergeable histogram of durations, for estimating percentiles in constant memory.
+ *
+ * Durations are counted in logarithmically sized buckets, so any quantile is
+ * estimated to within the sketch's relative accuracy however many durations are
+ * added.  Sketches with the same accuracy can be merged, for example to roll up
+ * per-cluster-size sketches into one per script.
+ */
+public class LatencySketch {
+
+    /**
+     * Default relative accuracy of estimated quantiles.
+     */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    /**
+     * Largest duration counted exactly, in milliseconds; about 35 years.
+     */
+    private static final long MAX_VALUE = 1L << 40;
+
+    private double relativeAccuracy;
+    private double logGamma;
+    private long[] counts;
+    private long zeroCount = 0;
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * Construct an empty sketch with DEFAULT_RELATIVE_ACCURACY.
+     */
+    public LatencySketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * Construct an empty sketch.
+     *
+     * @param relativeAccuracy relative error of estimated quantiles, such as 0.01 for 1%
+     */
+    public LatencySketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0, 1)");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+        this.counts = new long[bucket(MAX_VALUE) + 1];
+    }
+
+    /**
+     * Bucket i holds values in (gamma^(i-1), gamma^i].
+     */
+    private int bucket(long value) {
+        return (int) Math.ceil(Math.log(value) / this.logGamma);
+    }
+
+    /**
+     * Add a duration.  Negative durations are counted as zero.
+     *
+     * @param millis duration in milliseconds
+     */
+    public synchronized void add(long millis) {
+        long value = Math.max(0, millis);
+        if (value == 0) {
+            this.zeroCount++;
+        } else {
+            this.counts[bucket(Math.min(value, MAX_VALUE))]++;
+        }
+        this.count++;
+        this.sum += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Add every duration counted by another sketch.
+     *
+     * @param other sketch with the same relative accuracy
+     */
+    public void merge(LatencySketch other) {
+        long[] otherCounts;
+        long otherZeroCount;
+        long otherCount;
+        long otherSum;
+        long otherMin;
+        long otherMax;
+        synchronized (other) {
+            if (other.relativeAccuracy != this.relativeAccuracy) {
+                throw new IllegalArgumentException("Cannot merge sketches of accuracy "
+                        + this.relativeAccuracy + " and " + other.relativeAccuracy);
+            }
+            otherCounts = other.counts.clone();
+            otherZeroCount = other.zeroCount;
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            for (int i = 0; i < otherCounts.length; i++) {
+                this.counts[i] += otherCounts[i];
+            }
+            this.zeroCount += otherZeroCount;
+            this.count += otherCount;
+            this.sum += otherSum;
+            this.min = Math.min(this.min, otherMin);
+            this.max = Math.max(this.max, otherMax);
+        }
+    }
+
+    /**
+     * Number of durations added.
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Smallest duration added, or 0 if none.
+     */
+    public synchronized long getMin() {
+        return this.count == 0 ? 0 : this.min;
+    }
+
+    /**
+     * Largest duration added, or 0 if none.
+     */
+    public synchronized long getMax() {
+        return this.count == 0 ? 0 : this.max;
+    }
+
+    /**
+     * Mean duration, or 0 if none were added.
+     */
+    public synchronized double getMean() {
+        return this.count == 0 ? 0 : (double) this.sum / this.count;
+    }
+
+    /**
+     * Estimate a quantile.
+     *
+     * @param quantile quantile in [0, 1], such as 0.95 for the 95th percentile
+     * @return estimated duration in milliseconds, or 0 if none were added
+     */
+    public synchronized long getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1]: " + quantile);
+        }
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+        long seen = this.zeroCount;
+        if (rank <= seen) {
+            return 0;
+        }
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                // midpoint of the bucket in relative terms, clamped to what was added
+                double estimate = 2 * Math.exp(i * this.logGamma)
+                        / (1 + Math.exp(this.logGamma));
+                return Math.max(this.min, Math.min(this.max, Math.round(estimate)));
+            }
+        }
+        return this.max;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LatencySketch [count=" + count + ", p50=" + getQuantile(0.5)
+                + ", p95=" + getQuantile(0.95) + ", max=" + getMax() + "]";
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Result payload of a describe or illustrate that is downloaded on first access
+ * and then memoized.  The download can also be started early in the background.
+ */
+abstract class LazyResult {
+
+    private ResultFuture<Map<String, Object>> future;
+
+    /**
+     * Download the result payload from the API.
+     */
+    abstract Map<String, Object> fetch() throws IOException;
+
+    /**
+     * Start downloading the payload in the background, if not already started.
+     *
+     * @param executor executor on which to download
+     */
+    void prefetch(Executor executor) {
+        final ResultFuture<Map<String, Object>> started;
+        synchronized (this) {
+            if (this.future != null) {
+                return;
+            }
+            started = new ResultFuture<Map<String, Object>>();
+            this.future = started;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    load(started);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                // leave the download to the first access
+                this.future = null;
+            }
+        }
+    }
+
+    /**
+     * Get the payload, downloading it on this thread unless a download is already
+     * in progress.
+     *
+     * @return result payload
+     * @throws IllegalStateException if the payload could not be downloaded
+     */
+    Map<String, Object> get() {
+        ResultFuture<Map<String, Object>> current;
+        boolean loadHere = false;
+        synchronized (this) {
+            if (this.future == null) {
+                this.future = new ResultFuture<Map<String, Object>>();
+                loadHere = true;
+            }
+            current = this.future;
+        }
+        if (loadHere) {
+            load(current);
+        }
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for result", e);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                // allow the next access to retry
+                if (this.future == current) {
+                    this.future = null;
+                }
+            }
+            throw new IllegalStateException("Unable to fetch result", e.getCause());
+        }
+    }
+
+    private void load(ResultFuture<Map<String, Object>> target) {
+        try {
+            target.complete(fetch());
+        } catch (IOException e) {
+            target.fail(e);
+        } catch (RuntimeException e) {
+            target.fail(e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.api.client.util.Key;
+
+/**
+ * State of an account's clusters and recent jobs at one point in time.
+ *
+ * Snapshots serialize to a single line of JSON, so histories can be recorded and
+ * replayed offline with {@link AutoscaleSimulator}.
+ */
+public class LoadSnapshot {
+
+    @Key
+    private long timestamp;
+
+    @Key
+    private List<Clusters.Cluster> clusters;
+
+    @Key
+    private List<Jobs.Job> jobs;
+
+    public LoadSnapshot() {
+        //no args constructor for serialization
+    }
+
+    /**
+     * Construct a LoadSnapshot.
+     *
+     * @param timestamp time the snapshot was taken, in milliseconds since the epoch
+     * @param clustersList recent or running clusters
+     * @param jobsList recent jobs
+     */
+    public LoadSnapshot(long timestamp, Clusters.ClustersList clustersList,
+                        Jobs.JobsList jobsList) {
+        this.timestamp = timestamp;
+        this.clusters = clustersList.clusters == null
+                ? new ArrayList<Clusters.Cluster>() : clustersList.clusters;
+        this.jobs = jobsList.jobs == null ? new ArrayList<Jobs.Job>() : jobsList.jobs;
+    }
+
+    /**
+     * Time the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Recent or running clusters.
+     */
+    public List<Clusters.Cluster> getClusters() {
+        return clusters == null ? new ArrayList<Clusters.Cluster>() : clusters;
+    }
+
+    /**
+     * Recent jobs.
+     */
+    public List<Jobs.Job> getJobs() {
+        return jobs == null ? new ArrayList<Jobs.Job>() : jobs;
+    }
+
+    /**
+     * Unfinished jobs running on a cluster.
+     *
+     * @param clusterId id of the cluster
+     * @return unfinished jobs with that cluster id
+     */
+    public List<Jobs.Job> getUnfinishedJobs(String clusterId) {
+        List<Jobs.Job> unfinished = new ArrayList<Jobs.Job>();
+        for (Jobs.Job job : getJobs()) {
+            if (clusterId.equals(job.getClusterId())
+                    && !Jobs.JOB_STATUS_COMPLETE.contains(job.getStatusCode())) {
+                unfinished.add(job);
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Find a job by ID.
+     *
+     * @param jobId ID of the job
+     * @return the job, or null if not in this snapshot
+     */
+    public Jobs.Job getJob(String jobId) {
+        for (Jobs.Job job : getJobs()) {
+            if (jobId.equals(job.getJobId())) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find a cluster by ID.
+     *
+     * @param clusterId id of the cluster
+     * @return the cluster, or null if not in this snapshot
+     */
+    public Clusters.Cluster getCluster(String clusterId) {
+        for (Clusters.Cluster cluster : getClusters()) {
+            if (clusterId.equals(cluster.getClusterId())) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadSnapshot [timestamp=" + timestamp + ", clusters=" + getClusters().size()
+                + ", jobs=" + getJobs().size() + "]";
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An append-only file mapped into memory, with a small header recording how many
+ * bytes are in use.  Bytes past the used length are preallocated space, or data
+ * from a write that never completed, and are ignored.
+ *
+ * Header layout: int magic, int version, long used bytes, long[AUX_SLOTS] aux,
+ * long reserved.
+ */
+class MappedFile {
+
+    static final int HEADER_SIZE = 48;
+    static final int AUX_SLOTS = 3;
+    private static final int VERSION = 2;
+    private static final int USED_OFFSET = 8;
+    private static final int AUX_OFFSET = 16;
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    MappedFile(File file, int magic) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = this.randomAccessFile.getChannel();
+        boolean created = this.randomAccessFile.length() == 0;
+        if (created) {
+            this.randomAccessFile.setLength(INITIAL_SIZE);
+        }
+        map(this.randomAccessFile.length());
+        if (created) {
+            this.buffer.putInt(0, magic);
+            this.buffer.putInt(4, VERSION);
+            this.buffer.putLong(USED_OFFSET, HEADER_SIZE);
+        } else if (this.buffer.getInt(0) != magic || this.buffer.getInt(4) != VERSION) {
+            close();
+            throw new IOException("Not a job history file: " + file);
+        }
+    }
+
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Job history file would exceed 2GB: " + this.file);
+        }
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Make room for length more bytes past the used length, and return the offset at
+     * which to write them.
+     */
+    int reserve(int length) throws IOException {
+        long used = getUsed();
+        long needed = used + length;
+        if (needed > this.buffer.capacity()) {
+            long size = Math.max(needed, Math.min(2L * this.buffer.capacity(),
+                    (long) Integer.MAX_VALUE));
+            this.randomAccessFile.setLength(size);
+            map(size);
+        }
+        return (int) used;
+    }
+
+    /**
+     * Mark bytes up to offset as used.  Called after the bytes are written, so a
+     * crash mid-write leaves them ignored.
+     */
+    void commit(int offset) {
+        this.buffer.putLong(USED_OFFSET, offset);
+    }
+
+    long getUsed() {
+        return this.buffer.getLong(USED_OFFSET);
+    }
+
+    /**
+     * A long stored in the header for the file's owner, 0 until set.
+     *
+     * @param slot 0 to AUX_SLOTS - 1
+     */
+    long getAux(int slot) {
+        return this.buffer.getLong(auxOffset(slot));
+    }
+
+    void setAux(int slot, long aux) {
+        this.buffer.putLong(auxOffset(slot), aux);
+    }
+
+    private static int auxOffset(int slot) {
+        if (slot < 0 || slot >= AUX_SLOTS) {
+            throw new IndexOutOfBoundsException("No aux slot " + slot);
+        }
+        return AUX_OFFSET + slot * 8;
+    }
+
+    /**
+     * The mapping, valid until the next reserve().
+     */
+    MappedByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    void close() throws IOException {
+        this.randomAccessFile.close();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFile [file=" + file + ", used=" + getUsed() + "]";
+    }
+}
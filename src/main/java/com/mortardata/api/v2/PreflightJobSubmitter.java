@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs jobs only after their pigscript passes validation, so that script errors are
+ * reported before any cluster time is spent.
+ *
+ * Validations at a full commit hash are remembered, so resubmitting the same script
+ * at the same commit does not validate it again.  Control scripts and Web Project
+ * jobs cannot be validated and are submitted directly.
+ */
+public class PreflightJobSubmitter {
+
+    final Logger logger = LoggerFactory.getLogger(PreflightJobSubmitter.class);
+
+    /**
+     * How validation is ordered relative to job submission.
+     */
+    public enum Mode {
+
+        /**
+         * Validate first, and submit the job only if validation succeeds.
+         */
+        VALIDATE_THEN_SUBMIT,
+
+        /**
+         * For jobs that start a new cluster, submit the job right away so that the
+         * cluster starts while the script is validated, and stop the job if
+         * validation fails.  Jobs on an existing cluster are validated first.
+         */
+        SUBMIT_WHILE_VALIDATING
+    }
+
+    private Jobs jobs;
+    private TaskRunner taskRunner;
+    private Mode mode = Mode.VALIDATE_THEN_SUBMIT;
+    private Map<String, Validates.ValidateResult> validations =
+            new ConcurrentHashMap<String, Validates.ValidateResult>();
+
+    /**
+     * Construct a PreflightJobSubmitter.
+     *
+     * @param jobs Jobs API used to run jobs
+     * @param taskRunner TaskRunner used to run validates
+     */
+    public PreflightJobSubmitter(Jobs jobs, TaskRunner taskRunner) {
+        this.jobs = jobs;
+        this.taskRunner = taskRunner;
+    }
+
+    /**
+     * Set how validation is ordered relative to job submission.  Default is
+     * VALIDATE_THEN_SUBMIT.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * How validation is ordered relative to job submission.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Validate the job's pigscript and, if it is valid, run the job.
+     *
+     * @param jobRequest Info about job to run
+     * @return job_id ID of job that was started
+     * @throws ValidationException if the pigscript failed validation
+     * @throws IOException if unable to validate or run job on API
+     * @throws InterruptedException if interrupted waiting for validation
+     */
+    public String postJob(JobRequest jobRequest) throws IOException, InterruptedException {
+        if (jobRequest.getProjectName() == null || jobRequest.isControlScript()) {
+            return this.jobs.postJob(jobRequest);
+        }
+
+        String key = validationKey(jobRequest);
+        Validates.ValidateResult previous = key == null ? null : this.validations.get(key);
+        if (previous != null) {
+            checkValidation(previous);
+            return this.jobs.postJob(jobRequest);
+        }
+
+        ResultFuture<Validates.ValidateResult> validation = this.taskRunner.validate(
+                jobRequest.getGitRef(), jobRequest.getProjectName(), jobRequest.getScriptName());
+
+        if (this.mode == Mode.SUBMIT_WHILE_VALIDATING && jobRequest.getClusterId() == null) {
+            String jobId = this.jobs.postJob(jobRequest);
+            try {
+                checkValidation(awaitValidation(key, validation));
+            } catch (IOException e) {
+                logger.info("Stopping job " + jobId + " after failed validation");
+                stopJob(jobId);
+                throw e;
+            } catch (InterruptedException e) {
+                // the caller never learns the job's id, so nothing else can stop it
+                logger.info("Stopping job " + jobId + " after interrupt");
+                validation.cancel(false);
+                stopJob(jobId);
+                throw e;
+            }
+            return jobId;
+        }
+
+        try {
+            checkValidation(awaitValidation(key, validation));
+        } catch (InterruptedException e) {
+            validation.cancel(false);
+            throw e;
+        }
+        return this.jobs.postJob(jobRequest);
+    }
+
+    /**
+     * Stop a job without letting a failure hide the error that caused the stop.
+     */
+    private void stopJob(String jobId) {
+        try {
+            this.jobs.stopJob(jobId);
+        } catch (IOException e) {
+            logger.warn("Unable to stop job " + jobId, e);
+        }
+    }
+
+    private Validates.ValidateResult awaitValidation(String key,
+            ResultFuture<Validates.ValidateResult> validation)
+            throws IOException, InterruptedException {
+        Validates.ValidateResult result;
+        try {
+            result = validation.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to validate pigscript", e.getCause());
+        }
+        TaskStatus status = result.getStatusCode();
+        if (key != null && (status == TaskStatus.SUCCESS || status == TaskStatus.FAILURE)) {
+            this.validations.put(key, result);
+        }
+        return result;
+    }
+
+    private void checkValidation(Validates.ValidateResult result) throws ValidationException {
+        if (result.getStatusCode() != TaskStatus.SUCCESS) {
+            throw new ValidationException(result);
+        }
+    }
+
+    /**
+     * Validations are only reused when run at a full commit hash.
+     */
+    private String validationKey(JobRequest jobRequest) {
+        if (!TaskResultCache.isCommitHash(jobRequest.getGitRef())) {
+            return null;
+        }
+        return jobRequest.getProjectName() + '\0' + jobRequest.getScriptName() + '\0'
+                + jobRequest.getGitRef().toLowerCase();
+    }
+
+    @Override
+    public String toString() {
+        return "PreflightJobSubmitter [mode=" + mode + "]";
+    }
+}
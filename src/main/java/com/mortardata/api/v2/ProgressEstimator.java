@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+/**
+ * Estimates when a job will finish from successive samples of its progress.
+ *
+ * The rate of progress is smoothed with an exponentially weighted moving average of
+ * the rate between samples at which progress advanced.  Early on, when little
+ * progress has been seen, the estimate leans on an expected runtime, such as the
+ * median runtime of earlier runs of the same script; the weight given to the
+ * observed rate grows with the progress made.
+ */
+public class ProgressEstimator {
+
+    /**
+     * Default weight given to the latest rate of progress.
+     */
+    public static final double DEFAULT_SMOOTHING = 0.3;
+
+    /**
+     * Returned when there is not yet enough information for an estimate.
+     */
+    public static final long UNKNOWN = -1;
+
+    private long startTime;
+    private long expectedRuntime;
+    private double smoothing = DEFAULT_SMOOTHING;
+    private double rate = Double.NaN;
+    private long lastTime;
+    private int lastProgress = 0;
+
+    /**
+     * Construct a ProgressEstimator.
+     *
+     * @param startTime time the job started, in milliseconds since the epoch
+     * @param expectedRuntime expected runtime in milliseconds, or UNKNOWN
+     */
+    public ProgressEstimator(long startTime, long expectedRuntime) {
+        this.startTime = startTime;
+        this.expectedRuntime = expectedRuntime;
+        this.lastTime = startTime;
+    }
+
+    /**
+     * Set the weight, in (0, 1], given to the latest rate of progress.  Higher
+     * values follow changes in rate faster but are noisier.
+     */
+    public synchronized void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Add a sample of the job's progress.
+     *
+     * @param time time of the sample, in milliseconds since the epoch
+     * @param progress percent complete, from 0 to 100
+     */
+    public synchronized void addSample(long time, int progress) {
+        progress = Math.max(0, Math.min(100, progress));
+        if (progress <= this.lastProgress || time <= this.lastTime) {
+            return;
+        }
+        double sampleRate = (double) (progress - this.lastProgress) / (time - this.lastTime);
+        if (Double.isNaN(this.rate)) {
+            this.rate = sampleRate;
+        } else {
+            this.rate = this.smoothing * sampleRate + (1 - this.smoothing) * this.rate;
+        }
+        this.lastTime = time;
+        this.lastProgress = progress;
+    }
+
+    /**
+     * Latest progress sampled, from 0 to 100.
+     */
+    public synchronized int getProgress() {
+        return this.lastProgress;
+    }
+
+    /**
+     * Smoothed rate of progress, in percent per millisecond, or NaN before progress
+     * has been seen.
+     */
+    public synchronized double getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Estimated time the job will finish.
+     *
+     * @param now current time, in milliseconds since the epoch; the estimate is
+     *     never earlier than now
+     * @return estimated finish time in milliseconds since the epoch, or UNKNOWN
+     */
+    public synchronized long getEta(long now) {
+        if (this.lastProgress >= 100) {
+            return Math.max(now, this.lastTime);
+        }
+        boolean observed = !Double.isNaN(this.rate) && this.rate > 0;
+        boolean expected = this.expectedRuntime != UNKNOWN;
+        double observedEta = observed
+                ? Math.max(now, this.lastTime + (100 - this.lastProgress) / this.rate) : 0;
+        double expectedEta = expected
+                ? Math.max(now, this.startTime + this.expectedRuntime) : 0;
+        if (observed && expected) {
+            double weight = this.lastProgress / 100.0;
+            return Math.round(weight * observedEta + (1 - weight) * expectedEta);
+        } else if (observed) {
+            return Math.round(observedEta);
+        } else if (expected) {
+            return Math.round(expectedEta);
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProgressEstimator [progress=" + lastProgress + ", rate=" + rate
+                + ", expectedRuntime=" + expectedRuntime + "]";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a call is abandoned because its {@link RequestContext} was cancelled or
+ * its deadline passed.
+ */
+public class RequestCancelledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean deadlineExceeded;
+
+    /**
+     * Construct a RequestCancelledException.
+     *
+     * @param deadlineExceeded true if the deadline passed, false if cancelled
+     */
+    public RequestCancelledException(boolean deadlineExceeded) {
+        super(deadlineExceeded ? "Deadline exceeded" : "Request cancelled");
+        this.deadlineExceeded = deadlineExceeded;
+    }
+
+    /**
+     * Whether the call was abandoned because its deadline passed, rather than
+     * because it was cancelled.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+}
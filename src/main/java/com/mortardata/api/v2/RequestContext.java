@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import com.google.api.client.util.Sleeper;
+
+/**
+ * Deadline and cancellation for a series of calls to the API.
+ *
+ * Calls made through {@link API#withContext(RequestContext)} have their connect and
+ * read timeouts and their retries cut to the time remaining, and fail with
+ * {@link RequestCancelledException} once the context is cancelled or expired.  Waits
+ * such as {@link Jobs#blockUntilJobComplete(String, RequestContext)} wake as soon as
+ * the context is cancelled.  A context may be shared by calls on many threads.
+ */
+public class RequestContext {
+
+    private final long deadline;
+    private boolean cancelled = false;
+
+    /**
+     * Construct a context with no deadline, which can be cancelled.
+     */
+    public RequestContext() {
+        this(Long.MAX_VALUE);
+    }
+
+    private RequestContext(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Construct a context that expires at a time.
+     *
+     * @param deadline time in milliseconds since the epoch
+     */
+    public static RequestContext withDeadline(long deadline) {
+        return new RequestContext(deadline);
+    }
+
+    /**
+     * Construct a context that expires after a timeout from now.
+     *
+     * @param timeout timeout in milliseconds
+     */
+    public static RequestContext withTimeout(long timeout) {
+        return new RequestContext(System.currentTimeMillis() + timeout);
+    }
+
+    /**
+     * Time at which the context expires, in milliseconds since the epoch, or
+     * Long.MAX_VALUE if it has no deadline.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Whether the context has a deadline.
+     */
+    public boolean hasDeadline() {
+        return deadline != Long.MAX_VALUE;
+    }
+
+    /**
+     * Milliseconds until the deadline, never less than 0, or Long.MAX_VALUE if there
+     * is no deadline.
+     */
+    public long getRemaining() {
+        return hasDeadline() ? Math.max(0, deadline - System.currentTimeMillis())
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Cancel the context, waking any calls waiting on it.
+     */
+    public synchronized void cancel() {
+        this.cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * Whether the context was cancelled.
+     */
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Whether the deadline has passed.
+     */
+    public boolean isExpired() {
+        return hasDeadline() && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Throw if the context is cancelled or expired.
+     *
+     * @throws RequestCancelledException if the context is cancelled or expired
+     */
+    public void check() throws RequestCancelledException {
+        if (isCancelled()) {
+            throw new RequestCancelledException(false);
+        } else if (isExpired()) {
+            throw new RequestCancelledException(true);
+        }
+    }
+
+    /**
+     * Wait for a delay, waking early if the context is cancelled.
+     *
+     * @param millis delay in milliseconds
+     * @throws RequestCancelledException if the context is cancelled, or expires
+     *     before the delay is over
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void sleep(long millis) throws RequestCancelledException, InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        synchronized (this) {
+            while (true) {
+                check();
+                long now = System.currentTimeMillis();
+                if (now >= end) {
+                    return;
+                }
+                wait(Math.max(1, Math.min(end, this.deadline) - now));
+            }
+        }
+    }
+
+    /**
+     * Sleeper for retry backoff that stops retries once the context is cancelled or
+     * expired.
+     */
+    Sleeper asSleeper() {
+        return new Sleeper() {
+            public void sleep(long millis) throws InterruptedException {
+                try {
+                    RequestContext.this.sleep(millis);
+                } catch (RequestCancelledException e) {
+                    throw new InterruptedException(e.getMessage());
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "RequestContext [remaining=" + getRemaining() + ", cancelled=" + isCancelled()
+                + "]";
+    }
+}
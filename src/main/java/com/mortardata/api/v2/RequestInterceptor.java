@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+
+import com.google.api.client.http.HttpRequest;
+
+/**
+ * Hook around every call made through an {@link API} client, such as for adding
+ * headers or recording spans.  Added with {@link API#addInterceptor}.
+ */
+public interface RequestInterceptor {
+
+    /**
+     * Called on the calling thread before a call is executed.  Headers may be added
+     * to the request; they are sent with every retry and hedge of the call.
+     *
+     * @param request request about to be executed
+     * @return called when the call completes, or null
+     * @throws IOException to fail the call without executing it
+     */
+    Completion intercept(HttpRequest request) throws IOException;
+
+    /**
+     * Notified when an intercepted call completes.
+     */
+    interface Completion {
+
+        /**
+         * Called on the calling thread once the call has a response or has failed.
+         *
+         * @param statusCode HTTP status of the final response, or 0 if there was none
+         * @param failure exception the call failed with, or null
+         */
+        void completed(int statusCode, Throwable failure);
+    }
+}
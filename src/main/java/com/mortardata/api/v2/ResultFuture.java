@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of an asynchronous operation against the Mortar API.
+ *
+ * Callers can either block on {@link #get()} or register a {@link Callback} to be
+ * notified when the operation completes.
+ *
+ * @param <T> type of the result
+ */
+public class ResultFuture<T> implements Future<T> {
+
+    static final Logger LOGGER = LoggerFactory.getLogger(ResultFuture.class);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private List<Callback<T>> callbacks = new ArrayList<Callback<T>>();
+    private T value;
+    private Throwable error;
+    private boolean cancelled;
+
+    /**
+     * Notified when a ResultFuture completes.
+     *
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called when the operation completed successfully.
+         *
+         * @param result result of the operation
+         */
+        void onSuccess(T result);
+
+        /**
+         * Called when the operation failed or was cancelled.
+         *
+         * @param error cause of the failure (CancellationException if cancelled)
+         */
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * Complete this future successfully.
+     *
+     * @param result result of the operation
+     * @return false if the future was already complete
+     */
+    boolean complete(T result) {
+        List<Callback<T>> toNotify;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.value = result;
+            toNotify = finish();
+        }
+        for (Callback<T> callback : toNotify) {
+            notifySuccess(callback, result);
+        }
+        return true;
+    }
+
+    /**
+     * Complete this future with an error.
+     *
+     * @param cause cause of the failure
+     * @return false if the future was already complete
+     */
+    boolean fail(Throwable cause) {
+        List<Callback<T>> toNotify;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.error = cause;
+            toNotify = finish();
+        }
+        for (Callback<T> callback : toNotify) {
+            notifyFailure(callback, cause);
+        }
+        return true;
+    }
+
+    /**
+     * Register a callback.  If the future is already complete, the callback is
+     * run immediately on the calling thread; otherwise it runs on the thread that
+     * completes the future.
+     *
+     * @param callback callback to notify
+     */
+    public void addCallback(Callback<T> callback) {
+        synchronized (this) {
+            if (!isDone()) {
+                this.callbacks.add(callback);
+                return;
+            }
+        }
+        if (this.cancelled) {
+            notifyFailure(callback, new CancellationException());
+        } else if (this.error != null) {
+            notifyFailure(callback, this.error);
+        } else {
+            notifySuccess(callback, this.value);
+        }
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        List<Callback<T>> toNotify;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.cancelled = true;
+            toNotify = finish();
+        }
+        for (Callback<T> callback : toNotify) {
+            notifyFailure(callback, new CancellationException());
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        this.done.await();
+        return getValue();
+    }
+
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.done.await(timeout, unit)) {
+            throw new TimeoutException("Timed out after " + timeout + " " + unit);
+        }
+        return getValue();
+    }
+
+    private T getValue() throws ExecutionException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        if (this.error != null) {
+            throw new ExecutionException(this.error);
+        }
+        return this.value;
+    }
+
+    private List<Callback<T>> finish() {
+        List<Callback<T>> toNotify = this.callbacks;
+        this.callbacks = null;
+        this.done.countDown();
+        return toNotify;
+    }
+
+    private static <T> void notifySuccess(Callback<T> callback, T result) {
+        try {
+            callback.onSuccess(result);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Callback threw exception", e);
+        }
+    }
+
+    private static <T> void notifyFailure(Callback<T> callback, Throwable cause) {
+        try {
+            callback.onFailure(cause);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Callback threw exception", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResultFuture [done=" + isDone() + ", cancelled=" + cancelled
+                + ", value=" + value + ", error=" + error + "]";
+    }
+}
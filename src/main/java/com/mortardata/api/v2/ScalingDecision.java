@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A cluster start, stop or resize recommended by an {@link AutoscalePolicy}.
+ */
+public class ScalingDecision {
+
+    /**
+     * Kind of scaling action.
+     */
+    public enum Action {
+
+        /**
+         * Start a new cluster of the recommended size for queued jobs.
+         */
+        START,
+
+        /**
+         * Stop an idle cluster.
+         */
+        STOP,
+
+        /**
+         * Place new jobs on a cluster of the recommended size instead of an
+         * undersized cluster, which is stopped once it becomes idle.
+         */
+        RESIZE
+    }
+
+    private Action action;
+    private String clusterId;
+    private int clusterSize;
+    private Set<String> workloads;
+    private String reason;
+
+    /**
+     * Construct a ScalingDecision that sizes clusters for no particular workload.
+     *
+     * @param action kind of scaling action
+     * @param clusterId cluster to stop or resize, or null when starting a cluster
+     * @param clusterSize recommended cluster size, or 0 when stopping a cluster
+     * @param reason human-readable explanation
+     */
+    public ScalingDecision(Action action, String clusterId, int clusterSize, String reason) {
+        this(action, clusterId, clusterSize, Collections.<String>emptySet(), reason);
+    }
+
+    /**
+     * Construct a ScalingDecision.
+     *
+     * @param action kind of scaling action
+     * @param clusterId cluster to stop or resize, or null when starting a cluster
+     * @param clusterSize recommended cluster size, or 0 when stopping a cluster
+     * @param workloads workloads, as named by {@link #workloadOf(JobRequest)}, whose new
+     * clusters the size applies to
+     * @param reason human-readable explanation
+     */
+    public ScalingDecision(Action action, String clusterId, int clusterSize,
+                           Set<String> workloads, String reason) {
+        this.action = action;
+        this.clusterId = clusterId;
+        this.clusterSize = clusterSize;
+        this.workloads = Collections.unmodifiableSet(new HashSet<String>(workloads));
+        this.reason = reason;
+    }
+
+    /**
+     * Name of the workload a job belongs to: its project and script.
+     */
+    public static String workloadOf(Jobs.Job job) {
+        return job.getProjectName() + "/"
+                + (job.getPigscriptName() != null ? job.getPigscriptName() : job.getScriptName());
+    }
+
+    /**
+     * Name of the workload a job request belongs to: its project and script.
+     */
+    public static String workloadOf(JobRequest jobRequest) {
+        return jobRequest.getProjectName() + "/" + jobRequest.getScriptName();
+    }
+
+    /**
+     * Kind of scaling action.
+     */
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * Cluster to stop or resize, or null when starting a cluster.
+     */
+    public String getClusterId() {
+        return clusterId;
+    }
+
+    /**
+     * Recommended cluster size, or 0 when stopping a cluster.
+     */
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * Workloads whose new clusters the recommended size applies to.
+     */
+    public Set<String> getWorkloads() {
+        return workloads;
+    }
+
+    /**
+     * Human-readable explanation of the decision.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "ScalingDecision [action=" + action + ", clusterId=" + clusterId
+                + ", clusterSize=" + clusterSize + ", workloads=" + workloads
+                + ", reason=" + reason + "]";
+    }
+}
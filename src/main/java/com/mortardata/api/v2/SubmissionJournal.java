@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Durable local record of job submissions, keyed by
+ * {@link JobRequest#getSubmissionKey()}.
+ *
+ * Each event is appended to the journal file as one tab-separated line and synced
+ * to disk before the call returns, so a submission recorded before a crash is seen
+ * after a restart.  A line torn by a crash mid-write is removed on load.  A journal
+ * file should be used by one process at a time.
+ */
+public class SubmissionJournal {
+
+    private static final String ATTEMPT = "ATTEMPT";
+    private static final String SUBMITTED = "SUBMITTED";
+    private static final String FAILED = "FAILED";
+
+    private File file;
+    private Map<String, Long> attempts = new HashMap<String, Long>();
+    private Map<String, String> jobIds = new HashMap<String, String>();
+    private Set<String> claimedJobIds = new HashSet<String>();
+
+    /**
+     * Open a journal, loading any events already in the file.
+     *
+     * @param file journal file, created if it does not exist
+     * @throws IOException if unable to read the journal
+     */
+    public SubmissionJournal(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        byte[] bytes;
+        RandomAccessFile in = new RandomAccessFile(this.file, "rw");
+        try {
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            // only complete lines count; cut off a final line torn by a crash, so
+            // the next append starts on a line of its own
+            int length = bytes.length;
+            while (length > 0 && bytes[length - 1] != '\n') {
+                length--;
+            }
+            if (length < bytes.length) {
+                in.setLength(length);
+                in.getFD().sync();
+            }
+            bytes = Arrays.copyOf(bytes, length);
+        } finally {
+            in.close();
+        }
+        String contents = new String(bytes, "UTF-8");
+        int start = 0;
+        int end;
+        while ((end = contents.indexOf('\n', start)) != -1) {
+            String[] fields = contents.substring(start, end).split("\t");
+            start = end + 1;
+            if (fields.length < 3) {
+                continue;
+            }
+            try {
+                apply(Long.parseLong(fields[0]), fields[1], fields[2],
+                        fields.length > 3 ? fields[3] : null);
+            } catch (NumberFormatException e) {
+                // skip malformed line
+            }
+        }
+    }
+
+    private void apply(long timestamp, String key, String event, String jobId) {
+        if (ATTEMPT.equals(event)) {
+            if (!this.attempts.containsKey(key)) {
+                this.attempts.put(key, timestamp);
+            }
+        } else if (SUBMITTED.equals(event) && jobId != null) {
+            this.attempts.remove(key);
+            this.jobIds.put(key, jobId);
+            this.claimedJobIds.add(jobId);
+        } else if (FAILED.equals(event)) {
+            this.attempts.remove(key);
+        }
+    }
+
+    /**
+     * Job started for a submission key.
+     *
+     * @param key submission key
+     * @return job_id, or null if no job is known to have started
+     */
+    public synchronized String getJobId(String key) {
+        return this.jobIds.get(key);
+    }
+
+    /**
+     * Time of the first attempt to submit a key whose outcome is unknown.
+     *
+     * @param key submission key
+     * @return milliseconds since the epoch, or null if there is no such attempt
+     */
+    public synchronized Long getPendingAttempt(String key) {
+        return this.attempts.get(key);
+    }
+
+    /**
+     * Whether a job id is already recorded for some submission key.
+     *
+     * @param jobId ID of the job
+     * @return true if the job belongs to a recorded submission
+     */
+    public synchronized boolean isClaimed(String jobId) {
+        return this.claimedJobIds.contains(jobId);
+    }
+
+    /**
+     * Record that a submission is about to be posted.
+     *
+     * @param key submission key
+     * @param timestamp time of the attempt, in milliseconds since the epoch
+     * @throws IOException if unable to write the journal
+     */
+    public synchronized void recordAttempt(String key, long timestamp) throws IOException {
+        append(timestamp, key, ATTEMPT, null);
+    }
+
+    /**
+     * Record the job started for a submission.
+     *
+     * @param key submission key
+     * @param jobId ID of the job that was started
+     * @throws IOException if unable to write the journal
+     */
+    public synchronized void recordJobId(String key, String jobId) throws IOException {
+        append(System.currentTimeMillis(), key, SUBMITTED, jobId);
+    }
+
+    /**
+     * Record that a submission definitely did not start a job.
+     *
+     * @param key submission key
+     * @throws IOException if unable to write the journal
+     */
+    public synchronized void recordFailure(String key) throws IOException {
+        append(System.currentTimeMillis(), key, FAILED, null);
+    }
+
+    private void append(long timestamp, String key, String event, String jobId)
+            throws IOException {
+        if (key.indexOf('\t') >= 0 || key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Submission key may not contain tabs or "
+                    + "line breaks: " + key);
+        }
+        String line = timestamp + "\t" + key + "\t" + event
+                + (jobId == null ? "" : "\t" + jobId) + "\n";
+        FileOutputStream out = new FileOutputStream(this.file, true);
+        try {
+            out.write(line.getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        apply(timestamp, key, event, jobId);
+    }
+
+    /**
+     * Journal file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SubmissionJournal [file=" + file + ", submitted=" + jobIds.size()
+                + ", pending=" + attempts.size() + "]";
+    }
+}
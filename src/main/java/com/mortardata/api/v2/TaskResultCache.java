@@ -0,0 +1,359 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent local cache for the results of describe, illustrate and validate
+ * tasks.
+ *
+ * Results are only cached when they were computed at a full git commit hash, since
+ * only then is the result for a given project, script and alias deterministic.
+ * Each result is stored as a small gzipped JSON file named by the hash of its key.
+ * The cache is bounded in size, evicting least recently used entries first, and
+ * may be shared by several JVMs pointing at the same directory.
+ */
+public class TaskResultCache {
+
+    final Logger logger = LoggerFactory.getLogger(TaskResultCache.class);
+
+    /**
+     * Default maximum size of the cache on disk, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+    private static final String ENTRY_SUFFIX = ".json.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILENAME = ".lock";
+    private static final long STALE_TEMP_FILE_AGE = 60L * 60L * 1000L;
+    private static final Pattern COMMIT_HASH = Pattern.compile("^[0-9a-fA-F]{40}$");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * FileLock is held per JVM, so threads in this JVM also need to be serialized.
+     */
+    private static final Object JVM_LOCK = new Object();
+
+    private File directory;
+    private long maxBytes;
+
+    /**
+     * Construct a cache in a directory, bounded to DEFAULT_MAX_BYTES.
+     *
+     * @param directory directory in which to store cached results
+     * @throws IOException if unable to create the directory
+     */
+    public TaskResultCache(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Construct a cache in a directory.
+     *
+     * @param directory directory in which to store cached results
+     * @param maxBytes maximum size of cached results on disk, in bytes
+     * @throws IOException if unable to create the directory
+     */
+    public TaskResultCache(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to make cache directory at " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Whether results computed at a git ref can be cached.
+     *
+     * @param gitRef git hash or branch
+     * @return true if gitRef is a full commit hash
+     */
+    public static boolean isCommitHash(String gitRef) {
+        return gitRef != null && COMMIT_HASH.matcher(gitRef).matches();
+    }
+
+    /**
+     * Directory in which cached results are stored.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Maximum size of cached results on disk, in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Look up a cached result.
+     *
+     * @param key task that produced the result
+     * @param resultClass class of the result
+     * @return cached result, or null if none is cached
+     * @throws IOException if unable to read the cache entry
+     */
+    <T> T get(TaskKey key, Class<T> resultClass) throws IOException {
+        if (!isCommitHash(key.gitRef)) {
+            return null;
+        }
+        File entry = getEntryFile(key);
+        InputStream in;
+        try {
+            in = new GZIPInputStream(new FileInputStream(entry));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            T result = API.JSON_FACTORY.fromInputStream(in, resultClass);
+            // mark as recently used for eviction
+            entry.setLastModified(System.currentTimeMillis());
+            logger.debug("Cache hit for " + key);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Store a result in the cache.  Results for refs that are not full commit
+     * hashes are ignored.
+     *
+     * @param key task that produced the result
+     * @param result result to store
+     * @throws IOException if unable to write the cache entry
+     */
+    void put(TaskKey key, Object result) throws IOException {
+        if (!isCommitHash(key.gitRef)) {
+            return;
+        }
+        File entry = getEntryFile(key);
+
+        // write to a temp file first so that readers never see a partial entry
+        File temp = File.createTempFile("entry", TEMP_SUFFIX, directory);
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(temp));
+        try {
+            out.write(API.JSON_FACTORY.toByteArray(result));
+        } finally {
+            out.close();
+        }
+
+        synchronized (JVM_LOCK) {
+            RandomAccessFile lockFile = new RandomAccessFile(
+                    new File(directory, LOCK_FILENAME), "rw");
+            try {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    if (entry.exists() && !entry.delete()) {
+                        throw new IOException("Unable to replace cache entry " + entry);
+                    }
+                    if (!temp.renameTo(entry)) {
+                        throw new IOException("Unable to move " + temp + " to " + entry);
+                    }
+                    evict();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockFile.close();
+                if (temp.exists() && !temp.delete()) {
+                    logger.warn("Unable to delete temporary cache file " + temp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove least recently used entries until the cache fits in maxBytes.
+     * Must be called while holding the cache lock.
+     */
+    private void evict() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long totalBytes = 0;
+        int entryCount = 0;
+        for (int i = 0; i < files.length; i++) {
+            File f = files[i];
+            if (f.getName().endsWith(ENTRY_SUFFIX)) {
+                totalBytes += f.length();
+                files[entryCount++] = f;
+            } else if (f.getName().endsWith(TEMP_SUFFIX)
+                    && now - f.lastModified() > STALE_TEMP_FILE_AGE) {
+                // left behind by a writer that died mid-put
+                f.delete();
+            }
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        File[] entries = Arrays.copyOf(files, entryCount);
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File f : entries) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                logger.debug("Evicted cache entry " + f.getName());
+                totalBytes -= length;
+            }
+        }
+    }
+
+    File getEntryFile(TaskKey key) {
+        String keyString = key.taskType + '\0' + key.projectName + '\0' + key.scriptName
+                + '\0' + (key.alias == null ? "" : key.alias) + '\0'
+                + key.gitRef.toLowerCase();
+        return new File(directory, sha1Hex(keyString) + ENTRY_SUFFIX);
+    }
+
+    private static String sha1Hex(String value) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not available", e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Identifies the request that produced a task result.
+     */
+    static class TaskKey {
+
+        final String taskType;
+        final String projectName;
+        final String scriptName;
+        final String alias;
+        final String gitRef;
+
+        TaskKey(String taskType, String projectName, String scriptName, String alias,
+                String gitRef) {
+            this.taskType = taskType;
+            this.projectName = projectName;
+            this.scriptName = scriptName;
+            this.alias = alias;
+            this.gitRef = gitRef;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskKey [taskType=" + taskType + ", projectName=" + projectName
+                    + ", scriptName=" + scriptName + ", alias=" + alias
+                    + ", gitRef=" + gitRef + "]";
+        }
+    }
+
+    /**
+     * Cache keys of started tasks, by task id, until their results are cached.  A key
+     * is dropped as soon as its task ends without success.  A task that succeeded but
+     * was polled without its result keeps its key, among a bounded number of such
+     * tasks, until the result is fetched.
+     */
+    static class PendingKeys {
+
+        static final int MAX_UNFETCHED = 1000;
+
+        private Map<String, TaskKey> running = new HashMap<String, TaskKey>();
+        private LinkedHashMap<String, TaskKey> unfetched = new LinkedHashMap<String, TaskKey>();
+
+        synchronized void put(String taskId, TaskKey key) {
+            this.running.put(taskId, key);
+        }
+
+        /**
+         * Note a fetched status of a task.
+         *
+         * @param taskId id of the task
+         * @param status status fetched
+         * @param hasResult whether the result was fetched with the status
+         * @return key to cache the result under, or null if it should not be cached
+         */
+        synchronized TaskKey complete(String taskId, TaskStatus status, boolean hasResult) {
+            if (!TaskStatus.TASK_STATUS_COMPLETE.contains(status)) {
+                return null;
+            }
+            TaskKey key = this.running.remove(taskId);
+            if (key == null) {
+                key = this.unfetched.remove(taskId);
+            }
+            if (key == null || status != TaskStatus.SUCCESS) {
+                return null;
+            }
+            if (hasResult) {
+                return key;
+            }
+            this.unfetched.put(taskId, key);
+            if (this.unfetched.size() > MAX_UNFETCHED) {
+                Iterator<String> eldest = this.unfetched.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            return null;
+        }
+
+        synchronized int size() {
+            return this.running.size() + this.unfetched.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TaskResultCache [directory=" + directory + ", maxBytes=" + maxBytes + "]";
+    }
+}
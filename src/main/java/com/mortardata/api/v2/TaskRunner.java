@@ -0,0 +1,406 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mortardata.api.v2.trace.TraceContext;
+import com.mortardata.util.Instrumentation;
+
+/**
+ * Runs describe, illustrate and validate tasks asynchronously.
+ *
+ * Each task is submitted and then polled from one shared scheduler until it reaches
+ * a status in {@link TaskStatus#TASK_STATUS_COMPLETE}, at which point the returned
+ * {@link ResultFuture} is completed.  Polls always request the task with
+ * exclude_result=true.  The result payload of a describe or illustrate is only
+ * downloaded when {@code getResult()} is first called, or in the background as soon
+ * as the task succeeds if {@link #setPrefetchResults(boolean)} is enabled.
+ */
+public class TaskRunner {
+
+    final Logger logger = LoggerFactory.getLogger(TaskRunner.class);
+
+    /**
+     * Default delay between polls of an outstanding task, in milliseconds.
+     */
+    public static final long DEFAULT_POLLING_DELAY = 2000;
+
+    private static final int DEFAULT_SCHEDULER_THREADS = 2;
+
+    private Describes describes;
+    private Illustrates illustrates;
+    private Validates validates;
+    private ScheduledExecutorService scheduler;
+    private boolean ownsScheduler;
+    private volatile long pollingDelay = DEFAULT_POLLING_DELAY;
+    private volatile boolean prefetchResults = false;
+    private volatile Instrumentation instrumentation = Instrumentation.NOOP;
+    private Set<Task<?>> outstandingTasks =
+            Collections.newSetFromMap(new ConcurrentHashMap<Task<?>, Boolean>());
+
+    /**
+     * Construct a TaskRunner with its own scheduler.
+     *
+     * @param api API client
+     */
+    public TaskRunner(API api) {
+        this(api, null);
+    }
+
+    /**
+     * Construct a TaskRunner with its own scheduler, serving results from a local
+     * cache where possible.
+     *
+     * @param api API client
+     * @param cache cache for results of tasks run at a commit hash (null for no cache)
+     */
+    public TaskRunner(API api, TaskResultCache cache) {
+        this(new Describes(api, cache), new Illustrates(api, cache), new Validates(api, cache),
+                Executors.newScheduledThreadPool(DEFAULT_SCHEDULER_THREADS,
+                        new DaemonThreadFactory("mortar-task-runner")), true);
+        this.instrumentation = api.getInstrumentation();
+    }
+
+    /**
+     * Construct a TaskRunner that polls on a scheduler shared with other components.
+     * The scheduler is not shut down by {@link #shutdown()}.
+     *
+     * @param api API client
+     * @param cache cache for results of tasks run at a commit hash (null for no cache)
+     * @param scheduler scheduler on which to submit and poll tasks
+     */
+    public TaskRunner(API api, TaskResultCache cache, ScheduledExecutorService scheduler) {
+        this(new Describes(api, cache), new Illustrates(api, cache), new Validates(api, cache),
+                scheduler, false);
+        this.instrumentation = api.getInstrumentation();
+    }
+
+    TaskRunner(Describes describes, Illustrates illustrates, Validates validates,
+               ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        this.describes = describes;
+        this.illustrates = illustrates;
+        this.validates = validates;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+    }
+
+    /**
+     * Run a Pig DESCRIBE operation.
+     *
+     * @param alias Pig alias to describe
+     * @param gitRef version of code (git hash) to use
+     * @param projectName Mortar project to use
+     * @param pigScriptName Pigscript to use (without path or extension)
+     * @return future completed with the DescribeResult once the describe is complete
+     */
+    public ResultFuture<Describes.DescribeResult> describe(final String alias,
+            final String gitRef, final String projectName, final String pigScriptName) {
+        return start(new Task<Describes.DescribeResult>(Describes.TASK_TYPE) {
+            Describes.DescribeResult cached() {
+                return describes.getCachedDescribe(alias, gitRef, projectName, pigScriptName);
+            }
+
+            String submit() throws IOException {
+                return describes.postDescribe(alias, gitRef, projectName, pigScriptName);
+            }
+
+            Describes.DescribeResult poll(String describeId) throws IOException {
+                return describes.getDescribe(describeId, true);
+            }
+
+            TaskStatus statusOf(Describes.DescribeResult result) {
+                return result.getStatusCode();
+            }
+
+            Describes.DescribeResult completedResult(final String describeId,
+                    Describes.DescribeResult polled) {
+                LazyResult lazyResult = new LazyResult() {
+                    Map<String, Object> fetch() throws IOException {
+                        return describes.getDescribe(describeId, false).getResult();
+                    }
+                };
+                polled.setLazyResult(lazyResult);
+                maybePrefetch(lazyResult, polled.getStatusCode());
+                return polled;
+            }
+        });
+    }
+
+    /**
+     * Run a Pig ILLUSTRATE operation.
+     *
+     * @param alias Pig alias to illustrate (optional: if null, illustrate entire script)
+     * @param gitRef version of code (git hash) to use
+     * @param projectName Mortar project to use
+     * @param pigScriptName Pigscript to use (without path or extension)
+     * @return future completed with the IllustrateResult once the illustrate is complete
+     */
+    public ResultFuture<Illustrates.IllustrateResult> illustrate(final String alias,
+            final String gitRef, final String projectName, final String pigScriptName) {
+        return start(new Task<Illustrates.IllustrateResult>(Illustrates.TASK_TYPE) {
+            Illustrates.IllustrateResult cached() {
+                return illustrates.getCachedIllustrate(alias, gitRef, projectName,
+                        pigScriptName);
+            }
+
+            String submit() throws IOException {
+                return illustrates.postIllustrate(alias, gitRef, projectName, pigScriptName);
+            }
+
+            Illustrates.IllustrateResult poll(String illustrateId) throws IOException {
+                return illustrates.getIllustrate(illustrateId, true);
+            }
+
+            TaskStatus statusOf(Illustrates.IllustrateResult result) {
+                return result.getStatusCode();
+            }
+
+            Illustrates.IllustrateResult completedResult(final String illustrateId,
+                    Illustrates.IllustrateResult polled) {
+                LazyResult lazyResult = new LazyResult() {
+                    Map<String, Object> fetch() throws IOException {
+                        return illustrates.getIllustrate(illustrateId, false).getResult();
+                    }
+                };
+                polled.setLazyResult(lazyResult);
+                maybePrefetch(lazyResult, polled.getStatusCode());
+                return polled;
+            }
+        });
+    }
+
+    /**
+     * Run a Pig VALIDATE operation.
+     *
+     * @param gitRef version of code (git hash) to use
+     * @param projectName Mortar project to use
+     * @param pigScriptName Pigscript to use (without path or extension)
+     * @return future completed with the ValidateResult once the validate is complete
+     */
+    public ResultFuture<Validates.ValidateResult> validate(final String gitRef,
+            final String projectName, final String pigScriptName) {
+        return start(new Task<Validates.ValidateResult>(Validates.TASK_TYPE) {
+            Validates.ValidateResult cached() {
+                return validates.getCachedValidate(gitRef, projectName, pigScriptName);
+            }
+
+            String submit() throws IOException {
+                return validates.postValidate(gitRef, projectName, pigScriptName);
+            }
+
+            Validates.ValidateResult poll(String validateId) throws IOException {
+                // validates carry no result payload, so every poll is already light
+                return validates.getValidate(validateId);
+            }
+
+            TaskStatus statusOf(Validates.ValidateResult result) {
+                return result.getStatusCode();
+            }
+
+            Validates.ValidateResult completedResult(String validateId,
+                    Validates.ValidateResult polled) {
+                return polled;
+            }
+        });
+    }
+
+    /**
+     * Set the delay between polls of an outstanding task.
+     *
+     * @param pollingDelay delay in milliseconds
+     */
+    public void setPollingDelay(long pollingDelay) {
+        this.pollingDelay = pollingDelay;
+    }
+
+    /**
+     * Emit an {@link Instrumentation#POLL} event for each poll of a task.  Defaults
+     * to the instrumentation of the API client at construction.
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Delay between polls of an outstanding task, in milliseconds.
+     */
+    public long getPollingDelay() {
+        return pollingDelay;
+    }
+
+    /**
+     * Set whether result payloads of successful describes and illustrates are
+     * downloaded in the background as soon as the task succeeds, rather than on
+     * first access.  Default is false.
+     *
+     * @param prefetchResults whether to download results eagerly
+     */
+    public void setPrefetchResults(boolean prefetchResults) {
+        this.prefetchResults = prefetchResults;
+    }
+
+    /**
+     * Whether result payloads are downloaded as soon as a task succeeds.
+     */
+    public boolean isPrefetchResults() {
+        return prefetchResults;
+    }
+
+    /**
+     * Number of tasks submitted but not yet complete.
+     */
+    public int getOutstandingTaskCount() {
+        return outstandingTasks.size();
+    }
+
+    /**
+     * Stop polling.  Outstanding tasks are cancelled.  A shared scheduler passed in
+     * at construction is left running.
+     */
+    public void shutdown() {
+        for (Task<?> task : outstandingTasks) {
+            task.future.cancel(false);
+        }
+        outstandingTasks.clear();
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void maybePrefetch(LazyResult lazyResult, TaskStatus status) {
+        if (prefetchResults && status == TaskStatus.SUCCESS) {
+            lazyResult.prefetch(scheduler);
+        }
+    }
+
+    private <R> ResultFuture<R> start(Task<R> task) {
+        outstandingTasks.add(task);
+        schedule(task, 0);
+        return task.future;
+    }
+
+    private void schedule(Task<?> task, long delay) {
+        try {
+            scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            task.finish();
+            task.future.fail(e);
+        }
+    }
+
+    /**
+     * One submitted task.  Each run either submits the task or polls it once, then
+     * reschedules itself until the task is complete.
+     */
+    private abstract class Task<R> implements Runnable {
+
+        final ResultFuture<R> future = new ResultFuture<R>();
+        // the submitter's, so spans on the scheduler's threads stay in its trace
+        private final TraceContext traceContext = TraceContext.current();
+        private String type;
+        private String taskId;
+
+        Task(String type) {
+            this.type = type;
+        }
+
+        abstract R cached();
+
+        abstract String submit() throws IOException;
+
+        abstract R poll(String id) throws IOException;
+
+        abstract TaskStatus statusOf(R result);
+
+        abstract R completedResult(String id, R polled) throws IOException;
+
+        public void run() {
+            TraceContext previous = TraceContext.attach(traceContext);
+            try {
+                step();
+            } finally {
+                TraceContext.attach(previous);
+            }
+        }
+
+        private void step() {
+            if (future.isDone()) {
+                // cancelled by the caller
+                finish();
+                return;
+            }
+            try {
+                if (taskId == null) {
+                    R cachedResult = cached();
+                    if (cachedResult != null) {
+                        finish();
+                        future.complete(cachedResult);
+                        return;
+                    }
+                    taskId = submit();
+                    logger.debug("Submitted task " + taskId);
+                } else {
+                    R polled = instrumentedPoll();
+                    if (TaskStatus.TASK_STATUS_COMPLETE.contains(statusOf(polled))) {
+                        R result = completedResult(taskId, polled);
+                        finish();
+                        future.complete(result);
+                        return;
+                    }
+                }
+                schedule(this, pollingDelay);
+            } catch (IOException e) {
+                finish();
+                future.fail(e);
+            } catch (RuntimeException e) {
+                finish();
+                future.fail(e);
+            }
+        }
+
+        private R instrumentedPoll() throws IOException {
+            Instrumentation instrumentation = TaskRunner.this.instrumentation;
+            if (!instrumentation.isEnabled()) {
+                return poll(taskId);
+            }
+            Instrumentation.Event event = instrumentation.begin(Instrumentation.POLL);
+            TaskStatus status = null;
+            try {
+                R polled = poll(taskId);
+                status = statusOf(polled);
+                return polled;
+            } finally {
+                event.set("poller", type).set("id", taskId).set("status", status).end();
+            }
+        }
+
+        void finish() {
+            outstandingTasks.remove(this);
+        }
+    }
+}
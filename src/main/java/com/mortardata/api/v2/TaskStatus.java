@@ -15,6 +15,11 @@
  */
 package com.mortardata.api.v2;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import com.google.api.client.util.Value;
 
 /**
@@ -87,6 +92,12 @@ public enum TaskStatus {
      */
     UNKNOWN("UNKNOWN_STATUS");
 
+    /**
+     * status_code values that indicate a task in a final state.
+     */
+    public static final Set<TaskStatus> TASK_STATUS_COMPLETE = Collections.unmodifiableSet(
+            new HashSet<TaskStatus>(Arrays.asList(SUCCESS, FAILURE, KILLED)));
+
     private String stringValue;
 
     /**
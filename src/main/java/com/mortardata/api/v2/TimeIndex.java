@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * Row numbers sorted by a time, for range selection by binary search.  Rows with no
+ * time are inserted at Long.MIN_VALUE and are never selected.
+ */
+class TimeIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    void insert(long time, int row) {
+        if (this.size == this.times.length) {
+            this.times = Arrays.copyOf(this.times, this.size * 2);
+            this.rows = Arrays.copyOf(this.rows, this.size * 2);
+        }
+        // after any equal times, so rows added in time order append at the end
+        int at = upperBound(time);
+        System.arraycopy(this.times, at, this.times, at + 1, this.size - at);
+        System.arraycopy(this.rows, at, this.rows, at + 1, this.size - at);
+        this.times[at] = time;
+        this.rows[at] = row;
+        this.size++;
+    }
+
+    /**
+     * Insert count rows at once.  The batch is sorted and merged in a single pass, so a
+     * bulk load in any order costs O(n log n) rather than a shift per row.
+     */
+    void insertAll(final long[] batchTimes, int[] batchRows, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        // stable, so rows with equal times keep their batch order
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long x = batchTimes[a];
+                long y = batchTimes[b];
+                return x < y ? -1 : (x > y ? 1 : 0);
+            }
+        });
+        if (this.size + count > this.times.length) {
+            int capacity = Math.max(this.size + count, this.times.length * 2);
+            this.times = Arrays.copyOf(this.times, capacity);
+            this.rows = Arrays.copyOf(this.rows, capacity);
+        }
+
+        // merge from the back, placing the batch after any equal times already present
+        int i = this.size - 1;
+        int j = count - 1;
+        for (int k = this.size + count - 1; j >= 0; k--) {
+            if (i >= 0 && this.times[i] > batchTimes[order[j]]) {
+                this.times[k] = this.times[i];
+                this.rows[k] = this.rows[i--];
+            } else {
+                this.times[k] = batchTimes[order[j]];
+                this.rows[k] = batchRows[order[j--]];
+            }
+        }
+        this.size += count;
+    }
+
+    void remove(long time, int row) {
+        for (int i = lowerBound(time); i < this.size && this.times[i] == time; i++) {
+            if (this.rows[i] == row) {
+                System.arraycopy(this.times, i + 1, this.times, i, this.size - i - 1);
+                System.arraycopy(this.rows, i + 1, this.rows, i, this.size - i - 1);
+                this.size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rows with a time in [from, to).
+     */
+    BitSet select(long from, long to) {
+        BitSet selected = new BitSet();
+        int end = lowerBound(to);
+        for (int i = lowerBound(Math.max(from, Long.MIN_VALUE + 1)); i < end; i++) {
+            selected.set(this.rows[i]);
+        }
+        return selected;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    long timeAt(int i) {
+        return this.times[i];
+    }
+
+    int rowAt(int i) {
+        return this.rows[i];
+    }
+
+    /**
+     * First position with a time not less than time.
+     */
+    int lowerBound(long time) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First position with a time greater than time.
+     */
+    int upperBound(long time) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
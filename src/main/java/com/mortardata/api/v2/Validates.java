@@ -17,6 +17,8 @@ package com.mortardata.api.v2;
 
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.util.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -29,14 +31,31 @@ import java.util.HashMap;
  */
 public class Validates {
 
+    static final String TASK_TYPE = "validate";
+
+    final Logger logger = LoggerFactory.getLogger(Validates.class);
+
     private API api;
+    private TaskResultCache cache;
+    private TaskResultCache.PendingKeys pendingKeys = new TaskResultCache.PendingKeys();
 
     /**
      * Construct a Validates V2 API.
      * @param api
      */
     public Validates(API api) {
+        this(api, null);
+    }
+
+    /**
+     * Construct a Validates V2 API that stores successful results in a local cache.
+     *
+     * @param api API client
+     * @param cache cache for results of validates run at a commit hash (null for no cache)
+     */
+    public Validates(API api, TaskResultCache cache) {
         this.api = api;
+        this.cache = cache;
     }
 
     /**
@@ -56,7 +75,37 @@ public class Validates {
         arguments.put("pigscript_name", pigScriptName);
 
         HttpRequest request = this.api.buildHttpPostRequest("validates", arguments);
-        return (String) request.execute().parseAs(HashMap.class).get("validate_id");
+        String validateId =
+                (String) this.api.execute(request, HashMap.class).get("validate_id");
+        if (this.cache != null && TaskResultCache.isCommitHash(gitRef)) {
+            this.pendingKeys.put(validateId, new TaskResultCache.TaskKey(
+                    TASK_TYPE, projectName, pigScriptName, null, gitRef));
+        }
+        return validateId;
+    }
+
+    /**
+     * Get the results of a previous Pig VALIDATE from the local cache, without
+     * calling the API.  Only successful results run at a full commit hash are cached,
+     * through a Validates constructed with a TaskResultCache.
+     *
+     * @param gitRef version of code (git hash) to use
+     * @param projectName Mortar project to use
+     * @param pigScriptName Pigscript to use (without path or extension)
+     * @return cached ValidateResult, or null if none is cached
+     */
+    public ValidateResult getCachedValidate(String gitRef, String projectName,
+                                            String pigScriptName) {
+        if (this.cache == null) {
+            return null;
+        }
+        try {
+            return this.cache.get(new TaskResultCache.TaskKey(
+                    TASK_TYPE, projectName, pigScriptName, null, gitRef), ValidateResult.class);
+        } catch (IOException e) {
+            logger.warn("Unable to read validate result from cache", e);
+            return null;
+        }
     }
 
     /**
@@ -68,7 +117,32 @@ public class Validates {
      */
     public ValidateResult getValidate(String validateId) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("validates/" + validateId);
-        return request.execute().parseAs(ValidateResult.class);
+        ValidateResult result = this.api.execute(request, ValidateResult.class);
+        cacheResult(validateId, result, true);
+        return result;
+    }
+
+    /**
+     * Get the status of a Pig VALIDATE operation.
+     *
+     * @param validateId ID of the validate
+     * @return status of the validate
+     * @throws IOException if validate does not exist or unable to fetch from the API
+     */
+    public TaskStatus getValidateStatus(String validateId) throws IOException {
+        return getValidate(validateId).getStatusCode();
+    }
+
+    private void cacheResult(String validateId, ValidateResult result, boolean hasResult) {
+        TaskResultCache.TaskKey key =
+                this.pendingKeys.complete(validateId, result.getStatusCode(), hasResult);
+        if (key != null) {
+            try {
+                this.cache.put(key, result);
+            } catch (IOException e) {
+                logger.warn("Unable to write validate result to cache", e);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a pigscript fails validation before a job is run.
+ */
+public class ValidationException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Validates.ValidateResult validateResult;
+
+    /**
+     * Construct a ValidationException.
+     *
+     * @param validateResult result of the failed validate
+     */
+    public ValidationException(Validates.ValidateResult validateResult) {
+        super("Pigscript " + validateResult.getScriptName() + " failed validation: "
+                + validateResult.getStatusCode() + " "
+                + validateResult.getStatusDescription());
+        this.validateResult = validateResult;
+    }
+
+    /**
+     * Result of the failed validate.
+     */
+    public Validates.ValidateResult getValidateResult() {
+        return validateResult;
+    }
+}
@@ -47,7 +47,7 @@ public class WebProjects {
      */
     public WebProjectList getWebProjects() throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("webprojects");
-        return request.execute().parseAs(WebProjectList.class);
+        return this.api.execute(request, WebProjectList.class);
     }
 
     /**
@@ -59,7 +59,7 @@ public class WebProjects {
      */
     public WebProject getWebProject(String projectName) throws IOException {
         HttpRequest request = this.api.buildHttpGetRequest("webprojects/" + projectName);
-        return request.execute().parseAs(WebProject.class);
+        return this.api.execute(request, WebProject.class);
     }
 
     /**
@@ -71,7 +71,7 @@ public class WebProjects {
     public void createOrUpdateWebProject(WebProject project) throws IOException {
         HttpRequest request = this.api.buildHttpPutRequest("webprojects/" + project.getName(),
                 project);
-        request.execute();
+        this.api.execute(request);
     }
 
     /**
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A directed acyclic graph of jobs, run by a {@link WorkflowRunner}.
+ *
+ * Each node is a JobRequest that runs once all the nodes it depends on have
+ * succeeded.  Parameter values may refer to upstream nodes: {@code ${node.job_id}}
+ * is replaced by the job_id of node, and {@code ${node.name}} by the value of
+ * parameter name as node was run.
+ */
+public class Workflow {
+
+    static final Pattern REFERENCE = Pattern.compile("\\$\\{([\\w\\-]+)\\.([\\w\\-]+)\\}");
+    static final String JOB_ID = "job_id";
+
+    private Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+    /**
+     * Add a job to the workflow.
+     *
+     * @param nodeId unique name of the node
+     * @param jobRequest Info about job to run
+     * @param dependsOn nodes that must succeed before this one runs
+     * @return this workflow
+     */
+    public Workflow addJob(String nodeId, JobRequest jobRequest, String... dependsOn) {
+        if (this.nodes.containsKey(nodeId)) {
+            throw new IllegalArgumentException("Duplicate workflow node " + nodeId);
+        }
+        this.nodes.put(nodeId, new Node(nodeId, jobRequest, Arrays.asList(dependsOn)));
+        return this;
+    }
+
+    /**
+     * Check that every dependency exists, the graph has no cycles and every
+     * parameter reference names an upstream node and one of its parameters.
+     *
+     * @throws IllegalArgumentException if the workflow is invalid
+     */
+    public void validate() {
+        for (Node node : this.nodes.values()) {
+            for (String dependency : node.dependsOn) {
+                if (!this.nodes.containsKey(dependency)) {
+                    throw new IllegalArgumentException("Node " + node.id
+                            + " depends on unknown node " + dependency);
+                }
+            }
+        }
+        Map<String, Set<String>> ancestors = new HashMap<String, Set<String>>();
+        for (Node node : this.nodes.values()) {
+            collectAncestors(node, ancestors, new HashSet<String>());
+        }
+        for (Node node : this.nodes.values()) {
+            if (node.jobRequest.getParameters() == null) {
+                continue;
+            }
+            for (String value : node.jobRequest.getParameters().values()) {
+                Matcher m = REFERENCE.matcher(value == null ? "" : value);
+                while (m.find()) {
+                    String upstream = m.group(1);
+                    if (!ancestors.get(node.id).contains(upstream)) {
+                        throw new IllegalArgumentException("Node " + node.id
+                                + " refers to " + m.group() + " but does not depend on "
+                                + upstream);
+                    }
+                    Map<String, String> upstreamParams =
+                            this.nodes.get(upstream).jobRequest.getParameters();
+                    if (!JOB_ID.equals(m.group(2)) && (upstreamParams == null
+                            || !upstreamParams.containsKey(m.group(2)))) {
+                        throw new IllegalArgumentException("Node " + node.id + " refers to "
+                                + m.group() + " but " + upstream + " has no such parameter");
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<String> collectAncestors(Node node, Map<String, Set<String>> ancestors,
+                                         Set<String> visiting) {
+        Set<String> result = ancestors.get(node.id);
+        if (result != null) {
+            return result;
+        }
+        if (!visiting.add(node.id)) {
+            throw new IllegalArgumentException("Workflow has a cycle through " + node.id);
+        }
+        result = new HashSet<String>();
+        for (String dependency : node.dependsOn) {
+            result.add(dependency);
+            result.addAll(collectAncestors(this.nodes.get(dependency), ancestors, visiting));
+        }
+        visiting.remove(node.id);
+        ancestors.put(node.id, result);
+        return result;
+    }
+
+    /**
+     * Ids of the nodes, in the order they were added.
+     */
+    public List<String> getNodeIds() {
+        return Collections.unmodifiableList(new ArrayList<String>(this.nodes.keySet()));
+    }
+
+    /**
+     * Job request of a node, before parameter references are resolved.
+     *
+     * @param nodeId id of the node
+     * @return the job request, or null if there is no such node
+     */
+    public JobRequest getJobRequest(String nodeId) {
+        Node node = this.nodes.get(nodeId);
+        return node == null ? null : node.jobRequest;
+    }
+
+    /**
+     * Nodes a node depends on.
+     *
+     * @param nodeId id of the node
+     * @return ids of the nodes it depends on
+     */
+    public List<String> getDependencies(String nodeId) {
+        return Collections.unmodifiableList(this.nodes.get(nodeId).dependsOn);
+    }
+
+    @Override
+    public String toString() {
+        return "Workflow [nodes=" + nodes.keySet() + "]";
+    }
+
+    private static class Node {
+        final String id;
+        final JobRequest jobRequest;
+        final List<String> dependsOn;
+
+        Node(String id, JobRequest jobRequest, List<String> dependsOn) {
+            this.id = id;
+            this.jobRequest = jobRequest;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a {@link Workflow}, starting every job whose dependencies have succeeded up to
+ * a limit on concurrent jobs.
+ *
+ * Progress is checkpointed to a local properties file after every change, if one is
+ * set.  Running the same workflow again with the same checkpoint skips nodes that
+ * succeeded, resumes polling jobs that were still running, and retries nodes that
+ * failed or were skipped.  With a checkpoint, a node is saved as SUBMITTING with a
+ * submission key before its job is posted through an {@link IdempotentJobSubmitter},
+ * so a run stopped mid-post resumes with the same key and never starts the job twice.
+ */
+public class WorkflowRunner {
+
+    final Logger logger = LoggerFactory.getLogger(WorkflowRunner.class);
+
+    /**
+     * Default maximum number of workflow jobs running at once.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS = 4;
+
+    /**
+     * Default delay between polls of running jobs, in milliseconds.
+     */
+    public static final long DEFAULT_POLLING_DELAY = 5000;
+
+    /**
+     * State of a node in a workflow run.
+     */
+    public enum NodeState {
+
+        /**
+         * Waiting for dependencies or a free slot.
+         */
+        PENDING,
+
+        /**
+         * Job is being posted under a checkpointed submission key.
+         */
+        SUBMITTING,
+
+        /**
+         * Job is running.
+         */
+        RUNNING,
+
+        /**
+         * Job succeeded.
+         */
+        SUCCEEDED,
+
+        /**
+         * Job ended in an error or was stopped.
+         */
+        FAILED,
+
+        /**
+         * Not run because a dependency failed.
+         */
+        SKIPPED
+    }
+
+    private Jobs jobs;
+    private ClusterPool clusterPool;
+    private int maxConcurrentJobs = DEFAULT_MAX_CONCURRENT_JOBS;
+    private long pollingDelay = DEFAULT_POLLING_DELAY;
+    private File checkpoint;
+
+    /**
+     * Construct a WorkflowRunner.
+     *
+     * @param jobs Jobs API used to run and poll jobs
+     */
+    public WorkflowRunner(Jobs jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * Run a workflow until every node has succeeded, failed or been skipped.
+     *
+     * @param workflow workflow to run
+     * @return state and job_id of every node
+     * @throws IOException if unable to run a job or write the checkpoint
+     * @throws InterruptedException if interrupted while waiting for jobs
+     */
+    public WorkflowResult run(Workflow workflow) throws IOException, InterruptedException {
+        workflow.validate();
+        Map<String, NodeState> states = new LinkedHashMap<String, NodeState>();
+        Map<String, String> jobIds = new HashMap<String, String>();
+        Map<String, Map<String, String>> parameters = new HashMap<String, Map<String, String>>();
+        Map<String, String> submissionKeys = new HashMap<String, String>();
+        for (String nodeId : workflow.getNodeIds()) {
+            states.put(nodeId, NodeState.PENDING);
+        }
+        loadCheckpoint(workflow, states, jobIds, submissionKeys);
+        IdempotentJobSubmitter submitter = this.checkpoint == null ? null
+                : new IdempotentJobSubmitter(this.jobs, new SubmissionJournal(getJournal()));
+
+        int running = 0;
+        for (NodeState state : states.values()) {
+            running += state == NodeState.RUNNING ? 1 : 0;
+        }
+        while (true) {
+            boolean changed = false;
+            for (String nodeId : workflow.getNodeIds()) {
+                if (states.get(nodeId) != NodeState.PENDING) {
+                    continue;
+                }
+                NodeState ready = readiness(workflow, nodeId, states);
+                if (ready == NodeState.SKIPPED) {
+                    logger.info("Skipping workflow node " + nodeId);
+                    states.put(nodeId, NodeState.SKIPPED);
+                    changed = true;
+                } else if (ready == NodeState.SUCCEEDED && running < this.maxConcurrentJobs) {
+                    JobRequest resolved = resolve(workflow, nodeId, jobIds, parameters);
+                    // a node resumed mid-post keeps its key, so its job is found, not rerun
+                    String key = submissionKeys.get(nodeId);
+                    if (key == null) {
+                        key = IdempotentJobSubmitter.newSubmissionKey();
+                        submissionKeys.put(nodeId, key);
+                    }
+                    resolved.setSubmissionKey(key);
+                    states.put(nodeId, NodeState.SUBMITTING);
+                    saveCheckpoint(states, jobIds, submissionKeys);
+                    String jobId = postJob(resolved, submitter);
+                    logger.info("Started workflow node " + nodeId + " as job " + jobId);
+                    jobIds.put(nodeId, jobId);
+                    submissionKeys.remove(nodeId);
+                    states.put(nodeId, NodeState.RUNNING);
+                    running++;
+                    saveCheckpoint(states, jobIds, submissionKeys);
+                }
+            }
+            if (changed) {
+                saveCheckpoint(states, jobIds, submissionKeys);
+                continue;
+            }
+            if (running == 0) {
+                break;
+            }
+
+            Thread.sleep(this.pollingDelay);
+            for (Map.Entry<String, NodeState> entry : states.entrySet()) {
+                if (entry.getValue() != NodeState.RUNNING) {
+                    continue;
+                }
+                Jobs.JobStatus status;
+                try {
+                    status = this.jobs.getJobStatus(jobIds.get(entry.getKey()));
+                } catch (IOException e) {
+                    logger.warn("Unable to poll workflow node " + entry.getKey(), e);
+                    continue;
+                }
+                if (Jobs.JOB_STATUS_COMPLETE.contains(status)) {
+                    NodeState state = status == Jobs.JobStatus.SUCCESS
+                            ? NodeState.SUCCEEDED : NodeState.FAILED;
+                    logger.info("Workflow node " + entry.getKey() + " finished: " + status);
+                    entry.setValue(state);
+                    running--;
+                    saveCheckpoint(states, jobIds, submissionKeys);
+                }
+            }
+        }
+        return new WorkflowResult(states, jobIds);
+    }
+
+    private String postJob(JobRequest jobRequest, IdempotentJobSubmitter submitter)
+            throws IOException, InterruptedException {
+        if (submitter == null) {
+            return this.clusterPool == null
+                    ? this.jobs.postJob(jobRequest) : this.clusterPool.postJob(jobRequest);
+        }
+        if (this.clusterPool == null) {
+            return submitter.postJob(jobRequest);
+        }
+        JobRequest placed = this.clusterPool.placeAndCount(jobRequest);
+        try {
+            return submitter.postJob(placed);
+        } catch (IOException e) {
+            this.clusterPool.uncount(placed);
+            throw e;
+        }
+    }
+
+    /**
+     * SUCCEEDED if all dependencies succeeded, SKIPPED if any failed or was skipped,
+     * otherwise PENDING.
+     */
+    private NodeState readiness(Workflow workflow, String nodeId, Map<String, NodeState> states) {
+        NodeState readiness = NodeState.SUCCEEDED;
+        for (String dependency : workflow.getDependencies(nodeId)) {
+            NodeState state = states.get(dependency);
+            if (state == NodeState.FAILED || state == NodeState.SKIPPED) {
+                return NodeState.SKIPPED;
+            } else if (state != NodeState.SUCCEEDED) {
+                readiness = NodeState.PENDING;
+            }
+        }
+        return readiness;
+    }
+
+    /**
+     * Copy a node's request with parameter references replaced.  Upstream nodes are
+     * resolved first, so values referring to resolved parameters are stable across
+     * restarts.
+     */
+    private JobRequest resolve(Workflow workflow, String nodeId, Map<String, String> jobIds,
+                               Map<String, Map<String, String>> resolved) {
+        JobRequest request = workflow.getJobRequest(nodeId);
+        JobRequest copy = request.copyForCluster(request.getClusterId());
+        copy.setParameters(resolveParameters(workflow, nodeId, jobIds, resolved));
+        return copy;
+    }
+
+    private Map<String, String> resolveParameters(Workflow workflow, String nodeId,
+            Map<String, String> jobIds, Map<String, Map<String, String>> resolved) {
+        Map<String, String> result = resolved.get(nodeId);
+        if (result != null) {
+            return result;
+        }
+        result = new HashMap<String, String>();
+        Map<String, String> raw = workflow.getJobRequest(nodeId).getParameters();
+        if (raw != null) {
+            for (Map.Entry<String, String> parameter : raw.entrySet()) {
+                String value = parameter.getValue();
+                Matcher m = Workflow.REFERENCE.matcher(value == null ? "" : value);
+                StringBuffer substituted = new StringBuffer();
+                while (m.find()) {
+                    String replacement = Workflow.JOB_ID.equals(m.group(2))
+                            ? jobIds.get(m.group(1))
+                            : resolveParameters(workflow, m.group(1), jobIds, resolved)
+                                    .get(m.group(2));
+                    m.appendReplacement(substituted, Matcher.quoteReplacement(
+                            replacement == null ? "" : replacement));
+                }
+                m.appendTail(substituted);
+                result.put(parameter.getKey(), value == null ? null : substituted.toString());
+            }
+        }
+        resolved.put(nodeId, result);
+        return result;
+    }
+
+    private void loadCheckpoint(Workflow workflow, Map<String, NodeState> states,
+                                Map<String, String> jobIds, Map<String, String> submissionKeys)
+            throws IOException {
+        if (this.checkpoint == null) {
+            return;
+        }
+        File file = this.checkpoint;
+        if (!file.exists()) {
+            // a crash while replacing the checkpoint leaves only the new one
+            file = getCheckpointTemp();
+            if (!file.exists()) {
+                return;
+            }
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String nodeId : workflow.getNodeIds()) {
+            String state = properties.getProperty(nodeId + ".state");
+            String jobId = properties.getProperty(nodeId + ".job_id");
+            String key = properties.getProperty(nodeId + ".submission_key");
+            if (NodeState.SUBMITTING.name().equals(state) && key != null) {
+                // the post may or may not have started a job; run it again under its key
+                logger.info("Resuming submission of workflow node " + nodeId);
+                submissionKeys.put(nodeId, key);
+                continue;
+            }
+            if (jobId == null || state == null) {
+                continue;
+            }
+            // failed and skipped nodes are retried
+            NodeState nodeState = NodeState.valueOf(state);
+            if (nodeState == NodeState.SUCCEEDED || nodeState == NodeState.RUNNING) {
+                logger.info("Resuming workflow node " + nodeId + " as " + nodeState);
+                states.put(nodeId, nodeState);
+                jobIds.put(nodeId, jobId);
+            }
+        }
+    }
+
+    private void saveCheckpoint(Map<String, NodeState> states, Map<String, String> jobIds,
+                                Map<String, String> submissionKeys) throws IOException {
+        if (this.checkpoint == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, NodeState> entry : states.entrySet()) {
+            String jobId = jobIds.get(entry.getKey());
+            String key = submissionKeys.get(entry.getKey());
+            if (jobId != null) {
+                properties.setProperty(entry.getKey() + ".state", entry.getValue().name());
+                properties.setProperty(entry.getKey() + ".job_id", jobId);
+            } else if (entry.getValue() == NodeState.SUBMITTING && key != null) {
+                properties.setProperty(entry.getKey() + ".state", entry.getValue().name());
+                properties.setProperty(entry.getKey() + ".submission_key", key);
+            }
+        }
+        // write a new file and swap it in; loadCheckpoint falls back to the new file
+        // where the rename cannot replace the old one and a crash lands in between
+        File temp = getCheckpointTemp();
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, "Mortar workflow checkpoint");
+        } finally {
+            out.close();
+        }
+        if (temp.renameTo(this.checkpoint)) {
+            return;
+        }
+        if (this.checkpoint.exists() && !this.checkpoint.delete()) {
+            throw new IOException("Unable to replace checkpoint " + this.checkpoint);
+        }
+        if (!temp.renameTo(this.checkpoint)) {
+            throw new IOException("Unable to move " + temp + " to " + this.checkpoint);
+        }
+    }
+
+    private File getCheckpointTemp() {
+        return new File(this.checkpoint.getPath() + ".tmp");
+    }
+
+    /**
+     * Set the maximum number of workflow jobs running at once.  Default is 4.
+     */
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    /**
+     * Set the delay between polls of running jobs, in milliseconds.  Default is
+     * 5 seconds.
+     */
+    public void setPollingDelay(long pollingDelay) {
+        this.pollingDelay = pollingDelay;
+    }
+
+    /**
+     * Set a pool through which jobs are placed on running clusters, shared with
+     * other workflows and submitters.
+     *
+     * @param clusterPool pool to place jobs with, or null to always use new clusters
+     */
+    public void setClusterPool(ClusterPool clusterPool) {
+        this.clusterPool = clusterPool;
+    }
+
+    /**
+     * Set the file progress is checkpointed to, and resumed from.  Submissions are
+     * journaled beside it, in a file with ".submissions" appended to its name.
+     *
+     * @param checkpoint checkpoint file, or null for no checkpoint
+     */
+    public void setCheckpoint(File checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    private File getJournal() {
+        return new File(this.checkpoint.getPath() + ".submissions");
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowRunner [maxConcurrentJobs=" + maxConcurrentJobs + ", checkpoint="
+                + checkpoint + "]";
+    }
+
+    /**
+     * Outcome of a workflow run.
+     */
+    public static class WorkflowResult {
+
+        private Map<String, NodeState> states;
+        private Map<String, String> jobIds;
+
+        WorkflowResult(Map<String, NodeState> states, Map<String, String> jobIds) {
+            this.states = Collections.unmodifiableMap(states);
+            this.jobIds = Collections.unmodifiableMap(jobIds);
+        }
+
+        /**
+         * Whether every node succeeded.
+         */
+        public boolean isSuccessful() {
+            for (NodeState state : states.values()) {
+                if (state != NodeState.SUCCEEDED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Final state of a node.
+         *
+         * @param nodeId id of the node
+         * @return state of the node
+         */
+        public NodeState getState(String nodeId) {
+            return states.get(nodeId);
+        }
+
+        /**
+         * Job run for a node.
+         *
+         * @param nodeId id of the node
+         * @return job_id, or null if the node never ran
+         */
+        public String getJobId(String nodeId) {
+            return jobIds.get(nodeId);
+        }
+
+        @Override
+        public String toString() {
+            return "WorkflowResult [states=" + states + ", jobIds=" + jobIds + "]";
+        }
+    }
+}
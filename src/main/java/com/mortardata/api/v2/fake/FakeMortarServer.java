@@ -0,0 +1,935 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.mortardata.api.v2.API;
+import com.mortardata.util.Timestamps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-memory stand-in for the Mortar V2 API, served over HTTP from this JVM, for
+ * load tests and offline development.  Point a client at it with {@link #newApi()}
+ * or new API(email, apiKey, "http", server.getHost()).
+ *
+ * It implements the jobs, clusters, describes, illustrates, validates and
+ * webprojects endpoints.  Jobs move through a {@link JobLifecycle}, and jobs posted
+ * with a cluster size start a cluster of their own.  Responses can be delayed by a
+ * {@link LatencyDistribution}, failed with injected errors, or throttled with 429
+ * Too Many Requests.  Randomness is seeded, so a single-threaded run is repeatable.
+ */
+public class FakeMortarServer {
+
+    final Logger logger = LoggerFactory.getLogger(FakeMortarServer.class);
+
+    /**
+     * Status returned for throttled requests.
+     */
+    public static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Default time for a describe, illustrate or validate to complete.
+     */
+    public static final long DEFAULT_TASK_MILLIS = 200;
+
+    private static final String ALL_RESOURCES = "*";
+
+    private final JsonFactory jsonFactory = new JacksonFactory();
+    private final int port;
+    private final Random random;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<String, FakeJob> jobs = new ConcurrentHashMap<String, FakeJob>();
+    private final Map<String, FakeCluster> clusters =
+            new ConcurrentHashMap<String, FakeCluster>();
+    private final Map<String, FakeTask> tasks = new ConcurrentHashMap<String, FakeTask>();
+    private final Map<String, Map<String, Object>> webProjects =
+            new ConcurrentHashMap<String, Map<String, Object>>();
+    private final Set<String> invalidScripts =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile LatencyDistribution latency = LatencyDistribution.NONE;
+    private final Map<String, LatencyDistribution> resourceLatencies =
+            new ConcurrentHashMap<String, LatencyDistribution>();
+    private final List<Fault> faults = new CopyOnWriteArrayList<Fault>();
+    private final Map<String, AtomicInteger> requestCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger throttledCount = new AtomicInteger();
+    private volatile JobLifecycle jobLifecycle = JobLifecycle.defaultLifecycle();
+    private final Map<String, JobLifecycle> scriptLifecycles =
+            new ConcurrentHashMap<String, JobLifecycle>();
+    private volatile long taskMillis = DEFAULT_TASK_MILLIS;
+
+    private double requestsPerSecond;
+    private int retryAfterSeconds;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Construct a FakeMortarServer on any free port, seeded with 0.
+     */
+    public FakeMortarServer() {
+        this(0, 0L);
+    }
+
+    /**
+     * Construct a FakeMortarServer.
+     *
+     * @param port port to listen on, or 0 for any free port
+     * @param seed seed for latencies and injected errors
+     */
+    public FakeMortarServer(int port, long seed) {
+        this.port = port;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Start serving on localhost.
+     *
+     * @return this server
+     * @throws IOException if unable to bind the port
+     */
+    public synchronized FakeMortarServer start() throws IOException {
+        if (this.server != null) {
+            throw new IllegalStateException("Already started");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("localhost", this.port), 128);
+        this.server.createContext("/v2/", new Handler());
+        // unbounded, so injected latency delays requests rather than queueing them
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "fake-mortar-server-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+        logger.info("Fake Mortar API listening on " + getHost());
+        return this;
+    }
+
+    /**
+     * Stop serving.  Requests in progress are abandoned.
+     */
+    public synchronized void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdownNow();
+            this.server = null;
+        }
+    }
+
+    /**
+     * Host and port to give API, such as "localhost:51234".
+     */
+    public synchronized String getHost() {
+        if (this.server == null) {
+            throw new IllegalStateException("Not started");
+        }
+        return "localhost:" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * A new client for this server.  The server accepts any credentials.
+     */
+    public API newApi() {
+        return new API("fake@mortardata.com", "fake", "http", getHost());
+    }
+
+    /**
+     * Forget all jobs, clusters, tasks and web projects, injected errors and request
+     * counts.  Latencies, rate limit and lifecycles are kept.
+     */
+    public void reset() {
+        this.jobs.clear();
+        this.clusters.clear();
+        this.tasks.clear();
+        this.webProjects.clear();
+        this.invalidScripts.clear();
+        this.faults.clear();
+        this.requestCounts.clear();
+        this.throttledCount.set(0);
+    }
+
+    /**
+     * Delay every response.  Default is {@link LatencyDistribution#NONE}.
+     *
+     * @param latency distribution of delays
+     */
+    public void setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Delay responses for one resource, overriding {@link #setLatency}.
+     *
+     * @param resource resource, such as "jobs"
+     * @param latency distribution of delays, or null to use the server's
+     */
+    public void setLatency(String resource, LatencyDistribution latency) {
+        if (latency == null) {
+            this.resourceLatencies.remove(resource);
+        } else {
+            this.resourceLatencies.put(resource, latency);
+        }
+    }
+
+    /**
+     * Fail a fraction of requests with an error status.
+     *
+     * @param resource resource, such as "jobs", or null for all resources
+     * @param probability chance of each request failing, from 0 to 1
+     * @param statusCode status to fail with, such as 503
+     */
+    public void injectErrors(String resource, double probability, int statusCode) {
+        this.faults.add(new Fault(resource, probability, statusCode, -1));
+    }
+
+    /**
+     * Fail the next requests with an error status.
+     *
+     * @param resource resource, such as "jobs", or null for all resources
+     * @param count number of requests to fail
+     * @param statusCode status to fail with, such as 503
+     */
+    public void failNext(String resource, int count, int statusCode) {
+        this.faults.add(new Fault(resource, 1.0, statusCode, count));
+    }
+
+    /**
+     * Stop injecting errors.
+     */
+    public void clearErrors() {
+        this.faults.clear();
+    }
+
+    /**
+     * Throttle requests beyond a rate with 429 Too Many Requests.
+     *
+     * @param requestsPerSecond sustained rate allowed, with bursts of up to one second
+     *        of requests; 0 for no limit
+     * @param retryAfterSeconds Retry-After sent with each 429
+     */
+    public synchronized void setRateLimit(double requestsPerSecond, int retryAfterSeconds) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.tokens = requestsPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Set the lifecycle of newly posted jobs.  Default is
+     * {@link JobLifecycle#defaultLifecycle()}.
+     */
+    public void setJobLifecycle(JobLifecycle jobLifecycle) {
+        this.jobLifecycle = jobLifecycle;
+    }
+
+    /**
+     * Set the lifecycle of newly posted jobs running one script, overriding
+     * {@link #setJobLifecycle(JobLifecycle)}.
+     *
+     * @param scriptName pigscript, controlscript or web project script name
+     * @param jobLifecycle lifecycle, or null to use the server's
+     */
+    public void setJobLifecycle(String scriptName, JobLifecycle jobLifecycle) {
+        if (jobLifecycle == null) {
+            this.scriptLifecycles.remove(scriptName);
+        } else {
+            this.scriptLifecycles.put(scriptName, jobLifecycle);
+        }
+    }
+
+    /**
+     * Set how long describes, illustrates and validates take to complete.  Default
+     * is DEFAULT_TASK_MILLIS.
+     */
+    public void setTaskMillis(long taskMillis) {
+        this.taskMillis = taskMillis;
+    }
+
+    /**
+     * Make validates of a script fail.
+     *
+     * @param scriptName pigscript name
+     */
+    public void failValidation(String scriptName) {
+        this.invalidScripts.add(scriptName);
+    }
+
+    /**
+     * Add a running cluster.
+     *
+     * @param clusterId ID of the cluster
+     * @param size number of nodes
+     * @param clusterType cluster type string, such as "persistent"
+     */
+    public void addCluster(String clusterId, int size, String clusterType) {
+        this.clusters.put(clusterId,
+                new FakeCluster(clusterId, size, clusterType, null, now()));
+    }
+
+    /**
+     * Number of requests received for a resource, including failed and throttled
+     * ones.
+     *
+     * @param resource resource, such as "jobs"
+     */
+    public int getRequestCount(String resource) {
+        AtomicInteger count = this.requestCounts.get(resource);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Number of requests answered with 429 Too Many Requests.
+     */
+    public int getThrottledCount() {
+        return this.throttledCount.get();
+    }
+
+    /**
+     * Number of jobs posted since the last reset.
+     */
+    public int getJobCount() {
+        return this.jobs.size();
+    }
+
+    private long now() {
+        return System.currentTimeMillis();
+    }
+
+    private String newId() {
+        // the API's IDs are 24 hex digits
+        return String.format("%024x", this.nextId.incrementAndGet());
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (this.requestsPerSecond <= 0) {
+            return true;
+        }
+        long nowNanos = System.nanoTime();
+        this.tokens = Math.min(this.requestsPerSecond, this.tokens
+                + (nowNanos - this.lastRefillNanos) / 1e9 * this.requestsPerSecond);
+        this.lastRefillNanos = nowNanos;
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens--;
+        return true;
+    }
+
+    private double nextDouble() {
+        synchronized (this.random) {
+            return this.random.nextDouble();
+        }
+    }
+
+    private long nextLatency(String resource) {
+        LatencyDistribution distribution = this.resourceLatencies.get(resource);
+        if (distribution == null) {
+            distribution = this.latency;
+        }
+        synchronized (this.random) {
+            return Math.max(0, distribution.nextMillis(this.random));
+        }
+    }
+
+    /**
+     * Response for a throttled or failed request, or null to serve it.
+     */
+    private Response injected(String resource) {
+        if (!tryAcquire()) {
+            this.throttledCount.incrementAndGet();
+            Response response = error(STATUS_TOO_MANY_REQUESTS, "Too many requests");
+            response.retryAfterSeconds = this.retryAfterSeconds;
+            return response;
+        }
+        for (Fault fault : this.faults) {
+            if (fault.matches(resource) && fault.fire(nextDouble())) {
+                return error(fault.statusCode, "Injected error");
+            }
+        }
+        return null;
+    }
+
+    private Response route(String method, String resource, String id, String query,
+                           Map<String, Object> body) {
+        if ("jobs".equals(resource)) {
+            if (id == null) {
+                return "POST".equals(method) ? postJob(body) : getJobs(query);
+            }
+            FakeJob job = this.jobs.get(id);
+            if (job == null) {
+                return error(404, "No job with id " + id);
+            }
+            if ("DELETE".equals(method)) {
+                job.stop(now());
+                return new Response(200, new HashMap<String, Object>());
+            }
+            return new Response(200, job.toJson(now()));
+        } else if ("clusters".equals(resource)) {
+            if (id == null) {
+                return getClusters();
+            }
+            FakeCluster cluster = this.clusters.get(id);
+            if (cluster == null) {
+                return error(404, "No cluster with id " + id);
+            }
+            if ("DELETE".equals(method)) {
+                cluster.stop(now());
+                return new Response(200, new HashMap<String, Object>());
+            }
+            return new Response(200, cluster.toJson(now()));
+        } else if ("describes".equals(resource) || "illustrates".equals(resource)
+                || "validates".equals(resource)) {
+            String type = resource.substring(0, resource.length() - 1);
+            if (id == null) {
+                FakeTask task = new FakeTask(type, newId(), body, now());
+                this.tasks.put(task.id, task);
+                Map<String, Object> json = new LinkedHashMap<String, Object>();
+                json.put(type + "_id", task.id);
+                return new Response(200, json);
+            }
+            FakeTask task = this.tasks.get(id);
+            if (task == null || !task.type.equals(type)) {
+                return error(404, "No " + type + " with id " + id);
+            }
+            return new Response(200, task.toJson(now(),
+                    "true".equals(queryParam(query, "exclude_result"))));
+        } else if ("webprojects".equals(resource)) {
+            if (id == null) {
+                Map<String, Object> json = new LinkedHashMap<String, Object>();
+                json.put("scripts", new ArrayList<Map<String, Object>>(
+                        this.webProjects.values()));
+                return new Response(200, json);
+            }
+            if ("PUT".equals(method)) {
+                Map<String, Object> project = new LinkedHashMap<String, Object>(body);
+                project.put("name", id);
+                Map<String, Object> existing = this.webProjects.get(id);
+                String timestamp = Timestamps.format(now());
+                project.put("create_timestamp",
+                        existing == null ? timestamp : existing.get("create_timestamp"));
+                project.put("update_timestamp", timestamp);
+                this.webProjects.put(id, project);
+                return new Response(200, project);
+            }
+            Map<String, Object> project = this.webProjects.get(id);
+            return project == null ? error(404, "No web project named " + id)
+                    : new Response(200, project);
+        }
+        return error(404, "Unknown resource " + resource);
+    }
+
+    private Response postJob(Map<String, Object> body) {
+        String scriptName = (String) (body.containsKey("script_name") ? body.get("script_name")
+                : body.containsKey("pigscript_name") ? body.get("pigscript_name")
+                : body.get("controlscript_name"));
+        if (scriptName == null) {
+            return error(400, "A script name is required");
+        }
+        long now = now();
+        JobLifecycle lifecycle = this.scriptLifecycles.get(scriptName);
+        if (lifecycle == null) {
+            lifecycle = this.jobLifecycle;
+        }
+        String clusterId = (String) body.get("cluster_id");
+        FakeJob job = new FakeJob(newId(), scriptName, body, lifecycle, now);
+        if (clusterId != null) {
+            FakeCluster cluster = this.clusters.get(clusterId);
+            if (cluster == null || !"running".equals(cluster.statusAt(now))) {
+                return error(400, "Cluster " + clusterId + " is not running");
+            }
+            job.cluster = cluster;
+        } else {
+            Object size = body.get("cluster_size");
+            Object type = body.get("cluster_type");
+            job.cluster = new FakeCluster(newId(),
+                    size == null ? 2 : ((Number) size).intValue(),
+                    type == null ? "single_job" : type.toString(), job, now);
+            this.clusters.put(job.cluster.id, job.cluster);
+        }
+        this.jobs.put(job.id, job);
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("job_id", job.id);
+        return new Response(200, json);
+    }
+
+    private Response getJobs(String query) {
+        long now = now();
+        List<FakeJob> sorted = new ArrayList<FakeJob>(this.jobs.values());
+        // most recent first, as the API returns them
+        Collections.sort(sorted, new Comparator<FakeJob>() {
+            public int compare(FakeJob a, FakeJob b) {
+                return a.started == b.started ? b.id.compareTo(a.id)
+                        : (a.started < b.started ? 1 : -1);
+            }
+        });
+        int skip = Math.min(queryInt(query, "skip", 0), sorted.size());
+        int limit = queryInt(query, "limit", sorted.size());
+        List<Map<String, Object>> jobsJson = new ArrayList<Map<String, Object>>();
+        for (FakeJob job : sorted.subList(skip, skip + Math.min(sorted.size() - skip, limit))) {
+            jobsJson.add(job.toJson(now));
+        }
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("jobs", jobsJson);
+        json.put("count", jobsJson.size());
+        return new Response(200, json);
+    }
+
+    /**
+     * Integer query parameter, or the default if absent, "null" or negative.
+     */
+    private static int queryInt(String query, String name, int defaultValue) {
+        String value = queryParam(query, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            return parsed < 0 ? defaultValue : parsed;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Raw query parameter, or null if absent.
+     */
+    private static String queryParam(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private Response getClusters() {
+        long now = now();
+        List<Map<String, Object>> clustersJson = new ArrayList<Map<String, Object>>();
+        for (FakeCluster cluster : this.clusters.values()) {
+            clustersJson.add(cluster.toJson(now));
+        }
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("clusters", clustersJson);
+        return new Response(200, json);
+    }
+
+    private static Response error(int statusCode, String message) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("error", message);
+        return new Response(statusCode, json);
+    }
+
+    /**
+     * Serves every /v2/ request.
+     */
+    private class Handler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath().substring("/v2/".length());
+                String[] parts = path.split("/");
+                String resource = parts[0];
+                String id = parts.length > 1 && parts[1].length() > 0 ? parts[1] : null;
+                count(resource);
+
+                Map<String, Object> body = readBody(exchange.getRequestBody());
+                long delay = nextLatency(resource);
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                Response response = injected(resource);
+                if (response == null) {
+                    response = route(exchange.getRequestMethod(), resource, id,
+                            exchange.getRequestURI().getRawQuery(), body);
+                }
+                send(exchange, response);
+            } catch (InterruptedException e) {
+                // server stopping
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.warn("Fake Mortar API failed to serve " + exchange.getRequestURI(), e);
+                send(exchange, error(500, "Internal error"));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void count(String resource) {
+            AtomicInteger count = requestCounts.get(resource);
+            if (count == null) {
+                synchronized (requestCounts) {
+                    count = requestCounts.get(resource);
+                    if (count == null) {
+                        count = new AtomicInteger();
+                        requestCounts.put(resource, count);
+                    }
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> readBody(InputStream in) throws IOException {
+            try {
+                byte[] bytes = readFully(in);
+                if (bytes.length == 0) {
+                    return new HashMap<String, Object>();
+                }
+                return jsonFactory.fromString(new String(bytes, "UTF-8"), HashMap.class);
+            } finally {
+                in.close();
+            }
+        }
+
+        private void send(HttpExchange exchange, Response response) throws IOException {
+            byte[] body = jsonFactory.toByteArray(response.json);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (response.retryAfterSeconds > 0) {
+                exchange.getResponseHeaders().set("Retry-After",
+                        Integer.toString(response.retryAfterSeconds));
+            }
+            exchange.sendResponseHeaders(response.statusCode, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static class Response {
+
+        final int statusCode;
+        final Object json;
+        int retryAfterSeconds;
+
+        Response(int statusCode, Object json) {
+            this.statusCode = statusCode;
+            this.json = json;
+        }
+    }
+
+    /**
+     * Errors injected into requests for a resource.
+     */
+    private static class Fault {
+
+        final String resource;
+        final double probability;
+        final int statusCode;
+        // -1 for unlimited
+        final AtomicInteger remaining;
+
+        Fault(String resource, double probability, int statusCode, int count) {
+            this.resource = resource == null ? ALL_RESOURCES : resource;
+            this.probability = probability;
+            this.statusCode = statusCode;
+            this.remaining = new AtomicInteger(count);
+        }
+
+        boolean matches(String requestResource) {
+            return ALL_RESOURCES.equals(this.resource) || this.resource.equals(requestResource);
+        }
+
+        boolean fire(double draw) {
+            if (draw >= this.probability) {
+                return false;
+            }
+            if (this.remaining.get() < 0) {
+                return true;
+            }
+            // only count down limited faults, and never below 0
+            int left;
+            do {
+                left = this.remaining.get();
+                if (left == 0) {
+                    return false;
+                }
+            } while (!this.remaining.compareAndSet(left, left - 1));
+            return true;
+        }
+    }
+
+    /**
+     * A posted job.
+     */
+    private static class FakeJob {
+
+        final String id;
+        final String scriptName;
+        final Map<String, Object> request;
+        final JobLifecycle lifecycle;
+        final long started;
+        volatile FakeCluster cluster;
+        volatile long stopped;
+
+        FakeJob(String id, String scriptName, Map<String, Object> request,
+                JobLifecycle lifecycle, long started) {
+            this.id = id;
+            this.scriptName = scriptName;
+            this.request = request;
+            this.lifecycle = lifecycle;
+            this.started = started;
+        }
+
+        void stop(long now) {
+            if (this.stopped == 0 && !isComplete(now)) {
+                this.stopped = now;
+            }
+        }
+
+        boolean isComplete(long now) {
+            return this.stopped != 0 || now - this.started >= this.lifecycle.getDurationMillis();
+        }
+
+        long completedAt() {
+            return this.stopped != 0 ? this.stopped
+                    : this.started + this.lifecycle.getDurationMillis();
+        }
+
+        String statusAt(long now) {
+            return this.stopped != 0 ? "stopped" : this.lifecycle.statusAt(now - this.started);
+        }
+
+        Map<String, Object> toJson(long now) {
+            String status = statusAt(now);
+            Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("job_id", this.id);
+            json.put("status_code", status);
+            json.put("status_description", status);
+            json.put("script_name", this.scriptName);
+            if (this.request.containsKey("project_name")) {
+                json.put("project_name", this.request.get("project_name"));
+                json.put("pigscript_name", this.scriptName);
+                json.put("git_ref", this.request.get("git_ref"));
+                json.put("script_type", "pig");
+            } else {
+                json.put("script_type", "web");
+            }
+            json.put("cluster_id", this.cluster.id);
+            json.put("progress", this.stopped != 0
+                    ? this.lifecycle.progressAt(this.stopped - this.started)
+                    : this.lifecycle.progressAt(now - this.started));
+            json.put("script_parameters", parameters());
+            json.put("start_timestamp", Timestamps.format(this.started));
+            if (isComplete(now)) {
+                json.put("stop_timestamp", Timestamps.format(completedAt()));
+            }
+            if (status.endsWith("_error")) {
+                Map<String, Object> error = new LinkedHashMap<String, Object>();
+                error.put("message", "Simulated " + status.replace('_', ' '));
+                error.put("type", "SimulatedError");
+                json.put("error", error);
+            }
+            return json;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> parameters() {
+            Object parameters = this.request.get("parameters");
+            if (parameters instanceof Map) {
+                return new LinkedHashMap<String, Object>((Map<String, Object>) parameters);
+            }
+            // mortar project jobs send a list of name/value pairs
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            if (parameters instanceof List) {
+                for (Object parameter : (List<?>) parameters) {
+                    Map<?, ?> pair = (Map<?, ?>) parameter;
+                    map.put((String) pair.get("name"), pair.get("value"));
+                }
+            }
+            return map;
+        }
+    }
+
+    /**
+     * A cluster, either added or started for a job.
+     */
+    private static class FakeCluster {
+
+        final String id;
+        final int size;
+        final String type;
+        final FakeJob job;
+        final long started;
+        volatile long stopped;
+
+        FakeCluster(String id, int size, String type, FakeJob job, long started) {
+            this.id = id;
+            this.size = size;
+            this.type = type;
+            this.job = job;
+            this.started = started;
+        }
+
+        void stop(long now) {
+            if (this.stopped == 0) {
+                this.stopped = now;
+            }
+        }
+
+        long runningAt() {
+            return this.job == null ? this.started
+                    : this.started + this.job.lifecycle.getClusterStartMillis();
+        }
+
+        String statusAt(long now) {
+            if (this.stopped != 0) {
+                return "destroyed";
+            }
+            if ("single_job".equals(this.type) && this.job != null
+                    && this.job.isComplete(now)) {
+                return "destroyed";
+            }
+            return now < runningAt() ? "starting" : "running";
+        }
+
+        Map<String, Object> toJson(long now) {
+            String status = statusAt(now);
+            Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("cluster_id", this.id);
+            json.put("status_code", status);
+            json.put("status_description", status);
+            json.put("cluster_type_code", this.type);
+            json.put("size", this.size);
+            json.put("start_timestamp", Timestamps.format(this.started));
+            long running = runningAt();
+            if (now >= running) {
+                json.put("running_timestamp", Timestamps.format(running));
+            }
+            if ("destroyed".equals(status)) {
+                json.put("stop_timestamp", Timestamps.format(this.stopped != 0
+                        ? this.stopped : this.job.completedAt()));
+            }
+            List<Map<String, Object>> trackers = new ArrayList<Map<String, Object>>();
+            if ("running".equals(status)) {
+                for (int i = 0; i < this.size; i++) {
+                    Map<String, Object> tracker = new LinkedHashMap<String, Object>();
+                    // only the documented fields; slot counts are not part of the API
+                    tracker.put("address", "tt" + i);
+                    tracker.put("url", "http://tt" + i + ":50060");
+                    trackers.add(tracker);
+                }
+            }
+            json.put("task_trackers", trackers);
+            return json;
+        }
+    }
+
+    /**
+     * A describe, illustrate or validate.
+     */
+    private class FakeTask {
+
+        final String type;
+        final String id;
+        final Map<String, Object> request;
+        final long started;
+
+        FakeTask(String type, String id, Map<String, Object> request, long started) {
+            this.type = type;
+            this.id = id;
+            this.request = request;
+            this.started = started;
+        }
+
+        Map<String, Object> toJson(long now, boolean excludeResult) {
+            long elapsed = now - this.started;
+            String scriptName = (String) this.request.get("pigscript_name");
+            String status;
+            if (elapsed >= taskMillis) {
+                status = "validate".equals(this.type) && invalidScripts.contains(scriptName)
+                        ? "FAILURE" : "SUCCESS";
+            } else {
+                status = elapsed < taskMillis / 3 ? "QUEUED" : "PROGRESS";
+            }
+            Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put(this.type + "_id", this.id);
+            json.put("project_name", this.request.get("project_name"));
+            json.put("script_name", scriptName);
+            json.put("git_ref", this.request.get("git_ref"));
+            if (this.request.containsKey("alias")) {
+                json.put("alias", this.request.get("alias"));
+            }
+            json.put("status_code", status);
+            json.put("status_description", status);
+            if ("SUCCESS".equals(status) && !"validate".equals(this.type)) {
+                json.put("web_result_url",
+                        "https://app.mortardata.com/" + this.type + "s/" + this.id);
+                if (!excludeResult) {
+                    Map<String, Object> result = new LinkedHashMap<String, Object>();
+                    result.put("tables", new ArrayList<Object>());
+                    json.put("result", result);
+                }
+            }
+            return json;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FakeMortarServer [port=" + port + ", latency=" + latency
+                + ", jobs=" + jobs.size() + ", clusters=" + clusters.size() + "]";
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.fake;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statuses a job on a {@link FakeMortarServer} passes through, and for how long,
+ * before ending in a final status.  For example:
+ *
+ * <pre>
+ * new JobLifecycle()
+ *         .then("validating_script", 100)
+ *         .then("starting_cluster", 1000)
+ *         .then("running", 5000)
+ *         .finish("execution_error");
+ * </pre>
+ *
+ * Progress rises from 0 to 100 while the job is running.
+ */
+public class JobLifecycle {
+
+    private List<String> statuses = new ArrayList<String>();
+    private List<Long> durations = new ArrayList<Long>();
+    private String finalStatus = "success";
+
+    /**
+     * The default lifecycle: 100ms each validating and starting a cluster, 1s
+     * running, then success.
+     */
+    public static JobLifecycle defaultLifecycle() {
+        return new JobLifecycle()
+                .then("validating_script", 100)
+                .then("starting_cluster", 100)
+                .then("running", 1000);
+    }
+
+    /**
+     * Add a status to pass through.
+     *
+     * @param status job status string, such as "running"
+     * @param millis time spent in it
+     * @return this lifecycle
+     */
+    public JobLifecycle then(String status, long millis) {
+        this.statuses.add(status);
+        this.durations.add(millis);
+        return this;
+    }
+
+    /**
+     * Set the final status.  Default is "success".
+     *
+     * @param status job status string, such as "execution_error"
+     * @return this lifecycle
+     */
+    public JobLifecycle finish(String status) {
+        this.finalStatus = status;
+        return this;
+    }
+
+    public String getFinalStatus() {
+        return finalStatus;
+    }
+
+    /**
+     * Status a job is in some time after it was posted.
+     */
+    String statusAt(long elapsedMillis) {
+        long phaseStart = 0;
+        for (int i = 0; i < this.statuses.size(); i++) {
+            long phaseEnd = phaseStart + this.durations.get(i);
+            if (elapsedMillis < phaseEnd) {
+                return this.statuses.get(i);
+            }
+            phaseStart = phaseEnd;
+        }
+        return this.finalStatus;
+    }
+
+    /**
+     * Progress, 0 to 100, some time after the job was posted.
+     */
+    int progressAt(long elapsedMillis) {
+        long phaseStart = 0;
+        boolean ran = false;
+        for (int i = 0; i < this.statuses.size(); i++) {
+            long duration = this.durations.get(i);
+            if ("running".equals(this.statuses.get(i))) {
+                if (elapsedMillis < phaseStart + duration) {
+                    return (int) (100 * Math.max(0, elapsedMillis - phaseStart)
+                            / Math.max(1, duration));
+                }
+                ran = true;
+            } else if (elapsedMillis < phaseStart + duration) {
+                return ran ? 100 : 0;
+            }
+            phaseStart += duration;
+        }
+        return ran || "success".equals(this.finalStatus) ? 100 : 0;
+    }
+
+    /**
+     * Time after posting at which a job's cluster is running: the end of any
+     * starting_cluster phase.
+     */
+    long getClusterStartMillis() {
+        long phaseEnd = 0;
+        long clusterStart = 0;
+        for (int i = 0; i < this.statuses.size(); i++) {
+            phaseEnd += this.durations.get(i);
+            if ("starting_cluster".equals(this.statuses.get(i))) {
+                clusterStart = phaseEnd;
+            }
+        }
+        return clusterStart;
+    }
+
+    /**
+     * Total time before the final status.
+     */
+    long getDurationMillis() {
+        long total = 0;
+        for (Long duration : this.durations) {
+            total += duration;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "JobLifecycle [statuses=" + statuses + ", durations=" + durations
+                + ", finalStatus=" + finalStatus + "]";
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.fake;
+
+import java.util.Random;
+
+/**
+ * Distribution from which a {@link FakeMortarServer} draws the delay before each
+ * response.
+ */
+public abstract class LatencyDistribution {
+
+    /**
+     * No added latency.
+     */
+    public static final LatencyDistribution NONE = fixed(0);
+
+    /**
+     * Draw a delay.
+     *
+     * @param random source of randomness, seeded by the server
+     * @return delay in milliseconds, at least 0
+     */
+    public abstract long nextMillis(Random random);
+
+    /**
+     * The same delay every time.
+     *
+     * @param millis delay in milliseconds
+     */
+    public static LatencyDistribution fixed(final long millis) {
+        return new LatencyDistribution() {
+            public long nextMillis(Random random) {
+                return millis;
+            }
+
+            public String toString() {
+                return "fixed(" + millis + ")";
+            }
+        };
+    }
+
+    /**
+     * Delays uniformly distributed between two bounds.
+     *
+     * @param minMillis least delay in milliseconds
+     * @param maxMillis greatest delay in milliseconds
+     */
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        if (maxMillis < minMillis) {
+            throw new IllegalArgumentException("maxMillis must be at least minMillis");
+        }
+        return new LatencyDistribution() {
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            public String toString() {
+                return "uniform(" + minMillis + ", " + maxMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Exponentially distributed delays, as from a queue with random arrivals.
+     *
+     * @param meanMillis mean delay in milliseconds
+     */
+    public static LatencyDistribution exponential(final double meanMillis) {
+        return new LatencyDistribution() {
+            public long nextMillis(Random random) {
+                return Math.round(-meanMillis * Math.log(1 - random.nextDouble()));
+            }
+
+            public String toString() {
+                return "exponential(" + meanMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Log-normally distributed delays: mostly near the median, with a long tail, as
+     * real service latencies usually are.
+     *
+     * @param medianMillis median delay in milliseconds
+     * @param p99Millis 99th percentile delay in milliseconds
+     */
+    public static LatencyDistribution logNormal(final double medianMillis,
+                                                final double p99Millis) {
+        if (medianMillis <= 0 || p99Millis < medianMillis) {
+            throw new IllegalArgumentException(
+                    "medianMillis must be positive and at most p99Millis");
+        }
+        // z-score of the 99th percentile of a standard normal
+        final double sigma = Math.log(p99Millis / medianMillis) / 2.326;
+        return new LatencyDistribution() {
+            public long nextMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            public String toString() {
+                return "logNormal(" + medianMillis + ", " + p99Millis + ")";
+            }
+        };
+    }
+}
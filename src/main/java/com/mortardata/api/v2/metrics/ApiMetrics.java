@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+/**
+ * Receives a measurement of every call made through an API client.
+ *
+ * Set with API.setMetrics().  Implementations are called on the calling thread for
+ * every request, so must be thread safe and fast.
+ */
+public interface ApiMetrics {
+
+    /**
+     * Metrics that records nothing, the default.
+     */
+    ApiMetrics NOOP = new ApiMetrics() {
+        public void recordRequest(String resource, String method, int statusCode,
+                                  long latencyNanos, long responseBytes, int retries) {
+        }
+    };
+
+    /**
+     * Record one call.
+     *
+     * @param resource first path segment after /v2/, such as "jobs"
+     * @param method HTTP method
+     * @param statusCode HTTP status of the final response, or 0 if there was none
+     * @param latencyNanos time from the call to its response or failure, including
+     *     retries, in nanoseconds
+     * @param responseBytes Content-Length of the response, or -1 if unknown
+     * @param retries number of times the request was retried after an unsuccessful
+     *     response
+     */
+    void recordRequest(String resource, String method, int statusCode, long latencyNanos,
+                       long responseBytes, int retries);
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+/**
+ * Metrics of calls to one resource with one HTTP method, as of a point in time.
+ */
+public class EndpointSnapshot {
+
+    static final int STATUS_CLASSES = 6;
+
+    private final String resource;
+    private final String method;
+    private final long requestCount;
+    private final long retryCount;
+    private final long responseBytes;
+    private final long[] statusCounts;
+    private final long[] latencyCounts;
+    private final long latencySum;
+    private final long latencyMax;
+
+    EndpointSnapshot(String resource, String method, long requestCount, long retryCount,
+                     long responseBytes, long[] statusCounts, long[] latencyCounts,
+                     long latencySum, long latencyMax) {
+        this.resource = resource;
+        this.method = method;
+        this.requestCount = requestCount;
+        this.retryCount = retryCount;
+        this.responseBytes = responseBytes;
+        this.statusCounts = statusCounts;
+        this.latencyCounts = latencyCounts;
+        this.latencySum = latencySum;
+        this.latencyMax = latencyMax;
+    }
+
+    /**
+     * Index into status counts: 0 for no response, otherwise the first digit.
+     */
+    static int statusClass(int statusCode) {
+        int statusClass = statusCode / 100;
+        return statusClass >= 1 && statusClass < STATUS_CLASSES ? statusClass : 0;
+    }
+
+    /**
+     * Resource, such as "jobs".
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * HTTP method, or "OTHER".
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Number of calls.
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Number of calls that failed, with an error status or no response.
+     */
+    public long getErrorCount() {
+        return statusCounts[0] + statusCounts[4] + statusCounts[5];
+    }
+
+    /**
+     * Number of retries after unsuccessful responses.
+     */
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Total Content-Length of responses, in bytes.
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Number of calls whose final response had a status in a class.
+     *
+     * @param statusClass 2 for 2xx, 4 for 4xx and so on, or 0 for calls with no
+     *     response
+     */
+    public long getStatusCount(int statusClass) {
+        return statusClass >= 0 && statusClass < STATUS_CLASSES ? statusCounts[statusClass] : 0;
+    }
+
+    /**
+     * Mean latency, in nanoseconds.
+     */
+    public double getLatencyMean() {
+        return requestCount == 0 ? 0 : (double) latencySum / requestCount;
+    }
+
+    /**
+     * Total latency, in nanoseconds.
+     */
+    public long getLatencySum() {
+        return latencySum;
+    }
+
+    /**
+     * Largest latency, in nanoseconds.
+     */
+    public long getLatencyMax() {
+        return latencyMax;
+    }
+
+    /**
+     * Estimate a latency quantile.
+     *
+     * @param quantile quantile in [0, 1], such as 0.99
+     * @return latency in nanoseconds, within about 6%
+     */
+    public long getLatencyQuantile(double quantile) {
+        long total = 0;
+        for (long count : latencyCounts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < latencyCounts.length; i++) {
+            seen += latencyCounts[i];
+            if (seen >= rank) {
+                return Math.min(latencyMax, LatencyHistogram.midpoint(i));
+            }
+        }
+        return latencyMax;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointSnapshot [" + method + " " + resource + ", requestCount=" + requestCount
+                + ", errorCount=" + getErrorCount() + ", p99=" + getLatencyQuantile(0.99) + "]";
+    }
+}
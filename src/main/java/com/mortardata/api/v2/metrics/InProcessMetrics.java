@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps request counts, status codes, retries, response sizes and a latency
+ * histogram for each resource and HTTP method, in memory.
+ *
+ * Recording takes no locks and allocates nothing once an endpoint has been seen.
+ * Read the metrics with {@link #snapshot()}, or export them with
+ * {@link PrometheusTextExporter} or {@link JmxExporter}.
+ */
+public class InProcessMetrics implements ApiMetrics {
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+
+    private final ConcurrentMap<String, Endpoint[]> endpoints =
+            new ConcurrentHashMap<String, Endpoint[]>();
+
+    public void recordRequest(String resource, String method, int statusCode,
+                              long latencyNanos, long responseBytes, int retries) {
+        Endpoint[] byMethod = this.endpoints.get(resource);
+        if (byMethod == null) {
+            byMethod = new Endpoint[METHODS.length + 1];
+            for (int i = 0; i < byMethod.length; i++) {
+                byMethod[i] = new Endpoint(resource, i < METHODS.length ? METHODS[i] : "OTHER");
+            }
+            Endpoint[] existing = this.endpoints.putIfAbsent(resource, byMethod);
+            if (existing != null) {
+                byMethod = existing;
+            }
+        }
+        byMethod[methodIndex(method)].record(statusCode, latencyNanos, responseBytes, retries);
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length;
+    }
+
+    /**
+     * Current metrics of every endpoint that has been called, sorted by resource and
+     * method.
+     */
+    public List<EndpointSnapshot> snapshot() {
+        List<EndpointSnapshot> snapshots = new ArrayList<EndpointSnapshot>();
+        for (Map.Entry<String, Endpoint[]> entry : this.endpoints.entrySet()) {
+            for (Endpoint endpoint : entry.getValue()) {
+                if (endpoint.requestCount.get() > 0) {
+                    snapshots.add(endpoint.snapshot());
+                }
+            }
+        }
+        Collections.sort(snapshots, new Comparator<EndpointSnapshot>() {
+            public int compare(EndpointSnapshot a, EndpointSnapshot b) {
+                int byResource = a.getResource().compareTo(b.getResource());
+                return byResource != 0 ? byResource : a.getMethod().compareTo(b.getMethod());
+            }
+        });
+        return snapshots;
+    }
+
+    /**
+     * Forget every endpoint's metrics.
+     */
+    public void reset() {
+        this.endpoints.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "InProcessMetrics [resources=" + endpoints.keySet() + "]";
+    }
+
+    /**
+     * Metrics of one resource and method.
+     */
+    private static class Endpoint {
+
+        private final String resource;
+        private final String method;
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong retryCount = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final AtomicLongArray statusCounts =
+                new AtomicLongArray(EndpointSnapshot.STATUS_CLASSES);
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Endpoint(String resource, String method) {
+            this.resource = resource;
+            this.method = method;
+        }
+
+        void record(int statusCode, long latencyNanos, long bytes, int retries) {
+            this.requestCount.incrementAndGet();
+            this.statusCounts.incrementAndGet(EndpointSnapshot.statusClass(statusCode));
+            if (retries > 0) {
+                this.retryCount.addAndGet(retries);
+            }
+            if (bytes > 0) {
+                this.responseBytes.addAndGet(bytes);
+            }
+            this.latency.record(latencyNanos);
+        }
+
+        EndpointSnapshot snapshot() {
+            long[] statuses = new long[EndpointSnapshot.STATUS_CLASSES];
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = this.statusCounts.get(i);
+            }
+            return new EndpointSnapshot(this.resource, this.method, this.requestCount.get(),
+                    this.retryCount.get(), this.responseBytes.get(), statuses,
+                    this.latency.copyCounts(), this.latency.getSum(), this.latency.getMax());
+        }
+    }
+}
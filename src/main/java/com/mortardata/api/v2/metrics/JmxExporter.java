@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes {@link InProcessMetrics} as a read-only MBean.
+ *
+ * Each endpoint contributes attributes named resource.METHOD.metric, such as
+ * jobs.GET.p99Millis, read from a fresh snapshot on each access.
+ */
+public class JmxExporter implements DynamicMBean {
+
+    private InProcessMetrics metrics;
+    private ObjectName objectName;
+
+    /**
+     * Construct a JmxExporter.
+     *
+     * @param metrics metrics to expose
+     * @param name name of the MBean, such as "com.mortardata.api:type=ApiMetrics"
+     * @throws JMException if the name is malformed
+     */
+    public JmxExporter(InProcessMetrics metrics, String name) throws JMException {
+        this.metrics = metrics;
+        this.objectName = new ObjectName(name);
+    }
+
+    /**
+     * Register with the platform MBean server.
+     *
+     * @throws JMException if unable to register
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.objectName);
+    }
+
+    /**
+     * Unregister from the platform MBean server.
+     *
+     * @throws JMException if not registered
+     */
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.unregisterMBean(this.objectName);
+    }
+
+    private Map<String, Object> attributes() {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        for (EndpointSnapshot s : this.metrics.snapshot()) {
+            String prefix = s.getResource() + "." + s.getMethod() + ".";
+            attributes.put(prefix + "requestCount", s.getRequestCount());
+            attributes.put(prefix + "errorCount", s.getErrorCount());
+            attributes.put(prefix + "retryCount", s.getRetryCount());
+            attributes.put(prefix + "responseBytes", s.getResponseBytes());
+            attributes.put(prefix + "meanMillis", s.getLatencyMean() / 1e6);
+            attributes.put(prefix + "p50Millis", s.getLatencyQuantile(0.5) / 1e6);
+            attributes.put(prefix + "p99Millis", s.getLatencyQuantile(0.99) / 1e6);
+            attributes.put(prefix + "maxMillis", s.getLatencyMax() / 1e6);
+        }
+        return attributes;
+    }
+
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        Object value = attributes().get(name);
+        if (value == null) {
+            throw new AttributeNotFoundException(name);
+        }
+        return value;
+    }
+
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Object> attributes = attributes();
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            if (attributes.containsKey(name)) {
+                list.add(new Attribute(name, attributes.get(name)));
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature)
+            throws ReflectionException {
+        // the bean exposes no operations
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<MBeanAttributeInfo>();
+        for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+            infos.add(new MBeanAttributeInfo(entry.getKey(),
+                    entry.getValue().getClass().getName(), entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Mortar API client metrics",
+                infos.toArray(new MBeanAttributeInfo[infos.size()]), null, null, null);
+    }
+
+    @Override
+    public String toString() {
+        return "JmxExporter [objectName=" + objectName + "]";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ *
+ * Values are counted in buckets of 8 per power of two, so recorded latencies keep
+ * about 6% relative accuracy.  Recording is a few atomic increments with no
+ * allocation, so concurrent callers never block each other.
+ */
+class LatencyHistogram {
+
+    static final int BUCKETS = 512;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(bucket(value));
+        this.sum.addAndGet(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Middle of the range of values counted in a bucket.
+     */
+    static long midpoint(int bucket) {
+        if (bucket < SUB_BUCKETS * SUB_BUCKET_BITS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width / 2;
+    }
+
+    long[] copyCounts() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return copy;
+    }
+
+    long getSum() {
+        return this.sum.get();
+    }
+
+    long getMax() {
+        return this.max.get();
+    }
+}
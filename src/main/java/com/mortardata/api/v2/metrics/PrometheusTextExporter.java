@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes {@link InProcessMetrics} in the Prometheus text exposition format, for
+ * serving from an application's own metrics endpoint.
+ *
+ * Latency is exported as a summary in seconds, with 0.5, 0.9, 0.99 and 0.999
+ * quantiles.
+ */
+public class PrometheusTextExporter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] STATUS_LABELS = {"none", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private InProcessMetrics metrics;
+    private String prefix;
+
+    /**
+     * Construct a PrometheusTextExporter naming metrics mortar_api_*.
+     *
+     * @param metrics metrics to export
+     */
+    public PrometheusTextExporter(InProcessMetrics metrics) {
+        this(metrics, "mortar_api");
+    }
+
+    /**
+     * Construct a PrometheusTextExporter.
+     *
+     * @param metrics metrics to export
+     * @param prefix prefix of metric names
+     */
+    public PrometheusTextExporter(InProcessMetrics metrics, String prefix) {
+        this.metrics = metrics;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Write the current metrics.
+     *
+     * @param out writer to write to
+     * @throws IOException if unable to write
+     */
+    public void write(Writer out) throws IOException {
+        List<EndpointSnapshot> snapshots = this.metrics.snapshot();
+
+        header(out, "requests_total", "counter", "Calls to the Mortar API.");
+        for (EndpointSnapshot s : snapshots) {
+            for (int i = 0; i < STATUS_LABELS.length; i++) {
+                if (s.getStatusCount(i) > 0) {
+                    sample(out, "requests_total", s, ",status=\"" + STATUS_LABELS[i] + "\"",
+                            s.getStatusCount(i));
+                }
+            }
+        }
+        header(out, "retries_total", "counter", "Retries after unsuccessful responses.");
+        for (EndpointSnapshot s : snapshots) {
+            sample(out, "retries_total", s, "", s.getRetryCount());
+        }
+        header(out, "response_bytes_total", "counter", "Content-Length of responses.");
+        for (EndpointSnapshot s : snapshots) {
+            sample(out, "response_bytes_total", s, "", s.getResponseBytes());
+        }
+        header(out, "request_duration_seconds", "summary", "Latency of calls.");
+        for (EndpointSnapshot s : snapshots) {
+            for (double q : QUANTILES) {
+                sample(out, "request_duration_seconds", s, ",quantile=\"" + q + "\"",
+                        s.getLatencyQuantile(q) / 1e9);
+            }
+            sample(out, "request_duration_seconds_sum", s, "", s.getLatencySum() / 1e9);
+            sample(out, "request_duration_seconds_count", s, "", s.getRequestCount());
+        }
+    }
+
+    /**
+     * The current metrics as a string.
+     */
+    public String format() {
+        StringWriter out = new StringWriter();
+        try {
+            write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("StringWriter failed", e);
+        }
+        return out.toString();
+    }
+
+    private void header(Writer out, String name, String type, String help)
+            throws IOException {
+        out.write("# HELP " + this.prefix + "_" + name + " " + help + "\n");
+        out.write("# TYPE " + this.prefix + "_" + name + " " + type + "\n");
+    }
+
+    private void sample(Writer out, String name, EndpointSnapshot s, String extraLabels,
+                        Object value) throws IOException {
+        out.write(this.prefix + "_" + name + "{resource=\"" + escape(s.getResource())
+                + "\",method=\"" + s.getMethod() + "\"" + extraLabels + "} " + value + "\n");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String toString() {
+        return "PrometheusTextExporter [prefix=" + prefix + "]";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.trace;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A finished span: one timed piece of work within a trace.
+ */
+public class Span {
+
+    private String name;
+    private TraceContext context;
+    private String parentSpanId;
+    private long startTimeMillis;
+    private long durationNanos;
+    private Map<String, Object> attributes;
+
+    Span(String name, TraceContext context, String parentSpanId, long startTimeMillis,
+         long durationNanos, Map<String, Object> attributes) {
+        this.name = name;
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        this.startTimeMillis = startTimeMillis;
+        this.durationNanos = durationNanos;
+        this.attributes = Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * Name of the span, the Instrumentation event type, such as mortar.Poll.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Trace and id of this span.
+     */
+    public TraceContext getContext() {
+        return context;
+    }
+
+    public String getTraceId() {
+        return context.getTraceId();
+    }
+
+    public String getSpanId() {
+        return context.getSpanId();
+    }
+
+    /**
+     * Id of the parent span, or null for the root of a trace.
+     */
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Attributes of the Instrumentation event, such as status.
+     */
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return "Span [name=" + name + ", traceId=" + getTraceId() + ", spanId=" + getSpanId()
+                + ", parentSpanId=" + parentSpanId + ", durationNanos=" + durationNanos
+                + ", attributes=" + attributes + "]";
+    }
+}
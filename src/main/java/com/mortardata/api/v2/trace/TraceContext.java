@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.trace;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The trace and span a piece of work belongs to, as carried by a W3C traceparent
+ * header.
+ *
+ * Each thread has a current context, which the client uses as the parent of spans
+ * it starts and sends with its requests.  Applications set it from their own
+ * tracer with {@link #attach(TraceContext)}.
+ *
+ * @see <a href="https://www.w3.org/TR/trace-context/">W3C Trace Context</a>
+ */
+public class TraceContext {
+
+    private static final Pattern TRACEPARENT = Pattern.compile(
+            "^00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})$");
+    private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+    private static final String INVALID_SPAN_ID = "0000000000000000";
+    private static final Random RANDOM = new Random();
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<TraceContext>();
+
+    private final String traceId;
+    private final String spanId;
+    private final boolean sampled;
+
+    /**
+     * Construct a TraceContext.
+     *
+     * @param traceId 32 lowercase hex digits
+     * @param spanId 16 lowercase hex digits
+     * @param sampled whether the trace is being recorded
+     */
+    public TraceContext(String traceId, String spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Start a new, sampled trace.
+     */
+    public static TraceContext newRoot() {
+        return new TraceContext(randomHex(16), randomHex(8), true);
+    }
+
+    /**
+     * A new span in the same trace, whose parent is this one.
+     */
+    public TraceContext newChild() {
+        return new TraceContext(this.traceId, randomHex(8), this.sampled);
+    }
+
+    /**
+     * Parse a traceparent header.
+     *
+     * @param traceparent header value
+     * @return the context, or null if the header is malformed
+     */
+    public static TraceContext parse(String traceparent) {
+        if (traceparent == null) {
+            return null;
+        }
+        Matcher matcher = TRACEPARENT.matcher(traceparent.trim());
+        if (!matcher.matches() || INVALID_TRACE_ID.equals(matcher.group(1))
+                || INVALID_SPAN_ID.equals(matcher.group(2))) {
+            return null;
+        }
+        boolean sampled = (Integer.parseInt(matcher.group(3), 16) & 1) != 0;
+        return new TraceContext(matcher.group(1), matcher.group(2), sampled);
+    }
+
+    /**
+     * This context as a traceparent header value.
+     */
+    public String toTraceparent() {
+        return "00-" + this.traceId + "-" + this.spanId + (this.sampled ? "-01" : "-00");
+    }
+
+    /**
+     * The calling thread's current context, or null if none.
+     */
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Make a context the calling thread's current one.
+     *
+     * @param context context, or null to clear it
+     * @return the previous current context, to restore when done
+     */
+    public static TraceContext attach(TraceContext context) {
+        TraceContext previous = CURRENT.get();
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    private static String randomHex(int bytes) {
+        StringBuilder hex = new StringBuilder(bytes * 2);
+        while (hex.length() < bytes * 2) {
+            long value;
+            synchronized (RANDOM) {
+                value = RANDOM.nextLong();
+            }
+            String digits = Long.toHexString(value);
+            for (int i = digits.length(); i < 16; i++) {
+                hex.append('0');
+            }
+            hex.append(digits);
+        }
+        hex.setLength(bytes * 2);
+        // an all-zero id is invalid
+        return hex.toString().equals(INVALID_TRACE_ID.substring(0, bytes * 2))
+                ? randomHex(bytes) : hex.toString();
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceContext [" + toTraceparent() + "]";
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.trace;
+
+import com.google.api.client.http.HttpRequest;
+import com.mortardata.api.v2.RequestInterceptor;
+
+/**
+ * Sends the calling thread's {@link TraceContext} with each call as a W3C
+ * traceparent header, so the Mortar API's work joins the caller's trace.
+ *
+ * With a {@link TracingInstrumentation} on the same client, the current context
+ * during a call is the call's own span, so the server sees it as the parent.
+ */
+public class TraceparentPropagator implements RequestInterceptor {
+
+    /**
+     * Name of the W3C trace context header.
+     */
+    public static final String TRACEPARENT_HEADER = "traceparent";
+
+    private boolean startTraces;
+
+    /**
+     * Construct a TraceparentPropagator that only sends existing traces.
+     */
+    public TraceparentPropagator() {
+        this(false);
+    }
+
+    /**
+     * Construct a TraceparentPropagator.
+     *
+     * @param startTraces whether calls made outside any trace start a new one
+     */
+    public TraceparentPropagator(boolean startTraces) {
+        this.startTraces = startTraces;
+    }
+
+    public Completion intercept(HttpRequest request) {
+        TraceContext context = TraceContext.current();
+        if (context == null) {
+            if (!this.startTraces) {
+                return null;
+            }
+            context = TraceContext.newRoot();
+        }
+        request.getHeaders().set(TRACEPARENT_HEADER, context.toTraceparent());
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mortardata.util.Instrumentation;
+
+/**
+ * Instrumentation that turns the client's events into spans: each API request,
+ * poll and deploy phase becomes a child of the span current when it began.
+ *
+ * While an event is open its span is the thread's current {@link TraceContext}, so
+ * requests made by a poll are children of the poll, and a
+ * {@link TraceparentPropagator} sends the request's own span to the server.  Install
+ * it with API.setInstrumentation, EmbeddedMortarProject.setInstrumentation or
+ * TaskRunner.setInstrumentation.
+ */
+public class TracingInstrumentation implements Instrumentation {
+
+    private SpanReporter reporter;
+    private boolean startTraces;
+
+    /**
+     * Construct a TracingInstrumentation that starts a new trace for events
+     * outside any trace.
+     *
+     * @param reporter receives spans as they end
+     */
+    public TracingInstrumentation(SpanReporter reporter) {
+        this(reporter, true);
+    }
+
+    /**
+     * Construct a TracingInstrumentation.
+     *
+     * @param reporter receives spans as they end
+     * @param startTraces whether events outside any trace start a new one, rather
+     *        than being ignored
+     */
+    public TracingInstrumentation(SpanReporter reporter, boolean startTraces) {
+        this.reporter = reporter;
+        this.startTraces = startTraces;
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public Event begin(String type) {
+        TraceContext parent = TraceContext.current();
+        if (parent == null && !this.startTraces) {
+            return Event.NOOP;
+        }
+        TraceContext context = parent == null ? TraceContext.newRoot() : parent.newChild();
+        TraceContext.attach(context);
+        return new SpanEvent(type, context, parent);
+    }
+
+    private class SpanEvent implements Event {
+
+        private final String name;
+        private final TraceContext context;
+        private final TraceContext parent;
+        private final long startTimeMillis = System.currentTimeMillis();
+        private final long start = System.nanoTime();
+        private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+        SpanEvent(String name, TraceContext context, TraceContext parent) {
+            this.name = name;
+            this.context = context;
+            this.parent = parent;
+        }
+
+        public Event set(String name, Object value) {
+            this.attributes.put(name, value);
+            return this;
+        }
+
+        public void end() {
+            long durationNanos = System.nanoTime() - this.start;
+            TraceContext.attach(this.parent);
+            if (this.context.isSampled()) {
+                reporter.report(new Span(this.name, this.context,
+                        this.parent == null ? null : this.parent.getSpanId(),
+                        this.startTimeMillis, durationNanos, this.attributes));
+            }
+        }
+    }
+}
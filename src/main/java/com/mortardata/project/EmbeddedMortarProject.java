@@ -18,6 +18,7 @@ package com.mortardata.project;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -35,6 +36,7 @@ import org.slf4j.LoggerFactory;
 
 import com.mortardata.git.GitUtil;
 import com.mortardata.util.Files;
+import com.mortardata.util.Instrumentation;
 
 /**
  * Tools for deploying Embedded Mortar Projects to the
@@ -61,11 +63,22 @@ public class EmbeddedMortarProject {
      * Filename in Embedded Mortar Project that contains git remote for Mortar git mirror. 
      */
     public static final String MORTAR_PROJECT_REMOTE_FILENAME = ".mortar-project-remote";
+
+    /**
+     * Directory in a Mortar Project that contains pigscripts.
+     */
+    public static final String PIGSCRIPTS_DIRECTORY = "pigscripts";
+
+    /**
+     * File extension of pigscripts.
+     */
+    public static final String PIGSCRIPT_EXTENSION = ".pig";
     
     private File rootPath;
     private GitUtil gitUtil;
 
     private String gitMirrorURL;
+    private Instrumentation instrumentation = Instrumentation.NOOP;
     
     /**
      * Construct a representation of an Embedded Mortar Project.
@@ -89,6 +102,16 @@ public class EmbeddedMortarProject {
         this.gitMirrorURL = gitMirrorURL;
     }
 
+    /**
+     * Emit an {@link Instrumentation#DEPLOY_PHASE} event for each phase of a deploy:
+     * clone, setup, sync and push.
+     *
+     * @param instrumentation instrumentation, or Instrumentation.NOOP for none
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
     /**
      * Deploy the code in this EmbeddedMortarProject to Mortar onto 
      * the master branch.
@@ -145,6 +168,44 @@ public class EmbeddedMortarProject {
         return new File(this.rootPath, MORTAR_PROJECT_MANIFEST_FILENAME);
     }
     
+    /**
+     * Get the names of the pigscripts synced by the project manifest, in the form
+     * expected by the API (without path or extension).
+     *
+     * @return sorted list of pigscript names
+     * @throws IOException if unable to read the project manifest
+     */
+    public List<String> getPigscriptNames() throws IOException {
+        File pigscriptsDir = new File(this.rootPath, PIGSCRIPTS_DIRECTORY);
+        List<String> pigscriptNames = new ArrayList<String>();
+        for (File f : getFilesAndDirsInManifest()) {
+            if (f.isDirectory() && f.getCanonicalFile().equals(pigscriptsDir.getCanonicalFile())) {
+                File[] children = f.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        addPigscriptName(child, pigscriptNames);
+                    }
+                }
+            } else if (f.isFile() && f.getParentFile() != null
+                    && f.getParentFile().getCanonicalFile().equals(
+                            pigscriptsDir.getCanonicalFile())) {
+                addPigscriptName(f, pigscriptNames);
+            }
+        }
+        Collections.sort(pigscriptNames);
+        return pigscriptNames;
+    }
+
+    private void addPigscriptName(File f, List<String> pigscriptNames) {
+        String name = f.getName();
+        if (f.isFile() && name.endsWith(PIGSCRIPT_EXTENSION)) {
+            String pigscriptName = name.substring(0, name.length() - PIGSCRIPT_EXTENSION.length());
+            if (!pigscriptNames.contains(pigscriptName)) {
+                pigscriptNames.add(pigscriptName);
+            }
+        }
+    }
+
     String deployToMortar(String githubUsername, String githubPassword,
             String targetBranch, File mirrorPath) throws IOException {
         // validate mirrorPath
@@ -171,10 +232,32 @@ public class EmbeddedMortarProject {
         CredentialsProvider cp = new UsernamePasswordCredentialsProvider(
                 githubUsername, githubPassword);
         try {
-            Git git = cloneGitMirror(mirrorPath, cp);
-            setupGitMirror(git, cp, githubUsername);
-            String hash = syncEmbeddedProjectWithMirror(git, cp, targetBranch, githubUsername);
-            syncProjectMirrorWithMortarGit(git, cp, targetBranch);
+            Git git;
+            Instrumentation.Event phase = beginPhase("clone", targetBranch);
+            try {
+                git = cloneGitMirror(mirrorPath, cp);
+            } finally {
+                phase.end();
+            }
+            phase = beginPhase("setup", targetBranch);
+            try {
+                setupGitMirror(git, cp, githubUsername);
+            } finally {
+                phase.end();
+            }
+            String hash;
+            phase = beginPhase("sync", targetBranch);
+            try {
+                hash = syncEmbeddedProjectWithMirror(git, cp, targetBranch, githubUsername);
+            } finally {
+                phase.end();
+            }
+            phase = beginPhase("push", targetBranch);
+            try {
+                syncProjectMirrorWithMortarGit(git, cp, targetBranch);
+            } finally {
+                phase.end();
+            }
             return hash;
         } catch (GitAPIException e) {
             throw new IOException("Error processing git command", e);
@@ -182,6 +265,15 @@ public class EmbeddedMortarProject {
     }
     
     
+    private Instrumentation.Event beginPhase(String phase, String targetBranch) {
+        if (!this.instrumentation.isEnabled()) {
+            return Instrumentation.Event.NOOP;
+        }
+        return this.instrumentation.begin(Instrumentation.DEPLOY_PHASE)
+                .set("phase", phase)
+                .set("branch", targetBranch);
+    }
+
     Git cloneGitMirror(File mirrorPath, CredentialsProvider cp) 
             throws GitAPIException, IOException {
         logger.debug("git clone " + getGitMirrorURL());
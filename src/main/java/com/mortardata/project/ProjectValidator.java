@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mortardata.api.v2.ResultFuture;
+import com.mortardata.api.v2.TaskRunner;
+import com.mortardata.api.v2.TaskStatus;
+import com.mortardata.api.v2.Validates.ValidateResult;
+
+/**
+ * Validates every pigscript in a Mortar project concurrently.
+ *
+ * Validates are submitted through a {@link TaskRunner}, so all of them are tracked
+ * by its shared poller, with at most a configurable number in flight at once.
+ */
+public class ProjectValidator {
+
+    final Logger logger = LoggerFactory.getLogger(ProjectValidator.class);
+
+    /**
+     * Default maximum number of validates in flight at once.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_VALIDATIONS = 8;
+
+    private TaskRunner taskRunner;
+    private int maxConcurrentValidations = DEFAULT_MAX_CONCURRENT_VALIDATIONS;
+    private boolean stopOnFirstFailure = false;
+
+    /**
+     * Construct a ProjectValidator.
+     *
+     * @param taskRunner TaskRunner used to run and poll validates
+     */
+    public ProjectValidator(TaskRunner taskRunner) {
+        this.taskRunner = taskRunner;
+    }
+
+    /**
+     * Set the maximum number of validates in flight at once.
+     */
+    public void setMaxConcurrentValidations(int maxConcurrentValidations) {
+        if (maxConcurrentValidations < 1) {
+            throw new IllegalArgumentException("maxConcurrentValidations must be at least 1");
+        }
+        this.maxConcurrentValidations = maxConcurrentValidations;
+    }
+
+    /**
+     * Maximum number of validates in flight at once.
+     */
+    public int getMaxConcurrentValidations() {
+        return maxConcurrentValidations;
+    }
+
+    /**
+     * Set whether to stop submitting validates, and cancel those in flight, as soon
+     * as one pigscript fails validation.  Default is false.
+     */
+    public void setStopOnFirstFailure(boolean stopOnFirstFailure) {
+        this.stopOnFirstFailure = stopOnFirstFailure;
+    }
+
+    /**
+     * Whether validation stops at the first failure.
+     */
+    public boolean isStopOnFirstFailure() {
+        return stopOnFirstFailure;
+    }
+
+    /**
+     * Validate every pigscript in an Embedded Mortar Project's manifest.
+     *
+     * @param project Embedded Mortar Project whose pigscripts should be validated
+     * @param projectName Mortar project name
+     * @param gitRef version of code (git hash) to validate, as returned by
+     * {@link EmbeddedMortarProject#deployToMortar(String, String)}
+     * @return report with the result of each validate
+     * @throws IOException if unable to read the project manifest
+     * @throws InterruptedException if interrupted waiting for validates
+     */
+    public ValidationReport validate(EmbeddedMortarProject project, String projectName,
+                                     String gitRef) throws IOException, InterruptedException {
+        return validate(project.getPigscriptNames(), projectName, gitRef);
+    }
+
+    /**
+     * Validate a list of pigscripts.
+     *
+     * @param pigscriptNames pigscripts to validate (without path or extension)
+     * @param projectName Mortar project name
+     * @param gitRef version of code (git hash) to validate
+     * @return report with the result of each validate
+     * @throws InterruptedException if interrupted waiting for validates
+     */
+    public ValidationReport validate(List<String> pigscriptNames, String projectName,
+                                     String gitRef) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        final Semaphore permits = new Semaphore(this.maxConcurrentValidations);
+        final List<ResultFuture<ValidateResult>> futures =
+                new ArrayList<ResultFuture<ValidateResult>>();
+        final long[] latencies = new long[pigscriptNames.size()];
+        final boolean[] failed = new boolean[1];
+        ValidationReport report = new ValidationReport();
+
+        try {
+            for (int i = 0; i < pigscriptNames.size(); i++) {
+                permits.acquire();
+                synchronized (failed) {
+                    if (failed[0] && this.stopOnFirstFailure) {
+                        permits.release();
+                        for (String skipped : pigscriptNames.subList(i, pigscriptNames.size())) {
+                            report.addSkippedScript(skipped);
+                        }
+                        break;
+                    }
+                }
+                logger.debug("Validating " + pigscriptNames.get(i));
+                final int index = i;
+                final long submitTime = System.currentTimeMillis();
+                ResultFuture<ValidateResult> future =
+                        this.taskRunner.validate(gitRef, projectName, pigscriptNames.get(i));
+                synchronized (futures) {
+                    futures.add(future);
+                }
+                future.addCallback(new ResultFuture.Callback<ValidateResult>() {
+                    public void onSuccess(ValidateResult result) {
+                        done(result.getStatusCode() != TaskStatus.SUCCESS);
+                    }
+
+                    public void onFailure(Throwable error) {
+                        done(!(error instanceof CancellationException));
+                    }
+
+                    private void done(boolean failure) {
+                        latencies[index] = System.currentTimeMillis() - submitTime;
+                        if (failure) {
+                            synchronized (failed) {
+                                failed[0] = true;
+                            }
+                            if (stopOnFirstFailure) {
+                                cancelAll(futures);
+                            }
+                        }
+                        permits.release();
+                    }
+                });
+            }
+            // every callback releases its permit, so this waits for all of them to finish
+            permits.acquire(this.maxConcurrentValidations);
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            throw e;
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            ResultFuture<ValidateResult> future = futures.get(i);
+            ValidateResult result = null;
+            Throwable error = null;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (CancellationException e) {
+                error = e;
+            }
+            report.addValidation(new ValidationReport.ScriptValidation(
+                    pigscriptNames.get(i), result, error, latencies[i]));
+        }
+        report.setElapsedMillis(System.currentTimeMillis() - startTime);
+        return report;
+    }
+
+    private static void cancelAll(List<ResultFuture<ValidateResult>> futures) {
+        synchronized (futures) {
+            for (ResultFuture<ValidateResult> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectValidator [maxConcurrentValidations=" + maxConcurrentValidations
+                + ", stopOnFirstFailure=" + stopOnFirstFailure + "]";
+    }
+}
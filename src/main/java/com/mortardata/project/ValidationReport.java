@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.mortardata.api.v2.TaskStatus;
+import com.mortardata.api.v2.Validates.ValidateResult;
+
+/**
+ * Aggregate result of validating many pigscripts in a project.
+ */
+public class ValidationReport {
+
+    private List<ScriptValidation> validations = new ArrayList<ScriptValidation>();
+    private List<String> skippedScripts = new ArrayList<String>();
+    private long elapsedMillis;
+
+    void addValidation(ScriptValidation validation) {
+        this.validations.add(validation);
+    }
+
+    void addSkippedScript(String pigscriptName) {
+        this.skippedScripts.add(pigscriptName);
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Whether every pigscript was validated successfully.
+     */
+    public boolean isSuccess() {
+        if (!this.skippedScripts.isEmpty()) {
+            return false;
+        }
+        for (ScriptValidation validation : this.validations) {
+            if (!validation.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validations of each pigscript that was submitted, in submission order.
+     */
+    public List<ScriptValidation> getValidations() {
+        return Collections.unmodifiableList(this.validations);
+    }
+
+    /**
+     * Validations that did not succeed.
+     */
+    public List<ScriptValidation> getFailures() {
+        List<ScriptValidation> failures = new ArrayList<ScriptValidation>();
+        for (ScriptValidation validation : this.validations) {
+            if (!validation.isSuccess()) {
+                failures.add(validation);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Pigscripts that were never submitted because validation stopped early.
+     */
+    public List<String> getSkippedScripts() {
+        return Collections.unmodifiableList(this.skippedScripts);
+    }
+
+    /**
+     * Wall-clock time taken to validate all pigscripts, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationReport [success=" + isSuccess() + ", validations=" + validations
+                + ", skippedScripts=" + skippedScripts + ", elapsedMillis=" + elapsedMillis
+                + "]";
+    }
+
+    /**
+     * Validation of a single pigscript.
+     */
+    public static class ScriptValidation {
+
+        private String pigscriptName;
+        private ValidateResult result;
+        private Throwable error;
+        private long latencyMillis;
+
+        ScriptValidation(String pigscriptName, ValidateResult result, Throwable error,
+                         long latencyMillis) {
+            this.pigscriptName = pigscriptName;
+            this.result = result;
+            this.error = error;
+            this.latencyMillis = latencyMillis;
+        }
+
+        /**
+         * Name of the pigscript validated.
+         */
+        public String getPigscriptName() {
+            return pigscriptName;
+        }
+
+        /**
+         * Result of the validate, or null if it could not be run.
+         */
+        public ValidateResult getResult() {
+            return result;
+        }
+
+        /**
+         * Error that prevented the validate from completing, or null.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Time from submission to completion of the validate, in milliseconds.
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * Whether the pigscript validated successfully.
+         */
+        public boolean isSuccess() {
+            return result != null && result.getStatusCode() == TaskStatus.SUCCESS;
+        }
+
+        @Override
+        public String toString() {
+            return "ScriptValidation [pigscriptName=" + pigscriptName + ", result=" + result
+                    + ", error=" + error + ", latencyMillis=" + latencyMillis + "]";
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.util;
+
+/**
+ * Receives timed events from the client's hot paths, for profilers such as Java
+ * Flight Recorder.
+ *
+ * An event is begun when the work starts, given attributes as they become known and
+ * ended when the work finishes, matching the begin() and commit() of a
+ * jdk.jfr.Event, so a bridge can map each event type to a JFR event class.  Events
+ * are only built while {@link #isEnabled()} is true, so the default {@link #NOOP}
+ * costs a field read and a branch.
+ */
+public interface Instrumentation {
+
+    /**
+     * A call to the API.  Attributes: resource, method, status, bytes, retries and
+     * parseNanos.
+     */
+    String API_REQUEST = "mortar.ApiRequest";
+
+    /**
+     * One iteration of a loop polling for a job or task.  Attributes: poller, id and
+     * status, or poller and count for watchers polling many jobs or clusters at once.
+     */
+    String POLL = "mortar.Poll";
+
+    /**
+     * One phase of deploying an embedded project.  Attributes: phase and branch.
+     */
+    String DEPLOY_PHASE = "mortar.DeployPhase";
+
+    /**
+     * Instrumentation that records nothing, the default.
+     */
+    Instrumentation NOOP = new Instrumentation() {
+        public boolean isEnabled() {
+            return false;
+        }
+
+        public Event begin(String type) {
+            return Event.NOOP;
+        }
+    };
+
+    /**
+     * Whether events are recorded.  Checked before each event is begun.
+     */
+    boolean isEnabled();
+
+    /**
+     * Begin an event.
+     *
+     * @param type event type, such as API_REQUEST
+     * @return event to give attributes and end
+     */
+    Event begin(String type);
+
+    /**
+     * An event in progress.  Used by a single thread.
+     */
+    interface Event {
+
+        /**
+         * Event that records nothing.
+         */
+        Event NOOP = new Event() {
+            public Event set(String name, Object value) {
+                return this;
+            }
+
+            public void end() {
+            }
+        };
+
+        /**
+         * Set an attribute.
+         *
+         * @param name attribute name
+         * @param value attribute value
+         * @return this event
+         */
+        Event set(String name, Object value);
+
+        /**
+         * End the event, recording its duration and attributes.
+         */
+        void end();
+    }
+}
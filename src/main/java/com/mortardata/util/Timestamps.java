@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.util;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conversion between Mortar API timestamps and milliseconds since the epoch.
+ *
+ * The API returns ISO 8601 timestamps such as {@code 2013-05-14T19:26:28.123456+00:00}.
+ * Fractional seconds beyond milliseconds are truncated, and timestamps without an
+ * offset are taken to be UTC.
+ */
+public class Timestamps {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final Pattern ISO_8601 = Pattern.compile(
+            "(\\d{4})-(\\d{2})-(\\d{2})[T ](\\d{2}):(\\d{2}):(\\d{2})(?:\\.(\\d+))?"
+            + "(Z|([+-])(\\d{2}):?(\\d{2}))?");
+
+    /**
+     * Parse an API timestamp.
+     *
+     * @param timestamp ISO 8601 timestamp
+     * @return milliseconds since the epoch
+     * @throws IllegalArgumentException if timestamp is null or not ISO 8601
+     */
+    public static long parse(String timestamp) {
+        Matcher m = timestamp == null ? null : ISO_8601.matcher(timestamp.trim());
+        if (m == null || !m.matches()) {
+            throw new IllegalArgumentException("Not an ISO 8601 timestamp: " + timestamp);
+        }
+        Calendar calendar = new GregorianCalendar(UTC);
+        calendar.clear();
+        calendar.set(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) - 1,
+                Integer.parseInt(m.group(3)), Integer.parseInt(m.group(4)),
+                Integer.parseInt(m.group(5)), Integer.parseInt(m.group(6)));
+        long millis = calendar.getTimeInMillis();
+        if (m.group(7) != null) {
+            String fraction = (m.group(7) + "00").substring(0, 3);
+            millis += Integer.parseInt(fraction);
+        }
+        if (m.group(9) != null) {
+            long offset = (Integer.parseInt(m.group(10)) * 60L + Integer.parseInt(m.group(11)))
+                    * 60L * 1000L;
+            millis -= "+".equals(m.group(9)) ? offset : -offset;
+        }
+        return millis;
+    }
+
+    /**
+     * Format milliseconds since the epoch as a UTC ISO 8601 timestamp with
+     * millisecond precision.
+     *
+     * @param millis milliseconds since the epoch
+     * @return timestamp such as {@code 2013-05-14T19:26:28.123+00:00}
+     */
+    public static String format(long millis) {
+        Calendar calendar = new GregorianCalendar(UTC);
+        calendar.setTimeInMillis(millis);
+        return String.format("%04d-%02d-%02dT%02d:%02d:%02d.%03d+00:00",
+                calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND),
+                calendar.get(Calendar.MILLISECOND));
+    }
+}
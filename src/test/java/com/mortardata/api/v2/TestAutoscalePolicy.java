@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mortardata.util.Files;
+import com.mortardata.util.Timestamps;
+
+public class TestAutoscalePolicy {
+
+    private static final long MINUTE = 60L * 1000L;
+
+    private AutoscalePolicy policy;
+
+    @Before
+    public void setUp() {
+        this.policy = new AutoscalePolicy();
+        this.policy.setWindow(10 * MINUTE);
+        this.policy.setTargetJobDuration(30 * MINUTE);
+    }
+
+    @Test
+    public void testStopsClusterIdleForWholeWindow() throws IOException {
+        List<LoadSnapshot> history = new ArrayList<LoadSnapshot>();
+        history.add(snapshot(0, cluster("idle", "persistent", 4, 0), ""));
+        history.add(snapshot(5 * MINUTE, cluster("idle", "persistent", 4, 0), ""));
+        // not idle for long enough yet
+        Assert.assertTrue(this.policy.recommend(history).isEmpty());
+
+        history.add(snapshot(10 * MINUTE, cluster("idle", "persistent", 4, 0), ""));
+        List<ScalingDecision> decisions = this.policy.recommend(history);
+        Assert.assertEquals(1, decisions.size());
+        Assert.assertEquals(ScalingDecision.Action.STOP, decisions.get(0).getAction());
+        Assert.assertEquals("idle", decisions.get(0).getClusterId());
+
+        // permanent clusters are never stopped
+        history.clear();
+        history.add(snapshot(0, cluster("perm", "permanent", 4, 0), ""));
+        history.add(snapshot(10 * MINUTE, cluster("perm", "permanent", 4, 0), ""));
+        Assert.assertTrue(this.policy.recommend(history).isEmpty());
+    }
+
+    @Test
+    public void testResizesFromProgressRateAndTaskTrackers() throws IOException {
+        // 10% progress in 10 minutes leaves 80 minutes for the remaining 80%
+        List<LoadSnapshot> history = new ArrayList<LoadSnapshot>();
+        history.add(snapshot(0, cluster("slow", "persistent", 4, 3),
+                job("j1", "slow", "running", 10)));
+        history.add(snapshot(10 * MINUTE, cluster("slow", "persistent", 4, 3),
+                job("j1", "slow", "running", 20)));
+
+        List<ScalingDecision> decisions = this.policy.recommend(history);
+        Assert.assertEquals(1, decisions.size());
+        Assert.assertEquals(ScalingDecision.Action.RESIZE, decisions.get(0).getAction());
+        // 3 live task trackers * 80 / 30
+        Assert.assertEquals(8, decisions.get(0).getClusterSize());
+        Assert.assertEquals(Collections.singleton("proj/j1"), decisions.get(0).getWorkloads());
+    }
+
+    @Test
+    public void testRecommendedSizeAppliesOnlyToItsWorkload() throws IOException {
+        ClusterAutoscaler autoscaler = new ClusterAutoscaler(null, null, this.policy);
+        autoscaler.record(snapshot(0, cluster("slow", "persistent", 4, 3),
+                job("j1", "slow", "running", 10)));
+        autoscaler.record(snapshot(10 * MINUTE, cluster("slow", "persistent", 4, 3),
+                job("j1", "slow", "running", 20)));
+        autoscaler.apply();
+
+        Assert.assertEquals(8,
+                autoscaler.place(new JobRequest("proj", "j1", "master", 2)).getClusterSize());
+        Assert.assertEquals(2,
+                autoscaler.place(new JobRequest("proj", "other", "master", 2)).getClusterSize());
+    }
+
+    @Test
+    public void testStartsClusterWhenJobsQueueWithNoRoom() throws IOException {
+        List<LoadSnapshot> history = new ArrayList<LoadSnapshot>();
+        for (int i = 0; i <= 2; i++) {
+            history.add(snapshot(i * 5 * MINUTE, cluster("busy", "persistent", 6, 0),
+                    job("j1", "busy", "running", 50) + ", "
+                    + job("j2", null, "starting_cluster", 0)));
+        }
+        List<ScalingDecision> decisions = this.policy.recommend(history);
+        Assert.assertEquals(1, decisions.size());
+        Assert.assertEquals(ScalingDecision.Action.START, decisions.get(0).getAction());
+        Assert.assertEquals(6, decisions.get(0).getClusterSize());
+        Assert.assertEquals(Collections.singleton("proj/j2"), decisions.get(0).getWorkloads());
+
+        // room on a cluster means no start
+        this.policy.setMaxJobsPerCluster(2);
+        Assert.assertTrue(this.policy.recommend(history).isEmpty());
+    }
+
+    @Test
+    public void testReplaysRecordedHistory() throws IOException {
+        File recording = new File(Files.createTempDirectory(), "history.jsonl");
+        ClusterAutoscaler autoscaler = new ClusterAutoscaler(null, null, this.policy);
+        autoscaler.setRecording(recording);
+        for (int i = 0; i <= 4; i++) {
+            autoscaler.record(snapshot(i * 5 * MINUTE,
+                    cluster("idle", "persistent", 4, 0), ""));
+        }
+        autoscaler.apply();
+
+        List<LoadSnapshot> history = AutoscaleSimulator.readHistory(recording);
+        Assert.assertEquals(5, history.size());
+        Assert.assertEquals(4, history.get(0).getCluster("idle").getSize());
+
+        List<AutoscaleSimulator.Step> steps =
+                new AutoscaleSimulator(this.policy).replay(history);
+        Assert.assertEquals(5, steps.size());
+        Assert.assertTrue(steps.get(1).getDecisions().isEmpty());
+        Assert.assertEquals(3,
+                AutoscaleSimulator.countDecisions(steps, ScalingDecision.Action.STOP));
+        Assert.assertEquals(ScalingDecision.Action.STOP,
+                autoscaler.getLastDecisions().get(0).getAction());
+    }
+
+    @Test
+    public void testAutoscalerStopsOnlyWithFullJobHistory() throws IOException {
+        // one job listed at the limit, started after the cluster, so older jobs on the
+        // cluster may be missing from the sample
+        String jobs = "{\"job_id\": \"j1\", \"cluster_id\": \"other\", "
+                + "\"status_code\": \"success\", "
+                + "\"start_timestamp\": \"" + Timestamps.format(MINUTE) + "\"}";
+        ClusterAutoscaler autoscaler = new ClusterAutoscaler(null, null, this.policy);
+        autoscaler.setRecentJobsLimit(1);
+        for (int i = 0; i <= 2; i++) {
+            autoscaler.record(snapshot(i * 5 * MINUTE,
+                    cluster("idle", "persistent", 4, 0), jobs));
+        }
+        Assert.assertTrue(autoscaler.apply().isEmpty());
+
+        autoscaler.setRecentJobsLimit(2);
+        Assert.assertEquals(ScalingDecision.Action.STOP,
+                autoscaler.apply().get(0).getAction());
+    }
+
+    @Test
+    public void testReplayStopsOnlyWithFullJobHistory() throws IOException {
+        // as above, a truncated listing that may be missing jobs on the idle cluster
+        String jobs = "{\"job_id\": \"j1\", \"cluster_id\": \"other\", "
+                + "\"status_code\": \"success\", "
+                + "\"start_timestamp\": \"" + Timestamps.format(MINUTE) + "\"}";
+        List<LoadSnapshot> history = new ArrayList<LoadSnapshot>();
+        for (int i = 0; i <= 2; i++) {
+            history.add(snapshot(i * 5 * MINUTE, cluster("idle", "persistent", 4, 0), jobs));
+        }
+        AutoscaleSimulator simulator = new AutoscaleSimulator(this.policy);
+        simulator.setRecentJobsLimit(1);
+        Assert.assertEquals(0, AutoscaleSimulator.countDecisions(simulator.replay(history),
+                ScalingDecision.Action.STOP));
+
+        simulator.setRecentJobsLimit(2);
+        Assert.assertEquals(1, AutoscaleSimulator.countDecisions(simulator.replay(history),
+                ScalingDecision.Action.STOP));
+    }
+
+    private LoadSnapshot snapshot(long timestamp, String clusters, String jobs)
+            throws IOException {
+        return new LoadSnapshot(timestamp,
+                API.JSON_FACTORY.fromString("{\"clusters\": [" + clusters + "]}",
+                        Clusters.ClustersList.class),
+                API.JSON_FACTORY.fromString("{\"jobs\": [" + jobs + "]}",
+                        Jobs.JobsList.class));
+    }
+
+    private String cluster(String id, String type, int size, int taskTrackers) {
+        StringBuilder trackers = new StringBuilder();
+        for (int i = 0; i < taskTrackers; i++) {
+            trackers.append(i == 0 ? "" : ", ").append("{\"host\": \"tt" + i + "\"}");
+        }
+        return "{\"cluster_id\": \"" + id + "\", \"status_code\": \"running\", "
+                + "\"running_timestamp\": \"" + Timestamps.format(0) + "\", "
+                + "\"cluster_type_code\": \"" + type + "\", \"size\": " + size
+                + ", \"task_trackers\": [" + trackers + "]}";
+    }
+
+    private String job(String id, String clusterId, String status, int progress) {
+        return "{\"job_id\": \"" + id + "\", \"project_name\": \"proj\", "
+                + "\"script_name\": \"" + id + "\", "
+                + (clusterId == null ? "" : "\"cluster_id\": \"" + clusterId + "\", ")
+                + "\"status_code\": \"" + status + "\", \"progress\": " + progress + "}";
+    }
+}
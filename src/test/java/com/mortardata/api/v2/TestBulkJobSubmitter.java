@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+public class TestBulkJobSubmitter {
+
+    private Jobs jobs;
+    private BulkJobSubmitter submitter;
+
+    @Before
+    public void setUp() {
+        this.jobs = mock(Jobs.class);
+        this.submitter = new BulkJobSubmitter(this.jobs, 2);
+    }
+
+    @After
+    public void tearDown() {
+        this.submitter.shutdown();
+    }
+
+    @Test
+    public void testFuturesInOrderWithIsolatedFailures() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        when(this.jobs.postJob(any(JobRequest.class))).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) throws Exception {
+                int current = inFlight.incrementAndGet();
+                maxInFlight.set(Math.max(maxInFlight.get(), current));
+                Thread.sleep(20);
+                inFlight.decrementAndGet();
+                JobRequest request = (JobRequest) invocation.getArguments()[0];
+                if ("bad".equals(request.getScriptName())) {
+                    throw new IOException("boom");
+                }
+                return "job-" + request.getScriptName();
+            }
+        });
+
+        List<JobRequest> requests = new ArrayList<JobRequest>();
+        for (int i = 0; i < 6; i++) {
+            requests.add(new JobRequest("proj", i == 2 ? "bad" : "s" + i, "master", 2));
+        }
+        List<ResultFuture<String>> futures = this.submitter.submitAll(requests);
+
+        Assert.assertEquals(6, futures.size());
+        Assert.assertEquals("job-s0", futures.get(0).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("job-s5", futures.get(5).get(5, TimeUnit.SECONDS));
+        try {
+            futures.get(2).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("boom", e.getCause().getMessage());
+        }
+        Assert.assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testRetriesAfterTooManyRequests() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setRetryAfter("0");
+        when(this.jobs.postJob(any(JobRequest.class)))
+                .thenThrow(tooManyRequests(headers))
+                .thenReturn("job1");
+
+        List<JobRequest> requests = new ArrayList<JobRequest>();
+        requests.add(new JobRequest("proj", "script", "master", 2));
+        Assert.assertEquals("job1",
+                this.submitter.submitAll(requests).get(0).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        ExecutorService executor = mock(ExecutorService.class);
+        BulkJobSubmitter shared = new BulkJobSubmitter(this.jobs, 2, executor);
+        Assert.assertTrue(shared.submitAll(new ArrayList<JobRequest>()).isEmpty());
+        Assert.assertEquals(0, shared.getPendingBatchCount());
+        verify(executor, never()).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void testRejectedBatchFailsAndIsForgotten() throws Exception {
+        ExecutorService executor = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException("full")).when(executor)
+                .execute(any(Runnable.class));
+        BulkJobSubmitter shared = new BulkJobSubmitter(this.jobs, 2, executor);
+
+        List<JobRequest> requests = new ArrayList<JobRequest>();
+        requests.add(new JobRequest("proj", "script", "master", 2));
+        ResultFuture<String> future = shared.submitAll(requests).get(0);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(0, shared.getPendingBatchCount());
+    }
+
+    @Test
+    public void testRetryAfter() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setRetryAfter("7");
+        Assert.assertEquals(7000, BulkJobSubmitter.getRetryAfter(tooManyRequests(headers), 0));
+        headers.setRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT");
+        Assert.assertEquals(4000, BulkJobSubmitter.getRetryAfter(tooManyRequests(headers), 2));
+    }
+
+    private HttpResponseException tooManyRequests(HttpHeaders headers) {
+        return new HttpResponseException.Builder(
+                BulkJobSubmitter.STATUS_TOO_MANY_REQUESTS, "Too Many Requests", headers).build();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBulkStopper {
+
+    private Jobs jobs;
+    private Clusters clusters;
+    private ScheduledExecutorService scheduler;
+    private BulkStopper stopper;
+
+    @Before
+    public void setUp() {
+        this.jobs = mock(Jobs.class);
+        this.clusters = mock(Clusters.class);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        JobWatcher jobWatcher = new JobWatcher(this.jobs, this.scheduler);
+        jobWatcher.setPollingDelay(1);
+        ClusterWatcher clusterWatcher = new ClusterWatcher(this.clusters, this.scheduler);
+        clusterWatcher.setPollingInterval(Clusters.ClusterStatus.RUNNING, 1);
+        clusterWatcher.setPollingInterval(Clusters.ClusterStatus.STOPPING, 1);
+        this.stopper = new BulkStopper(this.jobs, this.clusters, jobWatcher, clusterWatcher, 4);
+    }
+
+    @After
+    public void tearDown() {
+        this.stopper.shutdown();
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testStopsMatchingUnfinishedJobsAndConfirms() throws Exception {
+        when(this.jobs.getJobs(0, 1000)).thenReturn(jobs(
+                job("j1", "proj", "running"), job("j2", "proj", "success"),
+                job("j3", "other", "running"), job("j4", "proj", "starting_cluster")));
+        when(this.jobs.getJobs(0, 100)).thenReturn(jobs(
+                job("j1", "proj", "stopped"), job("j4", "proj", "stopping")),
+                jobs(job("j1", "proj", "stopped"), job("j4", "proj", "stopped")));
+        doThrow(new IOException("gone")).when(this.jobs).stopJob("j4");
+
+        BulkStopper.StopSummary summary =
+                this.stopper.stopJobs(BulkStopper.jobsOfProject("proj"), 5000);
+
+        Assert.assertEquals(2, summary.getTargets().size());
+        Assert.assertEquals("j1", summary.getConfirmed().get(0));
+        Assert.assertEquals("gone", summary.getFailed().get("j4").getMessage());
+        verify(this.jobs, never()).stopJob("j2");
+        verify(this.jobs, never()).stopJob("j3");
+    }
+
+    @Test
+    public void testStopsClustersOfTypeAndReportsUnconfirmed() throws Exception {
+        when(this.clusters.getClusters()).thenReturn(clusters(
+                cluster("c1", "running", "persistent"), cluster("c2", "running", "permanent"),
+                cluster("c3", "destroyed", "persistent")),
+                clusters(cluster("c1", "stopping", "persistent")));
+
+        BulkStopper.StopSummary summary = this.stopper.stopClusters(
+                BulkStopper.clustersOfType(Clusters.ClusterType.PERSISTENT), 50);
+
+        verify(this.clusters).stopCluster("c1");
+        verify(this.clusters, never()).stopCluster("c2");
+        verify(this.clusters, never()).stopCluster("c3");
+        Assert.assertEquals(1, summary.getUnconfirmed().size());
+        Assert.assertTrue(summary.getConfirmed().isEmpty());
+    }
+
+    private Jobs.JobsList jobs(String... jobs) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"jobs\": [" + join(jobs) + "]}",
+                Jobs.JobsList.class);
+    }
+
+    private Clusters.ClustersList clusters(String... clusters) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"clusters\": [" + join(clusters) + "]}",
+                Clusters.ClustersList.class);
+    }
+
+    private String job(String id, String project, String status) {
+        return "{\"job_id\": \"" + id + "\", \"project_name\": \"" + project + "\", "
+                + "\"status_code\": \"" + status + "\"}";
+    }
+
+    private String cluster(String id, String status, String type) {
+        return "{\"cluster_id\": \"" + id + "\", \"status_code\": \"" + status + "\", "
+                + "\"cluster_type_code\": \"" + type + "\", \"size\": 2}";
+    }
+
+    private String join(String... values) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            joined.append(i == 0 ? "" : ", ").append(values[i]);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestClusterPool {
+
+    private Jobs jobs;
+    private ClusterPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        this.jobs = mock(Jobs.class);
+        this.pool = new ClusterPool(this.jobs, mock(Clusters.class));
+        this.pool.setMaxJobsPerCluster(2);
+        this.pool.update(API.JSON_FACTORY.fromString("{\"clusters\": ["
+                + cluster("small", "running", "persistent", 2) + ", "
+                + cluster("large", "running", "permanent", 10) + ", "
+                + cluster("single", "running", "single_job", 10) + ", "
+                + cluster("starting", "starting", "persistent", 10) + "]}",
+                Clusters.ClustersList.class),
+                API.JSON_FACTORY.fromString("{\"jobs\": ["
+                + "{\"cluster_id\": \"large\", \"status_code\": \"running\"}, "
+                + "{\"cluster_id\": \"small\", \"status_code\": \"success\"}]}",
+                Jobs.JobsList.class));
+    }
+
+    @Test
+    public void testPlacesOnLeastLoadedClusterThatFits() {
+        Assert.assertEquals("small",
+                this.pool.place(new JobRequest("proj", "script", "master", 2)).getClusterId());
+        Assert.assertEquals("large",
+                this.pool.place(new JobRequest("proj", "script", "master", 5)).getClusterId());
+        Assert.assertEquals(1, this.pool.getJobCount("large"));
+        Assert.assertEquals(0, this.pool.getJobCount("small"));
+    }
+
+    @Test
+    public void testFallsBackToNewCluster() {
+        JobRequest tooLarge = new JobRequest("proj", "script", "master", 20);
+        Assert.assertSame(tooLarge, this.pool.place(tooLarge));
+
+        JobRequest existing = new JobRequest("proj", "script", "master", "other");
+        Assert.assertSame(existing, this.pool.place(existing));
+    }
+
+    @Test
+    public void testPostJobCountsPlacedJobs() throws IOException {
+        this.pool.setRefreshInterval(Long.MAX_VALUE);
+        when(this.jobs.postJob(any(JobRequest.class))).thenReturn("job1", "job2", "job3");
+
+        JobRequest request = new JobRequest("proj", "script", "master", 5);
+        request.setParameters(Collections.singletonMap("date", "2013-05-01"));
+        this.pool.postJob(request);
+        Assert.assertEquals(2, this.pool.getJobCount("large"));
+
+        // large is now full
+        Assert.assertSame(request, this.pool.place(request));
+    }
+
+    @Test
+    public void testCopyForClusterKeepsSettings() {
+        JobRequest request = new JobRequest("proj", "script", "master", 5);
+        request.setParameters(Collections.singletonMap("date", "2013-05-01"));
+        request.setNotifyOnJobFinish(false);
+
+        JobRequest placed = this.pool.place(request);
+        Assert.assertEquals("large", placed.getArguments().get("cluster_id"));
+        Assert.assertEquals("script", placed.getArguments().get("pigscript_name"));
+        Assert.assertEquals(false, placed.getArguments().get("notify_on_job_finish"));
+        Assert.assertEquals(request.getParameters(), placed.getParameters());
+    }
+
+    private String cluster(String id, String status, String type, int size) {
+        return "{\"cluster_id\": \"" + id + "\", \"status_code\": \"" + status + "\", "
+                + "\"cluster_type_code\": \"" + type + "\", \"size\": " + size + "}";
+    }
+}
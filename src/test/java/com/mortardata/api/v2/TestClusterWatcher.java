@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestClusterWatcher {
+
+    private Clusters clusters;
+    private ClusterWatcher watcher;
+    private List<ClusterEvent> events;
+
+    @Before
+    public void setUp() {
+        this.clusters = mock(Clusters.class);
+        this.watcher = new ClusterWatcher(this.clusters);
+        this.events = new ArrayList<ClusterEvent>();
+        this.watcher.addListener(new ClusterListener() {
+            public void clusterChanged(ClusterEvent event) {
+                events.add(event);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.watcher.shutdown();
+    }
+
+    @Test
+    public void testSendsOnlyTransitions() throws IOException {
+        this.watcher.update(clusters(cluster("c1", "starting"), cluster("c2", "running")));
+        this.watcher.update(clusters(cluster("c1", "starting"), cluster("c2", "running")));
+        this.watcher.update(clusters(cluster("c1", "running"),
+                cluster("c2", "stopping_copying_logs")));
+
+        Assert.assertEquals(4, this.events.size());
+        Assert.assertNull(this.events.get(0).getPreviousStatus());
+        Assert.assertTrue(this.events.get(2).isTransition(
+                Clusters.ClusterStatus.STARTING, Clusters.ClusterStatus.RUNNING));
+        Assert.assertTrue(this.events.get(3).isTransition(
+                Clusters.ClusterStatus.RUNNING, Clusters.ClusterStatus.STOPPING_COPYING_LOGS));
+    }
+
+    @Test
+    public void testAdaptsPollingDelayToStatuses() throws IOException {
+        Assert.assertEquals(ClusterWatcher.DEFAULT_IDLE_INTERVAL,
+                this.watcher.getNextPollingDelay());
+        this.watcher.update(clusters(cluster("c1", "running"), cluster("c2", "destroyed")));
+        Assert.assertEquals(ClusterWatcher.DEFAULT_RUNNING_INTERVAL,
+                this.watcher.getNextPollingDelay());
+        this.watcher.update(clusters(cluster("c1", "running"), cluster("c3", "pending")));
+        Assert.assertEquals(ClusterWatcher.DEFAULT_TRANSITION_INTERVAL,
+                this.watcher.getNextPollingDelay());
+    }
+
+    @Test
+    public void testWhenStatusPollsUntilReached() throws Exception {
+        this.watcher.setPollingInterval(Clusters.ClusterStatus.STARTING, 1);
+        when(this.clusters.getClusters()).thenReturn(
+                clusters(cluster("c1", "starting")), clusters(cluster("c1", "starting")),
+                clusters(cluster("c1", "running")));
+
+        Clusters.Cluster cluster = this.watcher.whenStatus("c1",
+                Clusters.ClusterStatus.RUNNING).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Clusters.ClusterStatus.RUNNING, cluster.getStatusCode());
+        Assert.assertEquals(Clusters.ClusterStatus.RUNNING, this.watcher.getStatus("c1"));
+    }
+
+    @Test
+    public void testWhenStatusFailsOnFinalStatus() throws Exception {
+        ResultFuture<Clusters.Cluster> running =
+                this.watcher.whenStatus("c1", Clusters.ClusterStatus.RUNNING);
+        this.watcher.update(clusters(cluster("c1", "failed")));
+        try {
+            running.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWhenStatusRequiresAStatus() {
+        this.watcher.whenStatus("c1");
+    }
+
+    @Test
+    public void testWhenStatusFailsWhenClusterIsMissing() throws Exception {
+        this.watcher.update(clusters(cluster("c1", "starting")));
+        ResultFuture<Clusters.Cluster> running =
+                this.watcher.whenStatus("c1", Clusters.ClusterStatus.RUNNING);
+        this.watcher.update(clusters(cluster("c2", "running")));
+        try {
+            running.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertTrue(e.getCause().getMessage().contains("c1"));
+        }
+    }
+
+    private Clusters.ClustersList clusters(String... clusters) throws IOException {
+        StringBuilder json = new StringBuilder("{\"clusters\": [");
+        for (int i = 0; i < clusters.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(clusters[i]);
+        }
+        return API.JSON_FACTORY.fromString(json.append("]}").toString(),
+                Clusters.ClustersList.class);
+    }
+
+    private String cluster(String id, String status) {
+        return "{\"cluster_id\": \"" + id + "\", \"status_code\": \"" + status + "\", "
+                + "\"cluster_type_code\": \"persistent\", \"size\": 2}";
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestClusters {
+
+    @Test
+    public void testTaskTrackerAggregates() throws IOException {
+        Clusters.Cluster cluster = API.JSON_FACTORY.fromString("{\"cluster_id\": \"c1\", "
+                + "\"size\": 3, \"task_trackers\": ["
+                + "{\"host\": \"tt1\", \"map_slots\": \"4\", \"reduce_slots\": \"2\", "
+                + "\"running_maps\": \"3\", \"running_reduces\": \"2\"}, "
+                + "{\"hostname\": \"tt2\", \"max_map_tasks\": \"4\", \"max_reduce_tasks\": \"2\", "
+                + "\"map_tasks_running\": \"1\", \"reduce_tasks_running\": \"0\"}, "
+                + "{\"host\": \"tt3\", \"state\": \"BLACKLISTED\", \"map_slots\": \"4\"}]}",
+                Clusters.Cluster.class);
+
+        Assert.assertEquals(3, cluster.getTaskTrackerList().size());
+        Assert.assertEquals("tt2", cluster.getTaskTrackerList().get(1).getHost());
+        Assert.assertFalse(cluster.getTaskTrackerList().get(2).isLive());
+        Assert.assertEquals(2, cluster.getLiveTaskTrackerCount());
+        Assert.assertEquals(8, cluster.getTotalMapSlots());
+        Assert.assertEquals(4, cluster.getTotalReduceSlots());
+        Assert.assertEquals(4, cluster.getFreeMapSlots());
+        Assert.assertEquals(2, cluster.getFreeReduceSlots());
+        Assert.assertSame(cluster.getTaskTrackerList(), cluster.getTaskTrackerList());
+    }
+
+    @Test
+    public void testTaskTrackersWithoutSlotCounts() throws IOException {
+        Clusters.Cluster cluster = API.JSON_FACTORY.fromString("{\"cluster_id\": \"c1\", "
+                + "\"task_trackers\": [{\"private_ip\": \"10.0.0.1\", \"url\": \"http://tt\", "
+                + "\"map_slots\": \"many\"}]}", Clusters.Cluster.class);
+        Assert.assertEquals("10.0.0.1", cluster.getTaskTrackerList().get(0).getHost());
+        Assert.assertEquals(1, cluster.getLiveTaskTrackerCount());
+        Assert.assertEquals(-1, cluster.getTaskTrackerList().get(0).getMapSlots());
+        Assert.assertEquals(-1, cluster.getTotalMapSlots());
+        Assert.assertEquals(-1, cluster.getFreeReduceSlots());
+
+        Clusters.Cluster empty = API.JSON_FACTORY.fromString("{\"cluster_id\": \"c2\"}",
+                Clusters.Cluster.class);
+        Assert.assertTrue(empty.getTaskTrackerList().isEmpty());
+        Assert.assertEquals(0, empty.getFreeMapSlots());
+    }
+}
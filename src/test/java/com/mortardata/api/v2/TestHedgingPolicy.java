@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.http.HttpRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestHedgingPolicy {
+
+    private HedgingPolicy policy;
+    private HttpServer server;
+
+    @Before
+    public void setUp() {
+        this.policy = new HedgingPolicy();
+        this.policy.setInitialDelay(20);
+    }
+
+    @After
+    public void tearDown() {
+        this.policy.shutdown();
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws IOException {
+        ScriptedAttempt attempt = new ScriptedAttempt(0);
+        Assert.assertEquals("1", this.policy.execute(attempt));
+        Assert.assertEquals(1, attempt.runs.get());
+        Assert.assertEquals(0, this.policy.getHedgeCount());
+    }
+
+    @Test
+    public void testHedgeAnswersFirstAndLoserIsDiscarded() throws Exception {
+        ScriptedAttempt attempt = new ScriptedAttempt(5000, 0);
+        long start = System.currentTimeMillis();
+        Assert.assertEquals("2", this.policy.execute(attempt));
+        Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+        Assert.assertEquals(1, this.policy.getHedgeCount());
+        Assert.assertEquals(1, this.policy.getHedgeWinCount());
+
+        attempt.release.countDown();
+        Assert.assertTrue(attempt.discarded.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHedgeRecoversFromFailedFirstAttempt() throws Exception {
+        // the first attempt fails while the hedge is still running
+        ScriptedAttempt attempt = new ScriptedAttempt(-100, 300);
+        Assert.assertEquals("2", this.policy.execute(attempt));
+        Assert.assertEquals(2, attempt.runs.get());
+        Assert.assertEquals(1, this.policy.getHedgeWinCount());
+    }
+
+    @Test
+    public void testBudgetCapsHedges() throws Exception {
+        this.policy.setBudget(0);
+        // the initial token allows one hedge, and the budget adds no more
+        this.policy.execute(new ScriptedAttempt(100, 0));
+        ScriptedAttempt attempt = new ScriptedAttempt(100, 0);
+        Assert.assertEquals("1", this.policy.execute(attempt));
+        Assert.assertEquals(1, attempt.runs.get());
+        Assert.assertEquals(1, this.policy.getHedgeCount());
+        Assert.assertEquals(0.5, this.policy.getHedgeRate(), 0.001);
+    }
+
+    @Test
+    public void testHedgedAttemptRetriesWithinDeadline() throws Exception {
+        // the first request hangs, and every hedge is unavailable
+        final AtomicInteger calls = new AtomicInteger();
+        API api = startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        // server stopping
+                    }
+                }
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+        api.setHedgingPolicy(this.policy);
+
+        long start = System.currentTimeMillis();
+        try {
+            new Jobs(api.withContext(RequestContext.withTimeout(2000))).getJob("hedged");
+            Assert.fail("Expected RequestCancelledException");
+        } catch (RequestCancelledException e) {
+            Assert.assertTrue(e.isDeadlineExceeded());
+        }
+        // the hedge retried, backing off under the context's deadline rather than the
+        // default 15 minutes
+        Assert.assertTrue(System.currentTimeMillis() - start < 6000);
+        Assert.assertTrue(calls.get() > 2);
+        Assert.assertEquals(1, this.policy.getHedgeCount());
+    }
+
+    @Test
+    public void testHedgedRequestCarriesHeadersAndAuth() throws Exception {
+        final List<String> traces = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> auths = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> agents = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch answered = new CountDownLatch(1);
+        API api = startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                traces.add(exchange.getRequestHeaders().getFirst("X-Trace"));
+                auths.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                agents.add(exchange.getRequestHeaders().getFirst("User-Agent"));
+                if (traces.size() == 1) {
+                    // hold whichever request arrives first until the other has answered
+                    try {
+                        answered.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // server stopping
+                    }
+                }
+                byte[] body = "{\"job_id\": \"hedged\"}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+                answered.countDown();
+            }
+        });
+        api.setHedgingPolicy(this.policy);
+        api.addInterceptor(new RequestInterceptor() {
+            public RequestInterceptor.Completion intercept(HttpRequest request) {
+                request.getHeaders().set("X-Trace", "trace-1");
+                return null;
+            }
+        });
+
+        Assert.assertEquals("hedged", new Jobs(api).getJob("hedged").getJobId());
+        Assert.assertEquals(1, this.policy.getHedgeCount());
+        Assert.assertEquals(2, traces.size());
+        Assert.assertEquals("trace-1", traces.get(0));
+        Assert.assertEquals("trace-1", traces.get(1));
+        Assert.assertNotNull(auths.get(0));
+        Assert.assertEquals(auths.get(0), auths.get(1));
+        // each attempt sends the User-Agent suffix once, from its own headers
+        Assert.assertEquals(agents.get(0), agents.get(1));
+    }
+
+    private API startServer(HttpHandler handler) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/v2/jobs/hedged", handler);
+        this.server.start();
+        return new API("email", "key", "http",
+                "localhost:" + this.server.getAddress().getPort());
+    }
+
+    /**
+     * Attempt whose nth run waits delays[n] milliseconds, or until released, and
+     * fails if its delay is negative.
+     */
+    private static class ScriptedAttempt implements HedgingPolicy.Attempt<String> {
+
+        private long[] delays;
+        private AtomicInteger runs = new AtomicInteger();
+        private CountDownLatch release = new CountDownLatch(1);
+        private CountDownLatch discarded = new CountDownLatch(1);
+
+        ScriptedAttempt(long... delays) {
+            this.delays = delays;
+        }
+
+        public String run() throws IOException {
+            int run = this.runs.incrementAndGet();
+            long delay = this.delays[run - 1];
+            try {
+                this.release.await(Math.abs(delay), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (delay < 0) {
+                throw new IOException("attempt " + run + " failed");
+            }
+            return String.valueOf(run);
+        }
+
+        public void discard(String result) {
+            this.discarded.countDown();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.mortardata.api.v2.fake.FakeMortarServer;
+import com.mortardata.util.Files;
+import com.mortardata.util.Timestamps;
+
+public class TestIdempotentJobSubmitter {
+
+    private File journalFile;
+    private Jobs jobs;
+    private IdempotentJobSubmitter submitter;
+    private JobRequest request;
+
+    @Before
+    public void setUp() throws IOException {
+        this.journalFile = new File(Files.createTempDirectory(), "journal");
+        this.jobs = mock(Jobs.class);
+        this.submitter = new IdempotentJobSubmitter(this.jobs,
+                new SubmissionJournal(this.journalFile));
+        this.submitter.setReconcileAttempts(2, 1);
+        this.request = new JobRequest("proj", "script", "master", 2);
+        this.request.setParameters(Collections.singletonMap("date", "2013-05-01"));
+        this.request.setSubmissionKey("sweep-1");
+    }
+
+    @Test
+    public void testResubmittingKeyDoesNotPostAgain() throws Exception {
+        when(this.jobs.postJobOnce(this.request)).thenReturn("job1");
+        Assert.assertEquals("job1", this.submitter.postJob(this.request));
+
+        // a new process with the same journal sees the job
+        IdempotentJobSubmitter restarted = new IdempotentJobSubmitter(this.jobs,
+                new SubmissionJournal(this.journalFile));
+        Assert.assertEquals("job1", restarted.postJob(this.request));
+        verify(this.jobs, times(1)).postJobOnce(any(JobRequest.class));
+        Assert.assertEquals(0, this.submitter.getKeyLockCount());
+        Assert.assertEquals(0, restarted.getKeyLockCount());
+    }
+
+    @Test
+    public void testTimeoutReconcilesAgainstGetJobs() throws Exception {
+        String started = Timestamps.format(System.currentTimeMillis());
+        when(this.jobs.postJobOnce(this.request)).thenThrow(new SocketTimeoutException());
+        when(this.jobs.getJobs(0, 100)).thenReturn(jobs(
+                job("other", "{\"date\": \"2013-05-02\"}", started),
+                job("job1", "{\"date\": \"2013-05-01\"}", started)));
+
+        Assert.assertEquals("job1", this.submitter.postJob(this.request));
+        Assert.assertEquals("job1", this.submitter.postJob(this.request));
+        verify(this.jobs, times(1)).postJobOnce(any(JobRequest.class));
+    }
+
+    @Test
+    public void testUnresolvedTimeoutReconcilesBeforeRetry() throws Exception {
+        String started = Timestamps.format(System.currentTimeMillis());
+        when(this.jobs.postJobOnce(this.request)).thenThrow(new SocketTimeoutException());
+        when(this.jobs.getJobs(0, 100)).thenReturn(jobs(), jobs(),
+                jobs(job("job1", "{\"date\": \"2013-05-01\"}", started)));
+        try {
+            this.submitter.postJob(this.request);
+            Assert.fail("Expected SocketTimeoutException");
+        } catch (SocketTimeoutException e) {
+            // job not listed yet
+        }
+        // the retry finds the job instead of posting a duplicate
+        Assert.assertEquals("job1", this.submitter.postJob(this.request));
+        verify(this.jobs, times(1)).postJobOnce(any(JobRequest.class));
+    }
+
+    @Test
+    public void testDefiniteFailureIsNotReconciled() throws Exception {
+        when(this.jobs.postJobOnce(this.request)).thenThrow(new HttpResponseException.Builder(
+                400, "Bad Request", new HttpHeaders()).build()).thenReturn("job2");
+        try {
+            this.submitter.postJob(this.request);
+            Assert.fail("Expected HttpResponseException");
+        } catch (HttpResponseException e) {
+            Assert.assertEquals(400, e.getStatusCode());
+        }
+        Assert.assertEquals("job2", this.submitter.postJob(this.request));
+        verify(this.jobs, times(0)).getJobs(0, 100);
+    }
+
+    @Test
+    public void testServerErrorIsNotRetriedByClient() throws Exception {
+        FakeMortarServer server = new FakeMortarServer().start();
+        try {
+            server.failNext("jobs", 1, 503);
+            IdempotentJobSubmitter submitter = new IdempotentJobSubmitter(
+                    new Jobs(server.newApi()), new SubmissionJournal(this.journalFile));
+            submitter.setReconcileAttempts(1, 1);
+            try {
+                submitter.postJob(this.request);
+                Assert.fail("Expected HttpResponseException");
+            } catch (HttpResponseException e) {
+                Assert.assertEquals(503, e.getStatusCode());
+            }
+            // one POST, then one GET to reconcile
+            Assert.assertEquals(2, server.getRequestCount("jobs"));
+            Assert.assertEquals(0, server.getJobCount());
+
+            // the retry is journaled and posted by the submitter
+            Assert.assertNotNull(submitter.postJob(this.request));
+            Assert.assertEquals(1, server.getJobCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testTornJournalLineIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(this.journalFile);
+        out.write("1\tsweep-1\tATTEMPT\n2\tsweep-1\tSUBMITTED\tjo".getBytes("UTF-8"));
+        out.close();
+        SubmissionJournal journal = new SubmissionJournal(this.journalFile);
+        Assert.assertNull(journal.getJobId("sweep-1"));
+        Assert.assertEquals(Long.valueOf(1), journal.getPendingAttempt("sweep-1"));
+
+        // appending after the torn line neither merges with it nor is lost
+        journal.recordJobId("sweep-1", "job456");
+        journal.recordAttempt("sweep-2", 3);
+        SubmissionJournal reopened = new SubmissionJournal(this.journalFile);
+        Assert.assertEquals("job456", reopened.getJobId("sweep-1"));
+        Assert.assertTrue(reopened.isClaimed("job456"));
+        Assert.assertEquals(Long.valueOf(3), reopened.getPendingAttempt("sweep-2"));
+    }
+
+    private Jobs.JobsList jobs(String... jobs) throws IOException {
+        StringBuilder json = new StringBuilder("{\"jobs\": [");
+        for (int i = 0; i < jobs.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(jobs[i]);
+        }
+        return API.JSON_FACTORY.fromString(json.append("]}").toString(), Jobs.JobsList.class);
+    }
+
+    private String job(String jobId, String parameters, String started) {
+        return "{\"job_id\": \"" + jobId + "\", \"project_name\": \"proj\", "
+                + "\"pigscript_name\": \"script\", \"git_ref\": \"abc\", "
+                + "\"script_parameters\": " + parameters + ", "
+                + "\"start_timestamp\": \"" + started + "\"}";
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mortardata.util.Files;
+import com.mortardata.util.Timestamps;
+
+public class TestIdleClusterReaper {
+
+    private static final long NOW = Timestamps.parse("2013-05-14T12:00:00+00:00");
+
+    private Clusters clusters;
+    private IdleClusterReaper reaper;
+
+    @Before
+    public void setUp() {
+        this.clusters = mock(Clusters.class);
+        this.reaper = new IdleClusterReaper(mock(Jobs.class), this.clusters);
+        this.reaper.setIdleWindow(30L * 60L * 1000L);
+    }
+
+    @Test
+    public void testStopsOnlyIdlePersistentClusters() throws IOException {
+        this.reaper.setDryRun(false);
+        List<IdleClusterReaper.AuditEntry> entries = this.reaper.reap(clusters(
+                cluster("idle", "persistent", "09:00"),
+                cluster("recent", "persistent", "09:00"),
+                cluster("busy", "persistent", "09:00"),
+                cluster("new", "persistent", "11:45"),
+                cluster("perm", "permanent", "09:00")),
+                jobs(job("recent", "success", "10:00", "11:40"),
+                        job("busy", "running", "10:00", null),
+                        job("idle", "success", "09:30", "11:00")), NOW);
+
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals("idle", entries.get(0).getClusterId());
+        Assert.assertEquals(IdleClusterReaper.AuditEntry.Action.STOPPED,
+                entries.get(0).getAction());
+        verify(this.clusters).stopCluster("idle");
+        verify(this.clusters, never()).stopCluster("perm");
+    }
+
+    @Test
+    public void testDryRunOnlyAudits() throws IOException {
+        File auditLog = new File(Files.createTempDirectory(), "reaper.log");
+        this.reaper.setAuditLog(auditLog);
+        this.reaper.setStopPermanentClusters(true);
+
+        this.reaper.reap(clusters(cluster("perm", "permanent", "09:00")), jobs(), NOW);
+
+        verify(this.clusters, never()).stopCluster("perm");
+        Assert.assertEquals(IdleClusterReaper.AuditEntry.Action.WOULD_STOP,
+                this.reaper.getAuditTrail().get(0).getAction());
+        Assert.assertTrue(auditLog.length() > 0);
+    }
+
+    @Test
+    public void testSkipsClustersOlderThanJobHistory() throws IOException {
+        this.reaper.setDryRun(false);
+        this.reaper.setRecentJobsLimit(1);
+        // a job older than the listed one could still be running on the cluster
+        this.reaper.reap(clusters(cluster("idle", "persistent", "09:00")),
+                jobs(job("other", "success", "10:00", "10:05")), NOW);
+        verify(this.clusters, never()).stopCluster("idle");
+    }
+
+    @Test
+    public void testEmptyJobHistory() throws IOException {
+        Clusters.Cluster cluster = clusters(cluster("idle", "persistent", "09:00"))
+                .clusters.get(0);
+        List<Jobs.Job> none = jobs().jobs;
+        Assert.assertTrue(IdleClusterReaper.coversRunningTime(none, 1, cluster));
+        Assert.assertFalse(IdleClusterReaper.coversRunningTime(none, 0, cluster));
+        try {
+            this.reaper.setRecentJobsLimit(0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBackgroundReapingSurvivesRuntimeException() throws Exception {
+        final CountDownLatch secondRun = new CountDownLatch(2);
+        when(this.clusters.getClusters()).thenAnswer(new Answer<Clusters.ClustersList>() {
+            public Clusters.ClustersList answer(InvocationOnMock invocation) {
+                secondRun.countDown();
+                throw new IllegalStateException("unexpected");
+            }
+        });
+        this.reaper.start(1);
+        try {
+            Assert.assertTrue(secondRun.await(5, TimeUnit.SECONDS));
+        } finally {
+            this.reaper.shutdown();
+        }
+    }
+
+    private Clusters.ClustersList clusters(String... clusters) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"clusters\": [" + join(clusters) + "]}",
+                Clusters.ClustersList.class);
+    }
+
+    private Jobs.JobsList jobs(String... jobs) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"jobs\": [" + join(jobs) + "]}",
+                Jobs.JobsList.class);
+    }
+
+    private String cluster(String id, String type, String runningTime) {
+        return "{\"cluster_id\": \"" + id + "\", \"status_code\": \"running\", "
+                + "\"cluster_type_code\": \"" + type + "\", \"size\": 2, "
+                + "\"running_timestamp\": \"" + at(runningTime) + "\"}";
+    }
+
+    private String job(String clusterId, String status, String start, String stop) {
+        return "{\"cluster_id\": \"" + clusterId + "\", \"status_code\": \"" + status
+                + "\", \"start_timestamp\": \"" + at(start) + "\""
+                + (stop == null ? "" : ", \"stop_timestamp\": \"" + at(stop) + "\"") + "}";
+    }
+
+    private String at(String time) {
+        return "2013-05-14T" + time + ":00.000000+00:00";
+    }
+
+    private String join(String... values) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            joined.append(i == 0 ? "" : ", ").append(values[i]);
+        }
+        return joined.toString();
+    }
+}
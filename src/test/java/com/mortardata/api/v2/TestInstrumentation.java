@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mortardata.util.Instrumentation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestInstrumentation {
+
+    private HttpServer server;
+    private API api;
+    private List<Map<String, Object>> events =
+            new ArrayList<Map<String, Object>>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/v2/jobs/j1", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "{\"job_id\": \"j1\", \"status_code\": \"success\"}"
+                        .getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.server.createContext("/v2/jobs", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = ("{\"jobs\": [{\"job_id\": \"j1\", "
+                        + "\"status_code\": \"success\"}]}").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.server.createContext("/v2/clusters", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = ("{\"clusters\": [{\"cluster_id\": \"c1\", "
+                        + "\"status_code\": \"running\"}]}").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.server.start();
+        this.api = new API("email", "key", "http",
+                "localhost:" + this.server.getAddress().getPort());
+        this.api.setInstrumentation(new Instrumentation() {
+            public boolean isEnabled() {
+                return true;
+            }
+
+            public Event begin(final String type) {
+                final Map<String, Object> event = new LinkedHashMap<String, Object>();
+                event.put("type", type);
+                return new Event() {
+                    public Event set(String name, Object value) {
+                        event.put(name, value);
+                        return this;
+                    }
+
+                    public void end() {
+                        events.add(event);
+                    }
+                };
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testRequestAndPollEvents() throws Exception {
+        Assert.assertEquals(Jobs.JobStatus.SUCCESS,
+                new Jobs(this.api).blockUntilJobComplete("j1"));
+
+        Assert.assertEquals(2, this.events.size());
+        Map<String, Object> request = this.events.get(0);
+        Assert.assertEquals(Instrumentation.API_REQUEST, request.get("type"));
+        Assert.assertEquals("jobs", request.get("resource"));
+        Assert.assertEquals("GET", request.get("method"));
+        Assert.assertEquals(200, request.get("status"));
+        Assert.assertEquals(42L, request.get("bytes"));
+        Assert.assertTrue((Long) request.get("parseNanos") > 0);
+
+        Map<String, Object> poll = this.events.get(1);
+        Assert.assertEquals(Instrumentation.POLL, poll.get("type"));
+        Assert.assertEquals("job", poll.get("poller"));
+        Assert.assertEquals(Jobs.JobStatus.SUCCESS, poll.get("status"));
+    }
+
+    @Test
+    public void testWatcherPollEvents() throws Exception {
+        // a scheduler that never runs, so only the explicit polls happen
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        JobWatcher jobWatcher = new JobWatcher(new Jobs(this.api), scheduler);
+        ResultFuture<Jobs.Job> complete = jobWatcher.whenComplete("j1");
+        jobWatcher.poll();
+        new ClusterWatcher(new Clusters(this.api), scheduler).poll();
+
+        Assert.assertTrue(complete.isDone());
+        Assert.assertEquals(4, this.events.size());
+        Map<String, Object> jobPoll = this.events.get(1);
+        Assert.assertEquals(Instrumentation.POLL, jobPoll.get("type"));
+        Assert.assertEquals("job-watcher", jobPoll.get("poller"));
+        Assert.assertEquals(1, jobPoll.get("count"));
+        Map<String, Object> clusterPoll = this.events.get(3);
+        Assert.assertEquals(Instrumentation.POLL, clusterPoll.get("type"));
+        Assert.assertEquals("cluster-watcher", clusterPoll.get("poller"));
+        Assert.assertEquals(1, clusterPoll.get("count"));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestJobAnalytics {
+
+    @Test
+    public void testGroupsAndRollsUpByClusterSize() throws IOException {
+        JobAnalytics analytics = new JobAnalytics();
+        analytics.addAll(API.JSON_FACTORY.fromString("{\"jobs\": ["
+                + job("j1", "success", "small", "master", null, "00:10", "00:20") + ", "
+                + job("j2", "success", "small", "abc123", null, "00:00", "00:30") + ", "
+                + job("j3", "execution_error", "small", "master", "PigError", "00:00", "00:40")
+                + ", " + job("j4", "success", "large", "master", null, "00:00", "00:05") + ", "
+                + job("j5", "running", "large", "master", null, "00:00", null) + "]}",
+                Jobs.JobsList.class),
+                API.JSON_FACTORY.fromString("{\"clusters\": ["
+                + "{\"cluster_id\": \"small\", \"size\": 2, "
+                + "\"running_timestamp\": \"2013-05-01T00:05:00+00:00\"}, "
+                + "{\"cluster_id\": \"large\", \"size\": 10}]}", Clusters.ClustersList.class));
+
+        Assert.assertEquals(3, analytics.getGroups().size());
+        JobAnalytics.JobStats master = analytics.getStats(
+                new JobAnalytics.GroupKey("proj", "daily_rollup", "master", 2));
+        Assert.assertEquals(2, master.getJobCount());
+        Assert.assertEquals(0.5, master.getFailureRate(), 0.001);
+        Assert.assertEquals("{PigError=1}", master.getFailuresByErrorType().toString());
+
+        JobAnalytics.JobStats small = analytics.getStats(
+                JobAnalytics.scriptOnClusterSize("daily_rollup", 2));
+        Assert.assertEquals(3, small.getJobCount());
+        Assert.assertEquals(3, small.getRuntime().getCount());
+        Assert.assertEquals(40 * 60000L, small.getRuntime().getMax());
+        // j1 started after the cluster was running; j2 and j3 waited five minutes
+        Assert.assertEquals(0, small.getQueueDelay().getQuantile(0.3));
+        Assert.assertEquals(5 * 60000L, small.getQueueDelay().getMax());
+
+        JobAnalytics.JobStats all = analytics.getStats(
+                JobAnalytics.scriptOnClusterSize("daily_rollup", -1));
+        Assert.assertEquals(4, all.getJobCount());
+        Assert.assertEquals(3, all.getQueueDelay().getCount());
+    }
+
+    private static String job(String jobId, String status, String clusterId, String gitRef,
+                              String errorType, String start, String stop) {
+        return "{\"job_id\": \"" + jobId + "\", \"status_code\": \"" + status + "\", "
+                + "\"project_name\": \"proj\", \"script_name\": \"daily_rollup\", "
+                + "\"cluster_id\": \"" + clusterId + "\", \"git_ref\": \"" + gitRef + "\", "
+                + (errorType == null ? "" : "\"error\": {\"type\": \"" + errorType + "\"}, ")
+                + "\"start_timestamp\": \"2013-05-01T" + start + ":00+00:00\""
+                + (stop == null ? "" : ", \"stop_timestamp\": \"2013-05-01T" + stop
+                + ":00+00:00\"") + "}";
+    }
+}
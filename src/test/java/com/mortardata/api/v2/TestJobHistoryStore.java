@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mortardata.util.Files;
+import com.mortardata.util.Timestamps;
+
+public class TestJobHistoryStore {
+
+    private File directory;
+    private Jobs jobs;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory();
+        this.jobs = mock(Jobs.class);
+    }
+
+    @Test
+    public void testSyncSurvivesReopen() throws IOException {
+        when(this.jobs.getJobs(0, 100)).thenReturn(jobsList(
+                job("j3", "running", "c2", null, 3, -1),
+                job("j2", "execution_error", "c1", "PigError", 2, 4),
+                job("j1", "success", "c1", null, 1, 2)));
+
+        JobHistoryStore store = new JobHistoryStore(this.directory);
+        Assert.assertEquals(2, store.sync(this.jobs));
+        // j3 is still running, so the next sync must look at it again
+        Assert.assertEquals(time(3), store.getWatermark());
+        store.close();
+
+        store = new JobHistoryStore(this.directory);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(time(3), store.getWatermark());
+        final List<String> jobIds = new ArrayList<String>();
+        store.scan(time(0), time(10), new JobHistoryStore.Visitor() {
+            public void visit(JobHistoryStore.Record record) {
+                jobIds.add(record.getJobId() + ":" + record.getClusterId() + ":"
+                        + record.getStatusCode());
+            }
+        });
+        Assert.assertEquals("[j1:c1:success, j2:c1:execution_error]", jobIds.toString());
+        store.close();
+    }
+
+    @Test
+    public void testIncrementalSyncSkipsStoredJobs() throws IOException {
+        when(this.jobs.getJobs(0, 2)).thenReturn(
+                jobsList(job("j2", "success", "c1", null, 2, 3),
+                        job("j1", "success", "c1", null, 1, 2)),
+                jobsList(job("j4", "success", "c1", null, 4, 5),
+                        job("j3", "stopped", "c2", null, 3, 4)),
+                jobsList(job("j5", "success", "c1", null, 5, 6),
+                        job("j4", "success", "c1", null, 4, 5)));
+        when(this.jobs.getJobs(2, 2)).thenReturn(
+                jobsList(),
+                jobsList(job("j2", "success", "c1", null, 2, 3),
+                        job("j1", "success", "c1", null, 1, 2)),
+                jobsList(job("j3", "stopped", "c2", null, 3, 4),
+                        job("j2", "success", "c1", null, 2, 3)));
+
+        JobHistoryStore store = new JobHistoryStore(this.directory);
+        store.setPageSize(2);
+        Assert.assertEquals(2, store.sync(this.jobs));
+        Assert.assertEquals(2, store.sync(this.jobs));
+        Assert.assertEquals(1, store.sync(this.jobs));
+        Assert.assertEquals(5, store.size());
+        Assert.assertEquals(time(5), store.getWatermark());
+        store.close();
+    }
+
+    @Test
+    public void testSyncResumesHistoryLongerThanOneSync() throws IOException {
+        final List<String> history = new ArrayList<String>();
+        for (int minute = 10; minute >= 1; minute--) {
+            history.add(job("j" + minute, "success", "c1", null, minute, minute + 1));
+        }
+        when(this.jobs.getJobs(anyInt(), anyInt())).thenAnswer(new Answer<Jobs.JobsList>() {
+            public Jobs.JobsList answer(InvocationOnMock invocation) throws IOException {
+                int skip = (Integer) invocation.getArguments()[0];
+                int limit = (Integer) invocation.getArguments()[1];
+                List<String> page = history.subList(Math.min(skip, history.size()),
+                        Math.min(skip + limit, history.size()));
+                return jobsList(page.toArray(new String[page.size()]));
+            }
+        });
+
+        JobHistoryStore store = new JobHistoryStore(this.directory);
+        store.setPageSize(2);
+        store.setMaxPages(2);
+        Assert.assertEquals(4, store.sync(this.jobs));
+        Assert.assertTrue(store.isSyncIncomplete());
+        Assert.assertEquals(0, store.getWatermark());
+        store.close();
+
+        // a job started between syncs shifts the pages still to be read
+        history.add(0, job("j11", "success", "c1", null, 11, 12));
+        store = new JobHistoryStore(this.directory);
+        store.setPageSize(2);
+        store.setMaxPages(2);
+        Assert.assertEquals(3, store.sync(this.jobs));
+        Assert.assertEquals(3, store.sync(this.jobs));
+        Assert.assertFalse(store.isSyncIncomplete());
+        Assert.assertEquals(10, store.size());
+        Assert.assertEquals(time(10), store.getWatermark());
+
+        // then syncs start from the newest job again
+        Assert.assertEquals(1, store.sync(this.jobs));
+        Assert.assertEquals(11, store.size());
+        Assert.assertEquals(time(11), store.getWatermark());
+        store.close();
+    }
+
+    @Test
+    public void testAggregations() throws IOException {
+        when(this.jobs.getJobs(0, 100)).thenReturn(jobsList(
+                job("j4", "script_error", "c2", "SyntaxError", 4, 5),
+                job("j3", "execution_error", "c1", "PigError", 3, 6),
+                job("j2", "execution_error", "c1", "PigError", 2, 3),
+                job("j1", "success", "c1", null, 1, 2)));
+        JobHistoryStore store = new JobHistoryStore(this.directory);
+        store.sync(this.jobs);
+
+        Assert.assertEquals(4, store.count(time(0), time(10)));
+        Assert.assertEquals(2, store.count(time(2), time(4)));
+        Assert.assertEquals("{PigError=2, SyntaxError=1}",
+                store.countFailuresByErrorType(time(0), time(10)).toString());
+        Assert.assertEquals("{PigError=1}",
+                store.countFailuresByErrorType(time(3), time(4)).toString());
+        Assert.assertEquals("{c1=" + (5 * 60000L) + ", c2=60000}",
+                store.sumDurationByCluster(time(0), time(10)).toString());
+        store.close();
+    }
+
+    private static long time(int minute) {
+        return Timestamps.parse("2013-05-01T00:00:00.000+00:00") + minute * 60000L;
+    }
+
+    private static String job(String jobId, String status, String clusterId, String errorType,
+                              int startMinute, int stopMinute) {
+        return "{\"job_id\": \"" + jobId + "\", \"status_code\": \"" + status + "\", "
+                + "\"project_name\": \"proj\", \"script_name\": \"script\", "
+                + "\"cluster_id\": \"" + clusterId + "\", "
+                + (errorType == null ? "" : "\"error\": {\"type\": \"" + errorType + "\"}, ")
+                + "\"start_timestamp\": \"" + Timestamps.format(time(startMinute)) + "\""
+                + (stopMinute < 0 ? "" : ", \"stop_timestamp\": \""
+                + Timestamps.format(time(stopMinute)) + "\"") + "}";
+    }
+
+    private static Jobs.JobsList jobsList(String... jobs) throws IOException {
+        StringBuilder json = new StringBuilder("{\"jobs\": [");
+        for (int i = 0; i < jobs.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(jobs[i]);
+        }
+        return API.JSON_FACTORY.fromString(json.append("]}").toString(), Jobs.JobsList.class);
+    }
+}
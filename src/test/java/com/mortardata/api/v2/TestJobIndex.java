@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mortardata.util.Timestamps;
+
+public class TestJobIndex {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long T0 = Timestamps.parse("2013-05-14T00:00:00+00:00");
+
+    private JobIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        this.index = new JobIndex();
+        this.index.addAll(API.JSON_FACTORY.fromString("{\"jobs\": ["
+                + job("j1", "proj", "c1", "running", 0, -1) + ", "
+                + job("j2", "proj", "c1", "execution_error", 1, 2) + ", "
+                + job("j3", "other", "c1", "execution_error", 3, 4) + ", "
+                + job("j4", "proj", "c2", "success", 5, 6) + ", "
+                + job("j5", "proj", null, "starting", 6, -1) + "]}", Jobs.JobsList.class));
+    }
+
+    @Test
+    public void testEqualityFilters() {
+        Assert.assertEquals(5, this.index.size());
+        Assert.assertEquals(4, this.index.query().project("proj").count());
+        Assert.assertEquals(1, this.index.query().project("proj")
+                .status(Jobs.JobStatus.RUNNING).count());
+        Assert.assertEquals(2, this.index.query().cluster("c1")
+                .status(Jobs.JobStatus.EXECUTION_ERROR, Jobs.JobStatus.SCRIPT_ERROR).count());
+        Assert.assertEquals(0, this.index.query().project("missing").count());
+        Assert.assertEquals("j4", this.index.query().script("script")
+                .cluster("c2").list().get(0).getJobId());
+    }
+
+    @Test
+    public void testTimeRanges() {
+        List<Jobs.Job> started = this.index.query().startedBetween(T0 + HOUR, T0 + 5 * HOUR)
+                .list();
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals("j2", started.get(0).getJobId());
+        Assert.assertEquals("j3", started.get(1).getJobId());
+
+        // failures on c1 in the last hour before T0 + 4h
+        Assert.assertEquals("j3", this.index.query().cluster("c1")
+                .status(Jobs.JobStatus.EXECUTION_ERROR)
+                .stoppedBetween(T0 + 3 * HOUR, T0 + 4 * HOUR + 1).list().get(0).getJobId());
+        // unfinished jobs have no stop time
+        Assert.assertEquals(3, this.index.query().stoppedBetween(0, Long.MAX_VALUE).count());
+    }
+
+    @Test
+    public void testIncrementalUpdateReplacesRow() throws IOException {
+        this.index.add(API.JSON_FACTORY.fromString(
+                job("j1", "proj", "c1", "success", 0, 7), Jobs.Job.class));
+
+        Assert.assertEquals(5, this.index.size());
+        Assert.assertEquals(0, this.index.query().status(Jobs.JobStatus.RUNNING).count());
+        Assert.assertEquals(2, this.index.query().status(Jobs.JobStatus.SUCCESS).count());
+        Assert.assertEquals("j1", this.index.query().stoppedBetween(T0 + 7 * HOUR, Long.MAX_VALUE)
+                .list().get(0).getJobId());
+        Assert.assertEquals(Jobs.JobStatus.SUCCESS, this.index.getJob("j1").getStatusCode());
+    }
+
+    @Test
+    public void testNewestFirstPageMergesIntoTimeIndexes() throws IOException {
+        // a page newest first, repeating j6 and replacing j2, interleaved with setUp's times
+        this.index.addAll(API.JSON_FACTORY.fromString("{\"jobs\": ["
+                + job("j7", "proj", "c1", "success", 9, 10) + ", "
+                + job("j6", "proj", "c1", "running", 4, -1) + ", "
+                + job("j2", "proj", "c1", "success", 2, 3) + ", "
+                + job("j6", "proj", "c1", "success", 4, 8) + "]}", Jobs.JobsList.class));
+
+        Assert.assertEquals(7, this.index.size());
+        Assert.assertEquals(7, this.index.query().startedBetween(T0, Long.MAX_VALUE).count());
+        Assert.assertEquals("j6", this.index.query().startedBetween(T0 + 4 * HOUR, T0 + 5 * HOUR)
+                .list().get(0).getJobId());
+        Assert.assertEquals(1, this.index.query().startedBetween(T0 + 2 * HOUR, T0 + 3 * HOUR)
+                .count());
+        Assert.assertEquals(5, this.index.query().stoppedBetween(0, Long.MAX_VALUE).count());
+        Assert.assertEquals("j2", this.index.query()
+                .stoppedBetween(T0 + 3 * HOUR, T0 + 3 * HOUR + 1).list().get(0).getJobId());
+        Assert.assertEquals("j6", this.index.query().stoppedBetween(T0 + 8 * HOUR, T0 + 9 * HOUR)
+                .list().get(0).getJobId());
+    }
+
+    private String job(String id, String project, String clusterId, String status,
+                       int startHour, int stopHour) {
+        return "{\"job_id\": \"" + id + "\", \"project_name\": \"" + project + "\", "
+                + "\"pigscript_name\": \"script\", \"status_code\": \"" + status + "\""
+                + (clusterId == null ? "" : ", \"cluster_id\": \"" + clusterId + "\"")
+                + ", \"start_timestamp\": \"" + Timestamps.format(T0 + startHour * HOUR) + "\""
+                + (stopHour < 0 ? "" : ", \"stop_timestamp\": \""
+                        + Timestamps.format(T0 + stopHour * HOUR) + "\"") + "}";
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestJobProgressTracker {
+
+    private Jobs jobs;
+    private JobWatcher watcher;
+
+    @Before
+    public void setUp() {
+        this.jobs = mock(Jobs.class);
+        this.watcher = new JobWatcher(this.jobs);
+        this.watcher.setPollingDelay(1);
+    }
+
+    @After
+    public void tearDown() {
+        this.watcher.shutdown();
+    }
+
+    @Test
+    public void testPublishesChangesUntilComplete() throws Exception {
+        when(this.jobs.getJobs(0, 100)).thenReturn(
+                jobsList("running", 10), jobsList("running", 10), jobsList("running", 60),
+                jobsList("success", 100));
+        JobAnalytics history = new JobAnalytics();
+        history.add(API.JSON_FACTORY.fromString(job("success", 100,
+                "2013-05-01T00:05:00+00:00"), Jobs.Job.class), null);
+
+        final BlockingQueue<JobProgressEvent> events =
+                new LinkedBlockingQueue<JobProgressEvent>();
+        JobProgressTracker tracker = new JobProgressTracker(this.watcher, history);
+        tracker.track("j1", new JobProgressListener() {
+            public void progressChanged(JobProgressEvent event) {
+                events.add(event);
+            }
+        });
+
+        JobProgressEvent first = events.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(10, first.getProgress());
+        Assert.assertFalse(first.isComplete());
+        // the job started long ago, so the five minute history puts the eta at now
+        Assert.assertTrue(first.getEta() >= first.getTime());
+
+        Assert.assertEquals(60, events.poll(5, TimeUnit.SECONDS).getProgress());
+        JobProgressEvent last = events.poll(5, TimeUnit.SECONDS);
+        Assert.assertTrue(last.isComplete());
+        Assert.assertEquals(last.getTime(), last.getEta());
+        Assert.assertEquals(0, tracker.getTrackedJobCount());
+        Assert.assertEquals(ProgressEstimator.UNKNOWN, tracker.getEta("j1"));
+    }
+
+    private static String job(String status, int progress, String stop) {
+        return "{\"job_id\": \"j1\", \"status_code\": \"" + status + "\", "
+                + "\"project_name\": \"proj\", \"script_name\": \"script\", "
+                + "\"progress\": " + progress + ", "
+                + "\"start_timestamp\": \"2013-05-01T00:00:00+00:00\""
+                + (stop == null ? "" : ", \"stop_timestamp\": \"" + stop + "\"") + "}";
+    }
+
+    private static Jobs.JobsList jobsList(String status, int progress) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"jobs\": [" + job(status, progress, null) + "]}",
+                Jobs.JobsList.class);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+public class TestJobWatcher {
+
+    private Jobs jobs;
+    private JobWatcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        this.jobs = mock(Jobs.class);
+        when(this.jobs.getJobs(0, 100)).thenReturn(API.JSON_FACTORY.fromString(
+                "{\"jobs\": []}", Jobs.JobsList.class));
+        this.watcher = new JobWatcher(this.jobs);
+        this.watcher.setPollingDelay(1);
+    }
+
+    @After
+    public void tearDown() {
+        this.watcher.shutdown();
+    }
+
+    @Test
+    public void testFailingJobDoesNotStopOthers() throws Exception {
+        when(this.jobs.getJob("missing")).thenThrow(new HttpResponseException.Builder(
+                404, "Not Found", new HttpHeaders()).build());
+        when(this.jobs.getJob("flaky")).thenThrow(new IOException("reset"))
+                .thenReturn(job("flaky", "success"));
+        when(this.jobs.getJob("ok")).thenReturn(job("ok", "success"));
+        final List<String> updates = new ArrayList<String>();
+        this.watcher.addJobListener("missing", new JobListener() {
+            public void jobUpdated(Jobs.Job job) {
+                updates.add(job.getJobId());
+            }
+        });
+
+        ResultFuture<Jobs.Job> missing = this.watcher.whenComplete("missing");
+        ResultFuture<Jobs.Job> flaky = this.watcher.whenComplete("flaky");
+        ResultFuture<Jobs.Job> ok = this.watcher.whenComplete("ok");
+
+        Assert.assertEquals("ok", ok.get(5, TimeUnit.SECONDS).getJobId());
+        Assert.assertEquals("flaky", flaky.get(5, TimeUnit.SECONDS).getJobId());
+        try {
+            missing.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(404, ((HttpResponseException) e.getCause()).getStatusCode());
+        }
+        Assert.assertTrue(updates.isEmpty());
+        Assert.assertEquals(0, this.watcher.getWatchedJobCount());
+    }
+
+    private Jobs.Job job(String id, String status) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"job_id\": \"" + id + "\", "
+                + "\"status_code\": \"" + status + "\"}", Jobs.Job.class);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLatencySketch {
+
+    @Test
+    public void testQuantilesWithinRelativeAccuracy() {
+        LatencySketch sketch = new LatencySketch(0.01);
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i * 1000L);
+        }
+        Assert.assertEquals(10000, sketch.getCount());
+        assertWithin(5000000, sketch.getQuantile(0.5), 0.01);
+        assertWithin(9500000, sketch.getQuantile(0.95), 0.01);
+        assertWithin(1000, sketch.getQuantile(0), 0.01);
+        assertWithin(10000000, sketch.getQuantile(1), 0.01);
+        Assert.assertEquals(5000500, sketch.getMean(), 0.001);
+    }
+
+    @Test
+    public void testMergeMatchesSingleSketch() {
+        LatencySketch all = new LatencySketch();
+        LatencySketch even = new LatencySketch();
+        LatencySketch odd = new LatencySketch();
+        for (int i = 0; i < 1000; i++) {
+            all.add(i * 37L);
+            (i % 2 == 0 ? even : odd).add(i * 37L);
+        }
+        even.merge(odd);
+        Assert.assertEquals(all.getCount(), even.getCount());
+        Assert.assertEquals(0, even.getMin());
+        for (double q : new double[] {0.1, 0.5, 0.9, 0.99}) {
+            Assert.assertEquals(all.getQuantile(q), even.getQuantile(q));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeRejectsDifferentAccuracy() {
+        new LatencySketch(0.01).merge(new LatencySketch(0.02));
+    }
+
+    private static void assertWithin(long expected, long actual, double relativeError) {
+        Assert.assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected * relativeError);
+    }
+}
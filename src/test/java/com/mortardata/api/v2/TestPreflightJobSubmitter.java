@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPreflightJobSubmitter {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private Jobs jobs;
+    private TaskRunner taskRunner;
+    private PreflightJobSubmitter submitter;
+
+    @Before
+    public void setUp() {
+        this.jobs = mock(Jobs.class);
+        this.taskRunner = mock(TaskRunner.class);
+        this.submitter = new PreflightJobSubmitter(this.jobs, this.taskRunner);
+    }
+
+    @Test
+    public void testValidScriptIsSubmittedAndValidationReused() throws Exception {
+        JobRequest request = new JobRequest("proj", "script", HASH, 2);
+        when(this.taskRunner.validate(HASH, "proj", "script"))
+                .thenReturn(validation("SUCCESS"));
+        when(this.jobs.postJob(request)).thenReturn("job1", "job2");
+
+        Assert.assertEquals("job1", this.submitter.postJob(request));
+        Assert.assertEquals("job2", this.submitter.postJob(request));
+
+        verify(this.taskRunner, times(1)).validate(HASH, "proj", "script");
+    }
+
+    @Test
+    public void testInvalidScriptIsNotSubmitted() throws Exception {
+        JobRequest request = new JobRequest("proj", "script", HASH, 2);
+        when(this.taskRunner.validate(HASH, "proj", "script"))
+                .thenReturn(validation("FAILURE"));
+        try {
+            this.submitter.postJob(request);
+            Assert.fail("Expected ValidationException");
+        } catch (ValidationException e) {
+            Assert.assertEquals(TaskStatus.FAILURE, e.getValidateResult().getStatusCode());
+        }
+        verify(this.jobs, never()).postJob(any(JobRequest.class));
+    }
+
+    @Test
+    public void testSubmitWhileValidatingStopsInvalidJob() throws Exception {
+        this.submitter.setMode(PreflightJobSubmitter.Mode.SUBMIT_WHILE_VALIDATING);
+        JobRequest request = new JobRequest("proj", "script", "master", 2);
+        when(this.taskRunner.validate("master", "proj", "script"))
+                .thenReturn(validation("FAILURE"));
+        when(this.jobs.postJob(request)).thenReturn("job1");
+        // a failed stop doesn't hide the validation failure
+        doThrow(new IOException("stop failed")).when(this.jobs).stopJob("job1");
+        try {
+            this.submitter.postJob(request);
+            Assert.fail("Expected ValidationException");
+        } catch (ValidationException e) {
+            verify(this.jobs).stopJob("job1");
+        }
+    }
+
+    @Test
+    public void testSubmitWhileValidatingStopsJobOnInterrupt() throws Exception {
+        this.submitter.setMode(PreflightJobSubmitter.Mode.SUBMIT_WHILE_VALIDATING);
+        JobRequest request = new JobRequest("proj", "script", "master", 2);
+        ResultFuture<Validates.ValidateResult> pending =
+                new ResultFuture<Validates.ValidateResult>();
+        when(this.taskRunner.validate("master", "proj", "script")).thenReturn(pending);
+        when(this.jobs.postJob(request)).thenReturn("job1");
+        Thread.currentThread().interrupt();
+        try {
+            this.submitter.postJob(request);
+            Assert.fail("Expected InterruptedException");
+        } catch (InterruptedException e) {
+            verify(this.jobs).stopJob("job1");
+            Assert.assertTrue(pending.isCancelled());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testControlScriptSkipsValidation() throws Exception {
+        JobRequest request = new JobRequest("proj", "control", HASH, 2);
+        request.setControlScript(true);
+        when(this.jobs.postJob(request)).thenReturn("job1");
+
+        Assert.assertEquals("job1", this.submitter.postJob(request));
+        verify(this.taskRunner, never()).validate(anyString(), anyString(), anyString());
+    }
+
+    private ResultFuture<Validates.ValidateResult> validation(String status)
+            throws IOException {
+        ResultFuture<Validates.ValidateResult> future =
+                new ResultFuture<Validates.ValidateResult>();
+        future.complete(API.JSON_FACTORY.fromString("{\"validate_id\": \"v1\", "
+                + "\"script_name\": \"script\", \"status_code\": \"" + status + "\"}",
+                Validates.ValidateResult.class));
+        return future;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestProgressEstimator {
+
+    @Test
+    public void testSteadyProgress() {
+        ProgressEstimator estimator = new ProgressEstimator(0, ProgressEstimator.UNKNOWN);
+        Assert.assertEquals(ProgressEstimator.UNKNOWN, estimator.getEta(0));
+        estimator.addSample(1000, 10);
+        estimator.addSample(2000, 20);
+        estimator.addSample(3000, 30);
+        Assert.assertEquals(10000, estimator.getEta(3000));
+        // a stall never moves the estimate before now
+        Assert.assertEquals(20000, estimator.getEta(20000));
+    }
+
+    @Test
+    public void testSmoothsBurstsOfProgress() {
+        ProgressEstimator estimator = new ProgressEstimator(0, ProgressEstimator.UNKNOWN);
+        estimator.addSample(10000, 10);
+        // a burst of progress is damped: 50% in 1s alone would imply done at 12.25s
+        estimator.addSample(11000, 50);
+        long eta = estimator.getEta(11000);
+        Assert.assertTrue("eta " + eta, eta > 12250);
+        Assert.assertTrue("eta " + eta, eta < 100000);
+    }
+
+    @Test
+    public void testExpectedRuntimeWeightsEarlyEstimates() {
+        ProgressEstimator estimator = new ProgressEstimator(0, 100000);
+        Assert.assertEquals(100000, estimator.getEta(0));
+        // 10% done in 1s alone suggests 10s, but history says 100s
+        estimator.addSample(1000, 10);
+        Assert.assertEquals(91000, estimator.getEta(1000));
+        estimator.addSample(2000, 100);
+        Assert.assertEquals(2000, estimator.getEta(2000));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestRequestContext {
+
+    private HttpServer server;
+    private API api;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/v2/jobs/slow", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    // server stopping
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.server.createContext("/v2/jobs/unavailable", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+        this.server.start();
+        this.api = new API("email", "key", "http",
+                "localhost:" + this.server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testDeadlineCutsReadTimeout() throws IOException {
+        Jobs jobs = new Jobs(this.api.withContext(RequestContext.withTimeout(200)));
+        long start = System.currentTimeMillis();
+        try {
+            jobs.getJob("slow");
+            Assert.fail("Expected RequestCancelledException");
+        } catch (RequestCancelledException e) {
+            Assert.assertTrue(e.isDeadlineExceeded());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void testCancelledContextFailsWithoutCalling() throws IOException {
+        RequestContext context = new RequestContext();
+        context.cancel();
+        try {
+            new Jobs(this.api.withContext(context)).getJob("slow");
+            Assert.fail("Expected RequestCancelledException");
+        } catch (RequestCancelledException e) {
+            Assert.assertFalse(e.isDeadlineExceeded());
+        }
+    }
+
+    @Test
+    public void testCancelDuringRetryBackoff() throws IOException {
+        RequestContext context = new RequestContext();
+        cancelLater(context, 100);
+        long start = System.currentTimeMillis();
+        try {
+            new Jobs(this.api.withContext(context)).getJob("unavailable");
+            Assert.fail("Expected RequestCancelledException");
+        } catch (RequestCancelledException e) {
+            Assert.assertFalse(e.isDeadlineExceeded());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testCancelWakesSleep() throws Exception {
+        RequestContext context = new RequestContext();
+        cancelLater(context, 50);
+        long start = System.currentTimeMillis();
+        try {
+            context.sleep(10000);
+            Assert.fail("Expected RequestCancelledException");
+        } catch (RequestCancelledException e) {
+            Assert.assertFalse(e.isDeadlineExceeded());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testSleepPastDeadlineFails() throws Exception {
+        RequestContext context = RequestContext.withTimeout(50);
+        context.sleep(10);
+        try {
+            context.sleep(10000);
+            Assert.fail("Expected RequestCancelledException");
+        } catch (RequestCancelledException e) {
+            Assert.assertTrue(e.isDeadlineExceeded());
+        }
+    }
+
+    private static void cancelLater(final RequestContext context, final long millis) {
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                context.cancel();
+            }
+        }.start();
+    }
+}
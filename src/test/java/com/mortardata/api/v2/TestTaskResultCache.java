@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mortardata.util.Files;
+
+public class TestTaskResultCache {
+
+    private static final String HASH_A = "0123456789abcdef0123456789abcdef01234567";
+    private static final String HASH_B = "89abcdef0123456789abcdef0123456789abcdef";
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.cacheDir = Files.createTempDirectory();
+    }
+
+    @Test
+    public void testIsCommitHash() {
+        Assert.assertTrue(TaskResultCache.isCommitHash(HASH_A));
+        Assert.assertTrue(TaskResultCache.isCommitHash(HASH_A.toUpperCase()));
+        Assert.assertFalse(TaskResultCache.isCommitHash("master"));
+        Assert.assertFalse(TaskResultCache.isCommitHash(HASH_A.substring(0, 7)));
+        Assert.assertFalse(TaskResultCache.isCommitHash(null));
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        TaskResultCache cache = new TaskResultCache(this.cacheDir);
+        TaskResultCache.TaskKey key = describeKey("my_alias", HASH_A);
+        Assert.assertNull(cache.get(key, Describes.DescribeResult.class));
+
+        cache.put(key, describeResult("d1", "my_alias", HASH_A));
+
+        Describes.DescribeResult cached = cache.get(key, Describes.DescribeResult.class);
+        Assert.assertEquals("d1", cached.getDescribeId());
+        Assert.assertEquals(TaskStatus.SUCCESS, cached.getStatusCode());
+        Assert.assertEquals("chararray", cached.getResult().get("field_type"));
+
+        // a different alias or hash is a different entry
+        Assert.assertNull(cache.get(describeKey("other_alias", HASH_A),
+                Describes.DescribeResult.class));
+        Assert.assertNull(cache.get(describeKey("my_alias", HASH_B),
+                Describes.DescribeResult.class));
+
+        // a second cache over the same directory sees the entry
+        TaskResultCache other = new TaskResultCache(this.cacheDir);
+        Assert.assertEquals("d1", other.get(key, Describes.DescribeResult.class).getDescribeId());
+    }
+
+    @Test
+    public void testBranchNotCached() throws IOException {
+        TaskResultCache cache = new TaskResultCache(this.cacheDir);
+        TaskResultCache.TaskKey key = describeKey("my_alias", "master");
+        cache.put(key, describeResult("d1", "my_alias", "master"));
+        Assert.assertNull(cache.get(key, Describes.DescribeResult.class));
+        Assert.assertTrue(Files.isEmpty(this.cacheDir));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        TaskResultCache sizing = new TaskResultCache(Files.createTempDirectory());
+        TaskResultCache.TaskKey first = describeKey("first", HASH_A);
+        sizing.put(first, describeResult("d1", "first", HASH_A));
+        long entrySize = sizing.getEntryFile(first).length();
+
+        // room for two entries, but not three
+        TaskResultCache cache = new TaskResultCache(this.cacheDir, entrySize * 2 + entrySize / 2);
+        TaskResultCache.TaskKey second = describeKey("second", HASH_A);
+        TaskResultCache.TaskKey third = describeKey("third", HASH_A);
+        cache.put(first, describeResult("d1", "first", HASH_A));
+        cache.put(second, describeResult("d2", "second", HASH_A));
+        cache.getEntryFile(first).setLastModified(System.currentTimeMillis() - 20000);
+        cache.getEntryFile(second).setLastModified(System.currentTimeMillis() - 10000);
+
+        // reading first makes second the least recently used
+        Assert.assertNotNull(cache.get(first, Describes.DescribeResult.class));
+        cache.put(third, describeResult("d3", "third", HASH_A));
+
+        Assert.assertNotNull(cache.get(first, Describes.DescribeResult.class));
+        Assert.assertNull(cache.get(second, Describes.DescribeResult.class));
+        Assert.assertNotNull(cache.get(third, Describes.DescribeResult.class));
+    }
+
+    @Test
+    public void testPendingKeysOnlyCacheSuccess() {
+        TaskResultCache.PendingKeys pending = new TaskResultCache.PendingKeys();
+        TaskResultCache.TaskKey key = describeKey("my_alias", HASH_A);
+        pending.put("d1", key);
+        pending.put("d2", key);
+        pending.put("d3", key);
+
+        Assert.assertNull(pending.complete("d1", TaskStatus.PROGRESS, true));
+        Assert.assertNull(pending.complete("d1", TaskStatus.FAILURE, true));
+        Assert.assertNull(pending.complete("d1", TaskStatus.SUCCESS, true));
+        Assert.assertNull(pending.complete("d2", TaskStatus.KILLED, false));
+
+        // a success polled without its result waits for the result to be fetched
+        Assert.assertNull(pending.complete("d3", TaskStatus.SUCCESS, false));
+        Assert.assertEquals(1, pending.size());
+        Assert.assertSame(key, pending.complete("d3", TaskStatus.SUCCESS, true));
+        Assert.assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void testPendingKeysBoundUnfetchedSuccesses() {
+        TaskResultCache.PendingKeys pending = new TaskResultCache.PendingKeys();
+        TaskResultCache.TaskKey key = describeKey("my_alias", HASH_A);
+        for (int i = 0; i <= TaskResultCache.PendingKeys.MAX_UNFETCHED; i++) {
+            pending.put("d" + i, key);
+            pending.complete("d" + i, TaskStatus.SUCCESS, false);
+        }
+        Assert.assertEquals(TaskResultCache.PendingKeys.MAX_UNFETCHED, pending.size());
+        Assert.assertNull(pending.complete("d0", TaskStatus.SUCCESS, true));
+        Assert.assertSame(key, pending.complete("d1", TaskStatus.SUCCESS, true));
+    }
+
+    private TaskResultCache.TaskKey describeKey(String alias, String gitRef) {
+        return new TaskResultCache.TaskKey(
+                Describes.TASK_TYPE, "my_project", "my_script", alias, gitRef);
+    }
+
+    private Describes.DescribeResult describeResult(String describeId, String alias,
+                                                    String gitRef) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"describe_id\": \"" + describeId + "\", "
+                + "\"project_name\": \"my_project\", \"script_name\": \"my_script\", "
+                + "\"alias\": \"" + alias + "\", \"git_ref\": \"" + gitRef + "\", "
+                + "\"status_code\": \"SUCCESS\", "
+                + "\"result\": {\"field_type\": \"chararray\"}}",
+                Describes.DescribeResult.class);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestTaskRunner {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private Describes describes;
+    private Illustrates illustrates;
+    private Validates validates;
+    private TaskRunner runner;
+
+    @Before
+    public void setUp() {
+        this.describes = mock(Describes.class);
+        this.illustrates = mock(Illustrates.class);
+        this.validates = mock(Validates.class);
+        this.runner = new TaskRunner(this.describes, this.illustrates, this.validates,
+                Executors.newScheduledThreadPool(1), true);
+        this.runner.setPollingDelay(1);
+    }
+
+    @After
+    public void tearDown() {
+        this.runner.shutdown();
+    }
+
+    @Test
+    public void testDescribePollsWithoutResultUntilComplete() throws Exception {
+        when(this.describes.postDescribe("a", HASH, "proj", "script")).thenReturn("d1");
+        when(this.describes.getDescribe("d1", true)).thenReturn(
+                describe("QUEUED", false), describe("PROGRESS", false),
+                describe("SUCCESS", false));
+        when(this.describes.getDescribe("d1", false)).thenReturn(describe("SUCCESS", true));
+
+        Describes.DescribeResult result =
+                this.runner.describe("a", HASH, "proj", "script").get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(TaskStatus.SUCCESS, result.getStatusCode());
+        verify(this.describes, times(3)).getDescribe("d1", true);
+        Assert.assertEquals(0, this.runner.getOutstandingTaskCount());
+
+        // the payload is only downloaded on access, and only once
+        verify(this.describes, never()).getDescribe("d1", false);
+        Assert.assertEquals("a", result.getResult().get("alias"));
+        Assert.assertEquals("a", result.getResult().get("alias"));
+        verify(this.describes, times(1)).getDescribe("d1", false);
+    }
+
+    @Test
+    public void testIllustratePrefetchesResult() throws Exception {
+        this.runner.setPrefetchResults(true);
+        when(this.illustrates.postIllustrate(null, HASH, "proj", "script")).thenReturn("i1");
+        when(this.illustrates.getIllustrate("i1", true)).thenReturn(illustrate(false));
+        final CountDownLatch fetched = new CountDownLatch(1);
+        when(this.illustrates.getIllustrate("i1", false)).thenAnswer(
+                new Answer<Illustrates.IllustrateResult>() {
+                    public Illustrates.IllustrateResult answer(InvocationOnMock invocation)
+                            throws IOException {
+                        fetched.countDown();
+                        return illustrate(true);
+                    }
+                });
+
+        this.runner.illustrate(null, HASH, "proj", "script").get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(fetched.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLazyResultRetriesAfterFailure() throws Exception {
+        when(this.describes.postDescribe("a", HASH, "proj", "script")).thenReturn("d1");
+        when(this.describes.getDescribe("d1", true)).thenReturn(describe("SUCCESS", false));
+        when(this.describes.getDescribe("d1", false))
+                .thenThrow(new IOException("boom"))
+                .thenReturn(describe("SUCCESS", true));
+
+        Describes.DescribeResult result =
+                this.runner.describe("a", HASH, "proj", "script").get(5, TimeUnit.SECONDS);
+        try {
+            result.getResult();
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals("a", result.getResult().get("alias"));
+    }
+
+    @Test
+    public void testDescribeServedFromCache() throws Exception {
+        when(this.describes.getCachedDescribe("a", HASH, "proj", "script"))
+                .thenReturn(describe("SUCCESS", true));
+
+        Describes.DescribeResult result =
+                this.runner.describe("a", HASH, "proj", "script").get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(TaskStatus.SUCCESS, result.getStatusCode());
+        verify(this.describes, never()).postDescribe("a", HASH, "proj", "script");
+    }
+
+    @Test
+    public void testValidateFailureIsAResult() throws Exception {
+        when(this.validates.postValidate(HASH, "proj", "script")).thenReturn("v1");
+        Validates.ValidateResult failure = API.JSON_FACTORY.fromString(
+                "{\"validate_id\": \"v1\", \"status_code\": \"FAILURE\"}",
+                Validates.ValidateResult.class);
+        when(this.validates.getValidate("v1")).thenReturn(failure);
+
+        Validates.ValidateResult result =
+                this.runner.validate(HASH, "proj", "script").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(TaskStatus.FAILURE, result.getStatusCode());
+        verify(this.validates, times(1)).getValidate("v1");
+    }
+
+    @Test
+    public void testSubmitErrorFailsFuture() throws Exception {
+        when(this.illustrates.postIllustrate(null, HASH, "proj", "script"))
+                .thenThrow(new IOException("boom"));
+        try {
+            this.runner.illustrate(null, HASH, "proj", "script").get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private Illustrates.IllustrateResult illustrate(boolean withResult) throws IOException {
+        return API.JSON_FACTORY.fromString("{\"illustrate_id\": \"i1\", "
+                + "\"status_code\": \"SUCCESS\""
+                + (withResult ? ", \"result\": {\"tables\": []}" : "") + "}",
+                Illustrates.IllustrateResult.class);
+    }
+
+    private Describes.DescribeResult describe(String status, boolean withResult)
+            throws IOException {
+        return API.JSON_FACTORY.fromString("{\"describe_id\": \"d1\", \"status_code\": \""
+                + status + "\"" + (withResult ? ", \"result\": {\"alias\": \"a\"}" : "") + "}",
+                Describes.DescribeResult.class);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mortardata.api.v2;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimeIndex {
+
+    @Test
+    public void testInsertAllMatchesSingleInserts() {
+        Random random = new Random(42);
+        TimeIndex single = new TimeIndex();
+        TimeIndex bulk = new TimeIndex();
+        for (int row = 0; row < 10; row++) {
+            single.insert(row * 10, row);
+            bulk.insert(row * 10, row);
+        }
+
+        // newest first with repeated times, including times already indexed
+        int count = 200;
+        long[] times = new long[count];
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = 100 - i / 2 - random.nextInt(3) * 10;
+            rows[i] = 10 + i;
+            single.insert(times[i], rows[i]);
+        }
+        bulk.insertAll(times, rows, count);
+
+        Assert.assertEquals(single.size(), bulk.size());
+        for (int i = 0; i < single.size(); i++) {
+            Assert.assertEquals(single.timeAt(i), bulk.timeAt(i));
+            Assert.assertEquals(single.rowAt(i), bulk.rowAt(i));
+        }
+    }
+}
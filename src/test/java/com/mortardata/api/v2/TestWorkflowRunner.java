@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mortardata.util.Files;
+import com.mortardata.util.Timestamps;
+
+public class TestWorkflowRunner {
+
+    private Jobs jobs;
+    private WorkflowRunner runner;
+    private List<JobRequest> posted;
+    private Map<String, Jobs.JobStatus> statuses;
+
+    @Before
+    public void setUp() throws IOException {
+        this.jobs = mock(Jobs.class);
+        this.runner = new WorkflowRunner(this.jobs);
+        this.runner.setPollingDelay(1);
+        this.posted = new ArrayList<JobRequest>();
+        this.statuses = new HashMap<String, Jobs.JobStatus>();
+        Answer<String> post = new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                JobRequest request = (JobRequest) invocation.getArguments()[0];
+                posted.add(request);
+                return "job-" + request.getScriptName();
+            }
+        };
+        when(this.jobs.postJob(any(JobRequest.class))).thenAnswer(post);
+        // used through the submitter when a checkpoint is set
+        when(this.jobs.postJobOnce(any(JobRequest.class))).thenAnswer(post);
+        when(this.jobs.getJobStatus(anyString())).thenAnswer(
+                new Answer<Jobs.JobStatus>() {
+                    public Jobs.JobStatus answer(InvocationOnMock invocation) {
+                        Jobs.JobStatus status = statuses.get(invocation.getArguments()[0]);
+                        return status == null ? Jobs.JobStatus.SUCCESS : status;
+                    }
+                });
+    }
+
+    @Test
+    public void testRunsIndependentBranchesAndPassesParameters() throws Exception {
+        Workflow workflow = new Workflow()
+                .addJob("extract", request("extract", "day", "2013-05-01"))
+                .addJob("left", request("left", "input", "${extract.job_id}"), "extract")
+                .addJob("right", request("right", "day", "${extract.day}"), "extract")
+                .addJob("join", request("join", "from", "${left.input}/${right.day}"),
+                        "left", "right");
+
+        WorkflowRunner.WorkflowResult result = this.runner.run(workflow);
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(4, this.posted.size());
+        Assert.assertEquals("extract", this.posted.get(0).getScriptName());
+        Assert.assertEquals("join", this.posted.get(3).getScriptName());
+        Assert.assertEquals("job-extract/2013-05-01",
+                this.posted.get(3).getParameters().get("from"));
+        // the workflow's own requests are untouched
+        Assert.assertEquals("${extract.job_id}",
+                workflow.getJobRequest("left").getParameters().get("input"));
+    }
+
+    @Test
+    public void testResumesFromCheckpointAfterFailure() throws Exception {
+        File checkpoint = new File(Files.createTempDirectory(), "workflow.properties");
+        this.runner.setCheckpoint(checkpoint);
+        Workflow workflow = new Workflow()
+                .addJob("a", request("a", "p", "1"))
+                .addJob("b", request("b", "p", "${a.job_id}"), "a")
+                .addJob("c", request("c", "p", "1"), "b");
+        this.statuses.put("job-b", Jobs.JobStatus.EXECUTION_ERROR);
+
+        WorkflowRunner.WorkflowResult failed = this.runner.run(workflow);
+        Assert.assertEquals(WorkflowRunner.NodeState.FAILED, failed.getState("b"));
+        Assert.assertEquals(WorkflowRunner.NodeState.SKIPPED, failed.getState("c"));
+
+        this.statuses.clear();
+        WorkflowRunner.WorkflowResult resumed = this.runner.run(workflow);
+        Assert.assertTrue(resumed.isSuccessful());
+        // a is not rerun, and b still sees its job_id
+        Assert.assertEquals(4, this.posted.size());
+        Assert.assertEquals("job-a", this.posted.get(2).getParameters().get("p"));
+        verify(this.jobs, times(1)).postJobOnce(this.posted.get(0));
+    }
+
+    @Test
+    public void testResumesFromNewCheckpointWhenReplaceWasInterrupted() throws Exception {
+        File checkpoint = new File(Files.createTempDirectory(), "workflow.properties");
+        this.runner.setCheckpoint(checkpoint);
+        Workflow workflow = new Workflow()
+                .addJob("a", request("a", "p", "1"))
+                .addJob("b", request("b", "p", "1"), "a");
+        this.statuses.put("job-b", Jobs.JobStatus.EXECUTION_ERROR);
+        Assert.assertFalse(this.runner.run(workflow).isSuccessful());
+
+        // crash after the old checkpoint was deleted but before the new one was renamed
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        Assert.assertTrue(checkpoint.renameTo(temp));
+        this.statuses.clear();
+        Assert.assertTrue(this.runner.run(workflow).isSuccessful());
+        // a is not posted again
+        Assert.assertEquals(3, this.posted.size());
+        Assert.assertEquals("b", this.posted.get(2).getScriptName());
+    }
+
+    @Test
+    public void testResumesNodeStoppedWhilePosting() throws Exception {
+        File checkpoint = new File(Files.createTempDirectory(), "workflow.properties");
+        this.runner.setCheckpoint(checkpoint);
+        Workflow workflow = new Workflow()
+                .addJob("a", request("a", "p", "1"))
+                .addJob("b", request("b", "p", "${a.job_id}"), "a");
+        // the API starts b, but the run stops before the job_id is checkpointed
+        final RuntimeException crash = new RuntimeException("crash");
+        doAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                JobRequest request = (JobRequest) invocation.getArguments()[0];
+                posted.add(request);
+                if ("b".equals(request.getScriptName())) {
+                    throw crash;
+                }
+                return "job-" + request.getScriptName();
+            }
+        }).when(this.jobs).postJobOnce(any(JobRequest.class));
+        try {
+            this.runner.run(workflow);
+            Assert.fail("Expected crash");
+        } catch (RuntimeException e) {
+            Assert.assertSame(crash, e);
+        }
+        when(this.jobs.getJobs(0, ClusterPool.DEFAULT_RECENT_JOBS_LIMIT)).thenReturn(
+                API.JSON_FACTORY.fromString("{\"jobs\": [{\"job_id\": \"job-b\", "
+                        + "\"project_name\": \"proj\", \"script_name\": \"b\", "
+                        + "\"script_parameters\": {\"p\": \"job-a\"}, "
+                        + "\"start_timestamp\": \""
+                        + Timestamps.format(System.currentTimeMillis()) + "\"}]}",
+                        Jobs.JobsList.class));
+
+        WorkflowRunner.WorkflowResult resumed = this.runner.run(workflow);
+        Assert.assertTrue(resumed.isSuccessful());
+        Assert.assertEquals("job-b", resumed.getJobId("b"));
+        // b was found by its submission key rather than posted again
+        Assert.assertEquals(2, this.posted.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsReferenceToNonDependency() {
+        new Workflow()
+                .addJob("a", request("a", "p", "1"))
+                .addJob("b", request("b", "p", "${a.p}"))
+                .validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCycle() {
+        new Workflow()
+                .addJob("a", request("a", "p", "1"), "b")
+                .addJob("b", request("b", "p", "1"), "a")
+                .validate();
+    }
+
+    private JobRequest request(String script, String name, String value) {
+        JobRequest request = new JobRequest("proj", script, "master", 2);
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(name, value);
+        request.setParameters(parameters);
+        return request;
+    }
+}
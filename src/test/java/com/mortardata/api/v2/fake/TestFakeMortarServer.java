@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.fake;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.http.HttpResponseException;
+import com.mortardata.api.v2.API;
+import com.mortardata.api.v2.Clusters;
+import com.mortardata.api.v2.Describes;
+import com.mortardata.api.v2.JobRequest;
+import com.mortardata.api.v2.Jobs;
+import com.mortardata.api.v2.TaskStatus;
+import com.mortardata.api.v2.Validates;
+import com.mortardata.api.v2.WebProjects;
+
+public class TestFakeMortarServer {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private FakeMortarServer server;
+    private API api;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new FakeMortarServer().start();
+        this.api = this.server.newApi();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testJobLifecycle() throws Exception {
+        this.server.setJobLifecycle(new JobLifecycle()
+                .then("starting_cluster", 200)
+                .then("running", 200)
+                .finish("execution_error"));
+        Jobs jobs = new Jobs(this.api);
+        String jobId = jobs.postJob(new JobRequest("proj", "script", HASH, 3));
+
+        Jobs.Job job = jobs.getJob(jobId);
+        Assert.assertEquals(Jobs.JobStatus.STARTING_CLUSTER, job.getStatusCode());
+        Clusters.Cluster cluster = new Clusters(this.api).getClusters().clusters.get(0);
+        Assert.assertEquals(job.getClusterId(), cluster.getClusterId());
+        Assert.assertEquals(Clusters.ClusterStatus.STARTING, cluster.getStatusCode());
+        Assert.assertEquals(3, cluster.getSize());
+
+        Thread.sleep(500);
+        job = jobs.getJob(jobId);
+        Assert.assertEquals(Jobs.JobStatus.EXECUTION_ERROR, job.getStatusCode());
+        Assert.assertEquals(100, job.getProgress().intValue());
+        Assert.assertNotNull(job.getStopTimestamp());
+        Assert.assertEquals(1, jobs.getJobs().jobs.size());
+        Assert.assertEquals(4, this.server.getRequestCount("jobs"));
+    }
+
+    @Test
+    public void testGetJobsPagesNewestFirst() throws Exception {
+        Jobs jobs = new Jobs(this.api);
+        String[] jobIds = new String[5];
+        for (int i = 0; i < jobIds.length; i++) {
+            jobIds[i] = jobs.postJob(new JobRequest("proj", "script" + i, HASH, 2));
+        }
+
+        List<Jobs.Job> page = jobs.getJobs(1, 2).jobs;
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(jobIds[3], page.get(0).getJobId());
+        Assert.assertEquals(jobIds[2], page.get(1).getJobId());
+        page = jobs.getJobs(4, 10).jobs;
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals(jobIds[0], page.get(0).getJobId());
+        Assert.assertEquals(0, jobs.getJobs(10, 5).jobs.size());
+        Assert.assertEquals(5, jobs.getJobs().jobs.size());
+    }
+
+    @Test
+    public void testStopJobOnExistingCluster() throws Exception {
+        this.server.addCluster("c1", 2, "persistent");
+        Jobs jobs = new Jobs(this.api);
+        String jobId = jobs.postJob(new JobRequest("proj", "script", HASH, "c1"));
+        Assert.assertEquals("c1", jobs.getJob(jobId).getClusterId());
+
+        jobs.stopJob(jobId);
+        Assert.assertEquals(Jobs.JobStatus.STOPPED, jobs.getJobStatus(jobId));
+        Clusters.Cluster cluster = new Clusters(this.api).getClusters().clusters.get(0);
+        Assert.assertEquals(Clusters.ClusterStatus.RUNNING, cluster.getStatusCode());
+        Assert.assertEquals(2, cluster.getLiveTaskTrackerCount());
+        Assert.assertEquals("tt0", cluster.getTaskTrackerList().get(0).getHost());
+        Assert.assertEquals(2, cluster.getTaskTrackers().get(1).size());
+
+        try {
+            jobs.postJob(new JobRequest("proj", "script", HASH, "missing"));
+            Assert.fail("Expected HttpResponseException");
+        } catch (HttpResponseException e) {
+            Assert.assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testValidates() throws Exception {
+        this.server.setTaskMillis(0);
+        this.server.failValidation("bad");
+        Validates validates = new Validates(this.api);
+        Assert.assertEquals(TaskStatus.SUCCESS, validates.getValidate(
+                validates.postValidate(HASH, "proj", "good")).getStatusCode());
+        Assert.assertEquals(TaskStatus.FAILURE, validates.getValidate(
+                validates.postValidate(HASH, "proj", "bad")).getStatusCode());
+    }
+
+    @Test
+    public void testDescribeExcludeResult() throws Exception {
+        this.server.setTaskMillis(0);
+        Describes describes = new Describes(this.api);
+        String describeId = describes.postDescribe("a", HASH, "proj", "script");
+        Assert.assertNotNull(describes.getDescribe(describeId).getResult());
+        Describes.DescribeResult excluded = describes.getDescribe(describeId, true);
+        Assert.assertEquals(TaskStatus.SUCCESS, excluded.getStatusCode());
+        Assert.assertNull(excluded.getResult());
+    }
+
+    @Test
+    public void testWebProjects() throws Exception {
+        WebProjects webProjects = new WebProjects(this.api);
+        webProjects.createOrUpdateWebProject(new WebProjects.WebProject("wp", "a = load 'x';"));
+        Assert.assertEquals("a = load 'x';",
+                webProjects.getWebProject("wp").getPigContents());
+        Assert.assertEquals(1, webProjects.getWebProjects().webProjects.size());
+    }
+
+    @Test
+    public void testInjectedErrorsAreRetried() throws Exception {
+        this.server.failNext("clusters", 1, 503);
+        Assert.assertEquals(0, new Clusters(this.api).getClusters().clusters.size());
+        Assert.assertEquals(2, this.server.getRequestCount("clusters"));
+    }
+
+    @Test
+    public void testThrottling() throws Exception {
+        this.server.setRateLimit(1, 7);
+        Clusters clusters = new Clusters(this.api);
+        clusters.getClusters();
+        try {
+            clusters.getClusters();
+            Assert.fail("Expected HttpResponseException");
+        } catch (HttpResponseException e) {
+            Assert.assertEquals(FakeMortarServer.STATUS_TOO_MANY_REQUESTS, e.getStatusCode());
+            Assert.assertEquals("7", e.getHeaders().getFirstHeaderStringValue("Retry-After"));
+        }
+        Assert.assertEquals(1, this.server.getThrottledCount());
+    }
+
+    @Test
+    public void testLatencyDistributions() {
+        Random random = new Random(0);
+        Assert.assertEquals(5, LatencyDistribution.fixed(5).nextMillis(random));
+        LatencyDistribution uniform = LatencyDistribution.uniform(10, 20);
+        LatencyDistribution logNormal = LatencyDistribution.logNormal(50, 500);
+        int aboveMedian = 0;
+        for (int i = 0; i < 1000; i++) {
+            long millis = uniform.nextMillis(random);
+            Assert.assertTrue(millis >= 10 && millis <= 20);
+            if (logNormal.nextMillis(random) > 50) {
+                aboveMedian++;
+            }
+        }
+        Assert.assertTrue(aboveMedian > 400 && aboveMedian < 600);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import javax.management.ReflectionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.api.client.http.HttpResponseException;
+import com.mortardata.api.v2.API;
+import com.mortardata.api.v2.Jobs;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestInProcessMetrics {
+
+    @Test
+    public void testSnapshotPerResourceAndMethod() {
+        InProcessMetrics metrics = new InProcessMetrics();
+        for (int i = 1; i <= 1000; i++) {
+            metrics.recordRequest("jobs", "GET", 200, i * 1000000L, 100, 0);
+        }
+        metrics.recordRequest("jobs", "POST", 503, 5000000L, -1, 2);
+        metrics.recordRequest("clusters", "GET", 0, 1000L, -1, 0);
+
+        List<EndpointSnapshot> snapshots = metrics.snapshot();
+        Assert.assertEquals(3, snapshots.size());
+        Assert.assertEquals("clusters", snapshots.get(0).getResource());
+        Assert.assertEquals(1, snapshots.get(0).getErrorCount());
+
+        EndpointSnapshot get = snapshots.get(1);
+        Assert.assertEquals("GET", get.getMethod());
+        Assert.assertEquals(1000, get.getStatusCount(2));
+        Assert.assertEquals(100000, get.getResponseBytes());
+        assertWithin(500000000L, get.getLatencyQuantile(0.5), 0.07);
+        assertWithin(990000000L, get.getLatencyQuantile(0.99), 0.07);
+        Assert.assertEquals(1000000000L, get.getLatencyMax());
+
+        EndpointSnapshot post = snapshots.get(2);
+        Assert.assertEquals(1, post.getErrorCount());
+        Assert.assertEquals(2, post.getRetryCount());
+    }
+
+    @Test
+    public void testPrometheusText() {
+        InProcessMetrics metrics = new InProcessMetrics();
+        metrics.recordRequest("jobs", "GET", 200, 2000000000L, 10, 1);
+        String text = new PrometheusTextExporter(metrics).format();
+        Assert.assertTrue(text, text.contains("# TYPE mortar_api_requests_total counter\n"));
+        Assert.assertTrue(text, text.contains(
+                "mortar_api_requests_total{resource=\"jobs\",method=\"GET\",status=\"2xx\"} 1\n"));
+        Assert.assertTrue(text, text.contains(
+                "mortar_api_retries_total{resource=\"jobs\",method=\"GET\"} 1\n"));
+        Assert.assertTrue(text, text.contains(
+                "mortar_api_request_duration_seconds_sum{resource=\"jobs\",method=\"GET\"} 2.0\n"));
+    }
+
+    @Test
+    public void testJmxAttributesAreReadOnly() throws Exception {
+        InProcessMetrics metrics = new InProcessMetrics();
+        metrics.recordRequest("jobs", "GET", 200, 2000000L, 10, 0);
+        JmxExporter exporter = new JmxExporter(metrics, "com.mortardata.api:type=Test");
+        Assert.assertEquals(1L, exporter.getAttribute("jobs.GET.requestCount"));
+        try {
+            exporter.invoke("reset", new Object[0], new String[0]);
+            Assert.fail("Expected ReflectionException");
+        } catch (ReflectionException e) {
+            Assert.assertTrue(e.getTargetException() instanceof NoSuchMethodException);
+        }
+    }
+
+    @Test
+    public void testApiRecordsCalls() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v2/jobs/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            API api = new API("email", "key", "http",
+                    "localhost:" + server.getAddress().getPort());
+            InProcessMetrics metrics = new InProcessMetrics();
+            api.setMetrics(metrics);
+            try {
+                new Jobs(api).getJob("missing");
+                Assert.fail("Expected HttpResponseException");
+            } catch (HttpResponseException e) {
+                Assert.assertEquals(404, e.getStatusCode());
+            }
+            EndpointSnapshot snapshot = metrics.snapshot().get(0);
+            Assert.assertEquals("jobs", snapshot.getResource());
+            Assert.assertEquals("GET", snapshot.getMethod());
+            Assert.assertEquals(1, snapshot.getStatusCount(4));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void assertWithin(long expected, long actual, double relativeError) {
+        Assert.assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected * relativeError);
+    }
+}
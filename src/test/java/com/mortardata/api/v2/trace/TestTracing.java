@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.api.v2.trace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mortardata.api.v2.API;
+import com.mortardata.api.v2.Jobs;
+import com.mortardata.util.Instrumentation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestTracing {
+
+    private HttpServer server;
+    private API api;
+    private List<String> traceparents = new ArrayList<String>();
+    private List<Span> spans = new ArrayList<Span>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/v2/jobs/j1", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                traceparents.add(exchange.getRequestHeaders().getFirst("traceparent"));
+                byte[] body = "{\"job_id\": \"j1\", \"status_code\": \"success\"}"
+                        .getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.server.start();
+        this.api = new API("email", "key", "http",
+                "localhost:" + this.server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+        TraceContext.attach(null);
+    }
+
+    @Test
+    public void testParseAndFormat() {
+        String header = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+        TraceContext context = TraceContext.parse(header);
+        Assert.assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", context.getTraceId());
+        Assert.assertEquals("00f067aa0ba902b7", context.getSpanId());
+        Assert.assertTrue(context.isSampled());
+        Assert.assertEquals(header, context.toTraceparent());
+
+        TraceContext child = context.newChild();
+        Assert.assertEquals(context.getTraceId(), child.getTraceId());
+        Assert.assertFalse(context.getSpanId().equals(child.getSpanId()));
+        Assert.assertEquals(child.toTraceparent(),
+                TraceContext.parse(child.toTraceparent()).toTraceparent());
+
+        Assert.assertNull(TraceContext.parse("00-4bf92f3577b34da6-00f067aa0ba902b7-01"));
+        Assert.assertNull(TraceContext.parse(
+                "00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+        Assert.assertFalse(TraceContext.parse(
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00").isSampled());
+    }
+
+    @Test
+    public void testPropagatesCurrentContext() throws Exception {
+        this.api.addInterceptor(new TraceparentPropagator());
+        new Jobs(this.api).getJob("j1");
+        Assert.assertNull(this.traceparents.get(0));
+
+        TraceContext root = TraceContext.newRoot();
+        TraceContext.attach(root);
+        new Jobs(this.api).getJob("j1");
+        Assert.assertEquals(root.toTraceparent(), this.traceparents.get(1));
+    }
+
+    @Test
+    public void testPollsAndRequestsAreChildSpans() throws Exception {
+        this.api.addInterceptor(new TraceparentPropagator());
+        this.api.setInstrumentation(new TracingInstrumentation(new SpanReporter() {
+            public void report(Span span) {
+                spans.add(span);
+            }
+        }));
+        TraceContext root = TraceContext.newRoot();
+        TraceContext.attach(root);
+
+        Assert.assertEquals(Jobs.JobStatus.SUCCESS,
+                new Jobs(this.api).blockUntilJobComplete("j1"));
+
+        Assert.assertEquals(2, this.spans.size());
+        Span request = this.spans.get(0);
+        Span poll = this.spans.get(1);
+        Assert.assertEquals(Instrumentation.API_REQUEST, request.getName());
+        Assert.assertEquals(Instrumentation.POLL, poll.getName());
+        Assert.assertEquals(root.getTraceId(), poll.getTraceId());
+        Assert.assertEquals(root.getSpanId(), poll.getParentSpanId());
+        Assert.assertEquals(poll.getSpanId(), request.getParentSpanId());
+        Assert.assertEquals("jobs", request.getAttributes().get("resource"));
+
+        // the server sees the request's span as its parent
+        Assert.assertEquals(request.getContext().toTraceparent(), this.traceparents.get(0));
+        // and the caller's context is restored
+        Assert.assertSame(root, TraceContext.current());
+    }
+}
@@ -24,6 +24,7 @@ import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
@@ -220,6 +221,30 @@ public class TestEmbeddedMortarProject extends RepositoryTestCase {
         assertCleanTree();
     }
 
+    @Test
+    public void testGetPigscriptNames() throws IOException {
+        EmbeddedMortarProject e = new EmbeddedMortarProject(this.rootPath, this.remoteURLHttps);
+        String[] manifestDirs = {"pigscripts", "controlscripts", "udfs"};
+        writeManifestFile(manifestDirs);
+
+        write(new File(this.pigscripts, "b_rollup.pig"), "b");
+        write(new File(this.pigscripts, "a_load.pig"), "a");
+        write(new File(this.pigscripts, "notes.txt"), "not a pigscript");
+        write(new File(this.controlscripts, "control.py"), "not a pigscript");
+
+        Assert.assertEquals(Arrays.asList("a_load", "b_rollup"), e.getPigscriptNames());
+    }
+
+    @Test
+    public void testGetPigscriptNamesNotInManifest() throws IOException {
+        EmbeddedMortarProject e = new EmbeddedMortarProject(this.rootPath, this.remoteURLHttps);
+        String[] manifestDirs = {"controlscripts", "udfs"};
+        writeManifestFile(manifestDirs);
+        write(new File(this.pigscripts, "a_load.pig"), "a");
+
+        Assert.assertTrue(e.getPigscriptNames().isEmpty());
+    }
+
     protected void assertCleanTree() throws GitAPIException {
         Status status = this.git.status().call();
         Assert.assertTrue("Expected no files in the status; got: " + status.toString(),
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.project;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mortardata.api.v2.ResultFuture;
+import com.mortardata.api.v2.TaskRunner;
+import com.mortardata.api.v2.TaskStatus;
+import com.mortardata.api.v2.Validates.ValidateResult;
+
+public class TestProjectValidator {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private TaskRunner taskRunner;
+    private ProjectValidator validator;
+    private ScheduledExecutorService completer;
+
+    @Before
+    public void setUp() {
+        this.taskRunner = mock(TaskRunner.class);
+        this.validator = new ProjectValidator(this.taskRunner);
+        this.completer = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        this.completer.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrencyLimitIsHonored() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        when(this.taskRunner.validate(eq(HASH), eq("proj"), anyString())).thenAnswer(
+                new Answer<ResultFuture<ValidateResult>>() {
+                    public ResultFuture<ValidateResult> answer(InvocationOnMock invocation)
+                            throws Throwable {
+                        int running = inFlight.incrementAndGet();
+                        synchronized (maxInFlight) {
+                            maxInFlight.set(Math.max(maxInFlight.get(), running));
+                        }
+                        final ScriptedValidate validate = new ScriptedValidate();
+                        completer.schedule(new Runnable() {
+                            public void run() {
+                                inFlight.decrementAndGet();
+                                validate.succeed(TaskStatus.SUCCESS);
+                            }
+                        }, 20, TimeUnit.MILLISECONDS);
+                        return validate.future;
+                    }
+                });
+        this.validator.setMaxConcurrentValidations(2);
+
+        ValidationReport report = this.validator.validate(
+                Arrays.asList("a", "b", "c", "d", "e"), "proj", HASH);
+
+        Assert.assertEquals(2, maxInFlight.get());
+        Assert.assertTrue(report.isSuccess());
+        Assert.assertEquals(5, report.getValidations().size());
+        Assert.assertEquals("e", report.getValidations().get(4).getPigscriptName());
+    }
+
+    @Test
+    public void testStopOnFirstFailureCancelsOutstanding() throws Exception {
+        final ScriptedValidate a = new ScriptedValidate();
+        final ScriptedValidate b = new ScriptedValidate();
+        when(this.taskRunner.validate(HASH, "proj", "a")).thenReturn(a.future);
+        when(this.taskRunner.validate(HASH, "proj", "b")).thenAnswer(
+                new Answer<ResultFuture<ValidateResult>>() {
+                    public ResultFuture<ValidateResult> answer(InvocationOnMock invocation) {
+                        // fail a only once b is in flight, so b must be cancelled
+                        completer.schedule(new Runnable() {
+                            public void run() {
+                                a.succeed(TaskStatus.FAILURE);
+                            }
+                        }, 20, TimeUnit.MILLISECONDS);
+                        return b.future;
+                    }
+                });
+        this.validator.setMaxConcurrentValidations(2);
+        this.validator.setStopOnFirstFailure(true);
+
+        ValidationReport report = this.validator.validate(
+                Arrays.asList("a", "b", "c", "d"), "proj", HASH);
+
+        verify(b.future).cancel(false);
+        verify(this.taskRunner, never()).validate(HASH, "proj", "c");
+        Assert.assertFalse(report.isSuccess());
+        Assert.assertEquals(2, report.getValidations().size());
+        Assert.assertEquals(TaskStatus.FAILURE,
+                report.getValidations().get(0).getResult().getStatusCode());
+        Assert.assertTrue(report.getValidations().get(1).getError()
+                instanceof CancellationException);
+        Assert.assertEquals(Arrays.asList("c", "d"), report.getSkippedScripts());
+    }
+
+    @Test
+    public void testReportAggregatesEachScript() throws Exception {
+        final ScriptedValidate slow = new ScriptedValidate();
+        ScriptedValidate failed = new ScriptedValidate();
+        ScriptedValidate broken = new ScriptedValidate();
+        when(this.taskRunner.validate(HASH, "proj", "ok")).thenAnswer(
+                new Answer<ResultFuture<ValidateResult>>() {
+                    public ResultFuture<ValidateResult> answer(InvocationOnMock invocation) {
+                        completer.schedule(new Runnable() {
+                            public void run() {
+                                slow.succeed(TaskStatus.SUCCESS);
+                            }
+                        }, 50, TimeUnit.MILLISECONDS);
+                        return slow.future;
+                    }
+                });
+        when(this.taskRunner.validate(HASH, "proj", "bad")).thenReturn(failed.future);
+        when(this.taskRunner.validate(HASH, "proj", "gone")).thenReturn(broken.future);
+        failed.succeed(TaskStatus.FAILURE);
+        broken.fail(new IOException("validate lost"));
+
+        ValidationReport report = this.validator.validate(
+                Arrays.asList("ok", "bad", "gone"), "proj", HASH);
+
+        Assert.assertFalse(report.isSuccess());
+        Assert.assertTrue(report.getSkippedScripts().isEmpty());
+        Assert.assertEquals(3, report.getValidations().size());
+        ValidationReport.ScriptValidation ok = report.getValidations().get(0);
+        Assert.assertEquals("ok", ok.getPigscriptName());
+        Assert.assertTrue(ok.isSuccess());
+        Assert.assertTrue(ok.getLatencyMillis() >= 40);
+        Assert.assertTrue(report.getElapsedMillis() >= ok.getLatencyMillis());
+        Assert.assertEquals(2, report.getFailures().size());
+        Assert.assertEquals("bad", report.getFailures().get(0).getPigscriptName());
+        Assert.assertNull(report.getFailures().get(0).getError());
+        Assert.assertEquals("gone", report.getFailures().get(1).getPigscriptName());
+        Assert.assertNull(report.getFailures().get(1).getResult());
+        Assert.assertEquals("validate lost", report.getFailures().get(1).getError().getMessage());
+    }
+
+    /**
+     * A mocked validate future, completed by the test.
+     */
+    private static class ScriptedValidate {
+
+        @SuppressWarnings("unchecked")
+        final ResultFuture<ValidateResult> future = mock(ResultFuture.class);
+        private ResultFuture.Callback<ValidateResult> callback;
+        private boolean done;
+        private ValidateResult result;
+        private Throwable error;
+
+        @SuppressWarnings("unchecked")
+        ScriptedValidate() {
+            doAnswer(new Answer<Void>() {
+                public Void answer(InvocationOnMock invocation) {
+                    addCallback((ResultFuture.Callback<ValidateResult>)
+                            invocation.getArguments()[0]);
+                    return null;
+                }
+            }).when(this.future).addCallback(any(ResultFuture.Callback.class));
+            try {
+                when(this.future.get()).thenAnswer(new Answer<ValidateResult>() {
+                    public ValidateResult answer(InvocationOnMock invocation) throws Throwable {
+                        return get();
+                    }
+                });
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            doAnswer(new Answer<Boolean>() {
+                public Boolean answer(InvocationOnMock invocation) {
+                    return finish(null, new CancellationException());
+                }
+            }).when(this.future).cancel(anyBoolean());
+        }
+
+        void succeed(TaskStatus status) {
+            ValidateResult result = mock(ValidateResult.class);
+            when(result.getStatusCode()).thenReturn(status);
+            finish(result, null);
+        }
+
+        void fail(Throwable cause) {
+            finish(null, cause);
+        }
+
+        private boolean finish(ValidateResult result, Throwable error) {
+            ResultFuture.Callback<ValidateResult> toNotify;
+            synchronized (this) {
+                if (this.done) {
+                    return false;
+                }
+                this.done = true;
+                this.result = result;
+                this.error = error;
+                toNotify = this.callback;
+            }
+            if (toNotify != null) {
+                notify(toNotify);
+            }
+            return true;
+        }
+
+        private void addCallback(ResultFuture.Callback<ValidateResult> callback) {
+            synchronized (this) {
+                this.callback = callback;
+                if (!this.done) {
+                    return;
+                }
+            }
+            notify(callback);
+        }
+
+        private void notify(ResultFuture.Callback<ValidateResult> callback) {
+            if (this.error == null) {
+                callback.onSuccess(this.result);
+            } else {
+                callback.onFailure(this.error);
+            }
+        }
+
+        private synchronized ValidateResult get() throws ExecutionException {
+            if (this.error instanceof CancellationException) {
+                throw (CancellationException) this.error;
+            }
+            if (this.error != null) {
+                throw new ExecutionException(this.error);
+            }
+            return this.result;
+        }
+    }
+}
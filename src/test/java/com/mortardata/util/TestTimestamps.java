@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 Mortar Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mortardata.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimestamps {
+
+    private static final long MILLIS = 1368559588123L;
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(MILLIS, Timestamps.parse("2013-05-14T19:26:28.123456+00:00"));
+        Assert.assertEquals(MILLIS, Timestamps.parse("2013-05-14T19:26:28.123Z"));
+        Assert.assertEquals(MILLIS, Timestamps.parse("2013-05-14 19:26:28.123"));
+        Assert.assertEquals(MILLIS, Timestamps.parse("2013-05-14T21:26:28.123+02:00"));
+        Assert.assertEquals(MILLIS - 123, Timestamps.parse("2013-05-14T14:26:28-0500"));
+        Assert.assertEquals(MILLIS - 23, Timestamps.parse("2013-05-14T19:26:28.1"));
+    }
+
+    @Test
+    public void testFormatRoundTrips() {
+        Assert.assertEquals("2013-05-14T19:26:28.123+00:00", Timestamps.format(MILLIS));
+        Assert.assertEquals(MILLIS, Timestamps.parse(Timestamps.format(MILLIS)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsMalformed() {
+        Timestamps.parse("May 14, 2013");
+    }
+}